@@ -34,4 +34,12 @@ interface AccountAuthenticationCredentialsStoreType {
    */
 
   fun size(): Int
+
+  /**
+   * Ensure that all changes made to the store so far have been written to persistent
+   * storage. Stores that write changes immediately need not override this method.
+   */
+
+  fun flush() {
+  }
 }
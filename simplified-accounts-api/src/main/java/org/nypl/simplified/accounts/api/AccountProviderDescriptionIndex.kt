@@ -0,0 +1,320 @@
+package org.nypl.simplified.accounts.api
+
+import java.text.Normalizer
+import java.util.Locale
+import kotlin.math.asin
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * An immutable search index over a set of account provider descriptions.
+ *
+ * The index contains a sorted table of the tokens that appear in the titles of the
+ * descriptions, for type-ahead searches by name, and a grid of the locations of the
+ * descriptions, for searches by distance. Indexes are expensive to build relative to the
+ * cost of a search, and so should be built once per set of descriptions.
+ */
+
+class AccountProviderDescriptionIndex private constructor(
+
+  /**
+   * The indexed descriptions, in the order in which they were given.
+   */
+
+  val descriptions: List<AccountProviderDescription>,
+  private val tokens: Array<String>,
+  private val postings: Array<IntArray>,
+  private val cells: Map<Long, IntArray>
+) {
+
+  /**
+   * Find the descriptions whose titles match the given text. Each word in the text must be
+   * a prefix of a word in the title, ignoring case and accents, and so "sprin pub" matches
+   * "Springfield Public Library".
+   *
+   * @return The matching descriptions, in the order in which they were given, or all of
+   * the descriptions if the text contains no words
+   */
+
+  fun matchingName(text: String): List<AccountProviderDescription> =
+    this.matchingNameIndices(text).map(this.descriptions::get)
+
+  /**
+   * Find the descriptions with locations that are nearest to the given location. The
+   * distance of each returned description from the location is set.
+   *
+   * @return At most `limit` descriptions, nearest first
+   */
+
+  fun nearest(
+    location: AccountGeoLocation,
+    limit: Int
+  ): List<AccountProviderDescription> =
+    this.nearestTo(location, limit) { true }
+
+  /**
+   * Evaluate the given query. Descriptions are matched by name if the query includes
+   * search text, and testing libraries are excluded unless the query includes them. If the
+   * query includes a location, then matching descriptions with locations are returned
+   * nearest first (with their distances set), followed by any matching descriptions that
+   * have no location.
+   *
+   * @return At most `limit` matching descriptions
+   */
+
+  fun search(
+    query: AccountSearchQuery,
+    limit: Int = Int.MAX_VALUE
+  ): List<AccountProviderDescription> {
+    val matching = this.matchingNameIndices(query.searchQuery)
+    val included =
+      if (query.includeTestingLibraries) {
+        matching
+      } else {
+        matching.filter { index -> this.descriptions[index].isProduction }
+      }
+
+    val location = query.location
+    if (location == null) {
+      return included.asSequence()
+        .take(limit)
+        .map(this.descriptions::get)
+        .toList()
+    }
+
+    val includedSet = included.toHashSet()
+    val nearest = this.nearestTo(location, limit) { index -> index in includedSet }
+    if (nearest.size >= limit) {
+      return nearest
+    }
+
+    val unlocated =
+      included.asSequence()
+        .map(this.descriptions::get)
+        .filter { description -> description.location == null }
+        .take(limit - nearest.size)
+    return nearest + unlocated
+  }
+
+  private fun matchingNameIndices(text: String): List<Int> {
+    val words = tokenize(text)
+    if (words.isEmpty()) {
+      return this.descriptions.indices.toList()
+    }
+
+    var result: Set<Int>? = null
+    for (word in words.distinct()) {
+      val matches = this.prefixMatches(word)
+      result = result?.intersect(matches) ?: matches
+      if (result.isEmpty()) {
+        return listOf()
+      }
+    }
+    return result!!.sorted()
+  }
+
+  private fun prefixMatches(prefix: String): Set<Int> {
+    var low = 0
+    var high = this.tokens.size
+    while (low < high) {
+      val middle = (low + high) ushr 1
+      if (this.tokens[middle] < prefix) {
+        low = middle + 1
+      } else {
+        high = middle
+      }
+    }
+
+    val matches = HashSet<Int>()
+    var index = low
+    while (index < this.tokens.size && this.tokens[index].startsWith(prefix)) {
+      this.postings[index].forEach { matches.add(it) }
+      ++index
+    }
+    return matches
+  }
+
+  /**
+   * Find the nearest descriptions by examining rings of grid cells of increasing size around
+   * the cell containing the location, stopping once no unexamined cell can contain a closer
+   * description than those already found.
+   */
+
+  private fun nearestTo(
+    location: AccountGeoLocation,
+    limit: Int,
+    include: (Int) -> Boolean
+  ): List<AccountProviderDescription> {
+    if (limit <= 0 || this.cells.isEmpty()) {
+      return listOf()
+    }
+
+    val origin = location as AccountGeoLocation.Coordinates
+    val originLat = latitudeCellOf(origin.latitude)
+    val originLon = longitudeCellOf(origin.longitude)
+    val found = mutableListOf<Pair<Double, Int>>()
+    val visited = HashSet<Long>()
+    var visitedOccupied = 0
+    val maximumRing = LATITUDE_CELLS + LONGITUDE_CELLS
+
+    for (ring in 0..maximumRing) {
+      for (latCell in (originLat - ring)..(originLat + ring)) {
+        if (latCell < 0 || latCell >= LATITUDE_CELLS) {
+          continue
+        }
+        val onEdge = latCell == originLat - ring || latCell == originLat + ring
+        val step = if (onEdge || ring == 0) 1 else 2 * ring
+        var lonCell = originLon - ring
+        while (lonCell <= originLon + ring) {
+          val key = cellKey(latCell, Math.floorMod(lonCell, LONGITUDE_CELLS))
+          val cell = this.cells[key]
+          if (cell != null && visited.add(key)) {
+            ++visitedOccupied
+            for (index in cell) {
+              if (include(index)) {
+                val coordinates =
+                  this.descriptions[index].location!!.location as AccountGeoLocation.Coordinates
+                found.add(Pair(distanceKilometers(origin, coordinates), index))
+              }
+            }
+          }
+          lonCell += step
+        }
+      }
+
+      if (visitedOccupied == this.cells.size) {
+        break
+      }
+      if (found.size >= limit) {
+        found.sortBy { it.first }
+        if (found[limit - 1].first <= lowerBoundOutside(origin, ring)) {
+          break
+        }
+      }
+    }
+
+    found.sortBy { it.first }
+    return found.asSequence()
+      .take(limit)
+      .map { (distance, index) ->
+        val description = this.descriptions[index]
+        description.copy(
+          location = description.location!!.copy(
+            distance = AccountDistance(distance, AccountDistanceUnit.KILOMETERS)
+          )
+        )
+      }
+      .toList()
+  }
+
+  companion object {
+
+    private const val EARTH_RADIUS_KILOMETERS = 6371.0088
+    private const val CELL_DEGREES = 1.0
+    private val LATITUDE_CELLS = (180.0 / CELL_DEGREES).toInt()
+    private val LONGITUDE_CELLS = (360.0 / CELL_DEGREES).toInt()
+
+    /**
+     * Build an index of the given descriptions.
+     */
+
+    fun create(descriptions: Collection<AccountProviderDescription>): AccountProviderDescriptionIndex {
+      val list = descriptions.toList()
+      val tokenPostings = HashMap<String, MutableList<Int>>()
+      val cellContents = HashMap<Long, MutableList<Int>>()
+
+      list.forEachIndexed { index, description ->
+        for (token in tokenize(description.title).distinct()) {
+          tokenPostings.getOrPut(token) { mutableListOf() }.add(index)
+        }
+
+        val coordinates = description.location?.location as AccountGeoLocation.Coordinates?
+        if (coordinates != null) {
+          val key =
+            cellKey(latitudeCellOf(coordinates.latitude), longitudeCellOf(coordinates.longitude))
+          cellContents.getOrPut(key) { mutableListOf() }.add(index)
+        }
+      }
+
+      val tokens = tokenPostings.keys.sorted().toTypedArray()
+      return AccountProviderDescriptionIndex(
+        descriptions = list,
+        tokens = tokens,
+        postings = Array(tokens.size) { index -> tokenPostings[tokens[index]]!!.toIntArray() },
+        cells = cellContents.mapValues { entry -> entry.value.toIntArray() }
+      )
+    }
+
+    private val NON_WORD = Regex("[^\\p{L}\\p{N}]+")
+    private val MARKS = Regex("\\p{M}+")
+
+    /**
+     * Split text into lower case words without accents.
+     */
+
+    private fun tokenize(text: String): List<String> {
+      val normalized =
+        Normalizer.normalize(text, Normalizer.Form.NFD)
+          .replace(MARKS, "")
+          .lowercase(Locale.ROOT)
+      return normalized.split(NON_WORD).filter { it.isNotEmpty() }
+    }
+
+    private fun latitudeCellOf(latitude: Double): Int =
+      floor((latitude.coerceIn(-90.0, 90.0) + 90.0) / CELL_DEGREES).toInt()
+        .coerceAtMost(LATITUDE_CELLS - 1)
+
+    private fun longitudeCellOf(longitude: Double): Int =
+      Math.floorMod(floor((longitude + 180.0) / CELL_DEGREES).toInt(), LONGITUDE_CELLS)
+
+    private fun cellKey(
+      latCell: Int,
+      lonCell: Int
+    ): Long =
+      (latCell.toLong() shl 32) or lonCell.toLong()
+
+    /**
+     * The great-circle distance between two locations, using the haversine formula.
+     */
+
+    fun distanceKilometers(
+      from: AccountGeoLocation.Coordinates,
+      to: AccountGeoLocation.Coordinates
+    ): Double {
+      val lat0 = Math.toRadians(from.latitude)
+      val lat1 = Math.toRadians(to.latitude)
+      val deltaLat = lat1 - lat0
+      val deltaLon = Math.toRadians(to.longitude - from.longitude)
+      val sinLat = sin(deltaLat / 2.0)
+      val sinLon = sin(deltaLon / 2.0)
+      val h = sinLat * sinLat + cos(lat0) * cos(lat1) * sinLon * sinLon
+      return 2.0 * EARTH_RADIUS_KILOMETERS * asin(min(1.0, sqrt(h)))
+    }
+
+    /**
+     * A lower bound on the distance from the given location to any location in a cell
+     * outside the given ring of cells around it. Such a location differs from the given
+     * location by at least `ring` cells of latitude or of longitude.
+     */
+
+    private fun lowerBoundOutside(
+      origin: AccountGeoLocation.Coordinates,
+      ring: Int
+    ): Double {
+      val degrees = ring * CELL_DEGREES
+      val byLatitude = EARTH_RADIUS_KILOMETERS * Math.toRadians(degrees)
+
+      val maximumLatitude = min(90.0, Math.abs(origin.latitude) + (ring + 1) * CELL_DEGREES)
+      val deltaLon = Math.toRadians(min(degrees, 180.0))
+      val byLongitude =
+        2.0 * EARTH_RADIUS_KILOMETERS *
+          asin(min(1.0, max(0.0, cos(Math.toRadians(maximumLatitude))) * sin(deltaLon / 2.0)))
+
+      return min(byLatitude, byLongitude)
+    }
+  }
+}
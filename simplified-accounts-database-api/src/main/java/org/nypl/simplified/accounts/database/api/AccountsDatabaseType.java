@@ -60,4 +60,16 @@ public interface AccountsDatabaseType {
   AccountID deleteAccountByProvider(
     URI account_provider)
     throws AccountsDatabaseException;
+
+  /**
+   * Write any account data that is currently only held in memory, and wait for the writes
+   * to complete. The default implementation does nothing.
+   *
+   * @throws AccountsDatabaseException On write errors
+   */
+
+  default void flush()
+    throws AccountsDatabaseException {
+
+  }
 }
@@ -6,28 +6,72 @@ import org.nypl.simplified.accounts.api.AccountAuthenticationCredentialsStoreTyp
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.json.AccountAuthenticationCredentialsStoreJSON
 import org.nypl.simplified.files.FileUtilities
+import org.slf4j.LoggerFactory
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 /**
- * A trivial credential store that serializes credentials to an on-disk JSON file.
+ * A credential store that serializes credentials to an on-disk JSON file.
+ *
+ * Credentials are held in memory, and changes are written to disk in the background after a
+ * short delay. Login flows tend to update the credentials for an account several times in
+ * quick succession, and all of the changes made within the delay are written at once. The
+ * [flush] method writes any outstanding changes immediately.
  */
 
-class AccountAuthenticationCredentialsStore(
+class AccountAuthenticationCredentialsStore private constructor(
   private val file: File,
   private val fileTemp: File,
+  private val writeDelayMilliseconds: Long,
   initialCredentials: Map<AccountID, AccountAuthenticationCredentials>
 ) : AccountAuthenticationCredentialsStoreType {
 
   companion object {
 
+    private val logger =
+      LoggerFactory.getLogger(AccountAuthenticationCredentialsStore::class.java)
+
+    /**
+     * The default time that changes are held in memory before being written.
+     */
+
+    const val DEFAULT_WRITE_DELAY_MILLISECONDS = 250L
+
+    /**
+     * The executor on which background writes are performed. A single thread is shared by
+     * all stores.
+     */
+
+    private val writeExecutor: ScheduledExecutorService =
+      Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "simplified-credentials-store")
+        thread.isDaemon = true
+        thread
+      }
+
+    /**
+     * The most recently opened store for each file. A store that is opened for a file
+     * first flushes any outstanding changes from the previous store for that file.
+     */
+
+    private val openStores =
+      ConcurrentHashMap<File, AccountAuthenticationCredentialsStore>()
+
     /**
      * Open a credential store, or create a new one if it does not exist.
      */
 
     fun open(
       file: File,
-      fileTemp: File
-    ): AccountAuthenticationCredentialsStoreType {
+      fileTemp: File,
+      writeDelayMilliseconds: Long = DEFAULT_WRITE_DELAY_MILLISECONDS
+    ): AccountAuthenticationCredentialsStore {
+      this.openStores[file.absoluteFile]?.flush()
+
       val initialCredentials =
         if (file.isFile) {
           val text = FileUtilities.fileReadUTF8(file)
@@ -44,20 +88,53 @@ class AccountAuthenticationCredentialsStore(
         AccountAuthenticationCredentialsStore(
           file = file,
           fileTemp = fileTemp,
+          writeDelayMilliseconds = writeDelayMilliseconds,
           initialCredentials = initialCredentials
         )
 
       synchronized(store.storeLock) {
-        store.writeLocked()
+        store.dirty = true
       }
+      store.flush()
+      this.openStores[file.absoluteFile] = store
       return store
     }
   }
 
+  /**
+   * Statistics about the writes performed by a store.
+   */
+
+  data class Statistics(
+
+    /**
+     * The number of changes made to the store.
+     */
+
+    val changes: Long,
+
+    /**
+     * The number of times the store has been written to disk.
+     */
+
+    val writes: Long
+  )
+
   private val storeLock = Object()
+  private val writeLock = Object()
+
   @GuardedBy("storeLock")
   private var store = initialCredentials.toMap()
 
+  @GuardedBy("storeLock")
+  private var dirty = false
+
+  @GuardedBy("storeLock")
+  private var writeScheduled = false
+
+  private val changes = AtomicLong(0L)
+  private val writes = AtomicLong(0L)
+
   override fun get(account: AccountID): AccountAuthenticationCredentials? {
     return synchronized(this.storeLock) {
       this.store[account]
@@ -76,22 +153,87 @@ class AccountAuthenticationCredentialsStore(
   ) {
     synchronized(this.storeLock) {
       this.store = this.store.plus(Pair(account, credentials))
-      this.writeLocked()
     }
+    this.changed()
   }
 
   override fun delete(account: AccountID) {
     synchronized(this.storeLock) {
       this.store = this.store.minus(account)
-      this.writeLocked()
     }
+    this.changed()
+  }
+
+  /**
+   * Write any outstanding changes to disk, and wait for the write to complete.
+   */
+
+  override fun flush() {
+    synchronized(this.writeLock) {
+      val snapshot =
+        synchronized(this.storeLock) {
+          if (!this.dirty) {
+            return
+          }
+          this.dirty = false
+          this.store
+        }
+
+      try {
+        FileUtilities.fileWriteUTF8Atomically(
+          this.file,
+          this.fileTemp,
+          AccountAuthenticationCredentialsStoreJSON.serializeToText(snapshot),
+          true
+        )
+        this.writes.incrementAndGet()
+      } catch (e: Exception) {
+        synchronized(this.storeLock) {
+          this.dirty = true
+        }
+        throw e
+      }
+    }
+  }
+
+  /**
+   * @return Statistics about the writes performed by this store
+   */
+
+  fun statistics(): Statistics {
+    return Statistics(
+      changes = this.changes.get(),
+      writes = this.writes.get()
+    )
   }
 
-  private fun writeLocked() {
-    FileUtilities.fileWriteUTF8Atomically(
-      this.file,
-      this.fileTemp,
-      AccountAuthenticationCredentialsStoreJSON.serializeToText(this.store)
+  private fun changed() {
+    this.changes.incrementAndGet()
+
+    synchronized(this.storeLock) {
+      this.dirty = true
+      if (this.writeScheduled) {
+        return
+      }
+      this.writeScheduled = true
+    }
+
+    writeExecutor.schedule(
+      { this.writeDelayed() },
+      this.writeDelayMilliseconds,
+      TimeUnit.MILLISECONDS
     )
   }
+
+  private fun writeDelayed() {
+    synchronized(this.storeLock) {
+      this.writeScheduled = false
+    }
+
+    try {
+      this.flush()
+    } catch (e: Exception) {
+      logger.error("could not write credentials store {}: ", this.file, e)
+    }
+  }
 }
@@ -0,0 +1,179 @@
+package org.nypl.simplified.accounts.database
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import net.jcip.annotations.GuardedBy
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.accounts.api.AccountPreferences
+import org.nypl.simplified.accounts.json.AccountPreferencesJSON
+import org.nypl.simplified.files.FileLocking
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.json.core.JSONSerializerUtilities
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ExecutorService
+
+/**
+ * A write-behind writer for the preferences of a single account.
+ *
+ * Preferences are written to a file of their own, separate from the account description
+ * (which contains the much larger account provider). Writes are performed on the given
+ * executor, and at most one write is queued at any given time: preferences submitted whilst a
+ * write is queued replace the queued preferences, so a burst of changes results in a single
+ * write of the most recent preferences.
+ *
+ * A failed background write is logged and not retried. The account description also contains
+ * the preferences, and so the newer of the two files is used when the account is next opened.
+ */
+
+internal class AccountPreferencesWriter(
+  private val accountId: AccountID,
+  private val directory: File,
+  private val executor: ExecutorService
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(AccountPreferencesWriter::class.java)
+
+  private val pendingLock: Any = Any()
+  private val writeLock: Any = Any()
+
+  @GuardedBy("pendingLock")
+  private var pending: AccountPreferences? = null
+
+  @GuardedBy("pendingLock")
+  private var closed: Boolean = false
+
+  /**
+   * Schedule a write of the given preferences.
+   */
+
+  fun submit(preferences: AccountPreferences) {
+    synchronized(this.pendingLock) {
+      if (this.closed) {
+        return
+      }
+
+      val scheduled = this.pending != null
+      this.pending = preferences
+      if (scheduled) {
+        return
+      }
+    }
+
+    this.executor.execute { this.writePending() }
+  }
+
+  /**
+   * Discard any queued write, and wait for any write in progress to complete. No writes
+   * will be performed after this method returns.
+   */
+
+  fun close() {
+    synchronized(this.writeLock) {
+      synchronized(this.pendingLock) {
+        this.closed = true
+        this.pending = null
+      }
+    }
+  }
+
+  /**
+   * Write any queued preferences on the calling thread, and wait for any write in progress
+   * to complete.
+   *
+   * @throws IOException If the queued preferences cannot be written
+   */
+
+  @Throws(IOException::class)
+  fun flush() {
+    synchronized(this.writeLock) {
+      val preferences = this.takePending() ?: return
+      writePreferences(this.directory, preferences)
+    }
+  }
+
+  private fun takePending(): AccountPreferences? {
+    synchronized(this.pendingLock) {
+      val value = this.pending
+      this.pending = null
+      return if (this.closed) null else value
+    }
+  }
+
+  private fun writePending() {
+    synchronized(this.writeLock) {
+      val preferences = this.takePending() ?: return
+
+      try {
+        writePreferences(this.directory, preferences)
+      } catch (e: Exception) {
+        this.logger.error("account [{}]: could not write preferences: ", this.accountId, e)
+      }
+    }
+  }
+
+  companion object {
+
+    /**
+     * The name of the file that holds the preferences of an account.
+     */
+
+    const val FILE_NAME = "preferences.json"
+
+    /**
+     * Write the given preferences to the given account directory.
+     */
+
+    @Throws(IOException::class)
+    fun writePreferences(
+      directory: File,
+      preferences: AccountPreferences
+    ) {
+      val objectMapper = ObjectMapper()
+      val text =
+        ByteArrayOutputStream(256).use { stream ->
+          JSONSerializerUtilities.serialize(
+            AccountPreferencesJSON.serializeToJSON(objectMapper, preferences),
+            stream
+          )
+          stream.toString("UTF-8")
+        }
+
+      FileLocking.withFileProcessLocked<Unit, IOException>(
+        File(directory, "lock"), 1000L
+      ) {
+        FileUtilities.fileWriteUTF8Atomically(
+          File(directory, FILE_NAME),
+          File(directory, "$FILE_NAME.tmp"),
+          text
+        )
+      }
+    }
+
+    /**
+     * Read the preferences in the given account directory, if any have been written. The
+     * preferences are ignored if the given account description file was written after them,
+     * because the account description then contains preferences at least as recent.
+     */
+
+    @Throws(IOException::class)
+    fun readPreferences(
+      objectMapper: ObjectMapper,
+      directory: File,
+      accountFile: File
+    ): AccountPreferences? {
+      val file = File(directory, FILE_NAME)
+      if (!file.isFile) {
+        return null
+      }
+      if (file.lastModified() < accountFile.lastModified()) {
+        return null
+      }
+      return AccountPreferencesJSON.deserializeFromJSON(
+        objectMapper.readTree(FileUtilities.fileReadUTF8(file))
+      )
+    }
+  }
+}
@@ -49,6 +49,8 @@ import java.util.Objects
 import java.util.SortedMap
 import java.util.UUID
 import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 /**
  * The default implementation of the [AccountsDatabaseType] interface.
@@ -101,23 +103,33 @@ class AccountsDatabase private constructor(
     }
   }
 
+  /**
+   * Accounts are created whilst holding the accounts lock, so that concurrent attempts to
+   * create an account for the same provider cannot both pass the duplicate check.
+   */
+
   @Throws(AccountsDatabaseException::class)
   override fun createAccount(accountProvider: AccountProviderType): AccountType {
-    val accountId: AccountID
     synchronized(this.accountsLock) {
-      if (this.accountsByProvider.containsKey(accountProvider.id)) {
-        throw AccountsDatabaseDuplicateProviderException(accountProvider.id.toString())
-      }
-
-      accountId = freshAccountID(this.accounts)
+      return this.createAccountLocked(accountProvider)
+    }
+  }
 
-      this.logger.debug("creating account {} (provider {})", accountId, accountProvider.id)
-      Preconditions.checkArgument(
-        !this.accounts.containsKey(accountId),
-        "Account ID %s cannot have been used", accountId
-      )
+  @GuardedBy("accountsLock")
+  @Throws(AccountsDatabaseException::class)
+  private fun createAccountLocked(accountProvider: AccountProviderType): AccountType {
+    if (this.accountsByProvider.containsKey(accountProvider.id)) {
+      throw AccountsDatabaseDuplicateProviderException(accountProvider.id.toString())
     }
 
+    val accountId = freshAccountID(this.accounts)
+
+    this.logger.debug("creating account {} (provider {})", accountId, accountProvider.id)
+    Preconditions.checkArgument(
+      !this.accounts.containsKey(accountId),
+      "Account ID %s cannot have been used", accountId
+    )
+
     try {
       val accountDir =
         File(this.directory, accountId.toString())
@@ -158,22 +170,20 @@ class AccountsDatabase private constructor(
         description = accountDescription
       )
 
-      val account: Account
-      synchronized(this.accountsLock) {
-        account =
-          Account(
-            id = accountId,
-            directory = accountDir,
-            providerInitial = accountProvider,
-            bookDatabase = bookDatabase,
-            accountEvents = this.accountEvents,
-            description = accountDescription,
-            credentials = this.credentials,
-            accountLoginState = AccountLoginState.AccountNotLoggedIn
-          )
-        this.accounts[accountId] = account
-        this.accountsByProvider.put(accountProvider.id, account)
-      }
+      val account =
+        Account(
+          id = accountId,
+          directory = accountDir,
+          providerInitial = accountProvider,
+          bookDatabase = bookDatabase,
+          accountEvents = this.accountEvents,
+          description = accountDescription,
+          credentials = this.credentials,
+          accountLoginState = AccountLoginState.AccountNotLoggedIn,
+          preferencesExecutor = preferencesExecutor
+        )
+      this.accounts[accountId] = account
+      this.accountsByProvider.put(accountProvider.id, account)
       return account
     } catch (e: IOException) {
       throw AccountsDatabaseIOException("Could not write account data", e)
@@ -182,6 +192,31 @@ class AccountsDatabase private constructor(
     }
   }
 
+  @Throws(AccountsDatabaseException::class)
+  override fun flush() {
+    val accounts =
+      synchronized(this.accountsLock) {
+        ArrayList(this.accounts.values)
+      }
+
+    var exception: Exception? = null
+    for (account in accounts) {
+      try {
+        account.flushPreferences()
+      } catch (e: Exception) {
+        if (exception == null) {
+          exception = e
+        } else {
+          exception.addSuppressed(e)
+        }
+      }
+    }
+
+    if (exception != null) {
+      throw AccountsDatabaseIOException(exception.message, IOException(exception))
+    }
+  }
+
   @Throws(AccountsDatabaseException::class)
   override fun deleteAccountByProvider(accountProvider: URI): AccountID {
     this.logger.debug("delete account by provider: {}", accountProvider)
@@ -219,7 +254,8 @@ class AccountsDatabase private constructor(
     private var description: AccountDescription,
     private val credentials: AccountAuthenticationCredentialsStoreType,
     providerInitial: AccountProviderType,
-    accountLoginState: AccountLoginState
+    accountLoginState: AccountLoginState,
+    preferencesExecutor: ExecutorService
   ) : AccountType {
 
     private val logger =
@@ -227,6 +263,9 @@ class AccountsDatabase private constructor(
 
     private val descriptionLock: Any = Any()
 
+    private val preferencesWriter =
+      AccountPreferencesWriter(this.id, this.directory, preferencesExecutor)
+
     @GuardedBy("descriptionLock")
     private var loginStateActual: AccountLoginState = accountLoginState
 
@@ -325,13 +364,40 @@ class AccountsDatabase private constructor(
       }
     }
 
+    /**
+     * Preferences change far more often than account providers do, and so they are written
+     * to a file of their own in the background rather than rewriting the account description
+     * (and the account provider within it) on every change. The account description is
+     * still updated in memory, so the current preferences are also written whenever the
+     * account description is.
+     */
+
     @Throws(AccountsDatabaseException::class)
     override fun setPreferences(preferences: AccountPreferences) {
-      this.setDescription(
-        FunctionType { accountDescription ->
-          accountDescription.toBuilder().setPreferences(preferences).build()
+      val changed: Boolean
+      synchronized(this.descriptionLock) {
+        changed = this.description.preferences() != preferences
+        if (changed) {
+          this.description =
+            this.description.toBuilder()
+              .setPreferences(preferences)
+              .build()
         }
-      )
+      }
+
+      if (changed) {
+        this.preferencesWriter.submit(preferences)
+      }
+      this.accountEvents.onNext(AccountEventUpdated("", this.id))
+    }
+
+    @Throws(AccountsDatabaseIOException::class)
+    fun flushPreferences() {
+      try {
+        this.preferencesWriter.flush()
+      } catch (e: IOException) {
+        throw AccountsDatabaseIOException("Could not write account preferences", e)
+      }
     }
 
     @Throws(AccountsDatabaseIOException::class)
@@ -372,6 +438,8 @@ class AccountsDatabase private constructor(
       try {
         logger.debug("account [{}]: delete: {}", this.id, this.directory)
 
+        this.preferencesWriter.close()
+
         var exception: Exception? = null
         try {
           logger.debug("account [{}]: delete book database", this.id)
@@ -422,6 +490,31 @@ class AccountsDatabase private constructor(
     private val logger =
       LoggerFactory.getLogger(AccountsDatabase::class.java)
 
+    /**
+     * The executor used to write account preferences in the background. A single thread
+     * is shared by all databases so that writes are performed in submission order.
+     */
+
+    private val preferencesExecutor: ExecutorService =
+      Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable, "simplified-accounts-preferences")
+        thread.isDaemon = true
+        thread
+      }
+
+    /**
+     * Wait for all preferences writes submitted so far to complete. The executor is
+     * single-threaded, and so an empty task completes only after all earlier tasks have.
+     */
+
+    private fun awaitPreferencesWrites() {
+      try {
+        this.preferencesExecutor.submit {}.get()
+      } catch (e: Exception) {
+        this.logger.error("could not wait for preferences writes: ", e)
+      }
+    }
+
     private fun freshAccountID(accounts: SortedMap<AccountID, Account>): AccountID {
       for (index in 0..99) {
         val accountId = AccountID.generate()
@@ -452,6 +545,12 @@ class AccountsDatabase private constructor(
     ): AccountsDatabaseType {
       this.logger.debug("opening account database: {}", directory)
 
+      /*
+       * Preferences written by a previous instance of the database may still be queued.
+       */
+
+      this.awaitPreferencesWrites()
+
       val accounts = ConcurrentSkipListMap<AccountID, Account>()
       val accountsByProvider = ConcurrentSkipListMap<URI, Account>()
       val objectMapper = ObjectMapper()
@@ -697,10 +796,15 @@ class AccountsDatabase private constructor(
           )
 
         val accountDescription =
-          AccountDescriptionJSON.deserializeFromFile(
-            objectMapper,
-            accountProviderResolver,
-            accountFile
+          this.openOneAccountPreferences(
+            objectMapper = objectMapper,
+            accountDir = accountDir,
+            accountFile = accountFile,
+            description = AccountDescriptionJSON.deserializeFromFile(
+              objectMapper,
+              accountProviderResolver,
+              accountFile
+            )
           )
         val accountProvider =
           accountDescription.provider()
@@ -723,7 +827,8 @@ class AccountsDatabase private constructor(
             description = accountDescription,
             directory = accountDir,
             id = accountId,
-            providerInitial = accountProvider
+            providerInitial = accountProvider,
+            preferencesExecutor = this.preferencesExecutor
           )
 
         /*
@@ -743,6 +848,32 @@ class AccountsDatabase private constructor(
       }
     }
 
+    /**
+     * Apply the preferences stored separately from the account description, if any. The
+     * account description contains the preferences as they were when the description was
+     * last written, and so is used if the separate preferences are missing, unreadable, or
+     * older than the account description.
+     */
+
+    private fun openOneAccountPreferences(
+      objectMapper: ObjectMapper,
+      accountDir: File,
+      accountFile: File,
+      description: AccountDescription
+    ): AccountDescription {
+      return try {
+        val preferences =
+          AccountPreferencesWriter.readPreferences(objectMapper, accountDir, accountFile)
+            ?: return description
+        description.toBuilder()
+          .setPreferences(preferences)
+          .build()
+      } catch (e: IOException) {
+        this.logger.error("could not read account preferences: {}: ", accountDir, e)
+        description
+      }
+    }
+
     /**
      * Perform an unchecked (but safe) cast of the given map type. The cast is safe because
      * `V <: VB`.
@@ -759,7 +890,7 @@ class AccountsDatabase private constructor(
       accountFileTemp: File,
       description: AccountDescription
     ) {
-      FileLocking.withFileThreadLocked<Unit, IOException>(
+      FileLocking.withFileProcessLocked<Unit, IOException>(
         accountLock, 1000L
       ) {
         FileUtilities.fileWriteUTF8Atomically(
@@ -22,6 +22,15 @@ sealed class AccountProviderRegistryEvent {
     val id: URI
   ) : AccountProviderRegistryEvent()
 
+  /**
+   * The registry was refreshed, and the account providers with the given IDs were added
+   * or updated. A single event is published for each refresh.
+   */
+
+  data class Refreshed(
+    val ids: Set<URI>
+  ) : AccountProviderRegistryEvent()
+
   /**
    * An account provider source failed.
    */
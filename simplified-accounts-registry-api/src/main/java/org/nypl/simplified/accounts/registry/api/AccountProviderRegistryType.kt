@@ -52,12 +52,14 @@ interface AccountProviderRegistryType {
   fun refresh(includeTestingLibraries: Boolean)
 
   /**
-   * Execute a search query on the registry.
+   * Execute a search query on the registry's sources. The matching descriptions are returned
+   * to the caller and are not added to the registry.
    *
    * @param query The search query parameters
+   * @return The matching descriptions, in the order given by the sources
    */
 
-  fun query(query: AccountSearchQuery)
+  fun query(query: AccountSearchQuery): List<AccountProviderDescription>
 
   /**
    * Clear cached account providers from all sources.
@@ -0,0 +1,87 @@
+package org.nypl.simplified.accounts.registry
+
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A read-only map of account provider descriptions that accepts individual updates in place.
+ *
+ * The map consists of a base map, which is never modified and may decode its values lazily,
+ * and an overlay of descriptions that have been updated since the base map was published.
+ * Updating a description costs one insertion into the overlay, rather than a copy of the
+ * whole map. Descriptions in the base map are only examined when they are retrieved.
+ */
+
+internal class AccountProviderDescriptionMap(
+  private val base: Map<URI, AccountProviderDescription>
+) : AbstractMap<URI, AccountProviderDescription>() {
+
+  private val overlay =
+    ConcurrentHashMap<URI, AccountProviderDescription>()
+
+  /**
+   * Replace the description with the given ID.
+   */
+
+  fun put(
+    id: URI,
+    description: AccountProviderDescription
+  ) {
+    this.overlay[id] = description
+  }
+
+  override fun get(key: URI): AccountProviderDescription? =
+    this.overlay[key] ?: this.base[key]
+
+  override fun containsKey(key: URI): Boolean =
+    this.overlay.containsKey(key) || this.base.containsKey(key)
+
+  override val size: Int
+    get() = this.base.size + this.overlay.keys.count { key -> !this.base.containsKey(key) }
+
+  override val keys: Set<URI>
+    get() = object : AbstractSet<URI>() {
+      override val size: Int
+        get() = this@AccountProviderDescriptionMap.size
+
+      override fun contains(element: URI): Boolean =
+        this@AccountProviderDescriptionMap.containsKey(element)
+
+      override fun iterator(): Iterator<URI> =
+        this@AccountProviderDescriptionMap.keySequence().iterator()
+    }
+
+  override val entries: Set<Map.Entry<URI, AccountProviderDescription>>
+    get() = object : AbstractSet<Map.Entry<URI, AccountProviderDescription>>() {
+      override val size: Int
+        get() = this@AccountProviderDescriptionMap.size
+
+      override fun iterator(): Iterator<Map.Entry<URI, AccountProviderDescription>> =
+        this@AccountProviderDescriptionMap.keySequence()
+          .map { key -> Entry(key) }
+          .iterator()
+    }
+
+  private fun keySequence(): Sequence<URI> {
+    val added = this.overlay.keys.filter { key -> !this.base.containsKey(key) }
+    return this.base.keys.asSequence() + added.asSequence()
+  }
+
+  /**
+   * An entry whose description is only retrieved when it is requested.
+   */
+
+  private inner class Entry(
+    override val key: URI
+  ) : Map.Entry<URI, AccountProviderDescription> {
+    override val value: AccountProviderDescription
+      get() = this@AccountProviderDescriptionMap[this.key]!!
+
+    override fun equals(other: Any?): Boolean =
+      other is Map.Entry<*, *> && other.key == this.key && other.value == this.value
+
+    override fun hashCode(): Int =
+      this.key.hashCode() xor this.value.hashCode()
+  }
+}
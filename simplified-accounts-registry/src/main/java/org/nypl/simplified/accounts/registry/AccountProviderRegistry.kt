@@ -10,6 +10,7 @@ import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
 import org.nypl.simplified.accounts.api.AccountProviderType
 import org.nypl.simplified.accounts.api.AccountSearchQuery
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.Refreshed
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.SourceFailed
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.StatusChanged
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.Updated
@@ -26,7 +27,11 @@ import org.slf4j.LoggerFactory
 import java.net.URI
 import java.util.Collections
 import java.util.ServiceLoader
+import java.util.concurrent.Callable
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * The default registry of account provider descriptions.
@@ -44,8 +49,16 @@ class AccountProviderRegistry private constructor(
   @Volatile
   private var statusRef: AccountProviderRegistryStatus = Idle
 
-  private val descriptions = Collections.synchronizedMap(LinkedHashMap<URI, AccountProviderDescription>())
-  private val descriptionsReadOnly = Collections.unmodifiableMap(this.descriptions)
+  /**
+   * The current descriptions. Refreshes replace the map while holding [descriptionsLock].
+   * Individual updates are written into the current map in place while holding the same lock,
+   * so that an update does not copy the whole map.
+   */
+
+  @Volatile
+  private var descriptions = AccountProviderDescriptionMap(mapOf())
+  private val descriptionsLock = Any()
+
   private val resolved = ConcurrentHashMap<URI, AccountProviderType>()
   private val resolvedReadOnly = Collections.unmodifiableMap(this.resolved)
 
@@ -61,11 +74,20 @@ class AccountProviderRegistry private constructor(
   override val status: AccountProviderRegistryStatus
     get() = this.statusRef
 
+  init {
+    for (source in this.sources) {
+      source.updates.subscribe(
+        { result -> this.applySourceResults(listOf(Pair(source, result))) },
+        { e -> this.logger.error("source {} failed: ", source.javaClass, e) }
+      )
+    }
+  }
+
   override fun accountProviderDescriptions(): Map<URI, AccountProviderDescription> {
     if (!this.initialized) {
       this.refresh(false)
     }
-    return this.descriptionsReadOnly
+    return this.descriptions
   }
 
   override val resolvedProviders: Map<URI, AccountProviderType>
@@ -73,28 +95,13 @@ class AccountProviderRegistry private constructor(
 
   override fun refresh(includeTestingLibraries: Boolean) {
     this.logger.debug("refreshing account provider descriptions")
-
     this.statusRef = Refreshing
     this.eventsActual.onNext(StatusChanged)
 
     try {
-      for (source in this.sources) {
-        try {
-          when (val result = source.load(this.context, includeTestingLibraries)) {
-            is AccountProviderSourceType.SourceResult.SourceSucceeded -> {
-              val newDescriptions = result.results
-              for (key in newDescriptions.keys) {
-                this.updateDescription(newDescriptions[key]!!)
-              }
-            }
-            is AccountProviderSourceType.SourceResult.SourceFailed -> {
-              this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
-            }
-          }
-        } catch (e: Exception) {
-          this.eventsActual.onNext(SourceFailed(source.javaClass, e))
-        }
-      }
+      this.applySourceResults(
+        this.runSources { source -> source.load(this.context, includeTestingLibraries) }
+      )
     } finally {
       this.initialized = true
       this.statusRef = Idle
@@ -102,39 +109,137 @@ class AccountProviderRegistry private constructor(
     }
   }
 
-  override fun query(query: AccountSearchQuery) {
-    this.logger.debug("refreshing account provider descriptions")
+  override fun query(query: AccountSearchQuery): List<AccountProviderDescription> {
+    this.logger.debug("querying account provider descriptions")
 
-    this.statusRef = Refreshing
-    this.eventsActual.onNext(StatusChanged)
+    val matches = LinkedHashMap<URI, AccountProviderDescription>()
+    for ((source, result) in this.runSources { source -> source.query(this.context, query) }) {
+      when (result) {
+        is AccountProviderSourceType.SourceResult.SourceSucceeded ->
+          for ((id, description) in result.results) {
+            matches.getOrPut(id) { description }
+          }
+        is AccountProviderSourceType.SourceResult.SourceFailed ->
+          this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
+      }
+    }
 
-    try {
-      for (source in this.sources) {
-        try {
-          when (val result = source.query(this.context, query)) {
-            is AccountProviderSourceType.SourceResult.SourceSucceeded -> {
-              val newDescriptions = result.results
-              for (key in newDescriptions.keys) {
-                this.updateDescription(newDescriptions[key]!!)
-              }
-            }
-            is AccountProviderSourceType.SourceResult.SourceFailed -> {
-              this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
-            }
+    this.logger.debug("{} descriptions matched", matches.size)
+    return matches.values.toList()
+  }
+
+  /**
+   * Run the given operation on every source. The sources are independent, so if there is
+   * more than one source, the operation is run on all of them in parallel.
+   *
+   * @return The result of each source, in the order of [sources]
+   */
+
+  private fun runSources(
+    operation: (AccountProviderSourceType) -> AccountProviderSourceType.SourceResult
+  ): List<Pair<AccountProviderSourceType, AccountProviderSourceType.SourceResult>> {
+    if (this.sources.size <= 1) {
+      return this.sources.map { source -> Pair(source, this.runSource(source, operation)) }
+    }
+
+    val futures =
+      this.sources.map { source ->
+        Pair(source, sourceExecutor.submit(Callable { this.runSource(source, operation) }))
+      }
+
+    return futures.map { (source, future) ->
+      val result = try {
+        future.get()
+      } catch (e: ExecutionException) {
+        AccountProviderSourceType.SourceResult.SourceFailed(
+          mapOf(), (e.cause as? Exception) ?: e
+        )
+      } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        AccountProviderSourceType.SourceResult.SourceFailed(mapOf(), e)
+      }
+      Pair(source, result)
+    }
+  }
+
+  private fun runSource(
+    source: AccountProviderSourceType,
+    operation: (AccountProviderSourceType) -> AccountProviderSourceType.SourceResult
+  ): AccountProviderSourceType.SourceResult {
+    return try {
+      operation.invoke(source)
+    } catch (e: Exception) {
+      AccountProviderSourceType.SourceResult.SourceFailed(mapOf(), e)
+    }
+  }
+
+  /**
+   * Merge the descriptions delivered by the given sources into the registry, replacing the
+   * current descriptions in a single step. A single [Refreshed] event is published for all
+   * of the descriptions that changed. The given results must be complete results from
+   * [AccountProviderSourceType.load] or [AccountProviderSourceType.updates]; search results
+   * are never applied to the registry.
+   */
+
+  private fun applySourceResults(
+    results: List<Pair<AccountProviderSourceType, AccountProviderSourceType.SourceResult>>
+  ) {
+    val received = mutableListOf<Map<URI, AccountProviderDescription>>()
+    for ((source, result) in results) {
+      when (result) {
+        is AccountProviderSourceType.SourceResult.SourceSucceeded ->
+          received.add(result.results)
+        is AccountProviderSourceType.SourceResult.SourceFailed ->
+          this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
+      }
+    }
+
+    val changed = synchronized(this.descriptionsLock) {
+      val current = this.descriptions
+
+      /*
+       * If nothing has been loaded yet and only a single set of descriptions was received,
+       * the received map can be published as it is. This avoids examining (and therefore
+       * materializing) every description in maps that are decoded lazily.
+       */
+
+      if (current.isEmpty() && received.size == 1) {
+        val only = received[0]
+        this.descriptions = AccountProviderDescriptionMap(only)
+        return@synchronized only.keys.toSet()
+      }
+
+      val next = LinkedHashMap(current)
+      val changedIds = mutableSetOf<URI>()
+      for (descriptions in received) {
+        for ((id, description) in descriptions) {
+          val existing = next[id]
+          if (existing != null && existing.updated.isAfter(description.updated)) {
+            continue
+          }
+          if (existing != description) {
+            next[id] = description
+            changedIds.add(id)
           }
-        } catch (e: Exception) {
-          this.eventsActual.onNext(SourceFailed(source.javaClass, e))
         }
       }
-    } finally {
-      this.initialized = true
-      this.statusRef = Idle
-      this.eventsActual.onNext(StatusChanged)
+
+      if (changedIds.isNotEmpty()) {
+        this.descriptions = AccountProviderDescriptionMap(Collections.unmodifiableMap(next))
+      }
+      changedIds
+    }
+
+    this.logger.debug("{} descriptions changed", changed.size)
+    if (changed.isNotEmpty()) {
+      this.eventsActual.onNext(Refreshed(changed))
     }
   }
 
   override fun clear() {
-    this.descriptions.clear()
+    synchronized(this.descriptionsLock) {
+      this.descriptions = AccountProviderDescriptionMap(mapOf())
+    }
     this.resolved.clear()
     for (source in this.sources) {
       source.clear(this.context)
@@ -166,19 +271,21 @@ class AccountProviderRegistry private constructor(
     description: AccountProviderDescription
   ): AccountProviderDescription {
     val id = description.id
-    val existing = this.descriptions[id]
-    if (existing != null) {
-      Preconditions.checkState(
-        id == existing.id,
-        "ID $id must match existing id ${existing.id}"
-      )
-      if (existing.updated.isAfter(description.updated)) {
-        return existing
+    synchronized(this.descriptionsLock) {
+      val existing = this.descriptions[id]
+      if (existing != null) {
+        Preconditions.checkState(
+          id == existing.id,
+          "ID $id must match existing id ${existing.id}"
+        )
+        if (existing.updated.isAfter(description.updated)) {
+          return existing
+        }
       }
-    }
 
-    this.logger.debug("received updated version of description {}", id)
-    this.descriptions[id] = description
+      this.logger.debug("received updated version of description {}", id)
+      this.descriptions.put(id, description)
+    }
     this.eventsActual.onNext(Updated(id))
     return description
   }
@@ -222,6 +329,19 @@ class AccountProviderRegistry private constructor(
 
   companion object {
 
+    private val sourceThreadIds = AtomicInteger(0)
+
+    /**
+     * The executor used to load sources in parallel.
+     */
+
+    private val sourceExecutor =
+      Executors.newCachedThreadPool { runnable ->
+        val thread = Thread(runnable, "simplified-registry-source-${sourceThreadIds.incrementAndGet()}")
+        thread.isDaemon = true
+        thread
+      }
+
     /**
      * Create a new description registry based on sources discovered by [ServiceLoader]
      */
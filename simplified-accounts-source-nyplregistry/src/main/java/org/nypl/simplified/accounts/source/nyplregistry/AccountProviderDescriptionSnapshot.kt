@@ -0,0 +1,666 @@
+package org.nypl.simplified.accounts.source.nyplregistry
+
+import one.irradia.mime.api.MIMEType
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.nypl.simplified.accounts.api.AccountDistance
+import org.nypl.simplified.accounts.api.AccountDistanceUnit
+import org.nypl.simplified.accounts.api.AccountGeoLocation
+import org.nypl.simplified.accounts.api.AccountLibraryLocation
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.links.Link
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.net.URI
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * A compact binary snapshot of a set of account provider descriptions.
+ *
+ * A snapshot is a read-only map that is backed by a memory-mapped file. Descriptions are
+ * decoded lazily, at most once each, when they are first retrieved from the map, and so
+ * listing or looking up the identifiers of the providers does not require decoding every
+ * description.
+ *
+ * The format is as follows (all integers are big-endian):
+ *
+ * ```
+ * header:
+ *   int32 magic (0x4e595250)
+ *   int32 version
+ *   int32 string count
+ *   int32 record count
+ *   int32 offset of string data
+ *   int32 offset of record data
+ * string table:
+ *   int32 offset of string (relative to the string data), for each string
+ * record table, ordered by the provider identifier:
+ *   int32 index of the identifier string
+ *   int32 offset of record (relative to the record data)
+ * string data:
+ *   int32 length, UTF-8 bytes
+ * record data:
+ *   int32 length, record bytes
+ * ```
+ *
+ * Every string in a record, including link targets, relations and MIME type components, is
+ * stored once in the string table and referred to by index.
+ *
+ * The structure of every record is checked when the snapshot is opened, so that a corrupt
+ * snapshot is rejected at that point rather than when one of its descriptions is decoded.
+ */
+
+class AccountProviderDescriptionSnapshot private constructor(
+  private val buffer: ByteBuffer,
+  private val stringCount: Int,
+  private val recordCount: Int,
+  private val stringDataOffset: Int,
+  private val recordDataOffset: Int
+) : AbstractMap<URI, AccountProviderDescription>() {
+
+  private val strings =
+    AtomicReferenceArray<String>(this.stringCount)
+  private val records =
+    AtomicReferenceArray<AccountProviderDescription>(this.recordCount)
+
+  override val size: Int
+    get() = this.recordCount
+
+  override val keys: Set<URI> by lazy {
+    val ids = LinkedHashSet<URI>(this.recordCount)
+    for (record in 0 until this.recordCount) {
+      ids.add(URI.create(this.idOf(record)))
+    }
+    ids
+  }
+
+  override val entries: Set<Map.Entry<URI, AccountProviderDescription>> by lazy {
+    object : AbstractSet<Map.Entry<URI, AccountProviderDescription>>() {
+      override val size: Int
+        get() = this@AccountProviderDescriptionSnapshot.recordCount
+
+      override fun iterator(): Iterator<Map.Entry<URI, AccountProviderDescription>> {
+        return (0 until this.size).asSequence()
+          .map { record -> this@AccountProviderDescriptionSnapshot.LazyEntry(record) }
+          .iterator()
+      }
+    }
+  }
+
+  override fun containsKey(key: URI): Boolean =
+    this.recordOf(key) >= 0
+
+  override fun get(key: URI): AccountProviderDescription? {
+    val record = this.recordOf(key)
+    return if (record >= 0) this.descriptionOf(record) else null
+  }
+
+  private inner class LazyEntry(
+    private val record: Int
+  ) : Map.Entry<URI, AccountProviderDescription> {
+    override val key: URI
+      get() = URI.create(this@AccountProviderDescriptionSnapshot.idOf(this.record))
+    override val value: AccountProviderDescription
+      get() = this@AccountProviderDescriptionSnapshot.descriptionOf(this.record)
+
+    override fun equals(other: Any?): Boolean =
+      other is Map.Entry<*, *> && this.key == other.key && this.value == other.value
+
+    override fun hashCode(): Int =
+      this.key.hashCode() xor this.value.hashCode()
+  }
+
+  /**
+   * Find the record with the given identifier using a binary search over the record table.
+   *
+   * @return The index of the record, or -1 if there is no such record
+   */
+
+  private fun recordOf(id: URI): Int {
+    val target = id.toString()
+    var low = 0
+    var high = this.recordCount - 1
+    while (low <= high) {
+      val middle = (low + high) ushr 1
+      val comparison = this.idOf(middle).compareTo(target)
+      when {
+        comparison < 0 -> low = middle + 1
+        comparison > 0 -> high = middle - 1
+        else -> return middle
+      }
+    }
+    return -1
+  }
+
+  private fun recordTableOffset(): Int =
+    HEADER_SIZE + (this.stringCount * 4)
+
+  private fun idOf(record: Int): String =
+    this.stringOf(this.buffer.getInt(this.recordTableOffset() + (record * 8)))
+
+  private fun stringOf(index: Int): String {
+    val existing = this.strings.get(index)
+    if (existing != null) {
+      return existing
+    }
+
+    val offset = this.stringDataOffset + this.buffer.getInt(HEADER_SIZE + (index * 4))
+    val length = this.buffer.getInt(offset)
+    val bytes = ByteArray(length)
+    val view = this.buffer.duplicate()
+    view.position(offset + 4)
+    view.get(bytes)
+
+    val decoded = String(bytes, Charsets.UTF_8)
+    this.strings.compareAndSet(index, null, decoded)
+    return this.strings.get(index)
+  }
+
+  private fun descriptionOf(record: Int): AccountProviderDescription {
+    val existing = this.records.get(record)
+    if (existing != null) {
+      return existing
+    }
+
+    val offset =
+      this.recordDataOffset + this.buffer.getInt(this.recordTableOffset() + (record * 8) + 4)
+    val length = this.buffer.getInt(offset)
+    val view = this.buffer.duplicate()
+    view.position(offset + 4)
+    view.limit(offset + 4 + length)
+
+    val decoded = this.readDescription(view, URI.create(this.idOf(record)))
+    this.records.compareAndSet(record, null, decoded)
+    return this.records.get(record)
+  }
+
+  private fun readDescription(
+    view: ByteBuffer,
+    id: URI
+  ): AccountProviderDescription {
+    val title = this.stringOf(view.int)
+    val updated = DateTime(view.long, DateTimeZone.UTC)
+    val flags = view.get().toInt()
+    val links = this.readLinks(view)
+    val images = this.readLinks(view)
+
+    val location =
+      if (flags and FLAG_LOCATION != 0) {
+        val longitude = view.double
+        val latitude = view.double
+        val distance =
+          if (flags and FLAG_DISTANCE != 0) {
+            val distanceLength = view.double
+            val unit = AccountDistanceUnit.valueOf(this.stringOf(view.int))
+            AccountDistance(distanceLength, unit)
+          } else {
+            null
+          }
+        AccountLibraryLocation(AccountGeoLocation.Coordinates(longitude, latitude), distance)
+      } else {
+        null
+      }
+
+    return AccountProviderDescription(
+      id = id,
+      title = title,
+      updated = updated,
+      links = links,
+      images = images,
+      isAutomatic = flags and FLAG_AUTOMATIC != 0,
+      isProduction = flags and FLAG_PRODUCTION != 0,
+      location = location
+    )
+  }
+
+  private fun readLinks(view: ByteBuffer): List<Link> {
+    val count = view.int
+    val links = ArrayList<Link>(count)
+    for (index in 0 until count) {
+      links.add(this.readLink(view))
+    }
+    return links
+  }
+
+  private fun readLink(view: ByteBuffer): Link {
+    val kind = view.get().toInt()
+    val href = this.stringOf(view.int)
+    val present = view.get().toInt()
+
+    val type =
+      if (present and LINK_TYPE != 0) {
+        val mediaType = this.stringOf(view.int)
+        val subtype = this.stringOf(view.int)
+        val parameterCount = view.int
+        val parameters = LinkedHashMap<String, String>(parameterCount)
+        for (index in 0 until parameterCount) {
+          parameters[this.stringOf(view.int)] = this.stringOf(view.int)
+        }
+        MIMEType(mediaType, subtype, parameters)
+      } else {
+        null
+      }
+
+    val relation = if (present and LINK_RELATION != 0) this.stringOf(view.int) else null
+    val title = if (present and LINK_TITLE != 0) this.stringOf(view.int) else null
+    val height = if (present and LINK_HEIGHT != 0) view.int else null
+    val width = if (present and LINK_WIDTH != 0) view.int else null
+    val duration = if (present and LINK_DURATION != 0) view.double else null
+    val bitrate = if (present and LINK_BITRATE != 0) view.double else null
+
+    return when (kind) {
+      LINK_KIND_BASIC ->
+        Link.LinkBasic(URI.create(href), type, relation, title, height, width, duration, bitrate)
+      LINK_KIND_TEMPLATED ->
+        Link.LinkTemplated(href, type, relation, title, height, width, duration, bitrate)
+      else ->
+        throw IllegalStateException("Unrecognized link kind $kind")
+    }
+  }
+
+  /**
+   * A writer that interns strings into the string table as records are written.
+   */
+
+  private class Writer {
+    val strings = LinkedHashMap<String, Int>()
+
+    fun intern(text: String): Int =
+      this.strings.getOrPut(text) { this.strings.size }
+
+    fun writeDescription(
+      output: DataOutputStream,
+      description: AccountProviderDescription
+    ) {
+      val location = description.location
+      val coordinates = location?.location as AccountGeoLocation.Coordinates?
+
+      var flags = 0
+      if (description.isAutomatic) {
+        flags = flags or FLAG_AUTOMATIC
+      }
+      if (description.isProduction) {
+        flags = flags or FLAG_PRODUCTION
+      }
+      if (coordinates != null) {
+        flags = flags or FLAG_LOCATION
+        if (location?.distance != null) {
+          flags = flags or FLAG_DISTANCE
+        }
+      }
+
+      output.writeInt(this.intern(description.title))
+      output.writeLong(description.updated.toDateTime(DateTimeZone.UTC).millis)
+      output.writeByte(flags)
+      this.writeLinks(output, description.links)
+      this.writeLinks(output, description.images)
+
+      if (coordinates != null) {
+        output.writeDouble(coordinates.longitude)
+        output.writeDouble(coordinates.latitude)
+        location?.distance?.let { distance ->
+          output.writeDouble(distance.length)
+          output.writeInt(this.intern(distance.unit.name))
+        }
+      }
+    }
+
+    private fun writeLinks(
+      output: DataOutputStream,
+      links: List<Link>
+    ) {
+      output.writeInt(links.size)
+      for (link in links) {
+        this.writeLink(output, link)
+      }
+    }
+
+    private fun writeLink(
+      output: DataOutputStream,
+      link: Link
+    ) {
+      when (link) {
+        is Link.LinkBasic -> {
+          output.writeByte(LINK_KIND_BASIC)
+          output.writeInt(this.intern(link.href.toString()))
+        }
+        is Link.LinkTemplated -> {
+          output.writeByte(LINK_KIND_TEMPLATED)
+          output.writeInt(this.intern(link.href))
+        }
+      }
+
+      var present = 0
+      if (link.type != null) present = present or LINK_TYPE
+      if (link.relation != null) present = present or LINK_RELATION
+      if (link.title != null) present = present or LINK_TITLE
+      if (link.height != null) present = present or LINK_HEIGHT
+      if (link.width != null) present = present or LINK_WIDTH
+      if (link.duration != null) present = present or LINK_DURATION
+      if (link.bitrate != null) present = present or LINK_BITRATE
+      output.writeByte(present)
+
+      link.type?.let { type ->
+        output.writeInt(this.intern(type.type))
+        output.writeInt(this.intern(type.subtype))
+        output.writeInt(type.parameters.size)
+        for ((name, value) in type.parameters) {
+          output.writeInt(this.intern(name))
+          output.writeInt(this.intern(value))
+        }
+      }
+      link.relation?.let { output.writeInt(this.intern(it)) }
+      link.title?.let { output.writeInt(this.intern(it)) }
+      link.height?.let { output.writeInt(it) }
+      link.width?.let { output.writeInt(it) }
+      link.duration?.let { output.writeDouble(it) }
+      link.bitrate?.let { output.writeDouble(it) }
+    }
+  }
+
+  companion object {
+
+    /**
+     * The current version of the snapshot format.
+     */
+
+    const val VERSION = 1
+
+    private const val MAGIC = 0x4e595250
+    private const val HEADER_SIZE = 24
+
+    private const val FLAG_AUTOMATIC = 0x1
+    private const val FLAG_PRODUCTION = 0x2
+    private const val FLAG_LOCATION = 0x4
+    private const val FLAG_DISTANCE = 0x8
+
+    private const val LINK_KIND_BASIC = 0
+    private const val LINK_KIND_TEMPLATED = 1
+
+    private const val LINK_TYPE = 0x1
+    private const val LINK_RELATION = 0x2
+    private const val LINK_TITLE = 0x4
+    private const val LINK_HEIGHT = 0x8
+    private const val LINK_WIDTH = 0x10
+    private const val LINK_DURATION = 0x20
+    private const val LINK_BITRATE = 0x40
+
+    /**
+     * Open the snapshot in the given file.
+     *
+     * @throws IOException If the file does not exist, or is not a valid snapshot of the
+     * current version
+     */
+
+    @Throws(IOException::class)
+    fun open(file: File): AccountProviderDescriptionSnapshot {
+      val buffer =
+        RandomAccessFile(file, "r").use { raf ->
+          raf.channel.map(FileChannel.MapMode.READ_ONLY, 0L, raf.length())
+        }
+      return this.open(buffer)
+    }
+
+    /**
+     * Open the snapshot in the given buffer.
+     *
+     * @throws IOException If the buffer does not contain a valid snapshot of the current
+     * version, or if the offsets, lengths or string references of any record are invalid
+     */
+
+    @Throws(IOException::class)
+    fun open(buffer: ByteBuffer): AccountProviderDescriptionSnapshot {
+      val limit = buffer.limit()
+      if (limit < HEADER_SIZE) {
+        throw IOException("Snapshot is truncated")
+      }
+
+      val magic = buffer.getInt(0)
+      if (magic != MAGIC) {
+        throw IOException("Unrecognized snapshot magic number ${Integer.toHexString(magic)}")
+      }
+      val version = buffer.getInt(4)
+      if (version != VERSION) {
+        throw IOException("Unsupported snapshot version $version")
+      }
+
+      val stringCount = buffer.getInt(8)
+      val recordCount = buffer.getInt(12)
+      val stringDataOffset = buffer.getInt(16)
+      val recordDataOffset = buffer.getInt(20)
+      val tablesEnd = HEADER_SIZE.toLong() + (stringCount * 4L) + (recordCount * 8L)
+
+      if (stringCount < 0 || recordCount < 0 ||
+        tablesEnd > stringDataOffset ||
+        stringDataOffset > recordDataOffset ||
+        recordDataOffset > limit
+      ) {
+        throw IOException("Snapshot header is corrupt")
+      }
+
+      for (index in 0 until stringCount) {
+        val offset = stringDataOffset.toLong() + buffer.getInt(HEADER_SIZE + (index * 4))
+        if (!this.isInBounds(buffer, offset, stringDataOffset, recordDataOffset)) {
+          throw IOException("Snapshot string $index is out of bounds")
+        }
+      }
+
+      val recordTable = HEADER_SIZE + (stringCount * 4)
+      for (index in 0 until recordCount) {
+        val id = buffer.getInt(recordTable + (index * 8))
+        val offset = recordDataOffset.toLong() + buffer.getInt(recordTable + (index * 8) + 4)
+        if (id !in 0 until stringCount ||
+          !this.isInBounds(buffer, offset, recordDataOffset, limit)
+        ) {
+          throw IOException("Snapshot record $index is out of bounds")
+        }
+
+        val start = offset.toInt() + 4
+        val view = buffer.duplicate()
+        view.limit(start + buffer.getInt(offset.toInt()))
+        view.position(start)
+        try {
+          this.checkRecord(view, stringCount)
+        } catch (e: BufferUnderflowException) {
+          throw IOException("Snapshot record $index is truncated", e)
+        } catch (e: IOException) {
+          throw IOException("Snapshot record $index is corrupt: ${e.message}", e)
+        }
+        if (view.hasRemaining()) {
+          throw IOException("Snapshot record $index has ${view.remaining()} trailing bytes")
+        }
+      }
+
+      return AccountProviderDescriptionSnapshot(
+        buffer = buffer.asReadOnlyBuffer(),
+        stringCount = stringCount,
+        recordCount = recordCount,
+        stringDataOffset = stringDataOffset,
+        recordDataOffset = recordDataOffset
+      )
+    }
+
+    /**
+     * Check the structure of a record without decoding it. This follows the same layout as
+     * the record reader, checking every string reference and count along the way.
+     */
+
+    @Throws(IOException::class)
+    private fun checkRecord(
+      view: ByteBuffer,
+      stringCount: Int
+    ) {
+      this.checkString(view, stringCount)
+      view.long
+      val flags = view.get().toInt()
+      this.checkLinks(view, stringCount)
+      this.checkLinks(view, stringCount)
+
+      if (flags and FLAG_LOCATION != 0) {
+        view.double
+        view.double
+        if (flags and FLAG_DISTANCE != 0) {
+          view.double
+          this.checkString(view, stringCount)
+        }
+      }
+    }
+
+    @Throws(IOException::class)
+    private fun checkLinks(
+      view: ByteBuffer,
+      stringCount: Int
+    ) {
+      val count = this.checkCount(view)
+      for (index in 0 until count) {
+        val kind = view.get().toInt()
+        if (kind != LINK_KIND_BASIC && kind != LINK_KIND_TEMPLATED) {
+          throw IOException("Unrecognized link kind $kind")
+        }
+        this.checkString(view, stringCount)
+
+        val present = view.get().toInt()
+        if (present and LINK_TYPE != 0) {
+          this.checkString(view, stringCount)
+          this.checkString(view, stringCount)
+          val parameterCount = this.checkCount(view)
+          for (parameter in 0 until parameterCount) {
+            this.checkString(view, stringCount)
+            this.checkString(view, stringCount)
+          }
+        }
+        if (present and LINK_RELATION != 0) this.checkString(view, stringCount)
+        if (present and LINK_TITLE != 0) this.checkString(view, stringCount)
+        if (present and LINK_HEIGHT != 0) view.int
+        if (present and LINK_WIDTH != 0) view.int
+        if (present and LINK_DURATION != 0) view.double
+        if (present and LINK_BITRATE != 0) view.double
+      }
+    }
+
+    /**
+     * Read a count, which must be small enough that the remaining bytes could hold that many
+     * values.
+     */
+
+    @Throws(IOException::class)
+    private fun checkCount(view: ByteBuffer): Int {
+      val count = view.int
+      if (count < 0 || count > view.remaining()) {
+        throw IOException("Count $count is out of bounds")
+      }
+      return count
+    }
+
+    @Throws(IOException::class)
+    private fun checkString(
+      view: ByteBuffer,
+      stringCount: Int
+    ) {
+      val index = view.int
+      if (index !in 0 until stringCount) {
+        throw IOException("String index $index is out of bounds")
+      }
+    }
+
+    /**
+     * @return `true` if the length-prefixed value at `offset` lies within `[start, end)`
+     */
+
+    private fun isInBounds(
+      buffer: ByteBuffer,
+      offset: Long,
+      start: Int,
+      end: Int
+    ): Boolean {
+      if (offset < start || offset + 4 > end) {
+        return false
+      }
+      val length = buffer.getInt(offset.toInt())
+      return length >= 0 && offset + 4 + length <= end
+    }
+
+    /**
+     * Write a snapshot of the given descriptions to the given file, atomically replacing
+     * any existing file.
+     */
+
+    @Throws(IOException::class)
+    fun write(
+      file: File,
+      fileTemp: File,
+      descriptions: Collection<AccountProviderDescription>
+    ) {
+      fileTemp.outputStream().use { stream ->
+        stream.write(this.serialize(descriptions))
+        stream.flush()
+        stream.fd.sync()
+      }
+      FileUtilities.fileRename(fileTemp, file)
+    }
+
+    /**
+     * Serialize a snapshot of the given descriptions.
+     */
+
+    fun serialize(descriptions: Collection<AccountProviderDescription>): ByteArray {
+      val sorted =
+        descriptions.associateBy { description -> description.id.toString() }
+          .toSortedMap()
+
+      val writer = Writer()
+      val ids = IntArray(sorted.size)
+      val recordOffsets = IntArray(sorted.size)
+      val recordBytes = ByteArrayOutputStream()
+      val recordOutput = DataOutputStream(recordBytes)
+      val record = ByteArrayOutputStream()
+
+      sorted.entries.forEachIndexed { index, (id, description) ->
+        ids[index] = writer.intern(id)
+        record.reset()
+        writer.writeDescription(DataOutputStream(record), description)
+        recordOffsets[index] = recordOutput.size()
+        recordOutput.writeInt(record.size())
+        record.writeTo(recordOutput)
+      }
+
+      val stringOffsets = IntArray(writer.strings.size)
+      val stringBytes = ByteArrayOutputStream()
+      val stringOutput = DataOutputStream(stringBytes)
+      for ((text, index) in writer.strings) {
+        val bytes = text.toByteArray(Charsets.UTF_8)
+        stringOffsets[index] = stringOutput.size()
+        stringOutput.writeInt(bytes.size)
+        stringOutput.write(bytes)
+      }
+
+      val stringDataOffset = HEADER_SIZE + (stringOffsets.size * 4) + (ids.size * 8)
+      val recordDataOffset = stringDataOffset + stringOutput.size()
+
+      val output = ByteArrayOutputStream(recordDataOffset + recordOutput.size())
+      val data = DataOutputStream(output)
+      data.writeInt(MAGIC)
+      data.writeInt(VERSION)
+      data.writeInt(stringOffsets.size)
+      data.writeInt(ids.size)
+      data.writeInt(stringDataOffset)
+      data.writeInt(recordDataOffset)
+      stringOffsets.forEach(data::writeInt)
+      for (index in ids.indices) {
+        data.writeInt(ids[index])
+        data.writeInt(recordOffsets[index])
+      }
+      stringBytes.writeTo(data)
+      recordBytes.writeTo(data)
+      data.flush()
+      return output.toByteArray()
+    }
+  }
+}
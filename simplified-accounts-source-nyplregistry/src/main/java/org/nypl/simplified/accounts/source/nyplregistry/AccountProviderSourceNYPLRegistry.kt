@@ -1,19 +1,18 @@
 package org.nypl.simplified.accounts.source.nyplregistry
 
 import android.content.Context
+import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
 import org.joda.time.DateTime
 import org.joda.time.DateTimeZone
 import org.joda.time.Duration
 import org.librarysimplified.http.api.LSHTTPClientType
 import org.librarysimplified.http.api.LSHTTPResponseStatus
-import org.nypl.simplified.accounts.api.AccountDistance
-import org.nypl.simplified.accounts.api.AccountDistanceUnit.KILOMETERS
-import org.nypl.simplified.accounts.api.AccountGeoLocation
-import org.nypl.simplified.accounts.api.AccountLibraryLocation
 import org.nypl.simplified.accounts.api.AccountProviderDescription
 import org.nypl.simplified.accounts.api.AccountProviderDescriptionCollection
 import org.nypl.simplified.accounts.api.AccountProviderDescriptionCollectionParsersType
 import org.nypl.simplified.accounts.api.AccountProviderDescriptionCollectionSerializersType
+import org.nypl.simplified.accounts.api.AccountProviderDescriptionIndex
 import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
 import org.nypl.simplified.accounts.api.AccountProviderResolutionStringsType
 import org.nypl.simplified.accounts.api.AccountProviderType
@@ -33,10 +32,20 @@ import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.io.InputStream
+import java.io.StringWriter
 import java.net.URI
+import java.util.Properties
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * A server-based account provider.
+ *
+ * Providers are cached on disk. An expired cache is still returned immediately, and the
+ * providers are refreshed in the background using a conditional request; if the refresh
+ * yields new providers, the complete set is published on [updates].
  */
 
 class AccountProviderSourceNYPLRegistry(
@@ -45,7 +54,8 @@ class AccountProviderSourceNYPLRegistry(
   private val parsers: AccountProviderDescriptionCollectionParsersType,
   private val serializers: AccountProviderDescriptionCollectionSerializersType,
   private val uriProduction: URI,
-  private val uriQA: URI
+  private val uriQA: URI,
+  private val refreshExecutor: Executor = createRefreshExecutor()
 ) : AccountProviderSourceType {
 
   private val logger =
@@ -61,9 +71,45 @@ class AccountProviderSourceNYPLRegistry(
   @Volatile
   private var stringResources: AccountProviderResolutionStringsType? = null
 
+  /**
+   * A flag that indicates that a background refresh is in progress.
+   */
+
+  private val refreshing = AtomicBoolean(false)
+
+  @Volatile
+  private var index: Pair<Pair<Long, Long>, AccountProviderDescriptionIndex>? =
+    null
+
+  private val updatesActual: PublishSubject<SourceResult> =
+    PublishSubject.create()
+
+  override val updates: Observable<SourceResult> =
+    this.updatesActual
+
   private data class CacheFiles(
     val file: File,
-    val fileTemp: File
+    val fileTemp: File,
+    val validators: File,
+    val validatorsTemp: File,
+    val snapshot: File,
+    val snapshotTemp: File
+  )
+
+  /**
+   * The validators returned by the server for a registry document, used to make conditional
+   * requests for the document.
+   */
+
+  private data class Validators(
+    val entityTag: String?,
+    val lastModified: String?
+  )
+
+  private data class ServerResults(
+    val results: Map<URI, AccountProviderDescription>,
+    val target: URI,
+    val validators: Validators
   )
 
   /** The default time to retain the disk cache. */
@@ -85,8 +131,8 @@ class AccountProviderSourceNYPLRegistry(
 
     return try {
       /*
-       * If we have a populated disk cache, and haven't exceeded the cache duration, then
-       * just return the disk cache.
+       * If we have a populated disk cache, then return the disk cache. If the cache duration
+       * has been exceeded, refresh the cache in the background.
        */
       if (diskResults.isNotEmpty()) {
         val now = DateTime.now(DateTimeZone.UTC)
@@ -95,18 +141,32 @@ class AccountProviderSourceNYPLRegistry(
 
         if (age.isShorterThan(this.defaultCacheDuration)) {
           this.logger.debug("disk cache is fresh; last-modified={}", lastModifiedTime)
-          return SourceResult.SourceSucceeded(diskResults)
         } else {
           this.logger.debug("disk cache is expired; last-modified={}", lastModifiedTime)
+          this.refreshInBackground(files, diskResults, includeTestingLibraries)
         }
+        return SourceResult.SourceSucceeded(diskResults)
       }
 
+      /*
+       * An unconditional request should never be answered with "not modified", but a server
+       * might do so anyway. In that case, there is nothing newer than the disk cache.
+       */
+
       val serverResults =
-        this.fetchServerResults(includeTestingLibraries)
+        this.fetchServerResults(files, includeTestingLibraries, conditional = false)
+      if (serverResults == null) {
+        this.logger.warn("server returned no providers for an unconditional request")
+        return SourceResult.SourceFailed(
+          diskResults,
+          IOException("The server returned no providers for an unconditional request.")
+        )
+      }
+
       val mergedResults =
-        this.mergeResults(diskResults, serverResults)
+        this.mergeResults(diskResults, serverResults.results)
 
-      this.cacheServerResults(files, mergedResults)
+      this.cacheServerResults(files, mergedResults, serverResults)
       SourceResult.SourceSucceeded(mergedResults)
     } catch (e: Exception) {
       this.logger.error("failed to fetch providers: ", e)
@@ -114,44 +174,103 @@ class AccountProviderSourceNYPLRegistry(
     }
   }
 
+  /**
+   * Refresh the disk cache in the background, publishing the new set of providers on
+   * [updates] if the server returns any. Does nothing if a refresh is already in progress.
+   */
+
+  private fun refreshInBackground(
+    files: CacheFiles,
+    diskResults: Map<URI, AccountProviderDescription>,
+    includeTestingLibraries: Boolean
+  ) {
+    if (!this.refreshing.compareAndSet(false, true)) {
+      this.logger.debug("refresh already in progress")
+      return
+    }
+
+    try {
+      this.refreshExecutor.execute {
+        try {
+          val serverResults =
+            this.fetchServerResults(files, includeTestingLibraries, conditional = true)
+
+          if (serverResults == null) {
+            this.logger.debug("providers are unchanged on the server")
+            this.touchCache(files)
+          } else {
+            val mergedResults =
+              this.mergeResults(diskResults, serverResults.results)
+
+            this.cacheServerResults(files, mergedResults, serverResults)
+            this.updatesActual.onNext(SourceResult.SourceSucceeded(mergedResults))
+          }
+        } catch (e: Exception) {
+          this.logger.error("failed to refresh providers: ", e)
+          this.updatesActual.onNext(SourceResult.SourceFailed(diskResults, e))
+        } finally {
+          this.refreshing.set(false)
+        }
+      }
+    } catch (e: RejectedExecutionException) {
+      this.logger.error("could not schedule refresh: ", e)
+      this.refreshing.set(false)
+    }
+  }
+
   override fun query(
     context: Context,
     query: AccountSearchQuery
   ): SourceResult {
+    val cacheFile = this.cacheFiles(context).file
+    val stamp = Pair(cacheFile.lastModified(), cacheFile.length())
     val result = this.load(
       context = context,
       includeTestingLibraries = query.includeTestingLibraries
     )
 
-    /*
-     * XXX: Fake testing data. This sets the location of every library to Fort Peck, and derives
-     * a distance value from the library identifier.
-     */
-
     return when (result) {
-      is SourceResult.SourceFailed -> result
+      is SourceResult.SourceFailed ->
+        SourceResult.SourceFailed(mapOf(), result.exception)
       is SourceResult.SourceSucceeded ->
         SourceResult.SourceSucceeded(
-          result.results.mapValues { entry ->
-            entry.value.copy(
-              location = AccountLibraryLocation(
-                location = AccountGeoLocation.Coordinates(
-                  longitude = 48.009720957177684,
-                  latitude = -106.42124352031094
-                ),
-                distance = AccountDistance(entry.value.id.hashCode() * 0.00001, KILOMETERS)
-              )
-            )
-          }
+          this.indexOf(stamp, result.results)
+            .search(query)
+            .associateByTo(LinkedHashMap()) { description -> description.id }
         )
     }
   }
 
+  /**
+   * Return an index of the given descriptions. The index is retained along with the
+   * modification time and size of the disk cache from which the descriptions were loaded,
+   * and is only rebuilt when the disk cache changes.
+   */
+
+  private fun indexOf(
+    stamp: Pair<Long, Long>,
+    descriptions: Map<URI, AccountProviderDescription>
+  ): AccountProviderDescriptionIndex {
+    val existing = this.index
+    if (existing != null && existing.first == stamp && stamp.first != 0L) {
+      return existing.second
+    }
+
+    val index = AccountProviderDescriptionIndex.create(descriptions.values)
+    this.index = Pair(stamp, index)
+    return index
+  }
+
   override fun clear(context: Context) {
+    this.index = null
     synchronized(this.writeLock) {
       val files = this.cacheFiles(context)
       FileUtilities.fileDelete(files.file)
       FileUtilities.fileDelete(files.fileTemp)
+      FileUtilities.fileDelete(files.validators)
+      FileUtilities.fileDelete(files.validatorsTemp)
+      FileUtilities.fileDelete(files.snapshot)
+      FileUtilities.fileDelete(files.snapshotTemp)
     }
   }
 
@@ -178,10 +297,26 @@ class AccountProviderSourceNYPLRegistry(
   private fun cacheFiles(context: Context): CacheFiles {
     return CacheFiles(
       file = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.json"),
-      fileTemp = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.json.tmp")
+      fileTemp = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.json.tmp"),
+      validators = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.validators"),
+      validatorsTemp = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.validators.tmp"),
+      snapshot = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.snapshot"),
+      snapshotTemp = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.snapshot.tmp")
     )
   }
 
+  /**
+   * Mark the disk cache as fresh without rewriting it.
+   */
+
+  private fun touchCache(cacheFiles: CacheFiles) {
+    synchronized(this.writeLock) {
+      if (!cacheFiles.file.setLastModified(DateTime.now(DateTimeZone.UTC).millis)) {
+        this.logger.debug("could not update last-modified time of {}", cacheFiles.file)
+      }
+    }
+  }
+
   /**
    * Serialize the given set of provider descriptions. This serialized file will be used
    * every time this source is queried, and will be augmented with fresher descriptions
@@ -190,7 +325,8 @@ class AccountProviderSourceNYPLRegistry(
 
   private fun cacheServerResults(
     cacheFiles: CacheFiles,
-    mergedResults: Map<URI, AccountProviderDescription>
+    mergedResults: Map<URI, AccountProviderDescription>,
+    serverResults: ServerResults
   ) {
     try {
       this.logger.debug("serializing cache: {}", cacheFiles.fileTemp)
@@ -211,12 +347,96 @@ class AccountProviderSourceNYPLRegistry(
         }
 
         FileUtilities.fileRename(cacheFiles.fileTemp, cacheFiles.file)
+        this.cacheSnapshot(cacheFiles, mergedResults)
+        if (!cacheFiles.file.setLastModified(DateTime.now(DateTimeZone.UTC).millis)) {
+          this.logger.debug("could not update last-modified time of {}", cacheFiles.file)
+        }
+        this.saveValidators(cacheFiles, serverResults.target, serverResults.validators)
       }
     } catch (e: Exception) {
       this.logger.debug("could not serialize cache: {}: ", cacheFiles.fileTemp, e)
     }
   }
 
+  /**
+   * Write a binary snapshot of the given descriptions. The snapshot is used in preference
+   * to the serialized descriptions when loading the disk cache, as it does not need to be
+   * parsed.
+   */
+
+  private fun cacheSnapshot(
+    cacheFiles: CacheFiles,
+    results: Map<URI, AccountProviderDescription>
+  ) {
+    try {
+      this.logger.debug("writing snapshot: {}", cacheFiles.snapshot)
+      AccountProviderDescriptionSnapshot.write(
+        cacheFiles.snapshot,
+        cacheFiles.snapshotTemp,
+        results.values
+      )
+    } catch (e: Exception) {
+      this.logger.debug("could not write snapshot: {}: ", cacheFiles.snapshotTemp, e)
+      FileUtilities.fileDelete(cacheFiles.snapshot)
+    }
+  }
+
+  private fun deleteSnapshot(cacheFiles: CacheFiles) {
+    try {
+      FileUtilities.fileDelete(cacheFiles.snapshot)
+    } catch (e: Exception) {
+      this.logger.debug("could not delete snapshot: {}: ", cacheFiles.snapshot, e)
+    }
+  }
+
+  /**
+   * Save the validators for the given registry document. Validators for other documents
+   * are retained.
+   */
+
+  private fun saveValidators(
+    cacheFiles: CacheFiles,
+    target: URI,
+    validators: Validators
+  ) {
+    val properties = this.loadValidatorProperties(cacheFiles)
+    properties.remove("$target.etag")
+    properties.remove("$target.lastModified")
+    validators.entityTag?.let { properties.setProperty("$target.etag", it) }
+    validators.lastModified?.let { properties.setProperty("$target.lastModified", it) }
+
+    val writer = StringWriter()
+    properties.store(writer, null)
+    FileUtilities.fileWriteUTF8Atomically(
+      cacheFiles.validators,
+      cacheFiles.validatorsTemp,
+      writer.toString()
+    )
+  }
+
+  private fun loadValidators(
+    cacheFiles: CacheFiles,
+    target: URI
+  ): Validators {
+    val properties = this.loadValidatorProperties(cacheFiles)
+    return Validators(
+      entityTag = properties.getProperty("$target.etag"),
+      lastModified = properties.getProperty("$target.lastModified")
+    )
+  }
+
+  private fun loadValidatorProperties(cacheFiles: CacheFiles): Properties {
+    val properties = Properties()
+    try {
+      cacheFiles.validators.reader().use(properties::load)
+    } catch (e: FileNotFoundException) {
+      // No validators have been saved.
+    } catch (e: Exception) {
+      this.logger.debug("could not load validators: {}: ", cacheFiles.validators, e)
+    }
+    return properties
+  }
+
   private fun mergeResults(
     diskResults: Map<URI, AccountProviderDescription>,
     serverResults: Map<URI, AccountProviderDescription>
@@ -224,10 +444,40 @@ class AccountProviderSourceNYPLRegistry(
     diskResults.plus(serverResults)
 
   /**
-   * Fetch the set of serialized provider descriptions.
+   * Fetch the cached provider descriptions, preferring the binary snapshot if one exists. A
+   * snapshot that cannot be opened is deleted, and the serialized descriptions are used instead.
    */
 
   private fun fetchDiskResults(cacheFiles: CacheFiles): Map<URI, AccountProviderDescription> {
+    if (cacheFiles.file.isFile) {
+      try {
+        val snapshot = AccountProviderDescriptionSnapshot.open(cacheFiles.snapshot)
+        this.logger.debug("loaded {} cached providers from snapshot", snapshot.size)
+        return snapshot
+      } catch (e: FileNotFoundException) {
+        this.logger.debug("no snapshot exists")
+      } catch (e: Exception) {
+        this.logger.debug("could not load snapshot: ", e)
+        synchronized(this.writeLock) {
+          this.deleteSnapshot(cacheFiles)
+        }
+      }
+    }
+
+    val results = this.fetchSerializedResults(cacheFiles)
+    if (results.isNotEmpty()) {
+      synchronized(this.writeLock) {
+        this.cacheSnapshot(cacheFiles, results)
+      }
+    }
+    return results
+  }
+
+  /**
+   * Fetch the set of serialized provider descriptions.
+   */
+
+  private fun fetchSerializedResults(cacheFiles: CacheFiles): Map<URI, AccountProviderDescription> {
     this.logger.debug("fetching disk cache: {}", cacheFiles.file)
 
     return try {
@@ -269,30 +519,90 @@ class AccountProviderSourceNYPLRegistry(
   }
 
   /**
-   * Fetch a set of provider descriptions from the server.
+   * Fetch a set of provider descriptions from the server. If `conditional` is `true`, the
+   * request is made conditional on the validators saved when the document was last
+   * fetched, and `null` is returned if the document has not been modified since.
    */
 
   private fun fetchServerResults(
-    includeTestingLibraries: Boolean
-  ): Map<URI, AccountProviderDescription> {
-    val results = if (includeTestingLibraries) {
+    cacheFiles: CacheFiles,
+    includeTestingLibraries: Boolean,
+    conditional: Boolean
+  ): ServerResults? {
+    val target = if (includeTestingLibraries) {
       this.logger.debug("fetching QA providers from ${this.uriQA}")
-      this.fetchAndParse(this.uriQA)
-        .providers
-        .associateBy { it.id }
+      this.uriQA
     } else {
       this.logger.debug("fetching providers from ${this.uriProduction}")
-      this.fetchAndParse(this.uriProduction)
-        .providers
-        .associateBy { it.id }
+      this.uriProduction
     }
-    this.logger.debug("categorizing ${results.size} providers")
+
+    val validators =
+      if (conditional) {
+        this.loadValidators(cacheFiles, target)
+      } else {
+        Validators(entityTag = null, lastModified = null)
+      }
+
+    val results = this.fetchAndParse(target, validators) ?: return null
+    this.logger.debug("categorizing ${results.results.size} providers")
     return results
   }
 
-  private fun fetchAndParse(target: URI): AccountProviderDescriptionCollection {
-    return this.openStream(target).use { stream ->
-      this.parseFromStream(target, stream)
+  private fun fetchAndParse(
+    target: URI,
+    validators: Validators
+  ): ServerResults? {
+    val request =
+      this.http.newRequest(target)
+        .setRequestModifier { properties ->
+          val headers = properties.headers.toMutableMap()
+          validators.entityTag?.let { headers["If-None-Match"] = it }
+          validators.lastModified?.let { headers["If-Modified-Since"] = it }
+          properties.copy(headers = headers.toSortedMap())
+        }
+        .build()
+
+    return request.execute().use { response ->
+      when (val status = response.status) {
+        is LSHTTPResponseStatus.Responded.OK -> {
+          if (status.properties.originalStatus == 304) {
+            return null
+          }
+
+          val headers = status.properties.headers
+          val collection =
+            (status.bodyStream ?: ByteArrayInputStream(ByteArray(0))).use { stream ->
+              this.parseFromStream(target, stream)
+            }
+
+          ServerResults(
+            results = collection.providers.associateBy { it.id },
+            target = target,
+            validators = Validators(
+              entityTag = headers["etag"]?.firstOrNull(),
+              lastModified = headers["last-modified"]?.firstOrNull()
+            )
+          )
+        }
+        is LSHTTPResponseStatus.Responded.Error -> {
+          if (status.properties.originalStatus == 304) {
+            return null
+          }
+
+          throw ServerReturnedError(
+            uri = target,
+            errorCode = status.properties.status,
+            message = status.properties.message,
+            problemReport = status.properties.problemReport
+          )
+        }
+        is LSHTTPResponseStatus.Failed ->
+          throw ServerConnectionFailure(
+            uri = target,
+            cause = status.exception
+          )
+      }
     }
   }
 
@@ -331,27 +641,14 @@ class AccountProviderSourceNYPLRegistry(
     parseResult.warnings.forEach { this.logger.warn("parse warning: {}: ", it.message) }
   }
 
-  private fun openStream(target: URI): InputStream {
-    val request =
-      this.http.newRequest(target)
-        .build()
+  companion object {
 
-    val response = request.execute()
-    return when (val status = response.status) {
-      is LSHTTPResponseStatus.Responded.OK ->
-        status.bodyStream ?: ByteArrayInputStream(ByteArray(0))
-      is LSHTTPResponseStatus.Responded.Error ->
-        throw ServerReturnedError(
-          uri = target,
-          errorCode = status.properties.status,
-          message = status.properties.message,
-          problemReport = status.properties.problemReport
-        )
-      is LSHTTPResponseStatus.Failed ->
-        throw ServerConnectionFailure(
-          uri = target,
-          cause = status.exception
-        )
-    }
+    private fun createRefreshExecutor(): Executor =
+      Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable, "simplified-registry-refresh")
+        thread.isDaemon = true
+        thread.priority = Thread.MIN_PRIORITY
+        thread
+      }
   }
 }
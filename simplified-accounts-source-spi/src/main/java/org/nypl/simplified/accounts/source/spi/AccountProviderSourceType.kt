@@ -1,6 +1,7 @@
 package org.nypl.simplified.accounts.source.spi
 
 import android.content.Context
+import io.reactivex.Observable
 import org.nypl.simplified.accounts.api.AccountProviderDescription
 import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
 import org.nypl.simplified.accounts.api.AccountProviderType
@@ -43,6 +44,15 @@ interface AccountProviderSourceType {
     ) : SourceResult()
   }
 
+  /**
+   * Results that the source obtains outside of calls to [load] and [query], such as when
+   * a background refresh of expired cached data completes. Each result is complete, and
+   * supersedes any results previously returned by the source.
+   */
+
+  val updates: Observable<SourceResult>
+    get() = Observable.never()
+
   /**
    * Retrieve everything the source provides.
    *
@@ -50,6 +50,12 @@ interface BorrowContextType {
 
   val adobeExecutorTimeout: BorrowTimeoutConfiguration
 
+  /**
+   * The configuration used for direct book downloads.
+   */
+
+  val downloadConfiguration: BorrowDownloadConfiguration
+
   /**
    * A flag that indicates a borrow task has been cancelled. Subtasks should take care to
    * observe this flag during long-running operations in order to support cancellation.
@@ -0,0 +1,229 @@
+package org.nypl.simplified.books.borrowing
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import com.io7m.jfunctional.Some
+import org.librarysimplified.http.api.LSHTTPClientType
+import org.librarysimplified.http.api.LSHTTPResponseStatus
+import org.nypl.simplified.books.api.Book
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.book_database.api.BookDatabaseEntryType
+import org.nypl.simplified.books.book_registry.BookRegistryType
+import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.URI
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+
+/**
+ * A fetcher that downloads the cover and thumbnail images of owned books and stores them in
+ * the book database, so that the covers of owned books can be displayed without network
+ * access.
+ *
+ * Fetching happens on the given executor and never blocks the caller. Images taller than the
+ * given maximum heights are scaled down before being stored. If a book has no thumbnail link,
+ * the thumbnail is scaled down from the cover. Images that are already present in the book
+ * database are not fetched again.
+ */
+
+class BorrowCoverFetcher(
+  private val httpClient: LSHTTPClientType,
+  private val bookRegistry: BookRegistryType,
+  private val executor: Executor,
+  private val temporaryDirectory: File,
+  private val maximumCoverHeight: Int = 1024,
+  private val maximumThumbnailHeight: Int = 320
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(BorrowCoverFetcher::class.java)
+
+  private val inProgress =
+    ConcurrentHashMap.newKeySet<BookID>()
+
+  private enum class Kind {
+    COVER,
+    THUMBNAIL
+  }
+
+  /**
+   * Fetch the cover and thumbnail for the given database entry in the background, if they
+   * are not already present.
+   */
+
+  fun fetch(entry: BookDatabaseEntryType) {
+    val book = entry.book
+    if (book.cover != null && book.thumbnail != null) {
+      return
+    }
+    if (!this.inProgress.add(book.id)) {
+      return
+    }
+
+    try {
+      this.executor.execute {
+        try {
+          this.fetchNow(entry)
+        } catch (e: Exception) {
+          this.logger.error("[{}] unable to fetch covers: ", book.id.brief(), e)
+        } finally {
+          this.inProgress.remove(book.id)
+        }
+      }
+    } catch (e: Exception) {
+      this.inProgress.remove(book.id)
+      this.logger.error("[{}] unable to schedule cover fetching: ", book.id.brief(), e)
+    }
+  }
+
+  private fun fetchNow(entry: BookDatabaseEntryType) {
+    val book = entry.book
+    val coverURI = (book.entry.cover as? Some<URI>)?.get()
+    val thumbnailURI = (book.entry.thumbnail as? Some<URI>)?.get() ?: coverURI
+
+    var updated = false
+    if (book.cover == null && coverURI != null) {
+      updated = this.fetchInto(entry, Kind.COVER, coverURI) || updated
+    }
+    if (book.thumbnail == null && thumbnailURI != null) {
+      updated = this.fetchInto(entry, Kind.THUMBNAIL, thumbnailURI) || updated
+    }
+    if (updated) {
+      this.publishIfIdle(entry.book)
+    }
+  }
+
+  private fun fetchInto(
+    entry: BookDatabaseEntryType,
+    kind: Kind,
+    uri: URI
+  ): Boolean {
+    val scheme = uri.scheme
+    if (scheme != "http" && scheme != "https") {
+      return false
+    }
+
+    this.temporaryDirectory.mkdirs()
+    val fileDownload = File(this.temporaryDirectory, "${UUID.randomUUID()}.img")
+    val fileScaled = File(this.temporaryDirectory, "${UUID.randomUUID()}.jpg")
+
+    try {
+      if (!this.download(uri, fileDownload)) {
+        return false
+      }
+
+      val maximumHeight =
+        when (kind) {
+          Kind.COVER -> this.maximumCoverHeight
+          Kind.THUMBNAIL -> this.maximumThumbnailHeight
+        }
+
+      val fileResult =
+        if (this.scaleDown(fileDownload, fileScaled, maximumHeight)) fileScaled else fileDownload
+
+      when (kind) {
+        Kind.COVER -> entry.setCover(fileResult)
+        Kind.THUMBNAIL -> entry.setThumbnail(fileResult)
+      }
+      this.logger.debug("[{}] stored {} from {}", entry.book.id.brief(), kind, uri)
+      return true
+    } catch (e: Exception) {
+      this.logger.error("[{}] unable to store {} from {}: ", entry.book.id.brief(), kind, uri, e)
+      return false
+    } finally {
+      fileDownload.delete()
+      fileScaled.delete()
+    }
+  }
+
+  private fun download(
+    uri: URI,
+    file: File
+  ): Boolean {
+    val request =
+      this.httpClient.newRequest(uri)
+        .build()
+
+    request.execute().use { response ->
+      return when (val status = response.status) {
+        is LSHTTPResponseStatus.Responded.OK -> {
+          val stream = status.bodyStream ?: throw IOException("No response body")
+          FileOutputStream(file).use { output -> stream.copyTo(output) }
+          true
+        }
+        is LSHTTPResponseStatus.Responded.Error -> {
+          this.logger.debug(
+            "could not fetch {}: {} {}",
+            uri,
+            status.properties.originalStatus,
+            status.properties.message
+          )
+          false
+        }
+        is LSHTTPResponseStatus.Failed ->
+          throw IOException(status.exception)
+      }
+    }
+  }
+
+  /**
+   * Scale down the image in `source` to at most the given height, writing the result to
+   * `target`.
+   *
+   * @return `false` if the image is already small enough, or is not a decodable image
+   */
+
+  private fun scaleDown(
+    source: File,
+    target: File,
+    maximumHeight: Int
+  ): Boolean {
+    val bounds = BitmapFactory.Options()
+    bounds.inJustDecodeBounds = true
+    BitmapFactory.decodeFile(source.path, bounds)
+    if (bounds.outHeight <= maximumHeight || bounds.outWidth <= 0) {
+      return false
+    }
+
+    var sampleSize = 1
+    while (bounds.outHeight / (sampleSize * 2) >= maximumHeight) {
+      sampleSize *= 2
+    }
+
+    val options = BitmapFactory.Options()
+    options.inSampleSize = sampleSize
+    val sampled = BitmapFactory.decodeFile(source.path, options) ?: return false
+    val width = Math.max(1, (sampled.width.toLong() * maximumHeight / sampled.height).toInt())
+    val scaled = Bitmap.createScaledBitmap(sampled, width, maximumHeight, true)
+
+    try {
+      FileOutputStream(target).use { output ->
+        scaled.compress(Bitmap.CompressFormat.JPEG, 90, output)
+      }
+    } finally {
+      if (scaled !== sampled) {
+        scaled.recycle()
+      }
+      sampled.recycle()
+    }
+    return true
+  }
+
+  /**
+   * Publish the updated book, but only if nothing else is currently happening to it. Any
+   * operation in progress will publish the updated book itself when it next publishes a
+   * status, as statuses are published using the latest book value from the database.
+   */
+
+  private fun publishIfIdle(book: Book) {
+    val current = this.bookRegistry.bookOrNull(book.id) ?: return
+    if (current.status == BookStatus.fromBook(current.book)) {
+      this.bookRegistry.update(BookWithStatus(book, current.status))
+    }
+  }
+}
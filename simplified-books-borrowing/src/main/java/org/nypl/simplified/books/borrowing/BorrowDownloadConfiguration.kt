@@ -0,0 +1,31 @@
+package org.nypl.simplified.books.borrowing
+
+/**
+ * Configuration values for direct book downloads.
+ */
+
+data class BorrowDownloadConfiguration(
+
+  /**
+   * The number of byte ranges that will be fetched concurrently when downloading large files
+   * from servers that advertise support for range requests. A value of `1` disables segmented
+   * downloads.
+   */
+
+  val segmentCount: Int = 4,
+
+  /**
+   * The minimum size in bytes of a file for which segmented downloads will be used.
+   */
+
+  val segmentedSizeThreshold: Long = 16L * 1024L * 1024L
+) {
+  init {
+    require(this.segmentCount >= 1) {
+      "Segment count ${this.segmentCount} must be >= 1"
+    }
+    require(this.segmentedSizeThreshold >= 0L) {
+      "Segmented size threshold ${this.segmentedSizeThreshold} must be >= 0"
+    }
+  }
+}
@@ -28,6 +28,8 @@ data class BorrowRequirements(
   val cacheDirectory: File,
   val clock: () -> Instant,
   val contentResolver: ContentResolverType,
+  val coverFetcher: BorrowCoverFetcher?,
+  val downloadConfiguration: BorrowDownloadConfiguration,
   val httpClient: LSHTTPClientType,
   val profiles: ProfilesDatabaseType,
   val services: ServiceDirectoryType,
@@ -40,7 +42,9 @@ data class BorrowRequirements(
       services: ServiceDirectoryType,
       clock: () -> Instant,
       cacheDirectory: File,
-      temporaryDirectory: File
+      temporaryDirectory: File,
+      downloadConfiguration: BorrowDownloadConfiguration = BorrowDownloadConfiguration(),
+      coverFetcher: BorrowCoverFetcher? = null
     ): BorrowRequirements {
       return BorrowRequirements(
         adobeExecutor = services.optionalService(AdobeAdeptExecutorType::class.java),
@@ -52,6 +56,8 @@ data class BorrowRequirements(
         cacheDirectory = cacheDirectory,
         clock = clock,
         contentResolver = services.requireService(ContentResolverType::class.java),
+        coverFetcher = coverFetcher,
+        downloadConfiguration = downloadConfiguration,
         httpClient = services.requireService(LSHTTPClientType::class.java),
         profiles = services.requireService(ProfilesDatabaseType::class.java),
         services = services,
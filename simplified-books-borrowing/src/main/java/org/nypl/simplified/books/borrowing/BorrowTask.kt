@@ -14,6 +14,7 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseEntryType
 import org.nypl.simplified.books.book_registry.BookRegistryType
 import org.nypl.simplified.books.book_registry.BookStatus
 import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.books.borrowing.internal.BorrowDownloadProgressThrottle
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.accountsDatabaseException
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.bookDatabaseFailed
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.noSubtaskAvailable
@@ -187,6 +188,7 @@ class BorrowTask private constructor(
         clock = this.requirements.clock,
         contentResolver = this.requirements.contentResolver,
         currentOPDSAcquisitionPathElement = path.elements.first(),
+        downloadConfiguration = this.requirements.downloadConfiguration,
         httpClient = this.requirements.httpClient,
         logger = this.logger,
         opdsAcquisitionPath = path,
@@ -286,6 +288,7 @@ class BorrowTask private constructor(
       val database = this.account.bookDatabase
       val dbEntry = database.createOrUpdate(book.id, entry)
       this.databaseEntry = dbEntry
+      this.requirements.coverFetcher?.fetch(dbEntry)
       this.taskRecorder.currentStepSucceeded("Book database updated.")
       return dbEntry.book
     } catch (e: Exception) {
@@ -397,6 +400,7 @@ class BorrowTask private constructor(
     private val logger: Logger,
     private val temporaryDirectory: File,
     var currentOPDSAcquisitionPathElement: OPDSAcquisitionPathElement,
+    override val downloadConfiguration: BorrowDownloadConfiguration,
     override val adobeExecutor: AdobeAdeptExecutorType?,
     override val axisNowService: AxisNowServiceType?,
     override val services: ServiceDirectoryType,
@@ -429,12 +433,19 @@ class BorrowTask private constructor(
       )
     }
 
+    private val progressThrottle =
+      BorrowDownloadProgressThrottle(this.clock)
+
     override fun bookDownloadIsRunning(
       message: String,
       receivedSize: Long?,
       expectedSize: Long?,
       bytesPerSecond: Long?
     ) {
+      if (!this.progressThrottle.shouldPublish(receivedSize, expectedSize, message)) {
+        return
+      }
+
       this.logDebug("downloading: {} {} {}", expectedSize, receivedSize, bytesPerSecond)
 
       this.bookPublishStatus(
@@ -448,6 +459,9 @@ class BorrowTask private constructor(
     }
 
     override fun bookPublishStatus(status: BookStatus) {
+      if (status !is BookStatus.Downloading) {
+        this.progressThrottle.reset()
+      }
       this.bookRegistry.update(BookWithStatus(this.bookDatabaseEntry.book, status))
     }
 
@@ -298,11 +298,7 @@ class BorrowACSM private constructor() : BorrowSubtaskType {
             netProvider = it.netProvider
 
             context.bookDownloadIsRunning(
-              message = BorrowHTTP.downloadingMessage(
-                expectedSize = 100,
-                currentSize = 0L,
-                perSecond = 1L
-              ),
+              message = BorrowHTTP.downloadingMessage(100),
               receivedSize = 0L,
               expectedSize = 100L,
               bytesPerSecond = 1L
@@ -315,11 +311,7 @@ class BorrowACSM private constructor() : BorrowSubtaskType {
 
             if (unitsPerSecond.update(progress.toLong())) {
               context.bookDownloadIsRunning(
-                message = BorrowHTTP.downloadingMessage(
-                  expectedSize = 100,
-                  currentSize = progress.toLong(),
-                  perSecond = 1L
-                ),
+                message = BorrowHTTP.downloadingMessage(100),
                 receivedSize = progress.toLong(),
                 expectedSize = 100L,
                 bytesPerSecond = 1L
@@ -398,7 +390,7 @@ class BorrowACSM private constructor() : BorrowSubtaskType {
         drmHandle.setAdobeRightsInformation(fulfillment.loan)
         when (formatHandle) {
           is BookDatabaseEntryFormatHandleEPUB -> {
-            formatHandle.copyInBook(fulfillment.file)
+            formatHandle.moveInBook(fulfillment.file)
             context.taskRecorder.currentStepSucceeded("Saved book.")
             context.bookDownloadSucceeded()
           }
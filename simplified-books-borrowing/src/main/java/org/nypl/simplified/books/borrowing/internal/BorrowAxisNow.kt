@@ -143,7 +143,7 @@ class BorrowAxisNow private constructor() : BorrowSubtaskType {
     }
 
     formatHandle.setDRMKind(BookDRMKind.AXIS)
-    formatHandle.copyInBook(fulfillment.book)
+    formatHandle.moveInBook(fulfillment.book)
     context.taskRecorder.currentStepSucceeded("Saved book.")
 
     val drmHandle = formatHandle.drmInformationHandle as BookDRMInformationHandle.AxisHandle
@@ -13,7 +13,8 @@ import java.net.URI
 /**
  * A task that downloads a file directly and saves it to the book database. It _does not_
  * do any special logic such as audio book manifest fulfillment, Adobe ACS operations, or
- * anything else.
+ * anything else. Interrupted downloads are resumed on the next attempt where the server
+ * allows it.
  */
 
 class BorrowDirectDownload private constructor() : BorrowSubtaskType {
@@ -49,6 +50,6 @@ class BorrowDirectDownload private constructor() : BorrowSubtaskType {
       bytesPerSecond = 0
     )
 
-    BorrowHTTP.download(context)
+    BorrowHTTP.downloadResumable(context)
   }
 }
@@ -0,0 +1,111 @@
+package org.nypl.simplified.books.borrowing.internal
+
+import org.joda.time.Instant
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * A throttle for download progress publications.
+ *
+ * Every published progress value results in a new book status being pushed through the book
+ * registry to every observer, so subtasks that report progress for every chunk of data they
+ * receive can easily saturate the UI thread when several books are downloading. The throttle
+ * allows a progress value through if:
+ *
+ * - It is the first value since the throttle was created or [reset]
+ * - The status message has changed (subtasks use a new message for each step, and often
+ *   report the same sizes, or no sizes at all, for several steps)
+ * - The expected size has changed (a new phase of the download has started)
+ * - The received size has gone backwards (the download has restarted)
+ * - The received size has reached the expected size (the final value is never dropped)
+ * - At least [minimumIntervalMillis] have passed since the last published value, and the
+ *   progress has moved by at least [minimumPercentStep] percent (or by any amount, if the
+ *   expected size is unknown)
+ *
+ * The throttle is lock-free and can be consulted from multiple threads.
+ */
+
+class BorrowDownloadProgressThrottle(
+  private val clock: () -> Instant,
+  private val minimumIntervalMillis: Long = 500L,
+  private val minimumPercentStep: Double = 1.0
+) {
+
+  private data class Published(
+    val timeMillis: Long,
+    val receivedSize: Long?,
+    val expectedSize: Long?,
+    val message: String?
+  )
+
+  private val lastPublished =
+    AtomicReference<Published?>(null)
+
+  /**
+   * Forget the last published value, so that the next value is always published.
+   */
+
+  fun reset() {
+    this.lastPublished.set(null)
+  }
+
+  /**
+   * @return `true` if the given progress value should be published
+   */
+
+  fun shouldPublish(
+    receivedSize: Long?,
+    expectedSize: Long?,
+    message: String? = null
+  ): Boolean {
+    val timeNow = this.clock.invoke().millis
+    val next = Published(timeNow, receivedSize, expectedSize, message)
+
+    while (true) {
+      val last = this.lastPublished.get()
+      if (!this.isSignificant(last, next)) {
+        return false
+      }
+      if (this.lastPublished.compareAndSet(last, next)) {
+        return true
+      }
+    }
+  }
+
+  private fun isSignificant(
+    last: Published?,
+    next: Published
+  ): Boolean {
+    if (last == null) {
+      return true
+    }
+    if (last.message != next.message) {
+      return true
+    }
+
+    val timeNow = next.timeMillis
+    val receivedSize = next.receivedSize
+    val expectedSize = next.expectedSize
+    if (last.expectedSize != expectedSize) {
+      return true
+    }
+    if (receivedSize == null || last.receivedSize == null) {
+      return receivedSize != last.receivedSize
+    }
+    if (receivedSize < last.receivedSize) {
+      return true
+    }
+    if (expectedSize != null && receivedSize >= expectedSize) {
+      return receivedSize != last.receivedSize
+    }
+    if (timeNow - last.timeMillis < this.minimumIntervalMillis) {
+      return false
+    }
+    if (expectedSize == null || expectedSize <= 0L) {
+      return receivedSize != last.receivedSize
+    }
+
+    val percentMoved =
+      ((receivedSize - last.receivedSize).toDouble() * 100.0) / expectedSize.toDouble()
+    return percentMoved >= this.minimumPercentStep
+  }
+}
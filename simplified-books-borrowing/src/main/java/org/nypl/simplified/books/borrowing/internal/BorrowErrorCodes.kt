@@ -18,6 +18,7 @@ object BorrowErrorCodes {
   const val axisNowNotSupported = "axisNowNotSupported"
   const val audioStrategyFailed = "audioStrategyFailed"
   const val bookDatabaseFailed = "bookDatabaseFailed"
+  const val borrowCancelled = "borrowCancelled"
   const val contentFileNotFound = "contentFileNotFound"
   const val httpConnectionFailed = "httpConnectionFailed"
   const val httpContentTypeIncompatible = "httpContentTypeIncompatible"
@@ -5,6 +5,8 @@ import one.irradia.mime.api.MIMECompatibility
 import one.irradia.mime.api.MIMEType
 import org.librarysimplified.http.api.LSHTTPRequestBuilderType.AllowRedirects.ALLOW_UNSAFE_REDIRECTS
 import org.librarysimplified.http.api.LSHTTPRequestProperties
+import org.librarysimplified.http.api.LSHTTPRequestType
+import org.librarysimplified.http.api.LSHTTPResponseStatus
 import org.librarysimplified.http.downloads.LSHTTPDownloadRequest
 import org.librarysimplified.http.downloads.LSHTTPDownloadState
 import org.librarysimplified.http.downloads.LSHTTPDownloadState.DownloadReceiving
@@ -19,8 +21,13 @@ import org.nypl.simplified.accounts.api.setAuthentication
 import org.nypl.simplified.books.book_database.api.BookDatabaseEntryFormatHandle
 import org.nypl.simplified.books.borrowing.BorrowContextType
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException
+import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException.BorrowSubtaskCancelled
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException.BorrowSubtaskFailed
+import java.io.ByteArrayInputStream
 import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
 import java.net.URI
 
 /**
@@ -99,14 +106,7 @@ object BorrowHTTP {
     context: BorrowContextType,
     result: DownloadFailedServer
   ): BorrowSubtaskFailed {
-    val status = result.responseStatus
-    context.taskRecorder.addAttributes(status.properties.problemReport?.toMap() ?: emptyMap())
-    context.taskRecorder.currentStepFailed(
-      message = "HTTP request failed: ${status.properties.originalStatus} ${status.properties.message}",
-      errorCode = BorrowErrorCodes.httpRequestFailed,
-      exception = null
-    )
-    return BorrowSubtaskFailed()
+    return this.onResponseError(context, result.responseStatus)
   }
 
   /**
@@ -117,12 +117,7 @@ object BorrowHTTP {
     context: BorrowContextType,
     result: DownloadFailedExceptionally
   ): BorrowSubtaskFailed {
-    context.taskRecorder.currentStepFailed(
-      message = result.exception.message ?: "Exception raised during connection attempt.",
-      errorCode = BorrowErrorCodes.httpConnectionFailed,
-      exception = result.exception
-    )
-    return BorrowSubtaskFailed()
+    return this.onConnectionFailed(context, result.exception)
   }
 
   /**
@@ -143,11 +138,7 @@ object BorrowHTTP {
     when (event) {
       is DownloadReceiving -> {
         context.bookDownloadIsRunning(
-          message = this.downloadingMessage(
-            expectedSize = event.expectedSize,
-            currentSize = event.receivedSize,
-            perSecond = event.bytesPerSecond
-          ),
+          message = this.downloadingMessage(event.expectedSize),
           receivedSize = event.receivedSize,
           expectedSize = event.expectedSize,
           bytesPerSecond = event.bytesPerSecond
@@ -165,15 +156,19 @@ object BorrowHTTP {
     }
   }
 
+  /**
+   * @return A status message for a download of the given size. The message does not change as
+   * data is received: the progress itself is published separately, and a changed message is
+   * always published (see [BorrowDownloadProgressThrottle]).
+   */
+
   fun downloadingMessage(
-    expectedSize: Long?,
-    currentSize: Long,
-    perSecond: Long
+    expectedSize: Long?
   ): String {
     return if (expectedSize == null) {
       "Downloading..."
     } else {
-      "Downloading $currentSize / $expectedSize ($perSecond)..."
+      "Downloading $expectedSize bytes..."
     }
   }
 
@@ -232,6 +227,366 @@ object BorrowHTTP {
     }
   }
 
+  /**
+   * Download the file indicated by the given borrowing context, resuming an earlier interrupted
+   * download of the same URI for the same book if one exists. If the connection fails or the
+   * borrow is cancelled, the data received so far is retained for the next attempt, as long as
+   * the server delivered a validator (`ETag` or `Last-Modified`) that allows for a safe
+   * resumption. If the server rejects the request, the data is deleted.
+   *
+   * @param context The borrowing context.
+   *
+   * @see BorrowPartialDownload
+   */
+
+  fun downloadResumable(
+    context: BorrowContextType
+  ) {
+    return try {
+      val currentURI = context.currentURICheck()
+      context.logDebug("downloading {}", currentURI)
+      context.taskRecorder.beginNewStep("Downloading $currentURI...")
+      context.taskRecorder.addAttribute("URI", currentURI.toString())
+
+      val partial =
+        BorrowPartialDownload.open(
+          directory = BorrowPartialDownload.directoryOf(context.cacheDirectory()),
+          bookID = context.bookCurrent.id,
+          uri = currentURI
+        )
+
+      if (!partial.isResumable) {
+        partial.delete()
+      }
+
+      val offset = partial.size
+      val validator = partial.validator
+      if (offset > 0L && validator != null) {
+        context.logDebug("resuming download at offset {} (validator {})", offset, validator)
+        context.taskRecorder.addAttribute("Resumed At", offset.toString())
+      }
+
+      val request =
+        if (offset > 0L && validator != null) {
+          this.createRangeRequest(context, currentURI, "bytes=$offset-", validator)
+        } else {
+          this.createRangeRequest(context, currentURI, null, null)
+        }
+
+      request.execute().use { response ->
+        when (val status = response.status) {
+          is LSHTTPResponseStatus.Responded.OK ->
+            this.receiveResumable(context, currentURI, partial, status)
+          is LSHTTPResponseStatus.Responded.Error -> {
+            partial.delete()
+            throw this.onResponseError(context, status)
+          }
+          is LSHTTPResponseStatus.Failed ->
+            throw this.onConnectionFailed(context, status.exception)
+        }
+      }
+
+      this.saveDownloadedContent(context, partial.file)
+      partial.delete()
+    } catch (e: BorrowSubtaskFailed) {
+      context.bookDownloadFailed()
+      throw e
+    }
+  }
+
+  /**
+   * Create a request for the given URI. If `range` is not null, the request asks for the given
+   * byte range, and includes `validator` in an `If-Range` header so that the server delivers the
+   * complete content instead if it has changed.
+   */
+
+  internal fun createRangeRequest(
+    context: BorrowContextType,
+    target: URI,
+    range: String?,
+    validator: String?
+  ): LSHTTPRequestType {
+    return context.httpClient.newRequest(target)
+      .setAuthentication(context.account)
+      .allowRedirects(ALLOW_UNSAFE_REDIRECTS)
+      .apply {
+        if (range != null && validator != null) {
+          setRequestModifier { properties ->
+            val headers = properties.headers.toMutableMap()
+            headers["Range"] = range
+            headers["If-Range"] = validator
+            properties.copy(headers = headers.toSortedMap())
+          }
+        }
+      }
+      .build()
+  }
+
+  private fun receiveResumable(
+    context: BorrowContextType,
+    target: URI,
+    partial: BorrowPartialDownload,
+    status: LSHTTPResponseStatus.Responded.OK
+  ) {
+    if (!this.isMimeTypeAcceptable(context, status.properties.contentType)) {
+      partial.delete()
+      throw BorrowSubtaskFailed()
+    }
+
+    val headers = status.properties.headers
+    val contentLength = this.headerOf(headers, "content-length")?.toLongOrNull()
+
+    val offset: Long
+    val expectedSize: Long?
+    if (status.properties.status == 206) {
+      val range = this.parseContentRange(this.headerOf(headers, "content-range"))
+      if (range == null || range.first != partial.size) {
+        partial.delete()
+        context.taskRecorder.currentStepFailed(
+          message = "The server returned an unusable content range for a resumed download.",
+          errorCode = BorrowErrorCodes.httpRequestFailed
+        )
+        throw BorrowSubtaskFailed()
+      }
+      offset = range.first
+      expectedSize = range.second ?: contentLength?.plus(offset)
+    } else {
+      partial.delete()
+
+      /*
+       * Without a validator, the download cannot be resumed safely, so there is nothing to
+       * save, and no empty `If-Range` header can be sent by a later attempt.
+       */
+
+      val entityTag = this.headerOf(headers, "etag")?.takeUnless { it.isBlank() }
+      val lastModified = this.headerOf(headers, "last-modified")?.takeUnless { it.isBlank() }
+      if (entityTag != null || lastModified != null) {
+        partial.saveValidators(entityTag = entityTag, lastModified = lastModified)
+      }
+      offset = 0L
+      expectedSize = contentLength
+    }
+
+    val input = status.bodyStream ?: ByteArrayInputStream(ByteArray(0))
+    val segmented =
+      this.segmentedDownloadOf(context, target, partial, headers, offset, expectedSize)
+
+    try {
+      if (segmented != null) {
+        context.bookDownloadIsRunning(
+          message = this.downloadingMessage(expectedSize),
+          receivedSize = 0L,
+          expectedSize = expectedSize,
+          bytesPerSecond = 0L
+        )
+        segmented.execute(input)
+      } else {
+        FileOutputStream(partial.file, offset > 0L).use { output ->
+          this.transferWithProgress(
+            context = context,
+            input = input,
+            output = output,
+            offset = offset,
+            expectedSize = expectedSize
+          )
+        }
+      }
+    } catch (e: BorrowSubtaskCancelled) {
+      if (!partial.isResumable) {
+        partial.delete()
+      }
+      throw e
+    } catch (e: IOException) {
+      if (!partial.isResumable) {
+        partial.delete()
+      }
+      throw this.onConnectionFailed(context, e)
+    }
+
+    if (expectedSize != null && partial.size != expectedSize) {
+      context.taskRecorder.currentStepFailed(
+        message = "The download was truncated: Received ${partial.size} of $expectedSize bytes.",
+        errorCode = BorrowErrorCodes.httpConnectionFailed
+      )
+      throw BorrowSubtaskFailed()
+    }
+  }
+
+  /**
+   * Decide whether the response should be completed as a segmented download. This is only the
+   * case for fresh downloads of large files from servers that advertise support for byte ranges
+   * and that supplied a validator, so that the ranges can be safely requested separately.
+   */
+
+  private fun segmentedDownloadOf(
+    context: BorrowContextType,
+    target: URI,
+    partial: BorrowPartialDownload,
+    headers: Map<String, List<String>>,
+    offset: Long,
+    expectedSize: Long?
+  ): BorrowSegmentedDownload? {
+    val configuration = context.downloadConfiguration
+    if (configuration.segmentCount <= 1 || offset != 0L || expectedSize == null) {
+      return null
+    }
+    if (expectedSize < configuration.segmentedSizeThreshold) {
+      return null
+    }
+
+    val acceptRanges = this.headerOf(headers, "accept-ranges")
+    val validator = partial.validator
+    if (acceptRanges?.trim()?.equals("bytes", ignoreCase = true) != true || validator == null) {
+      return null
+    }
+
+    return BorrowSegmentedDownload(
+      context = context,
+      target = target,
+      partial = partial,
+      totalSize = expectedSize,
+      validator = validator,
+      segmentCount = configuration.segmentCount
+    )
+  }
+
+  private fun transferWithProgress(
+    context: BorrowContextType,
+    input: InputStream,
+    output: FileOutputStream,
+    offset: Long,
+    expectedSize: Long?
+  ) {
+    val perSecond = BorrowUnitsPerSecond(context.clock)
+    var received = offset
+
+    context.bookDownloadIsRunning(
+      message = this.downloadingMessage(expectedSize),
+      receivedSize = received,
+      expectedSize = expectedSize,
+      bytesPerSecond = 0L
+    )
+
+    this.transfer(input, null, context::checkCancelled) { buffer, count ->
+      output.write(buffer, 0, count)
+      received += count.toLong()
+
+      if (perSecond.update(count.toLong())) {
+        context.bookDownloadIsRunning(
+          message = this.downloadingMessage(expectedSize),
+          receivedSize = received,
+          expectedSize = expectedSize,
+          bytesPerSecond = perSecond.now
+        )
+      }
+    }
+    output.flush()
+  }
+
+  /**
+   * Read `input` until the end of the stream or, if `length` is not null, until `length` bytes
+   * have been read, passing each chunk that is read to `write`. The `checkCancelled` function is
+   * evaluated before each read, and is expected to raise an exception if the transfer should
+   * stop. The stream is closed on return.
+   *
+   * @throws IOException If `length` is not null and the stream ends early
+   */
+
+  @Throws(IOException::class)
+  internal fun transfer(
+    input: InputStream,
+    length: Long?,
+    checkCancelled: () -> Unit,
+    write: (ByteArray, Int) -> Unit
+  ) {
+    val buffer = ByteArray(65536)
+    var remaining = length ?: Long.MAX_VALUE
+
+    input.use {
+      while (remaining > 0L) {
+        checkCancelled.invoke()
+        val r = input.read(buffer, 0, Math.min(buffer.size.toLong(), remaining).toInt())
+        if (r == -1) {
+          if (length != null) {
+            throw IOException("Unexpected end of stream: $remaining bytes remaining")
+          }
+          break
+        }
+        write.invoke(buffer, r)
+        remaining -= r.toLong()
+      }
+    }
+  }
+
+  private fun headerOf(
+    headers: Map<String, List<String>>,
+    name: String
+  ): String? {
+    return headers[name]?.firstOrNull()
+  }
+
+  /**
+   * Parse a `Content-Range` header of the form `bytes start-end/total`, returning the start
+   * offset and the total size (if known).
+   */
+
+  private fun parseContentRange(
+    text: String?
+  ): Pair<Long, Long?>? {
+    if (text == null) {
+      return null
+    }
+
+    val trimmed = text.trim()
+    if (!trimmed.startsWith("bytes ")) {
+      return null
+    }
+
+    val segments = trimmed.removePrefix("bytes ").split('/')
+    if (segments.size != 2) {
+      return null
+    }
+
+    val start = segments[0].substringBefore('-').trim().toLongOrNull() ?: return null
+    val total = segments[1].trim().toLongOrNull()
+    return Pair(start, total)
+  }
+
+  /**
+   * @return A message describing the given error response
+   */
+
+  internal fun errorMessageOf(
+    status: LSHTTPResponseStatus.Responded.Error
+  ): String {
+    return "HTTP request failed: ${status.properties.originalStatus} ${status.properties.message}"
+  }
+
+  private fun onResponseError(
+    context: BorrowContextType,
+    status: LSHTTPResponseStatus.Responded.Error
+  ): BorrowSubtaskFailed {
+    context.taskRecorder.addAttributes(status.properties.problemReport?.toMap() ?: emptyMap())
+    context.taskRecorder.currentStepFailed(
+      message = this.errorMessageOf(status),
+      errorCode = BorrowErrorCodes.httpRequestFailed,
+      exception = null
+    )
+    return BorrowSubtaskFailed()
+  }
+
+  private fun onConnectionFailed(
+    context: BorrowContextType,
+    exception: Exception
+  ): BorrowSubtaskFailed {
+    context.taskRecorder.currentStepFailed(
+      message = exception.message ?: "Exception raised during connection attempt.",
+      errorCode = BorrowErrorCodes.httpConnectionFailed,
+      exception = exception
+    )
+    return BorrowSubtaskFailed()
+  }
+
   private fun saveDownloadedContent(
     context: BorrowContextType,
     temporaryFile: File
@@ -245,11 +600,11 @@ object BorrowHTTP {
 
     return when (formatHandle) {
       is BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandleEPUB -> {
-        formatHandle.copyInBook(temporaryFile)
+        formatHandle.moveInBook(temporaryFile)
         context.bookDownloadSucceeded()
       }
       is BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandlePDF -> {
-        formatHandle.copyInBook(temporaryFile)
+        formatHandle.moveInBook(temporaryFile)
         context.bookDownloadSucceeded()
       }
       is BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandleAudioBook,
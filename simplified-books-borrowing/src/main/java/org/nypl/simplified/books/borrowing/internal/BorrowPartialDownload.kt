@@ -0,0 +1,255 @@
+package org.nypl.simplified.books.borrowing.internal
+
+import org.nypl.simplified.books.api.BookID
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.URI
+import java.security.MessageDigest
+import java.util.Properties
+
+/**
+ * Partially downloaded book content that is retained across borrow attempts, so that an
+ * interrupted download can be resumed with an HTTP `Range` request instead of restarting
+ * from the first byte.
+ *
+ * A partial download is keyed by the book ID and the URI being downloaded. Alongside the data
+ * file, a small properties file records the validators (`ETag` and `Last-Modified`) that the
+ * server delivered with the original response. A download is only resumed if one of these
+ * validators is available, and it is sent back to the server in an `If-Range` header so that
+ * the server delivers the complete file again if the resource has changed in the meantime.
+ *
+ * Partial downloads are retained when a download fails because of a connection problem. They
+ * are deleted when the server rejects the download, when the borrow is cancelled (see
+ * [deleteAll]), and when they have not been resumed for a long time (see [deleteExpired]).
+ */
+
+class BorrowPartialDownload private constructor(
+  val file: File,
+  private val fileMeta: File,
+  private val fileMetaTmp: File
+) {
+
+  companion object {
+
+    private const val entityTagKey = "ETag"
+    private const val lastModifiedKey = "Last-Modified"
+
+    /**
+     * The default age after which an abandoned partial download is deleted.
+     */
+
+    const val DEFAULT_MAXIMUM_AGE_MILLISECONDS = 7L * 24L * 60L * 60L * 1000L
+
+    /**
+     * @return The directory that holds partial downloads within the given cache directory
+     */
+
+    fun directoryOf(cacheDirectory: File): File =
+      File(cacheDirectory, "downloads")
+
+    /**
+     * Open (or prepare to create) the partial download for the given book and URI in the
+     * given directory.
+     */
+
+    @Throws(IOException::class)
+    fun open(
+      directory: File,
+      bookID: BookID,
+      uri: URI
+    ): BorrowPartialDownload {
+      directory.mkdirs()
+      if (!directory.isDirectory) {
+        throw IOException("Could not create directory $directory")
+      }
+
+      val name = this.keyOf(bookID, uri)
+      val download =
+        BorrowPartialDownload(
+          file = File(directory, "$name.part"),
+          fileMeta = File(directory, "$name.properties"),
+          fileMetaTmp = File(directory, "$name.properties.tmp")
+        )
+      download.loadValidators()
+      return download
+    }
+
+    /**
+     * Delete all partial downloads for the given book in the given directory.
+     */
+
+    fun deleteAll(
+      directory: File,
+      bookID: BookID
+    ) {
+      val prefix = "$bookID-"
+      directory.listFiles()
+        ?.filter { file -> file.name.startsWith(prefix) }
+        ?.forEach { file -> file.delete() }
+    }
+
+    /**
+     * @return `true` if there is a partial download for the given book in the given directory
+     * that has data and the validators needed to resume it
+     */
+
+    fun existsResumable(
+      directory: File,
+      bookID: BookID
+    ): Boolean {
+      val prefix = "$bookID-"
+      return directory.listFiles()
+        ?.any { file ->
+          file.name.startsWith(prefix) &&
+            file.name.endsWith(".part") &&
+            file.length() > 0L &&
+            File(directory, file.name.removeSuffix(".part") + ".properties").isFile
+        }
+        ?: false
+    }
+
+    /**
+     * Delete all files in the given directory that have not been modified for at least
+     * `maximumAgeMilliseconds`. Partial downloads are written to whenever they are resumed,
+     * so this deletes the downloads of borrows that were abandoned.
+     *
+     * @return The number of files deleted
+     */
+
+    fun deleteExpired(
+      directory: File,
+      maximumAgeMilliseconds: Long = DEFAULT_MAXIMUM_AGE_MILLISECONDS,
+      nowMilliseconds: Long = System.currentTimeMillis()
+    ): Int {
+      var deleted = 0
+      directory.listFiles()
+        ?.filter { file -> file.isFile && nowMilliseconds - file.lastModified() >= maximumAgeMilliseconds }
+        ?.forEach { file ->
+          if (file.delete()) {
+            deleted += 1
+          }
+        }
+      return deleted
+    }
+
+    /**
+     * The name of a partial download is prefixed with the book ID so that all of the partial
+     * downloads for a book can be found without knowing the URIs being downloaded.
+     */
+
+    private fun keyOf(
+      bookID: BookID,
+      uri: URI
+    ): String {
+      val digest = MessageDigest.getInstance("SHA-256")
+      digest.update(uri.toString().toByteArray(Charsets.UTF_8))
+      return "$bookID-" + digest.digest().joinToString("") { byte -> "%02x".format(byte) }
+    }
+  }
+
+  /**
+   * The entity tag delivered by the server for the content, if any.
+   */
+
+  var entityTag: String? = null
+    private set
+
+  /**
+   * The last modification time (as an unparsed HTTP date) delivered by the server for the
+   * content, if any.
+   */
+
+  var lastModified: String? = null
+    private set
+
+  /**
+   * The number of bytes downloaded so far.
+   */
+
+  val size: Long
+    get() = if (this.file.isFile) this.file.length() else 0L
+
+  /**
+   * The value that should be sent in an `If-Range` header when resuming the download. Weak
+   * entity tags are not permitted in `If-Range`, so the last modification time is used instead
+   * when only a weak entity tag is available.
+   */
+
+  val validator: String?
+    get() = this.entityTag?.takeUnless { tag -> tag.isBlank() || tag.startsWith("W/") }
+      ?: this.lastModified?.takeUnless { date -> date.isBlank() }
+
+  /**
+   * `true` if there is data that can be resumed
+   */
+
+  val isResumable: Boolean
+    get() = this.size > 0L && this.validator != null
+
+  /**
+   * Save the validators delivered by the server for the content.
+   */
+
+  @Throws(IOException::class)
+  fun saveValidators(
+    entityTag: String?,
+    lastModified: String?
+  ) {
+    this.entityTag = entityTag
+    this.lastModified = lastModified
+
+    val properties = Properties()
+    entityTag?.let { properties.setProperty(entityTagKey, it) }
+    lastModified?.let { properties.setProperty(lastModifiedKey, it) }
+
+    FileOutputStream(this.fileMetaTmp).use { stream ->
+      properties.store(stream, null)
+    }
+    if (!this.fileMetaTmp.renameTo(this.fileMeta)) {
+      throw IOException("Could not rename ${this.fileMetaTmp} to ${this.fileMeta}")
+    }
+  }
+
+  /**
+   * Delete the saved validators, but not the data. The download cannot be resumed until
+   * validators are saved again.
+   */
+
+  fun clearValidators() {
+    this.fileMeta.delete()
+    this.fileMetaTmp.delete()
+    this.entityTag = null
+    this.lastModified = null
+  }
+
+  /**
+   * Delete the partial download, including any saved validators.
+   */
+
+  fun delete() {
+    this.file.delete()
+    this.fileMeta.delete()
+    this.fileMetaTmp.delete()
+    this.entityTag = null
+    this.lastModified = null
+  }
+
+  private fun loadValidators() {
+    if (!this.fileMeta.isFile) {
+      return
+    }
+
+    try {
+      val properties = Properties()
+      FileInputStream(this.fileMeta).use { stream ->
+        properties.load(stream)
+      }
+      this.entityTag = properties.getProperty(entityTagKey)
+      this.lastModified = properties.getProperty(lastModifiedKey)
+    } catch (e: IOException) {
+      this.delete()
+    }
+  }
+}
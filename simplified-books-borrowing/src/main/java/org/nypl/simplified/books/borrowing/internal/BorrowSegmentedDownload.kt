@@ -0,0 +1,329 @@
+package org.nypl.simplified.books.borrowing.internal
+
+import org.librarysimplified.http.api.LSHTTPResponseStatus
+import org.nypl.simplified.books.borrowing.BorrowContextType
+import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException.BorrowSubtaskCancelled
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.net.URI
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A segmented download. The content is split into a number of contiguous byte ranges that are
+ * fetched concurrently over separate connections, and each range is written directly into its
+ * position in a preallocated file.
+ *
+ * The first range is read from the response that the caller has already opened (and that
+ * advertised `Accept-Ranges: bytes`), so no extra request is needed to probe the server. The
+ * remaining ranges are requested with `If-Range` set to the validator of that response so that
+ * a server that changes the content mid-download cannot cause two versions to be mixed.
+ *
+ * Progress is aggregated over all ranges and published from the calling thread only.
+ *
+ * If any range fails, the remaining ranges are stopped with a flag rather than by interrupting
+ * their threads: an interrupt during a write closes the shared file channel. The file is then
+ * truncated to the contiguous prefix that has been written so that it can be resumed, or
+ * deleted if that is not possible. The validators of the partial download are withdrawn while
+ * the file may contain holes, so that a file left behind by a killed process is never resumed.
+ */
+
+internal class BorrowSegmentedDownload(
+  private val context: BorrowContextType,
+  private val target: URI,
+  private val partial: BorrowPartialDownload,
+  private val totalSize: Long,
+  private val validator: String,
+  segmentCount: Int
+) {
+
+  private val ranges: List<LongRange> =
+    this.splitRanges(this.totalSize, segmentCount)
+  private val progress =
+    AtomicLongArray(this.ranges.size)
+  private val stopped =
+    AtomicBoolean(false)
+
+  @Volatile
+  private var workersStopped = false
+
+  /**
+   * The number of bytes at the start of the file that are known to have been written without
+   * gaps. If the download fails, the file can be truncated to this size and later resumed.
+   */
+
+  val contiguousSize: Long
+    get() {
+      var size = 0L
+      for (index in this.ranges.indices) {
+        val range = this.ranges[index]
+        val written = this.progress.get(index)
+        size += written
+        if (written < this.rangeLength(range)) {
+          break
+        }
+      }
+      return size
+    }
+
+  private val receivedSize: Long
+    get() {
+      var size = 0L
+      for (index in this.ranges.indices) {
+        size += this.progress.get(index)
+      }
+      return size
+    }
+
+  /**
+   * Execute the download, reading the first range from the given stream.
+   *
+   * @throws IOException On I/O errors, or if the server does not honour a range request
+   * @throws BorrowSubtaskCancelled If the borrow task is cancelled
+   */
+
+  @Throws(IOException::class)
+  fun execute(firstRangeStream: InputStream) {
+    this.context.logDebug(
+      "segmented download of {} bytes in {} ranges", this.totalSize, this.ranges.size
+    )
+
+    val entityTag = this.partial.entityTag
+    val lastModified = this.partial.lastModified
+    this.partial.clearValidators()
+
+    var discard = false
+    try {
+      RandomAccessFile(this.partial.file, "rw").use { randomAccess ->
+        try {
+          randomAccess.setLength(this.totalSize)
+          this.executeRanges(randomAccess.channel, firstRangeStream)
+          randomAccess.channel.force(false)
+        } catch (e: Exception) {
+          discard = !this.truncateToContiguous(randomAccess.channel, entityTag, lastModified)
+          throw e
+        }
+
+        val written = this.receivedSize
+        if (written != this.totalSize || randomAccess.length() != this.totalSize) {
+          throw IOException(
+            "Segmented download is incomplete: Received $written of ${this.totalSize} bytes."
+          )
+        }
+      }
+    } finally {
+      if (discard) {
+        this.partial.delete()
+      }
+    }
+  }
+
+  /**
+   * Truncate the file to the contiguous prefix that has been written, and restore the
+   * validators so that the download can be resumed. This is only safe if all of the workers
+   * have stopped; otherwise a late write could reopen a hole in the file.
+   *
+   * @return `false` if the file could not be truncated and must not be resumed
+   */
+
+  private fun truncateToContiguous(
+    channel: FileChannel,
+    entityTag: String?,
+    lastModified: String?
+  ): Boolean {
+    if (!this.workersStopped) {
+      this.context.logError("segmented download workers did not stop; discarding the file")
+      return false
+    }
+
+    return try {
+      channel.truncate(this.contiguousSize)
+      channel.force(false)
+      this.partial.saveValidators(entityTag = entityTag, lastModified = lastModified)
+      true
+    } catch (e: IOException) {
+      this.context.logError("could not truncate segmented download: ", e)
+      false
+    }
+  }
+
+  private fun executeRanges(
+    channel: FileChannel,
+    firstRangeStream: InputStream
+  ) {
+    val executor = this.createExecutor()
+    try {
+      val futures =
+        this.ranges.indices.drop(1).map { index ->
+          executor.submit<Unit> { this.fetchRange(channel, index) }
+        }
+
+      val perSecond = BorrowUnitsPerSecond(this.context.clock)
+      this.writeRange(channel, 0, firstRangeStream, perSecond)
+      this.awaitRanges(futures, perSecond)
+      this.context.checkCancelled()
+    } finally {
+      this.stopped.set(true)
+      executor.shutdown()
+      this.workersStopped =
+        executor.awaitTermination(WORKER_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    }
+  }
+
+  private fun awaitRanges(
+    futures: List<Future<Unit>>,
+    perSecond: BorrowUnitsPerSecond
+  ) {
+    for (future in futures) {
+      while (true) {
+        this.context.checkCancelled()
+        try {
+          future.get(1L, TimeUnit.SECONDS)
+          break
+        } catch (e: TimeoutException) {
+          this.publishProgress(perSecond)
+        } catch (e: ExecutionException) {
+          val cause = e.cause
+          if (cause is BorrowSubtaskCancelled) {
+            this.context.checkCancelled()
+          }
+          if (cause is IOException) {
+            throw cause
+          }
+          throw IOException(cause)
+        }
+      }
+    }
+  }
+
+  private fun fetchRange(
+    channel: FileChannel,
+    index: Int
+  ) {
+    val range = this.ranges[index]
+    val request =
+      BorrowHTTP.createRangeRequest(
+        context = this.context,
+        target = this.target,
+        range = "bytes=${range.first}-${range.last}",
+        validator = this.validator
+      )
+
+    request.execute().use { response ->
+      when (val status = response.status) {
+        is LSHTTPResponseStatus.Responded.OK -> {
+          val contentRange = status.properties.headers["content-range"]?.firstOrNull()
+          if (status.properties.status != 206 ||
+            contentRange?.startsWith("bytes ${range.first}-") != true
+          ) {
+            throw IOException(
+              "The server did not honour the range request for $range (${status.properties.status} $contentRange)"
+            )
+          }
+          val stream = status.bodyStream ?: throw IOException("No response body for range $range")
+          this.writeRange(channel, index, stream, null)
+        }
+        is LSHTTPResponseStatus.Responded.Error ->
+          throw IOException("${BorrowHTTP.errorMessageOf(status)} (range $range)")
+        is LSHTTPResponseStatus.Failed ->
+          throw IOException(status.exception)
+      }
+    }
+  }
+
+  /**
+   * Write the range with the given index from the given stream. Progress is only published
+   * if `perSecond` is non-null, which is only the case on the calling thread. Cancellation is
+   * recorded in the task recorder on the calling thread only; workers also stop when another
+   * range has failed.
+   */
+
+  private fun writeRange(
+    channel: FileChannel,
+    index: Int,
+    stream: InputStream,
+    perSecond: BorrowUnitsPerSecond?
+  ) {
+    val range = this.ranges[index]
+    var position = range.first
+
+    val checkCancelled: () -> Unit =
+      if (perSecond != null) {
+        this.context::checkCancelled
+      } else {
+        {
+          if (this.context.isCancelled || this.stopped.get()) {
+            throw BorrowSubtaskCancelled()
+          }
+        }
+      }
+
+    BorrowHTTP.transfer(stream, this.rangeLength(range), checkCancelled) { buffer, count ->
+      val byteBuffer = ByteBuffer.wrap(buffer, 0, count)
+      while (byteBuffer.hasRemaining()) {
+        position += channel.write(byteBuffer, position)
+      }
+      this.progress.addAndGet(index, count.toLong())
+
+      if (perSecond != null && perSecond.update(count.toLong())) {
+        this.publishProgress(perSecond)
+      }
+    }
+  }
+
+  private fun publishProgress(perSecond: BorrowUnitsPerSecond) {
+    val received = this.receivedSize
+    this.context.bookDownloadIsRunning(
+      message = BorrowHTTP.downloadingMessage(this.totalSize),
+      receivedSize = received,
+      expectedSize = this.totalSize,
+      bytesPerSecond = perSecond.now
+    )
+  }
+
+  private fun createExecutor(): ExecutorService {
+    val id = AtomicInteger(0)
+    return Executors.newFixedThreadPool(Math.max(1, this.ranges.size - 1)) { runnable ->
+      val thread = Thread(runnable)
+      thread.name = "simplified-borrow-segment-${id.getAndIncrement()}"
+      thread.isDaemon = true
+      thread
+    }
+  }
+
+  private fun rangeLength(range: LongRange): Long =
+    (range.last - range.first) + 1L
+
+  private fun splitRanges(
+    totalSize: Long,
+    segmentCount: Int
+  ): List<LongRange> {
+    val count = Math.max(1L, Math.min(segmentCount.toLong(), totalSize)).toInt()
+    val segmentSize = totalSize / count
+    return (0 until count).map { index ->
+      val start = index * segmentSize
+      val end = if (index == count - 1) totalSize - 1L else start + segmentSize - 1L
+      LongRange(start, end)
+    }
+  }
+
+  private companion object {
+
+    /**
+     * The maximum time spent waiting for workers to stop after a range has failed. A worker
+     * blocked in a read only notices the stop flag once the read returns.
+     */
+
+    const val WORKER_STOP_TIMEOUT_SECONDS = 10L
+  }
+}
@@ -1,50 +1,100 @@
 package org.nypl.simplified.books.borrowing.internal
 
 import org.joda.time.Instant
-import org.joda.time.Seconds
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
 
 /**
  * A units per second counter.
+ *
+ * The counter keeps a moving window of per-second totals in a ring of atomic slots, and can
+ * be updated from multiple threads without locking. A slot is claimed for a new second with a
+ * compare-and-set; units added by a concurrent thread in the instant that a slot is recycled
+ * may be lost, which is acceptable for an estimate that is only used for display.
  */
 
-class BorrowUnitsPerSecond(clock: () -> Instant) {
+class BorrowUnitsPerSecond(
+  private val clock: () -> Instant,
+  private val windowSeconds: Int = 5
+) {
 
-  @Volatile
-  private var first = true
-
-  @Volatile
-  private var upsCurrent = 0L
+  init {
+    require(this.windowSeconds >= 2) {
+      "Window size ${this.windowSeconds} must be >= 2"
+    }
+  }
 
-  @Volatile
-  private var upsLast = 0L
+  private val slotSeconds =
+    AtomicLongArray(this.windowSeconds)
+  private val slotUnits =
+    AtomicLongArray(this.windowSeconds)
+  private val secondReported =
+    AtomicLong(Long.MIN_VALUE)
+  private val secondFirst =
+    AtomicLong(Long.MIN_VALUE)
 
-  @Volatile
-  private var timeLast = clock.invoke()
+  init {
+    for (index in 0 until this.windowSeconds) {
+      this.slotSeconds.set(index, Long.MIN_VALUE)
+    }
+  }
 
-  @Volatile
-  private var timeCurrent = clock.invoke()
+  private fun secondNow(): Long =
+    this.clock.invoke().millis / 1000L
 
   /**
-   * The number of units updated over the previous second
+   * The average number of units per second over the completed seconds in the window. Until
+   * the window has filled, the average is taken over the seconds that have completed since the
+   * first update.
    */
 
   val now: Long
-    get() = this.upsLast
+    get() {
+      val first = this.secondFirst.get()
+      if (first == Long.MIN_VALUE) {
+        return 0L
+      }
+
+      val second = this.secondNow()
+      val elapsed = Math.min(second - first, (this.windowSeconds - 1).toLong())
+      if (elapsed <= 0L) {
+        return 0L
+      }
+
+      val oldest = second - (this.windowSeconds - 1)
+      var total = 0L
+      for (index in 0 until this.windowSeconds) {
+        val slotSecond = this.slotSeconds.get(index)
+        if (slotSecond in oldest until second) {
+          total += this.slotUnits.get(index)
+        }
+      }
+      return total / elapsed
+    }
 
   /**
-   * Update the counter, returning the number of units updated over the previous second.
+   * Update the counter, returning `true` if this is the first update in a new second. Callers
+   * can use this to publish progress at most once per second.
    */
 
   fun update(x: Long): Boolean {
-    this.upsCurrent += Math.max(0L, x)
-    this.timeCurrent = Instant.now()
-    if (Seconds.secondsBetween(this.timeLast, this.timeCurrent).seconds >= 1 || this.first) {
-      this.first = false
-      this.upsLast = this.upsCurrent
-      this.upsCurrent = 0L
-      this.timeLast = this.timeCurrent
-      return true
+    val second = this.secondNow()
+    val index = Math.floorMod(second, this.windowSeconds.toLong()).toInt()
+    this.secondFirst.compareAndSet(Long.MIN_VALUE, second)
+
+    while (true) {
+      val slotSecond = this.slotSeconds.get(index)
+      if (slotSecond == second) {
+        break
+      }
+      if (this.slotSeconds.compareAndSet(index, slotSecond, second)) {
+        this.slotUnits.set(index, 0L)
+        break
+      }
     }
-    return false
+    this.slotUnits.addAndGet(index, Math.max(0L, x))
+
+    val reported = this.secondReported.get()
+    return reported != second && this.secondReported.compareAndSet(reported, second)
   }
 }
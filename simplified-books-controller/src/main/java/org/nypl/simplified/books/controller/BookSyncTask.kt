@@ -17,6 +17,7 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseException
 import org.nypl.simplified.books.book_registry.BookRegistryType
 import org.nypl.simplified.books.book_registry.BookStatus
 import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.books.borrowing.BorrowCoverFetcher
 import org.nypl.simplified.books.controller.api.BooksControllerType
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.feeds.api.FeedLoading
@@ -44,6 +45,7 @@ class BookSyncTask(
   private val booksController: BooksControllerType,
   private val accountRegistry: AccountProviderRegistryType,
   private val bookRegistry: BookRegistryType,
+  private val coverFetcher: BorrowCoverFetcher?,
   private val feedLoader: FeedLoaderType,
   private val patronParsers: PatronUserProfileParsersType,
   private val http: LSHTTPClientType,
@@ -231,6 +233,7 @@ class BookSyncTask(
         val databaseEntry = bookDatabase.createOrUpdate(bookId, opdsEntry)
         val book = databaseEntry.book
         this.bookRegistry.update(BookWithStatus(book, BookStatus.fromBook(book)))
+        this.coverFetcher?.fetch(databaseEntry)
       } catch (e: BookDatabaseException) {
         this.logger.error("[{}] unable to update database entry: ", bookId.brief(), e)
       }
@@ -0,0 +1,665 @@
+package org.nypl.simplified.books.controller
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.google.common.util.concurrent.FluentFuture
+import com.google.common.util.concurrent.SettableFuture
+import io.reactivex.Observable
+import io.reactivex.disposables.Disposable
+import net.jcip.annotations.GuardedBy
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.borrowing.BorrowRequest
+import org.nypl.simplified.books.borrowing.BorrowTaskType
+import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.json.core.JSONParserUtilities
+import org.nypl.simplified.json.core.JSONSerializerUtilities
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
+import org.nypl.simplified.opds.core.OPDSJSONParser
+import org.nypl.simplified.opds.core.OPDSJSONSerializer
+import org.nypl.simplified.profiles.api.ProfileID
+import org.nypl.simplified.taskrecorder.api.TaskRecorder
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.util.UUID
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A scheduler for borrow tasks.
+ *
+ * Borrow requests are queued and executed concurrently on the given executor, with at most
+ * `maximumConcurrent` tasks running at any given time, and at most `maximumConcurrentPerHost`
+ * tasks running against any one acquisition host. The acquisition host of a request is the host
+ * of the first acquisition in its feed entry; this is the server that the borrow request is made
+ * against, which is not necessarily the server that the book is finally downloaded from, and so
+ * the limit does not bound the number of concurrent downloads from any content delivery network.
+ * Requests are started in submission order unless a request has
+ * been moved to the front of the queue with [prioritize]; submitting a request for a book that
+ * is already queued moves it to the front of the queue.
+ *
+ * Both queued and running requests are written to `queueFile` whenever the queue changes.
+ * The file is read and written on `persistExecutor`, and the scheduler never holds a lock that
+ * callers need while it does so, so none of the methods of the scheduler wait for disk I/O.
+ * Several changes in quick succession result in one write. Requests that were still present in
+ * the file when the scheduler was created can be resumed per-profile with [resume] once the
+ * profile has been loaded.
+ *
+ * The `onCancelled` function is evaluated with the ID of each book whose request is cancelled
+ * with [cancel], once the request has stopped, so that any partially downloaded data for the
+ * book can be discarded.
+ *
+ * Queued requests are held while `networkStatus` reports that no network is available. A
+ * running request that fails while the network is (or has been) unavailable is put back at the
+ * front of the queue instead of being completed, if `isResumable` reports that its download
+ * can be resumed, so that it continues from where it stopped once the network returns. The
+ * scheduler stops observing `networkStatus` when it is closed with [close].
+ */
+
+class BorrowScheduler(
+  private val executor: Executor,
+  private val queueFile: File,
+  private val maximumConcurrent: Int = DEFAULT_MAXIMUM_CONCURRENT,
+  private val maximumConcurrentPerHost: Int = DEFAULT_MAXIMUM_CONCURRENT_PER_HOST,
+  private val onCancelled: (BookID) -> Unit = {},
+  private val persistExecutor: Executor = defaultPersistExecutor,
+  private val writeQueue: (File, File, String) -> Unit = FileUtilities::fileWriteUTF8Atomically,
+  private val networkStatus: Observable<NetworkStatus> = Observable.never(),
+  private val isResumable: (BookID) -> Boolean = { false },
+  private val taskFactory: (BorrowRequest.Start) -> BorrowTaskType
+) {
+
+  companion object {
+
+    /**
+     * The default maximum number of borrow tasks that may run concurrently.
+     */
+
+    const val DEFAULT_MAXIMUM_CONCURRENT = 3
+
+    /**
+     * The default maximum number of borrow tasks that may run concurrently against one acquisition
+     * host.
+     */
+
+    const val DEFAULT_MAXIMUM_CONCURRENT_PER_HOST = 2
+
+    private const val QUEUE_VERSION = 1
+
+    private val defaultPersistExecutor: ExecutorService =
+      Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable)
+        thread.name = "simplified-borrow-queue"
+        thread.isDaemon = true
+        thread
+      }
+  }
+
+  init {
+    require(this.maximumConcurrent >= 1) {
+      "Maximum concurrent tasks ${this.maximumConcurrent} must be >= 1"
+    }
+    require(this.maximumConcurrentPerHost >= 1) {
+      "Maximum concurrent tasks per host ${this.maximumConcurrentPerHost} must be >= 1"
+    }
+  }
+
+  private class Entry(
+    val bookID: BookID,
+    val request: BorrowRequest.Start,
+    val host: String,
+    var priority: Long,
+    val sequence: Long,
+    val future: SettableFuture<TaskResult<*>>
+  ) {
+    var task: BorrowTaskType? = null
+    var cancelled: Boolean = false
+    var interrupted: Boolean = false
+  }
+
+  private class Persisted(
+    val request: BorrowRequest.Start,
+    val priority: Long
+  )
+
+  private val logger =
+    LoggerFactory.getLogger(BorrowScheduler::class.java)
+  private val queueFileTmp =
+    File(this.queueFile.parentFile, "${this.queueFile.name}.tmp")
+  private val mapper =
+    ObjectMapper()
+  private val serializer =
+    OPDSJSONSerializer.newSerializer()
+  private val parser =
+    OPDSJSONParser.newParser()
+
+  private val queueLock = Any()
+  private val writeLock = Any()
+  private val persistScheduled = AtomicBoolean(false)
+
+  @GuardedBy("queueLock")
+  private val pending = mutableListOf<Entry>()
+
+  @GuardedBy("queueLock")
+  private val running = mutableMapOf<BookID, Entry>()
+
+  @GuardedBy("queueLock")
+  private val runningPerHost = mutableMapOf<String, Int>()
+
+  @GuardedBy("queueLock")
+  private val restorable = mutableListOf<Persisted>()
+
+  @GuardedBy("queueLock")
+  private val resumeRequested = mutableSetOf<ProfileID>()
+
+  @GuardedBy("queueLock")
+  private var loaded = false
+
+  @GuardedBy("queueLock")
+  private var sequence = 0L
+
+  @GuardedBy("queueLock")
+  private var priorityHighest = 0L
+
+  @GuardedBy("queueLock")
+  private var networkAvailable = true
+
+  private val networkSubscription: Disposable
+
+  init {
+    try {
+      this.persistExecutor.execute { this.loadNow() }
+    } catch (e: Exception) {
+      this.logger.error("could not schedule loading of borrow queue: ", e)
+      this.loadCompleted(mutableListOf())
+    }
+
+    this.networkSubscription =
+      this.networkStatus.subscribe(this::onNetworkStatus)
+  }
+
+  /**
+   * Stop observing the network status. Requests that are already queued or running are not
+   * affected.
+   */
+
+  fun close() {
+    this.networkSubscription.dispose()
+  }
+
+  private fun onNetworkStatus(status: NetworkStatus) {
+    val becameAvailable =
+      synchronized(this.queueLock) {
+        val wasAvailable = this.networkAvailable
+        this.networkAvailable = status.isAvailable
+        if (!status.isAvailable) {
+          this.running.values.forEach { entry -> entry.interrupted = true }
+        }
+        !wasAvailable && status.isAvailable
+      }
+
+    if (becameAvailable) {
+      this.logger.debug("network available: starting held borrows")
+      this.schedule()
+    } else if (!status.isAvailable) {
+      this.logger.debug("network unavailable: holding queued borrows")
+    }
+  }
+
+  /**
+   * Submit a borrow request. If a request for the same book is already queued or running,
+   * the future of the existing request is returned, and a queued request is moved to the front
+   * of the queue.
+   */
+
+  fun submit(
+    request: BorrowRequest.Start
+  ): FluentFuture<TaskResult<*>> {
+    return this.submitWithPriority(request, 0L, prioritizeExisting = true)
+  }
+
+  /**
+   * Move the request for the given book to the front of the queue. This has no effect if the
+   * book is not queued.
+   */
+
+  fun prioritize(bookID: BookID) {
+    synchronized(this.queueLock) {
+      val entry = this.pending.find { entry -> entry.bookID == bookID } ?: return
+      this.prioritizeLocked(entry)
+    }
+    this.logger.debug("[{}] prioritized", bookID.brief())
+    this.persist()
+  }
+
+  @GuardedBy("queueLock")
+  private fun prioritizeLocked(entry: Entry) {
+    this.priorityHighest += 1
+    entry.priority = this.priorityHighest
+  }
+
+  /**
+   * Cancel the request for the given book. A queued request is removed from the queue and
+   * its future is completed with a failure, and a running request is asked to stop.
+   */
+
+  fun cancel(bookID: BookID) {
+    val removed =
+      synchronized(this.queueLock) {
+        val running = this.running[bookID]
+        if (running != null) {
+          running.cancelled = true
+          running.task?.cancel()
+          return
+        }
+
+        val index = this.pending.indexOfFirst { entry -> entry.bookID == bookID }
+        if (index == -1) {
+          return
+        }
+        this.pending.removeAt(index)
+      }
+
+    this.logger.debug("[{}] cancelled while queued", bookID.brief())
+    this.persist()
+    this.notifyCancelled(bookID)
+
+    val recorder = TaskRecorder.create()
+    recorder.beginNewStep("Waiting to borrow...")
+    recorder.currentStepFailed(
+      message = "The borrow was cancelled before it started.",
+      errorCode = BorrowErrorCodes.borrowCancelled
+    )
+    removed.future.set(recorder.finishFailure<Unit>())
+  }
+
+  /**
+   * Resume any requests for the given profile that were queued or running when the scheduler
+   * was last persisted. If the queue file has not been read yet, the requests are resumed as
+   * soon as it has been.
+   */
+
+  fun resume(profileID: ProfileID) {
+    val resumed =
+      synchronized(this.queueLock) {
+        if (!this.loaded) {
+          this.resumeRequested.add(profileID)
+          return
+        }
+        this.takeRestorableLocked(profileID)
+      }
+    this.resumeAll(resumed)
+  }
+
+  @GuardedBy("queueLock")
+  private fun takeRestorableLocked(profileID: ProfileID): List<Persisted> {
+    val matching = this.restorable.filter { persisted -> persisted.request.profileId == profileID }
+    this.restorable.removeAll(matching)
+    return matching
+  }
+
+  private fun resumeAll(resumed: List<Persisted>) {
+    for (persisted in resumed) {
+      this.logger.debug("resuming borrow of {}", persisted.request.opdsAcquisitionFeedEntry.id)
+      this.submitWithPriority(persisted.request, persisted.priority, prioritizeExisting = false)
+    }
+  }
+
+  /**
+   * @return `true` if a request for the given book is queued or running
+   */
+
+  fun isScheduled(bookID: BookID): Boolean {
+    return synchronized(this.queueLock) {
+      this.running.containsKey(bookID) || this.pending.any { entry -> entry.bookID == bookID }
+    }
+  }
+
+  private fun submitWithPriority(
+    request: BorrowRequest.Start,
+    priority: Long,
+    prioritizeExisting: Boolean
+  ): FluentFuture<TaskResult<*>> {
+    val bookID =
+      BookID.newFromOPDSAndAccount(request.opdsAcquisitionFeedEntry.id, request.accountId)
+
+    /*
+     * The lookup of an existing request and the insertion of a new one happen in the same
+     * critical section, so that concurrent submissions for the same book cannot both enqueue.
+     */
+
+    var prioritized = false
+    var created = false
+    val future =
+      synchronized(this.queueLock) {
+        val runningEntry = this.running[bookID]
+        if (runningEntry != null) {
+          return@synchronized runningEntry.future
+        }
+
+        val queued = this.pending.find { entry -> entry.bookID == bookID }
+        if (queued != null) {
+          if (prioritizeExisting) {
+            this.prioritizeLocked(queued)
+            prioritized = true
+          }
+          return@synchronized queued.future
+        }
+
+        this.restorable.removeAll { persisted ->
+          persisted.request.accountId == request.accountId &&
+            persisted.request.opdsAcquisitionFeedEntry.id == request.opdsAcquisitionFeedEntry.id
+        }
+
+        this.sequence += 1
+        val entry =
+          Entry(
+            bookID = bookID,
+            request = request,
+            host = this.hostOf(request),
+            priority = priority,
+            sequence = this.sequence,
+            future = SettableFuture.create()
+          )
+        this.pending.add(entry)
+        created = true
+        entry.future
+      }
+
+    if (created) {
+      this.logger.debug("[{}] queued", bookID.brief())
+      this.persist()
+      this.schedule()
+    } else if (prioritized) {
+      this.logger.debug("[{}] resubmitted and prioritized", bookID.brief())
+      this.persist()
+    }
+    return FluentFuture.from(future)
+  }
+
+  /**
+   * @return The host of the first acquisition of the request, or the empty string if there is
+   * no such host
+   */
+
+  private fun hostOf(request: BorrowRequest.Start): String {
+    return request.opdsAcquisitionFeedEntry.acquisitions.firstOrNull()?.uri?.host ?: ""
+  }
+
+  /**
+   * Start as many queued requests as the concurrency limits allow.
+   */
+
+  private fun schedule() {
+    val started = mutableListOf<Entry>()
+    synchronized(this.queueLock) {
+      while (this.networkAvailable && this.running.size < this.maximumConcurrent) {
+        val next =
+          this.pending
+            .filter { entry -> this.runningOnHost(entry.host) < this.maximumConcurrentPerHost }
+            .sortedWith(compareByDescending<Entry> { it.priority }.thenBy { it.sequence })
+            .firstOrNull()
+            ?: break
+
+        this.pending.remove(next)
+        next.interrupted = false
+        next.task = this.taskFactory.invoke(next.request)
+        this.running[next.bookID] = next
+        this.runningPerHost[next.host] = this.runningOnHost(next.host) + 1
+        started.add(next)
+      }
+    }
+
+    for (entry in started) {
+      this.logger.debug("[{}] starting on acquisition host '{}'", entry.bookID.brief(), entry.host)
+      try {
+        this.executor.execute { this.run(entry) }
+      } catch (e: Exception) {
+        this.logger.error("[{}] could not start borrow task: ", entry.bookID.brief(), e)
+        this.finish(entry)
+        entry.future.setException(e)
+      }
+    }
+  }
+
+  private fun notifyCancelled(bookID: BookID) {
+    try {
+      this.onCancelled.invoke(bookID)
+    } catch (e: Exception) {
+      this.logger.error("[{}] cancellation handler failed: ", bookID.brief(), e)
+    }
+  }
+
+  private fun runningOnHost(host: String): Int =
+    this.runningPerHost[host] ?: 0
+
+  private fun run(entry: Entry) {
+    var result: TaskResult<*>? = null
+    var failure: Throwable? = null
+    try {
+      result = entry.task!!.execute()
+    } catch (e: Throwable) {
+      failure = e
+    }
+
+    /*
+     * Release the slot before completing the future, so that anyone observing the
+     * completion sees the book as no longer being scheduled.
+     */
+
+    if (this.requeueIfInterrupted(entry, failure != null || result is TaskResult.Failure)) {
+      this.logger.debug("[{}] interrupted by the network: held for resumption", entry.bookID.brief())
+      this.persist()
+      this.schedule()
+      return
+    }
+
+    this.finish(entry)
+    this.persist()
+    if (synchronized(this.queueLock) { entry.cancelled }) {
+      this.notifyCancelled(entry.bookID)
+    }
+    if (failure != null) {
+      entry.future.setException(failure)
+    } else {
+      entry.future.set(result)
+    }
+    this.schedule()
+  }
+
+  /**
+   * Put a failed request back at the front of the queue, keeping its future, if it failed
+   * because the network went away and its download can be resumed.
+   */
+
+  private fun requeueIfInterrupted(
+    entry: Entry,
+    failed: Boolean
+  ): Boolean {
+    if (!failed) {
+      return false
+    }
+
+    synchronized(this.queueLock) {
+      if (entry.cancelled || (this.networkAvailable && !entry.interrupted)) {
+        return false
+      }
+    }
+
+    val resumable =
+      try {
+        this.isResumable.invoke(entry.bookID)
+      } catch (e: Exception) {
+        this.logger.error("[{}] could not check for a resumable download: ", entry.bookID.brief(), e)
+        false
+      }
+    if (!resumable) {
+      return false
+    }
+
+    synchronized(this.queueLock) {
+      if (entry.cancelled) {
+        return false
+      }
+      this.finishLocked(entry)
+      entry.task = null
+      this.prioritizeLocked(entry)
+      this.pending.add(entry)
+    }
+    return true
+  }
+
+  private fun finish(entry: Entry) {
+    synchronized(this.queueLock) {
+      this.finishLocked(entry)
+    }
+  }
+
+  @GuardedBy("queueLock")
+  private fun finishLocked(entry: Entry) {
+    this.running.remove(entry.bookID)
+    val count = this.runningOnHost(entry.host) - 1
+    if (count <= 0) {
+      this.runningPerHost.remove(entry.host)
+    } else {
+      this.runningPerHost[entry.host] = count
+    }
+  }
+
+  /**
+   * Schedule a write of the current queue to disk. At most one write is scheduled at any
+   * given time, and the snapshot is taken when the write is performed, so a burst of changes
+   * results in one write of the most recent queue.
+   */
+
+  private fun persist() {
+    if (!this.persistScheduled.compareAndSet(false, true)) {
+      return
+    }
+
+    try {
+      this.persistExecutor.execute { this.persistNow() }
+    } catch (e: Exception) {
+      this.persistScheduled.set(false)
+      this.logger.error("could not schedule saving of borrow queue: ", e)
+    }
+  }
+
+  /**
+   * Write the current queue to disk. The queue lock is only held while the snapshot is taken.
+   * The write lock, which is never taken by callers of the scheduler, is held for the whole
+   * write so that concurrent writes cannot replace a newer snapshot with an older one.
+   */
+
+  private fun persistNow() {
+    synchronized(this.writeLock) {
+      this.persistScheduled.set(false)
+      val snapshot =
+        synchronized(this.queueLock) {
+          if (!this.loaded) {
+            return
+          }
+          val entries =
+            this.running.values.sortedBy { it.sequence } +
+              this.pending.sortedWith(compareByDescending<Entry> { it.priority }.thenBy { it.sequence })
+          entries.map { entry -> Persisted(entry.request, entry.priority) } + this.restorable
+        }
+
+      try {
+        val root = this.mapper.createObjectNode()
+        root.put("version", QUEUE_VERSION)
+        val requests = root.putArray("requests")
+        for (persisted in snapshot) {
+          val node = this.mapper.createObjectNode()
+          node.put("account", persisted.request.accountId.uuid.toString())
+          node.put("profile", persisted.request.profileId.uuid.toString())
+          node.put("priority", persisted.priority)
+          node.set<ObjectNode>(
+            "entry", this.serializer.serializeFeedEntry(persisted.request.opdsAcquisitionFeedEntry)
+          )
+          requests.add(node)
+        }
+
+        this.queueFile.parentFile?.mkdirs()
+        this.writeQueue.invoke(
+          this.queueFile,
+          this.queueFileTmp,
+          JSONSerializerUtilities.serializeToString(root)
+        )
+      } catch (e: Exception) {
+        this.logger.error("could not save borrow queue: ", e)
+      }
+    }
+  }
+
+  /**
+   * Read the queue file, and resume any requests for profiles that asked to be resumed
+   * before the file had been read.
+   */
+
+  private fun loadNow() {
+    this.loadCompleted(this.load())
+  }
+
+  private fun loadCompleted(persisted: MutableList<Persisted>) {
+    val resumed =
+      synchronized(this.queueLock) {
+        this.restorable.addAll(persisted)
+        this.priorityHighest =
+          maxOf(this.priorityHighest, persisted.maxOfOrNull { it.priority } ?: 0L)
+        this.loaded = true
+        val requested = this.resumeRequested.toList()
+        this.resumeRequested.clear()
+        requested.flatMap { profileID -> this.takeRestorableLocked(profileID) }
+      }
+
+    /*
+     * Any changes made before the file was read were not written, because the file would
+     * otherwise have been replaced without the requests it contained.
+     */
+
+    this.persist()
+    this.resumeAll(resumed)
+  }
+
+  private fun load(): MutableList<Persisted> {
+    if (!this.queueFile.isFile) {
+      return mutableListOf()
+    }
+
+    return try {
+      val root =
+        JSONParserUtilities.checkObject(null, this.mapper.readTree(this.queueFile))
+      val version =
+        JSONParserUtilities.getInteger(root, "version")
+      if (version != QUEUE_VERSION) {
+        this.logger.warn("ignoring borrow queue with unsupported version {}", version)
+        return mutableListOf()
+      }
+
+      JSONParserUtilities.getArray(root, "requests")
+        .map { node ->
+          val request = JSONParserUtilities.checkObject(null, node)
+          Persisted(
+            request = BorrowRequest.Start(
+              accountId = AccountID(UUID.fromString(JSONParserUtilities.getString(request, "account"))),
+              profileId = ProfileID(UUID.fromString(JSONParserUtilities.getString(request, "profile"))),
+              opdsAcquisitionFeedEntry = this.parser.parseAcquisitionFeedEntry(
+                JSONParserUtilities.getObject(request, "entry")
+              )
+            ),
+            priority = JSONParserUtilities.getBigInteger(request, "priority").toLong()
+          )
+        }
+        .toMutableList()
+    } catch (e: Exception) {
+      this.logger.error("could not load borrow queue: ", e)
+      this.queueFile.delete()
+      mutableListOf()
+    }
+  }
+}
@@ -30,9 +30,11 @@ import org.nypl.simplified.books.api.BookID
 import org.nypl.simplified.books.book_registry.BookRegistryType
 import org.nypl.simplified.books.book_registry.BookStatus
 import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.books.borrowing.BorrowCoverFetcher
 import org.nypl.simplified.books.borrowing.BorrowRequest
 import org.nypl.simplified.books.borrowing.BorrowRequirements
 import org.nypl.simplified.books.borrowing.BorrowTask
+import org.nypl.simplified.books.borrowing.internal.BorrowPartialDownload
 import org.nypl.simplified.books.controller.api.BookRevokeStringResourcesType
 import org.nypl.simplified.books.controller.api.BooksControllerType
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
@@ -44,6 +46,7 @@ import org.nypl.simplified.futures.FluentFutureExtensions
 import org.nypl.simplified.futures.FluentFutureExtensions.flatMap
 import org.nypl.simplified.futures.FluentFutureExtensions.map
 import org.nypl.simplified.metrics.api.MetricServiceType
+import org.nypl.simplified.networkconnectivity.api.NetworkConnectivityType
 import org.nypl.simplified.opds.auth_document.api.AuthenticationDocumentParsersType
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
 import org.nypl.simplified.opds.core.OPDSFeedParserType
@@ -74,8 +77,9 @@ import java.io.File
 import java.net.URI
 import java.util.SortedMap
 import java.util.concurrent.Callable
-import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * The default controller implementation.
@@ -83,13 +87,14 @@ import java.util.concurrent.ExecutorService
 
 class Controller private constructor(
   private val cacheDirectory: File,
+  private val borrowQueueFile: File,
   private val accountEvents: Subject<AccountEvent>,
   private val profileEvents: Subject<ProfileEvent>,
   private val services: ServiceDirectoryType,
   private val taskExecutor: ListeningExecutorService
 ) : BooksControllerType, ProfilesControllerType {
 
-  private val borrows: ConcurrentHashMap<BookID, BorrowTask>
+  private val borrows: BorrowScheduler
 
   private val borrowRequirements: BorrowRequirements
   private val accountLoginStringResources =
@@ -132,9 +137,37 @@ class Controller private constructor(
     this.services.optionalService(CrashlyticsServiceType::class.java)
   private val metrics =
     this.services.optionalService(MetricServiceType::class.java)
+  private val networkConnectivity =
+    this.services.optionalService(NetworkConnectivityType::class.java)
 
   private val temporaryDirectory =
     File(this.cacheDirectory, "tmp")
+  private val partialDownloadDirectory =
+    BorrowPartialDownload.directoryOf(this.cacheDirectory)
+
+  private val coverFetcher =
+    BorrowCoverFetcher(
+      httpClient = this.lsHttp,
+      bookRegistry = this.bookRegistry,
+      executor = Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable)
+        thread.name = "simplified-borrow-covers"
+        thread.isDaemon = true
+        thread.priority = Thread.MIN_PRIORITY
+        thread
+      },
+      temporaryDirectory = this.temporaryDirectory
+    )
+
+  private val borrowThreadIds =
+    AtomicInteger(0)
+  private val borrowExecutor =
+    Executors.newFixedThreadPool(BorrowScheduler.DEFAULT_MAXIMUM_CONCURRENT) { runnable ->
+      val thread = Thread(runnable)
+      thread.name = "simplified-borrow-${this.borrowThreadIds.getAndIncrement()}"
+      thread.isDaemon = true
+      thread
+    }
 
   private val accountRegistrySubscription: Disposable
   private val accountSubscription: Disposable
@@ -150,11 +183,38 @@ class Controller private constructor(
         services = this.services,
         clock = { Instant.now() },
         cacheDirectory = this.cacheDirectory,
-        temporaryDirectory = this.temporaryDirectory
+        temporaryDirectory = this.temporaryDirectory,
+        coverFetcher = this.coverFetcher
       )
 
     this.borrows =
-      ConcurrentHashMap()
+      BorrowScheduler(
+        executor = this.borrowExecutor,
+        queueFile = this.borrowQueueFile,
+        onCancelled = { bookID ->
+          BorrowPartialDownload.deleteAll(this.partialDownloadDirectory, bookID)
+        },
+        networkStatus = this.networkConnectivity?.statusChanges ?: Observable.never(),
+        isResumable = { bookID ->
+          BorrowPartialDownload.existsResumable(this.partialDownloadDirectory, bookID)
+        },
+        taskFactory = { request ->
+          BorrowTask.createBorrowTask(this.borrowRequirements, request)
+        }
+      )
+
+    /*
+     * Discard the partial downloads of borrows that were abandoned long ago.
+     */
+
+    this.taskExecutor.execute {
+      try {
+        val deleted = BorrowPartialDownload.deleteExpired(this.partialDownloadDirectory)
+        this.logger.debug("deleted {} expired partial downloads", deleted)
+      } catch (e: Exception) {
+        this.logger.error("could not delete expired partial downloads: ", e)
+      }
+    }
 
     this.accountRegistrySubscription =
       this.accountProviders.events.subscribe(this::onAccountRegistryEvent)
@@ -182,6 +242,19 @@ class Controller private constructor(
     }
   }
 
+  /**
+   * Stop observing the events of the services that the controller depends on. Borrows that are
+   * already queued or running are not affected.
+   */
+
+  fun close() {
+    this.borrows.close()
+    this.accountRegistrySubscription.dispose()
+    this.accountSubscription.dispose()
+    this.profileSelectionSubscription.dispose()
+    this.profileUpdateSubscription.dispose()
+  }
+
   private fun onProfileUpdated(event: ProfileUpdated) {
     this.updateCrashlytics()
   }
@@ -211,6 +284,16 @@ class Controller private constructor(
       this.logger.error("failed to trigger book syncing: ", e)
     }
 
+    /*
+     * Resume any borrows that were interrupted the last time the profile was in use.
+     */
+
+    try {
+      this.borrows.resume(this.profiles.currentProfileUnsafe().id)
+    } catch (e: Exception) {
+      this.logger.error("failed to resume borrowing: ", e)
+    }
+
     this.updateCrashlytics()
   }
 
@@ -242,6 +325,8 @@ class Controller private constructor(
     return when (event) {
       is AccountProviderRegistryEvent.Updated ->
         this.onAccountRegistryProviderUpdatedEvent(event)
+      is AccountProviderRegistryEvent.Refreshed ->
+        this.onAccountRegistryRefreshedEvent(event)
       is AccountProviderRegistryEvent.SourceFailed,
       AccountProviderRegistryEvent.StatusChanged -> {
       }
@@ -252,12 +337,31 @@ class Controller private constructor(
     val profileCurrentOpt = this.profiles.currentProfile()
     if (profileCurrentOpt is Some<ProfileType>) {
       val profileCurrent = profileCurrentOpt.get()
-      this.submitTask {
+      this.submitTask(
         ProfileAccountProviderUpdatedTask(
           profile = profileCurrent,
           accountProviderID = event.id,
           accountProviders = this.accountProviders
         )
+      )
+    } else {
+      this.logger.debug("no profile is current")
+    }
+  }
+
+  private fun onAccountRegistryRefreshedEvent(event: AccountProviderRegistryEvent.Refreshed) {
+    val profileCurrentOpt = this.profiles.currentProfile()
+    if (profileCurrentOpt is Some<ProfileType>) {
+      val profileCurrent = profileCurrentOpt.get()
+      val providersUsed = profileCurrent.accountsByProvider().keys
+      for (id in event.ids.filter(providersUsed::contains)) {
+        this.submitTask(
+          ProfileAccountProviderUpdatedTask(
+            profile = profileCurrent,
+            accountProviderID = id,
+            accountProviders = this.accountProviders
+          )
+        )
       }
     } else {
       this.logger.debug("no profile is current")
@@ -553,16 +657,16 @@ class Controller private constructor(
     entry: OPDSAcquisitionFeedEntry
   ): FluentFuture<TaskResult<*>> {
     return this.submitTask(
-      Callable<TaskResult<*>> {
-        val request =
-          BorrowRequest.Start(
-            accountId = accountID,
-            profileId = this.profileCurrent().id,
-            opdsAcquisitionFeedEntry = entry
-          )
-        BorrowTask.createBorrowTask(this.borrowRequirements, request)
-          .execute()
+      Callable<BorrowRequest.Start> {
+        BorrowRequest.Start(
+          accountId = accountID,
+          profileId = this.profileCurrent().id,
+          opdsAcquisitionFeedEntry = entry
+        )
       }
+    ).transformAsync(
+      { request -> this.borrows.submit(request) },
+      MoreExecutors.directExecutor()
     )
   }
 
@@ -585,7 +689,7 @@ class Controller private constructor(
     accountID: AccountID,
     bookID: BookID
   ) {
-    this.borrows[bookID]?.cancel()
+    this.borrows.cancel(bookID)
   }
 
   override fun bookReport(
@@ -607,6 +711,7 @@ class Controller private constructor(
         accountRegistry = this.accountProviders,
         bookRegistry = this.bookRegistry,
         booksController = this,
+        coverFetcher = this.coverFetcher,
         feedParser = this.feedParser,
         feedLoader = this.feedLoader,
         patronParsers = this.patronUserProfileParsers,
@@ -695,10 +800,12 @@ class Controller private constructor(
       executorService: ExecutorService,
       accountEvents: Subject<AccountEvent>,
       profileEvents: Subject<ProfileEvent>,
-      cacheDirectory: File
+      cacheDirectory: File,
+      borrowQueueFile: File
     ): Controller {
       return Controller(
         cacheDirectory = cacheDirectory,
+        borrowQueueFile = borrowQueueFile,
         accountEvents = accountEvents,
         profileEvents = profileEvents,
         services = services,
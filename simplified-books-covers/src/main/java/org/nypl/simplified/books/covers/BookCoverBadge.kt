@@ -7,6 +7,13 @@ import android.graphics.Bitmap
  */
 
 data class BookCoverBadge(
+
+  /**
+   * A value that uniquely identifies the badge image. This is used to distinguish covers
+   * with different badges in image caches.
+   */
+
+  val key: String,
   val bitmap: Bitmap,
   val width: Int,
   val height: Int,
@@ -9,6 +9,9 @@ import org.nypl.simplified.feeds.api.FeedEntry
 
 /**
  * An image transformer that optionally adds a badge image to the loaded book cover.
+ *
+ * The badge is painted directly onto the loaded bitmap if it is mutable (which is the case
+ * for any bitmap that Picasso has resized), and onto a single mutable copy otherwise.
  */
 
 class BookCoverBadgePainter(
@@ -16,18 +19,38 @@ class BookCoverBadgePainter(
   val badges: BookCoverBadgeLookupType
 ) : Transformation {
 
+  private val badge: BookCoverBadge? by lazy {
+    this.badges.badgeForEntry(this.entry)
+  }
+
   override fun key(): String {
-    return "org.nypl.simplified.books.covers.BookCoverBadgePainter"
+    val badge = this.badge
+      ?: return "org.nypl.simplified.books.covers.BookCoverBadgePainter"
+
+    return StringBuilder(96)
+      .append("org.nypl.simplified.books.covers.BookCoverBadgePainter:")
+      .append(badge.key)
+      .append(':')
+      .append(badge.width)
+      .append('x')
+      .append(badge.height)
+      .append(':')
+      .append(Integer.toHexString(badge.backgroundColorRGBA()))
+      .toString()
   }
 
   override fun transform(source: Bitmap): Bitmap {
-    val badge = this.badges.badgeForEntry(this.entry)
+    val badge = this.badge
     if (badge == null) {
       return source
     }
 
-    val workingBitmap = Bitmap.createBitmap(source)
-    val result = workingBitmap.copy(source.config, true)
+    val result =
+      if (source.isMutable) {
+        source
+      } else {
+        source.copy(source.config ?: Bitmap.Config.ARGB_8888, true)
+      }
     val canvas = Canvas(result)
 
     val left = source.width - badge.width
@@ -49,7 +72,9 @@ class BookCoverBadgePainter(
     val sourceRect = Rect(0, 0, badge.bitmap.width, badge.bitmap.height)
     canvas.drawBitmap(badge.bitmap, sourceRect, targetRect, imagePaint)
 
-    source.recycle()
+    if (result !== source) {
+      source.recycle()
+    }
     return result
   }
 }
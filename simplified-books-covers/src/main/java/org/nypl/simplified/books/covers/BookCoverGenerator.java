@@ -1,8 +1,10 @@
 package org.nypl.simplified.books.covers;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
@@ -13,6 +15,8 @@ import org.nypl.simplified.tenprint.TenPrintInputBuilderType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.HashMap;
@@ -27,7 +31,10 @@ import java.util.TreeMap;
  * interface.
  *
  * This implementation uses the provided {@link TenPrintGeneratorType} to
- * generate covers when a cover is unavailable or not specified.
+ * generate covers when a cover is unavailable or not specified. If a
+ * {@link BookCoverGeneratorCache} is provided, generated covers are stored
+ * in it and are subsequently decoded from disk instead of being generated
+ * again.
  */
 
 public final class BookCoverGenerator implements BookCoverGeneratorType
@@ -35,6 +42,7 @@ public final class BookCoverGenerator implements BookCoverGeneratorType
   private static final Logger LOG = LoggerFactory.getLogger(BookCoverGenerator.class);
 
   private final TenPrintGeneratorType generator;
+  private final @Nullable BookCoverGeneratorCache cache;
 
   /**
    * Construct a new cover generator.
@@ -44,8 +52,23 @@ public final class BookCoverGenerator implements BookCoverGeneratorType
 
   public BookCoverGenerator(
     final TenPrintGeneratorType in_generator)
+  {
+    this(in_generator, null);
+  }
+
+  /**
+   * Construct a new cover generator.
+   *
+   * @param in_generator The cover generator
+   * @param in_cache     The cache of generated covers, if any
+   */
+
+  public BookCoverGenerator(
+    final TenPrintGeneratorType in_generator,
+    final @Nullable BookCoverGeneratorCache in_cache)
   {
     this.generator = NullCheck.notNull(in_generator);
+    this.cache = in_cache;
   }
 
   private static Map<String, String> getParameters(
@@ -84,19 +107,61 @@ public final class BookCoverGenerator implements BookCoverGeneratorType
         height = (int) Math.round(width / .75);
       }
 
-      final TenPrintInputBuilderType ib = TenPrintInput.newBuilder();
-      ib.setAuthor(author);
-      ib.setTitle(title);
-      ib.setCoverHeight(height);
-      final TenPrintInput i = ib.build();
-      final Bitmap cover = this.generator.generate(i);
-      return NullCheck.notNull(cover);
+      final BookCoverGeneratorCache c = this.cache;
+      if (c == null) {
+        return this.generate(title, author, height);
+      }
+
+      /*
+       * Generate covers at the height of the bucket that the requested height
+       * falls into, using the same buckets as the covers decoded by the cover
+       * provider, so that covers can be shared between views of similar sizes.
+       * The image is subsequently scaled to the requested size by the caller.
+       */
+
+      final int bucket = BookCoverSizeBuckets.INSTANCE.bucketOf(Math.max(height, 1));
+      final String key = BookCoverGeneratorCache.keyOf(title, author, bucket);
+      final File file = c.find(key);
+      if (file != null) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        final Bitmap cached = BitmapFactory.decodeFile(file.getPath(), options);
+        if (cached != null) {
+          return cached;
+        }
+        LOG.debug("could not decode cached cover {}, regenerating", file);
+      }
+
+      final Bitmap cover = this.generate(title, author, bucket);
+      try {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+        cover.compress(Bitmap.CompressFormat.PNG, 100, out);
+        c.put(key, out.toByteArray());
+      } catch (final IOException e) {
+        LOG.error("could not cache generated cover for {}: ", u, e);
+      }
+      return cover;
     } catch (final Throwable e) {
       LOG.error("error generating image for {}: ", u, e);
       throw new IOException(e);
     }
   }
 
+  private Bitmap generate(
+    final String title,
+    final String author,
+    final int height)
+  {
+    final TenPrintInputBuilderType ib = TenPrintInput.newBuilder();
+    ib.setAuthor(author);
+    ib.setTitle(title);
+    ib.setCoverHeight(height);
+    final TenPrintInput i = ib.build();
+    final Bitmap cover = this.generator.generate(i);
+    return NullCheck.notNull(cover);
+  }
+
   @Override public URI generateURIForTitleAuthor(
     final String title,
     final String author)
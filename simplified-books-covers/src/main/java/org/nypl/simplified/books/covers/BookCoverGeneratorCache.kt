@@ -0,0 +1,199 @@
+package org.nypl.simplified.books.covers
+
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * A size-limited on-disk cache of generated covers.
+ *
+ * Covers are content-addressed by the title, author, and height used to generate them (a
+ * height bucket of [BookCoverSizeBuckets]), so identical covers are only ever generated once, even across process restarts.
+ * When the total size of the cache exceeds the given maximum, the least recently used
+ * covers are deleted. Recency is tracked in memory and mirrored into file modification
+ * times so that it survives restarts.
+ */
+
+class BookCoverGeneratorCache private constructor(
+  private val directory: File,
+  private val maximumSizeBytes: Long
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(BookCoverGeneratorCache::class.java)
+
+  private val entriesLock = Any()
+  private val entries = LinkedHashMap<String, Long>(64, 0.75f, true)
+  private var sizeBytes = 0L
+
+  companion object {
+
+    /**
+     * The default maximum size of the cache.
+     */
+
+    const val DEFAULT_MAXIMUM_SIZE_BYTES = 16L * 1024L * 1024L
+
+    private const val SUFFIX = ".png"
+
+    /**
+     * Open a cache in the given directory, creating the directory if necessary.
+     *
+     * @param directory The cache directory
+     * @param maximumSizeBytes The maximum total size of the cached covers
+     *
+     * @throws IOException If the directory cannot be created
+     */
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun open(
+      directory: File,
+      maximumSizeBytes: Long = DEFAULT_MAXIMUM_SIZE_BYTES
+    ): BookCoverGeneratorCache {
+      require(maximumSizeBytes > 0L) {
+        "Maximum size $maximumSizeBytes must be positive"
+      }
+      directory.mkdirs()
+      if (!directory.isDirectory) {
+        throw IOException("Could not create directory $directory")
+      }
+
+      val cache = BookCoverGeneratorCache(directory, maximumSizeBytes)
+      cache.loadEntries()
+      return cache
+    }
+
+    /**
+     * @return The cache key for a cover with the given title, author, and height bucket
+     */
+
+    @JvmStatic
+    fun keyOf(
+      title: String,
+      author: String,
+      heightBucket: Int
+    ): String {
+      val digest = MessageDigest.getInstance("SHA-256")
+      digest.update(title.toByteArray(Charsets.UTF_8))
+      digest.update(0)
+      digest.update(author.toByteArray(Charsets.UTF_8))
+      digest.update(0)
+      digest.update(heightBucket.toString().toByteArray(Charsets.UTF_8))
+      return digest.digest().joinToString("") { byte -> "%02x".format(byte) }
+    }
+  }
+
+  /**
+   * The total size of the cached covers.
+   */
+
+  val size: Long
+    get() = synchronized(this.entriesLock) { this.sizeBytes }
+
+  /**
+   * Find the cached cover with the given key, marking it as recently used.
+   *
+   * @return The file containing the encoded cover, or `null` if the cover is not cached
+   */
+
+  fun find(key: String): File? {
+    synchronized(this.entriesLock) {
+      if (this.entries[key] == null) {
+        return null
+      }
+    }
+
+    val file = this.fileOf(key)
+    if (!file.isFile) {
+      this.remove(key)
+      return null
+    }
+    file.setLastModified(System.currentTimeMillis())
+    return file
+  }
+
+  /**
+   * Store an encoded cover under the given key, evicting the least recently used covers
+   * if the cache has grown too large.
+   */
+
+  @Throws(IOException::class)
+  fun put(
+    key: String,
+    data: ByteArray
+  ) {
+    val file = this.fileOf(key)
+    val fileTmp = File(this.directory, "$key$SUFFIX.tmp")
+    FileOutputStream(fileTmp).use { stream -> stream.write(data) }
+    if (!fileTmp.renameTo(file)) {
+      fileTmp.delete()
+      throw IOException("Could not rename $fileTmp to $file")
+    }
+
+    val evicted = mutableListOf<String>()
+    synchronized(this.entriesLock) {
+      val previous = this.entries.put(key, data.size.toLong())
+      this.sizeBytes += data.size.toLong() - (previous ?: 0L)
+
+      val iterator = this.entries.entries.iterator()
+      while (this.sizeBytes > this.maximumSizeBytes && iterator.hasNext()) {
+        val eldest = iterator.next()
+        if (eldest.key == key) {
+          continue
+        }
+        iterator.remove()
+        this.sizeBytes -= eldest.value
+        evicted.add(eldest.key)
+      }
+    }
+
+    for (name in evicted) {
+      this.logger.debug("evicting generated cover {}", name)
+      this.fileOf(name).delete()
+    }
+  }
+
+  private fun remove(key: String) {
+    synchronized(this.entriesLock) {
+      val previous = this.entries.remove(key)
+      if (previous != null) {
+        this.sizeBytes -= previous
+      }
+    }
+  }
+
+  private fun fileOf(key: String): File =
+    File(this.directory, "$key$SUFFIX")
+
+  private fun loadEntries() {
+    val files =
+      this.directory.listFiles()
+        ?.filter { file -> file.isFile }
+        ?: listOf()
+
+    for (file in files) {
+      if (!file.name.endsWith(SUFFIX)) {
+        file.delete()
+      }
+    }
+
+    val covers =
+      files.filter { file -> file.name.endsWith(SUFFIX) }
+        .sortedBy { file -> file.lastModified() }
+
+    synchronized(this.entriesLock) {
+      for (file in covers) {
+        val size = file.length()
+        this.entries[file.name.removeSuffix(SUFFIX)] = size
+        this.sizeBytes += size
+      }
+    }
+
+    this.logger.debug(
+      "loaded {} generated covers ({} bytes)", this.entries.size, this.sizeBytes
+    )
+  }
+}
@@ -9,9 +9,12 @@ import com.io7m.jfunctional.OptionType
 import com.io7m.jfunctional.Some
 import com.squareup.picasso.Callback
 import com.squareup.picasso.Picasso
+import io.reactivex.Observable
+import io.reactivex.disposables.Disposable
 import org.nypl.simplified.books.book_registry.BookRegistryReadableType
 import org.nypl.simplified.books.bundled.api.BundledContentResolverType
 import org.nypl.simplified.feeds.api.FeedEntry
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import java.io.IOException
@@ -26,13 +29,41 @@ class BookCoverProvider private constructor(
   private val bookRegistry: BookRegistryReadableType,
   private val coverGenerator: BookCoverGeneratorType,
   private val picasso: Picasso,
-  private val badgeLookup: BookCoverBadgeLookupType
+  private val badgeLookup: BookCoverBadgeLookupType,
+  networkStatus: Observable<NetworkStatus>
 ) : BookCoverProviderType {
 
   private val logger: Logger = LoggerFactory.getLogger(BookCoverProvider::class.java)
   private val coverTag: String = "cover"
   private val thumbnailTag: String = "thumbnail"
 
+  /*
+   * The tags of prefetch groups that have not been cancelled. Only accessed from the UI thread.
+   */
+
+  private val prefetchTags = mutableSetOf<String>()
+  private var prefetchPaused = false
+
+  /*
+   * Prefetching speculatively downloads covers that may never be shown, and so is only
+   * done on unmetered networks.
+   */
+
+  @Volatile
+  private var prefetchNetworkAllowed = true
+
+  private val networkSubscription: Disposable =
+    networkStatus.subscribe { status -> this.prefetchNetworkAllowed = status.isUnmetered }
+
+  /**
+   * Stop observing the network status. Covers can still be loaded, and prefetching continues
+   * to use the last network status that was observed.
+   */
+
+  fun close() {
+    this.networkSubscription.dispose()
+  }
+
   private fun generateCoverURI(entry: FeedEntry.FeedEntryOPDS): URI {
     val feedEntry = entry.feedEntry
     val title = feedEntry.title
@@ -42,6 +73,9 @@ class BookCoverProvider private constructor(
   }
 
   /**
+   * Covers are decoded at the size of the bucket that the requested size falls into (see
+   * [BookCoverSizeBuckets]) and scaled by the image view when drawn.
+   *
    * @param width Use 0 as desired dimension to resize keeping aspect ratio.
    * @param height Use 0 as desired dimension to resize keeping aspect ratio.
    */
@@ -55,6 +89,7 @@ class BookCoverProvider private constructor(
   ): FluentFuture<Unit> {
     val future = SettableFuture.create<Unit>()
     val uriGenerated = this.generateCoverURI(entry)
+    val (bucketWidth, bucketHeight) = BookCoverSizeBuckets.bucketOf(width, height)
 
     val callbackFinal = object : Callback {
       override fun onSuccess() {
@@ -102,7 +137,8 @@ class BookCoverProvider private constructor(
             .tag(tag)
             .error(R.drawable.cover_error)
             .placeholder(R.drawable.cover_loading)
-            .resize(width, height)
+            .resize(bucketWidth, bucketHeight)
+            .onlyScaleDown()
             .transform(badgePainter)
             .into(imageView, callbackFinal)
         }
@@ -112,7 +148,8 @@ class BookCoverProvider private constructor(
         .tag(tag)
         .error(R.drawable.cover_error)
         .placeholder(R.drawable.cover_loading)
-        .resize(width, height)
+        .resize(bucketWidth, bucketHeight)
+        .onlyScaleDown()
         .transform(badgePainter)
         .into(imageView, fallbackToGeneration)
     } else {
@@ -122,7 +159,8 @@ class BookCoverProvider private constructor(
         .tag(tag)
         .error(R.drawable.cover_error)
         .placeholder(R.drawable.cover_loading)
-        .resize(width, height)
+        .resize(bucketWidth, bucketHeight)
+        .onlyScaleDown()
         .transform(badgePainter)
         .into(imageView, callbackFinal)
     }
@@ -184,12 +222,59 @@ class BookCoverProvider private constructor(
 
   override fun loadingThumbnailsPause() {
     this.picasso.pauseTag(this.thumbnailTag)
+    this.prefetchTags.forEach(this.picasso::pauseTag)
+    this.prefetchPaused = true
   }
 
   override fun loadingThumbnailsContinue() {
     this.picasso.resumeTag(this.thumbnailTag)
+    this.prefetchTags.forEach(this.picasso::resumeTag)
+    this.prefetchPaused = false
+  }
+
+  override fun prefetchThumbnails(
+    group: String,
+    entries: List<FeedEntry.FeedEntryOPDS>,
+    width: Int,
+    height: Int
+  ) {
+    if (entries.isEmpty() || !this.prefetchNetworkAllowed) {
+      return
+    }
+
+    val tag = this.prefetchTagOf(group)
+    if (this.prefetchTags.add(tag) && this.prefetchPaused) {
+      this.picasso.pauseTag(tag)
+    }
+
+    /*
+     * The requests must be identical to those made by loadThumbnailInto(), as otherwise
+     * the results will be cached under different keys.
+     */
+
+    val (bucketWidth, bucketHeight) = BookCoverSizeBuckets.bucketOf(width, height)
+    for (entry in entries) {
+      val uri = this.thumbnailURIOf(entry) ?: this.generateCoverURI(entry)
+      this.picasso.load(uri.toString())
+        .tag(tag)
+        .priority(Picasso.Priority.LOW)
+        .resize(bucketWidth, bucketHeight)
+        .onlyScaleDown()
+        .transform(BookCoverBadgePainter(entry, this.badgeLookup))
+        .fetch()
+    }
   }
 
+  override fun prefetchCancel(group: String) {
+    val tag = this.prefetchTagOf(group)
+    if (this.prefetchTags.remove(tag)) {
+      this.picasso.cancelTag(tag)
+    }
+  }
+
+  private fun prefetchTagOf(group: String): String =
+    "prefetch:$group"
+
   companion object {
 
     /**
@@ -201,6 +286,7 @@ class BookCoverProvider private constructor(
      * @param bookRegistry The book registry
      * @param coverGenerator A cover generator
      * @param executor An executor
+     * @param networkStatus The network status, used to decide whether to prefetch covers
      *
      * @return A new cover provider
      */
@@ -212,6 +298,7 @@ class BookCoverProvider private constructor(
       badgeLookup: BookCoverBadgeLookupType,
       bundledContentResolver: BundledContentResolverType,
       executor: ExecutorService,
+      networkStatus: Observable<NetworkStatus>,
       debugCacheIndicators: Boolean,
       debugLogging: Boolean
     ): BookCoverProviderType {
@@ -224,7 +311,7 @@ class BookCoverProvider private constructor(
       picassoBuilder.executor(executor)
 
       val picasso = picassoBuilder.build()
-      return BookCoverProvider(bookRegistry, coverGenerator, picasso, badgeLookup)
+      return BookCoverProvider(bookRegistry, coverGenerator, picasso, badgeLookup, networkStatus)
     }
   }
 }
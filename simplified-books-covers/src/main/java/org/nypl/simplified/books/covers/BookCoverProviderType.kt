@@ -23,6 +23,36 @@ interface BookCoverProviderType {
 
   fun loadingThumbnailsContinue()
 
+  /**
+   * Prefetch thumbnails for entries that are likely to be displayed soon, so that they are
+   * already cached when their views are bound. Prefetching runs at a lower priority than
+   * loading thumbnails into views, and is paused and continued along with them.
+   *
+   * Must only be called from the UI thread.
+   *
+   * @param group A name for the set of prefetches, used to cancel them with [prefetchCancel]
+   * @param entries The feed entries
+   * @param width The width that will later be passed to [loadThumbnailInto]
+   * @param height The height that will later be passed to [loadThumbnailInto]
+   */
+
+  fun prefetchThumbnails(
+    group: String,
+    entries: List<FeedEntry.FeedEntryOPDS>,
+    width: Int,
+    height: Int
+  )
+
+  /**
+   * Cancel any prefetches in the given group that have not yet completed.
+   *
+   * Must only be called from the UI thread.
+   *
+   * @param group The name passed to [prefetchThumbnails]
+   */
+
+  fun prefetchCancel(group: String)
+
   /**
    * Load or generate a thumbnail based on `entry` into the image view
    * `imageView`, at width `width` and height `height`.
@@ -0,0 +1,59 @@
+package org.nypl.simplified.books.covers
+
+/**
+ * The size bucket policy for decoded covers.
+ *
+ * Rather than decoding a cover at the exact size of each view that displays it, covers are
+ * decoded at the smallest bucket that is at least as large as the requested size, and the
+ * view scales the image when drawing. Views of similar sizes therefore share a single decoded
+ * bitmap in the memory cache. Buckets grow by a factor of roughly √2, so a decoded bitmap is
+ * never more than about 1.4 times the requested size in either dimension.
+ */
+
+object BookCoverSizeBuckets {
+
+  private val buckets =
+    intArrayOf(64, 90, 128, 182, 256, 362, 512, 724, 1024, 1448, 2048)
+
+  /**
+   * @return The bucket for the given length, or the length itself if it is larger than the
+   * largest bucket
+   */
+
+  fun bucketOf(length: Int): Int {
+    for (bucket in this.buckets) {
+      if (length <= bucket) {
+        return bucket
+      }
+    }
+    return length
+  }
+
+  /**
+   * Determine the size at which a cover requested at the given size should be decoded. As
+   * with Picasso's `resize`, a dimension of `0` indicates that the dimension should be derived
+   * from the aspect ratio of the image. If both dimensions are specified, the aspect ratio of
+   * the requested size is preserved.
+   *
+   * @return The bucketed (width, height)
+   */
+
+  fun bucketOf(
+    width: Int,
+    height: Int
+  ): Pair<Int, Int> {
+    return when {
+      width <= 0 && height <= 0 ->
+        Pair(width, height)
+      width <= 0 ->
+        Pair(0, this.bucketOf(height))
+      height <= 0 ->
+        Pair(this.bucketOf(width), 0)
+      else -> {
+        val bucketHeight = this.bucketOf(height)
+        val bucketWidth = ((width.toLong() * bucketHeight + height - 1) / height).toInt()
+        Pair(bucketWidth, bucketHeight)
+      }
+    }
+  }
+}
@@ -118,8 +118,8 @@ class BookDatabase private constructor(
         val fileMeta = File(bookDir, "meta.json")
         val fileMetaTmp = File(bookDir, "meta.json.tmp")
 
-        val cover = fileOrNull(directory, BookDatabaseEntry.COVER_FILENAME)
-        val thumb = fileOrNull(directory, BookDatabaseEntry.THUMB_FILENAME)
+        val cover = fileOrNull(bookDir, BookDatabaseEntry.COVER_FILENAME)
+        val thumb = fileOrNull(bookDir, BookDatabaseEntry.THUMB_FILENAME)
 
         FileUtilities.fileWriteUTF8Atomically(
           fileMeta,
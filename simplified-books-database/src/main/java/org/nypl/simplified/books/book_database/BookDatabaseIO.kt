@@ -0,0 +1,29 @@
+package org.nypl.simplified.books.book_database
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * The executor used by format handles for bulk file operations, such as copying exploded
+ * EPUB directories into the database.
+ *
+ * The pool is small and dedicated to blocking file I/O, so that copying a large book can
+ * neither starve nor be starved by CPU-bound work on shared pools such as
+ * `ForkJoinPool.commonPool()`.
+ */
+
+internal object BookDatabaseIO {
+
+  private const val THREADS = 2
+
+  private val threadIds = AtomicInteger(0)
+
+  val executor: ExecutorService =
+    Executors.newFixedThreadPool(this.THREADS) { runnable ->
+      val thread = Thread(runnable)
+      thread.name = "simplified-book-database-io-${this.threadIds.getAndIncrement()}"
+      thread.isDaemon = true
+      thread
+    }
+}
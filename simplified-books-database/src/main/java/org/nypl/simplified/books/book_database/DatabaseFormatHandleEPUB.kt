@@ -139,7 +139,7 @@ internal class DatabaseFormatHandleEPUB internal constructor(
   override fun copyInBook(file: File) {
     val newFormat = synchronized(this.dataLock) {
       if (file.isDirectory) {
-        DirectoryUtilities.directoryCopy(file, this.fileBook)
+        DirectoryUtilities.directoryCopy(file, this.fileBook, this.parameters.ioExecutor)
       } else {
         FileUtilities.fileCopy(file, this.fileBook)
       }
@@ -151,6 +151,24 @@ internal class DatabaseFormatHandleEPUB internal constructor(
     this.parameters.onUpdated.invoke(newFormat)
   }
 
+  override fun moveInBook(file: File) {
+    val newFormat = synchronized(this.dataLock) {
+      if (file.isDirectory) {
+        DirectoryUtilities.directoryMove(file, this.fileBook, this.parameters.ioExecutor)
+      } else {
+        if (this.fileBook.isDirectory) {
+          DirectoryUtilities.directoryDelete(this.fileBook)
+        }
+        FileUtilities.fileMove(file, this.fileBook)
+      }
+
+      this.formatRef = this.formatRef.copy(file = this.fileBook)
+      this.formatRef
+    }
+
+    this.parameters.onUpdated.invoke(newFormat)
+  }
+
   override fun setLastReadLocation(bookmark: Bookmark?) {
     val newFormat = synchronized(this.dataLock) {
       if (bookmark != null) {
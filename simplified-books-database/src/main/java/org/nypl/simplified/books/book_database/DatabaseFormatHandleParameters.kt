@@ -8,6 +8,7 @@ import org.nypl.simplified.books.api.BookID
 import org.nypl.simplified.books.book_database.api.BookDatabaseEntryType
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import java.io.File
+import java.util.concurrent.ExecutorService
 
 /**
  * Parameters passed to database format handles.
@@ -63,5 +64,11 @@ internal data class DatabaseFormatHandleParameters(
    * The book format support.
    */
 
-  val bookFormatSupport: BookFormatSupportType
+  val bookFormatSupport: BookFormatSupportType,
+
+  /**
+   * A bounded executor for bulk file I/O, such as copying directories.
+   */
+
+  val ioExecutor: ExecutorService = BookDatabaseIO.executor
 )
@@ -8,6 +8,7 @@ import org.nypl.simplified.accounts.api.AccountReadableType
 import org.nypl.simplified.accounts.api.setAuthentication
 import org.nypl.simplified.opds.core.OPDSFeedTransportException
 import org.nypl.simplified.opds.core.OPDSFeedTransportIOException
+import org.nypl.simplified.opds.core.OPDSFeedTransportResponse
 import org.nypl.simplified.opds.core.OPDSFeedTransportType
 import org.slf4j.LoggerFactory
 import java.io.ByteArrayInputStream
@@ -36,6 +37,16 @@ class FeedHTTPTransport(
     method: String,
     authenticate: Boolean
   ): InputStream {
+    return this.getResponse(account, uri, method, authenticate).stream
+  }
+
+  @Throws(OPDSFeedTransportException::class)
+  override fun getResponse(
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean
+  ): OPDSFeedTransportResponse {
     this.logger.debug("get stream: {} {}", uri, account)
 
     val request =
@@ -47,7 +58,10 @@ class FeedHTTPTransport(
     val response = request.execute()
     return when (val status = response.status) {
       is LSHTTPResponseStatus.Responded.OK ->
-        status.bodyStream ?: ByteArrayInputStream(ByteArray(0))
+        OPDSFeedTransportResponse(
+          stream = status.bodyStream ?: ByteArrayInputStream(ByteArray(0)),
+          contentType = status.properties.contentType
+        )
 
       is LSHTTPResponseStatus.Responded.Error ->
         throw FeedHTTPTransportException(
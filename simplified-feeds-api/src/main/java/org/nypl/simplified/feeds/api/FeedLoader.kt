@@ -3,6 +3,8 @@ package org.nypl.simplified.feeds.api
 import com.google.common.util.concurrent.FluentFuture
 import com.google.common.util.concurrent.ListeningExecutorService
 import com.io7m.jfunctional.Some
+import one.irradia.mime.api.MIMECompatibility
+import one.irradia.mime.api.MIMEType
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountReadableType
 import org.nypl.simplified.books.bundled.api.BundledContentResolverType
@@ -25,10 +27,14 @@ import org.nypl.simplified.opds.core.OPDSAcquisitionPaths
 import org.nypl.simplified.opds.core.OPDSFeedParserType
 import org.nypl.simplified.opds.core.OPDSFeedTransportType
 import org.nypl.simplified.opds.core.OPDSOpenSearch1_1
+import org.nypl.simplified.opds.core.OPDSParseException
 import org.nypl.simplified.opds.core.OPDSSearchLink
 import org.nypl.simplified.opds.core.OPDSSearchParserType
+import org.nypl.simplified.opds2.parser.api.OPDS2ParsersType
+import org.nypl.simplified.parser.api.ParseResult
 import org.slf4j.LoggerFactory
 import java.io.FileNotFoundException
+import java.io.InputStream
 import java.net.URI
 import java.util.SortedMap
 import java.util.concurrent.Callable
@@ -44,6 +50,7 @@ class FeedLoader private constructor(
   private val contentResolver: ContentResolverType,
   private val exec: ListeningExecutorService,
   private val parser: OPDSFeedParserType,
+  private val opds2Parsers: OPDS2ParsersType?,
   private val searchParser: OPDSSearchParserType,
   private val transport: OPDSFeedTransportType<AccountReadableType>
 ) : FeedLoaderType {
@@ -105,14 +112,32 @@ class FeedLoader private constructor(
       }
 
       /*
-       * Otherwise, parse the OPDS feed including any embedded search links.
+       * Otherwise, parse the OPDS feed including any embedded search links. The server
+       * may have responded with either an Atom feed or an OPDS 2.0 feed.
        */
 
-      val opdsFeed =
-        this.transport.getStream(account, uri, method, authenticate)
-          .use { stream -> this.parser.parse(uri, stream) }
+      val response =
+        this.transport.getResponse(account, uri, method, authenticate)
+      val opds2Parsers =
+        this.opds2Parsers
+      val contentType =
+        response.contentType
+
+      val opdsFeed: OPDSAcquisitionFeed
+      val opdsSearch: OPDSOpenSearch1_1?
+      if (opds2Parsers != null && contentType != null && isOPDS2(contentType)) {
+        val converted = response.stream.use { stream ->
+          this.parseOPDS2(opds2Parsers, uri, stream)
+        }
+        opdsFeed = converted.feed
+        opdsSearch = converted.search
+      } else {
+        opdsFeed = response.stream.use { stream -> this.parser.parse(uri, stream) }
+        opdsSearch = null
+      }
+
       val search =
-        this.fetchSearchLink(opdsFeed, account, method, authenticate)
+        opdsSearch ?: this.fetchSearchLink(opdsFeed, account, method, authenticate)
       val feed =
         Feed.fromAcquisitionFeed(
           accountId = account.id,
@@ -151,6 +176,24 @@ class FeedLoader private constructor(
     }
   }
 
+  private fun parseOPDS2(
+    parsers: OPDS2ParsersType,
+    uri: URI,
+    stream: InputStream
+  ): FeedOPDS2.Converted {
+    return when (val result = parsers.createParser(uri, stream).parse()) {
+      is ParseResult.Success ->
+        FeedOPDS2.convert(result.result)
+      is ParseResult.Failure -> {
+        val error = result.errors.firstOrNull()
+        throw OPDSParseException(
+          "Could not parse OPDS 2.0 feed: ${error?.message ?: "Unknown error"}",
+          error?.exception
+        )
+      }
+    }
+  }
+
   private fun isEntrySupported(
     entry: OPDSAcquisitionFeedEntry
   ): Boolean {
@@ -256,8 +299,15 @@ class FeedLoader private constructor(
 
   companion object {
 
+    private val opds2Type =
+      MIMEType("application", "opds+json", mapOf())
+
+    private fun isOPDS2(contentType: MIMEType): Boolean =
+      MIMECompatibility.isCompatibleStrictWithoutAttributes(contentType, this.opds2Type)
+
     /**
-     * Create a new feed loader.
+     * Create a new feed loader. If OPDS 2.0 parsers are provided, then servers that respond
+     * with OPDS 2.0 feeds instead of Atom feeds are supported.
      */
 
     fun create(
@@ -267,13 +317,15 @@ class FeedLoader private constructor(
       parser: OPDSFeedParserType,
       searchParser: OPDSSearchParserType,
       transport: OPDSFeedTransportType<AccountReadableType>,
-      bundledContent: BundledContentResolverType
+      bundledContent: BundledContentResolverType,
+      opds2Parsers: OPDS2ParsersType? = null
     ): FeedLoaderType {
       return FeedLoader(
         bookFormatSupport = bookFormatSupport,
         bundledContent = bundledContent,
         contentResolver = contentResolver,
         exec = exec,
+        opds2Parsers = opds2Parsers,
         parser = parser,
         searchParser = searchParser,
         transport = transport
@@ -0,0 +1,224 @@
+package org.nypl.simplified.feeds.api
+
+import com.io7m.jfunctional.Option
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.nypl.simplified.links.Link
+import org.nypl.simplified.opds.core.OPDSAcquisition
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeed
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedBuilderType
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
+import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess
+import org.nypl.simplified.opds.core.OPDSOpenSearch1_1
+import org.nypl.simplified.opds.core.OPDSParseException
+import org.nypl.simplified.opds.core.OPDSSearchLink
+import org.nypl.simplified.opds2.OPDS2Feed
+import org.nypl.simplified.opds2.OPDS2Publication
+import org.nypl.simplified.parser.api.ParseError
+import java.net.URI
+
+/**
+ * Functions to convert OPDS 2.0 feeds to the acquisition feeds from which [Feed] values
+ * are constructed.
+ *
+ * The OPDS 2.0 model carries less information than Atom feeds do: there are no indirect
+ * acquisitions, availability information, facets, or categories. Only open access publications
+ * can be represented faithfully without these. Feeds containing publications that can be
+ * borrowed are rejected rather than shown incorrectly, and acquisitions that the application
+ * never performs (such as buying) are omitted.
+ */
+
+internal object FeedOPDS2 {
+
+  private const val IMAGE_REL = "http://opds-spec.org/image"
+  private const val THUMBNAIL_REL = "http://opds-spec.org/image/thumbnail"
+
+  /**
+   * The time used for feeds and publications that do not state when they were modified. A
+   * fixed time is used, rather than the current time, so that converting the same feed twice
+   * yields the same entries.
+   */
+
+  private val UNKNOWN_TIME = DateTime(0L, DateTimeZone.UTC)
+
+  private val acquisitionRelations =
+    OPDSAcquisition.Relation.values().associateBy { relation -> relation.uri.toString() }
+
+  /**
+   * The relations that require availability information, and usually indirect acquisitions,
+   * to be acquired.
+   */
+
+  private val availabilityRelations =
+    setOf(
+      OPDSAcquisition.Relation.ACQUISITION_BORROW,
+      OPDSAcquisition.Relation.ACQUISITION_GENERIC
+    )
+
+  /**
+   * The result of converting a feed.
+   */
+
+  data class Converted(
+    val feed: OPDSAcquisitionFeed,
+
+    /**
+     * The search template, if the feed has a templated search link. Feeds with links to
+     * OpenSearch descriptions expose them as the usual search link of the acquisition feed.
+     */
+
+    val search: OPDSOpenSearch1_1?
+  )
+
+  @Throws(OPDSParseException::class)
+  fun convert(feed: OPDS2Feed): Converted {
+    val metadata = feed.metadata
+    val builder =
+      OPDSAcquisitionFeed.newBuilder(
+        feed.uri,
+        metadata.identifier?.toString() ?: feed.uri.toString(),
+        metadata.modified ?: UNKNOWN_TIME,
+        metadata.title.title
+      )
+
+    var search: OPDSOpenSearch1_1? = null
+    for (link in feed.links) {
+      when (link.relation) {
+        "next" ->
+          link.hrefURI?.let { uri -> builder.setNextOption(Option.some(uri)) }
+        "search" ->
+          search = search ?: this.convertSearch(builder, link)
+      }
+    }
+
+    for (publication in feed.publications) {
+      this.convertPublication(feed, builder, publication, null)
+    }
+
+    for (group in feed.groups) {
+      val groupURI =
+        group.links.firstOrNull { link -> link.relation == "self" }?.hrefURI ?: feed.uri
+      val groupTitle =
+        group.metadata.title.title
+      for (publication in group.publications) {
+        this.convertPublication(feed, builder, publication, Pair(groupTitle, groupURI))
+      }
+    }
+
+    return Converted(builder.build(), search)
+  }
+
+  /**
+   * Templated search links are used directly. Other search links are assumed to refer to
+   * OpenSearch descriptions, which the feed loader fetches.
+   */
+
+  private fun convertSearch(
+    builder: OPDSAcquisitionFeedBuilderType,
+    link: Link
+  ): OPDSOpenSearch1_1? {
+    return when (link) {
+      is Link.LinkBasic -> {
+        builder.setSearchOption(
+          Option.some(OPDSSearchLink(link.type?.fullType ?: "", link.href))
+        )
+        null
+      }
+      is Link.LinkTemplated -> {
+        val template =
+          link.href
+            .replace("{?query}", "?query={searchTerms}")
+            .replace("{&query}", "&query={searchTerms}")
+        if (template.contains("{searchTerms}")) {
+          OPDSOpenSearch1_1(template)
+        } else {
+          null
+        }
+      }
+    }
+  }
+
+  @Throws(OPDSParseException::class)
+  private fun convertPublication(
+    feed: OPDS2Feed,
+    builder: OPDSAcquisitionFeedBuilderType,
+    publication: OPDS2Publication,
+    group: Pair<String, URI>?
+  ) {
+    val metadata = publication.metadata
+    val identifier = metadata.identifier
+    if (identifier == null) {
+      builder.addParseError(
+        ParseError(
+          source = feed.uri,
+          message = "Publication '${metadata.title.title}' has no identifier",
+          line = 0,
+          column = 0,
+          exception = null
+        )
+      )
+      return
+    }
+
+    val allAcquisitions =
+      publication.links.mapNotNull { link ->
+        val relation = this.acquisitionRelations[link.relation]
+        val href = link.hrefURI
+        val type = link.type
+        if (relation != null && href != null && type != null) {
+          OPDSAcquisition(relation, href, type, listOf())
+        } else {
+          null
+        }
+      }
+
+    val unsupported =
+      allAcquisitions.firstOrNull { acquisition -> acquisition.relation in this.availabilityRelations }
+    if (unsupported != null) {
+      throw OPDSParseException(
+        "OPDS 2.0 publication '$identifier' has an acquisition (${unsupported.relation.uri}) " +
+          "that cannot be represented without availability information"
+      )
+    }
+
+    val acquisitions =
+      allAcquisitions.filter { acquisition ->
+        acquisition.relation == OPDSAcquisition.Relation.ACQUISITION_OPEN_ACCESS
+      }
+
+    /*
+     * As with Atom feeds, publications that cannot be acquired are not shown.
+     */
+
+    if (acquisitions.isEmpty()) {
+      return
+    }
+
+    val entry =
+      OPDSAcquisitionFeedEntry.newBuilder(
+        identifier.toString(),
+        metadata.title.title,
+        metadata.modified ?: metadata.published ?: feed.metadata.modified ?: UNKNOWN_TIME,
+        OPDSAvailabilityOpenAccess.get(Option.none())
+      )
+
+    acquisitions.forEach { acquisition -> entry.addAcquisition(acquisition) }
+    metadata.author.forEach { author -> entry.addAuthor(author.name.name) }
+    metadata.published?.let { time -> entry.setPublishedOption(Option.some(time)) }
+
+    val images = publication.images + publication.links
+    val cover =
+      images.firstOrNull { link -> link.relation == IMAGE_REL }
+        ?: publication.images.firstOrNull()
+    val thumbnail =
+      images.firstOrNull { link -> link.relation == THUMBNAIL_REL }
+    cover?.hrefURI?.let { uri -> entry.setCoverOption(Option.some(uri)) }
+    thumbnail?.hrefURI?.let { uri -> entry.setThumbnailOption(Option.some(uri)) }
+
+    if (group != null) {
+      entry.addGroup(group.second, group.first)
+    }
+
+    builder.addEntry(entry.build())
+  }
+}
@@ -5,6 +5,11 @@ import com.io7m.junreachable.UnreachableCodeException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Directory utility functions.
@@ -99,4 +104,200 @@ public final class DirectoryUtilities
       FileUtilities.fileCopy(from, to);
     }
   }
+
+  /**
+   * Copy the directory {@code from} to {@code to}, including all subdirectories and files.
+   * The directory structure is created on the calling thread, and the files are then copied
+   * concurrently using the given executor. This is typically much faster than
+   * {@link #directoryCopy(File, File)} for directories containing many small files, such as
+   * exploded EPUB files. If any file cannot be copied, the copies that have not yet started
+   * are cancelled and the first error is raised.
+   *
+   * @param from     The source directory
+   * @param to       The target directory
+   * @param executor The executor used to copy files
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void directoryCopy(
+    final File from,
+    final File to,
+    final ExecutorService executor)
+    throws IOException
+  {
+    NullCheck.notNull(from);
+    NullCheck.notNull(to);
+    NullCheck.notNull(executor);
+
+    final List<File> sources = new ArrayList<>(64);
+    final List<File> targets = new ArrayList<>(64);
+    DirectoryUtilities.directoryCopyCollect(from, to, sources, targets);
+
+    final List<Future<?>> futures = new ArrayList<>(sources.size());
+    try {
+      for (int index = 0; index < sources.size(); ++index) {
+        final File source = sources.get(index);
+        final File target = targets.get(index);
+        futures.add(executor.submit(() -> {
+          FileUtilities.fileCopy(source, target);
+          return null;
+        }));
+      }
+
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(
+        String.format("Interrupted copying '%s' to '%s'", from, to), e);
+    } finally {
+      for (final Future<?> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Move the directory {@code from} to {@code to}, replacing {@code to} if it exists. The
+   * directory is renamed if possible; if it cannot be renamed (typically because {@code from}
+   * and {@code to} are on different filesystems), it is copied using
+   * {@link #directoryCopy(File, File, ExecutorService)} and then deleted.
+   *
+   * If {@code to} already exists, the new tree is first placed in a temporary sibling of
+   * {@code to}. The existing tree is then renamed aside, the new tree is renamed into place,
+   * and the old tree is deleted last. If the move fails, {@code to} is left as it was.
+   *
+   * @param from     The source directory
+   * @param to       The target directory
+   * @param executor The executor used to copy files if the directory cannot be renamed
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void directoryMove(
+    final File from,
+    final File to,
+    final ExecutorService executor)
+    throws IOException
+  {
+    NullCheck.notNull(from);
+    NullCheck.notNull(to);
+    NullCheck.notNull(executor);
+
+    if (from.isDirectory() == false) {
+      throw new IOException(
+        String.format(
+          "Could not move '%s' to '%s' ('%s' does not exist or is not a "
+          + "directory)", from, to, from));
+    }
+
+    if (to.exists() == false && from.renameTo(to)) {
+      return;
+    }
+
+    final String suffix = FileUtilities.randomHex(8);
+    final File staged = new File(to.getPath() + ".new." + suffix);
+    final File previous = new File(to.getPath() + ".old." + suffix);
+
+    final boolean renamed = from.renameTo(staged);
+    if (renamed == false) {
+      try {
+        DirectoryUtilities.directoryCopy(from, staged, executor);
+      } catch (final IOException e) {
+        DirectoryUtilities.directoryDeleteSuppressing(staged, e);
+        throw e;
+      }
+    }
+
+    try {
+      DirectoryUtilities.directorySwap(staged, to, previous);
+    } catch (final IOException e) {
+      if (renamed) {
+        staged.renameTo(from);
+      } else {
+        DirectoryUtilities.directoryDeleteSuppressing(staged, e);
+      }
+      throw e;
+    }
+
+    if (previous.exists()) {
+      DirectoryUtilities.directoryDelete(previous);
+    }
+    if (renamed == false) {
+      DirectoryUtilities.directoryDelete(from);
+    }
+  }
+
+  /**
+   * Replace {@code to} with {@code staged}, renaming any existing {@code to} to
+   * {@code previous} first. If {@code staged} cannot be renamed, the existing tree is
+   * renamed back.
+   */
+
+  private static void directorySwap(
+    final File staged,
+    final File to,
+    final File previous)
+    throws IOException
+  {
+    final boolean replacing = to.exists();
+    if (replacing && to.renameTo(previous) == false) {
+      throw new IOException(
+        String.format("Could not rename '%s' to '%s'", to, previous));
+    }
+
+    if (staged.renameTo(to) == false) {
+      if (replacing) {
+        previous.renameTo(to);
+      }
+      throw new IOException(
+        String.format("Could not rename '%s' to '%s'", staged, to));
+    }
+  }
+
+  private static void directoryDeleteSuppressing(
+    final File directory,
+    final IOException cause)
+  {
+    try {
+      DirectoryUtilities.directoryDelete(directory);
+    } catch (final IOException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Create the directories of the tree rooted at {@code from} within {@code to}, and collect
+   * the files that must be copied.
+   */
+
+  private static void directoryCopyCollect(
+    final File from,
+    final File to,
+    final List<File> sources,
+    final List<File> targets)
+    throws IOException
+  {
+    if (from.isDirectory()) {
+      directoryCreate(to);
+      final String[] children = from.list();
+      if (children == null) {
+        throw new IOException(String.format("Could not list '%s'", from));
+      }
+      for (final String child : children) {
+        directoryCopyCollect(new File(from, child), new File(to, child), sources, targets);
+      }
+    } else {
+      sources.add(from);
+      targets.add(to);
+    }
+  }
 }
@@ -9,23 +9,38 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Trivial file locking utilities.
+ *
+ * Locks are identified by the canonical path of the lock file, so different {@link File}
+ * values that refer to the same file share a lock. A lock is created the first time a file
+ * is locked and is retained for the lifetime of the process; lock files are expected to be a
+ * small, fixed set (one per account, profile, and so on).
  */
 
 public final class FileLocking
 {
-  private static final Logger                   LOG;
-  private static final Map<File, ReentrantLock> PATH_LOCKS;
+  private static final Logger                                LOG;
+  private static final ConcurrentMap<String, ReentrantLock> PATH_LOCKS;
+
+  /**
+   * The interval at which attempts are made to acquire process locks.
+   */
+
+  private static final long PROCESS_LOCK_POLL_MILLISECONDS = 10L;
 
   static {
     LOG = NullCheck.notNull(LoggerFactory.getLogger(FileLocking.class));
-    PATH_LOCKS = new WeakHashMap<File, ReentrantLock>(16);
+    PATH_LOCKS = new ConcurrentHashMap<String, ReentrantLock>(16);
   }
 
   private FileLocking()
@@ -58,12 +73,54 @@ public final class FileLocking
     final long milliseconds,
     final PartialFunctionType<Unit, T, E> p)
     throws E, IOException
+  {
+    return FileLocking.withFileLocked(file, milliseconds, false, p);
+  }
+
+  /**
+   * Attempt to acquire a lock on {@code file}, waiting for a maximum of {@code
+   * milliseconds} ms. This method behaves as {@link #withFileThreadLocked(File, long,
+   * PartialFunctionType)} does, but additionally holds an exclusive
+   * {@link FileChannel#lock() operating system lock} on the file whilst
+   * evaluating {@code p}, and so also excludes other processes that lock
+   * the same file with this method. The lock file is created if it does not
+   * exist.
+   *
+   * @param file         The lock file
+   * @param milliseconds The maximum wait time
+   * @param p            The function to evaluate
+   * @param <T>          The type of returned values
+   * @param <E>          The type of thrown exceptions
+   *
+   * @return The value returned by {@code p}
+   *
+   * @throws E           If {@code p} raises {@code E}
+   * @throws IOException If the lock cannot be acquired in the given time limit
+   */
+
+  public static <T, E extends Exception> T withFileProcessLocked(
+    final File file,
+    final long milliseconds,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException
+  {
+    return FileLocking.withFileLocked(file, milliseconds, true, p);
+  }
+
+  private static <T, E extends Exception> T withFileLocked(
+    final File file,
+    final long milliseconds,
+    final boolean process,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException
   {
     NullCheck.notNull(file);
     NullCheck.notNull(p);
 
+    final long deadline =
+      System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(milliseconds);
     final File f = file.getCanonicalFile();
-    final ReentrantLock lock = FileLocking.getFileLock(file);
+    final ReentrantLock lock = FileLocking.getFileLock(f);
     try {
       if (lock.isHeldByCurrentThread()) {
         throw new IOException(
@@ -72,10 +129,13 @@ public final class FileLocking
 
       if (lock.tryLock(milliseconds, TimeUnit.MILLISECONDS)) {
         try {
-          FileLocking.LOG.trace("lock obtain {}", file);
+          FileLocking.LOG.trace("lock obtain {}", f);
+          if (process) {
+            return FileLocking.withProcessLocked(f, deadline, p);
+          }
           return p.call(Unit.unit());
         } finally {
-          FileLocking.LOG.trace("lock unlock {}", file);
+          FileLocking.LOG.trace("lock unlock {}", f);
           lock.unlock();
         }
       } else {
@@ -89,19 +149,70 @@ public final class FileLocking
     }
   }
 
-  private static synchronized ReentrantLock getFileLock(final File file)
+  /**
+   * Acquire an operating system lock on {@code file} and evaluate {@code p}. The caller
+   * must hold the thread lock for the file: operating system locks are held on behalf of
+   * the whole process, and attempting to acquire overlapping locks from two threads in the
+   * same process raises an exception rather than waiting.
+   */
+
+  private static <T, E extends Exception> T withProcessLocked(
+    final File file,
+    final long deadline,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException, InterruptedException
+  {
+    try (final RandomAccessFile stream = new RandomAccessFile(file, "rw")) {
+      final FileChannel channel = stream.getChannel();
+      final FileLock file_lock = FileLocking.tryLockUntil(file, channel, deadline);
+      try {
+        FileLocking.LOG.trace("process lock obtain {}", file);
+        return p.call(Unit.unit());
+      } finally {
+        FileLocking.LOG.trace("process lock release {}", file);
+        file_lock.release();
+      }
+    }
+  }
+
+  private static FileLock tryLockUntil(
+    final File file,
+    final FileChannel channel,
+    final long deadline)
+    throws IOException, InterruptedException
   {
-    FileLocking.LOG.trace("lock request {}", file);
+    while (true) {
+      try {
+        final FileLock file_lock = channel.tryLock();
+        if (file_lock != null) {
+          return file_lock;
+        }
+      } catch (final OverlappingFileLockException e) {
+        /*
+         * The file is locked by a channel in this process that was not opened by this class.
+         * Treat this as if another process held the lock.
+         */
+      }
+      if (System.nanoTime() - deadline >= 0L) {
+        throw new IOException(
+          String.format(
+            "Timed out waiting for process lock of file %s", file));
+      }
+      Thread.sleep(FileLocking.PROCESS_LOCK_POLL_MILLISECONDS);
+    }
+  }
 
-    final ReentrantLock lock = FileLocking.PATH_LOCKS.get(file);
+  private static ReentrantLock getFileLock(final File file)
+  {
+    final String path = file.getPath();
+    final ReentrantLock lock = FileLocking.PATH_LOCKS.get(path);
     if (lock != null) {
-      FileLocking.LOG.trace("lock reuse {}", file);
       return lock;
     }
 
     FileLocking.LOG.trace("lock new {}", file);
-    final ReentrantLock new_lock = new ReentrantLock(true);
-    FileLocking.PATH_LOCKS.put(file, new_lock);
-    return new_lock;
+    final ReentrantLock new_lock = new ReentrantLock();
+    final ReentrantLock existing = FileLocking.PATH_LOCKS.putIfAbsent(path, new_lock);
+    return existing != null ? existing : new_lock;
   }
 }
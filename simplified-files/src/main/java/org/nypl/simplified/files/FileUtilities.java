@@ -3,18 +3,18 @@ package org.nypl.simplified.files;
 import com.io7m.jnull.NullCheck;
 import com.io7m.junreachable.UnreachableCodeException;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * File utility functions.
@@ -22,13 +22,23 @@ import java.security.SecureRandom;
 
 public final class FileUtilities
 {
+  /**
+   * The size of the buffers used to copy streams.
+   */
+
+  private static final int BUFFER_SIZE = 65536;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   private FileUtilities()
   {
     throw new UnreachableCodeException();
   }
 
   /**
-   * Copy the file {@code from} to {@code to}.
+   * Copy the file {@code from} to {@code to}. The data is copied using {@link FileChannel}
+   * operations, and so the platform may copy it without passing it through userspace
+   * buffers.
    *
    * @param from The source file
    * @param to   The target file
@@ -44,35 +54,107 @@ public final class FileUtilities
     NullCheck.notNull(from);
     NullCheck.notNull(to);
 
-    final byte[] buffer = new byte[8192];
+    FileUtilities.fileTransfer(from, to);
+  }
+
+  /**
+   * Move the file {@code from} to {@code to}, replacing {@code to} if it
+   * already exists. If both files are on the same filesystem, this is a
+   * simple rename and no data is copied. Otherwise, the contents of
+   * {@code from} are transferred to a temporary file next to {@code to} using
+   * {@link FileChannel} operations, the temporary file is renamed to
+   * {@code to}, and {@code from} is deleted only once {@code to} has been
+   * replaced. If the move fails, {@code to} is left as it was.
+   *
+   * @param from The source file
+   * @param to   The target file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileMove(
+    final File from,
+    final File to)
+    throws IOException
+  {
+    NullCheck.notNull(from);
+    NullCheck.notNull(to);
+
+    if (from.renameTo(to)) {
+      return;
+    }
+
+    if (from.isFile() == false) {
+      throw new IOException(
+        String.format(
+          "Could not move '%s' to '%s' ('%s' does not exist or is not a "
+          + "file)", from, to, from));
+    }
+
+    final File toTmp =
+      new File(to.getPath() + ".tmp." + FileUtilities.randomHex(8));
 
-    FileInputStream in = null;
     try {
-      in = new FileInputStream(from);
+      FileUtilities.fileTransfer(from, toTmp);
+      FileUtilities.fileRename(toTmp, to);
+    } catch (final IOException e) {
+      toTmp.delete();
+      throw e;
+    }
 
-      FileOutputStream out = null;
-      try {
-        out = new FileOutputStream(to);
+    if (from.delete() == false) {
+      throw new IOException(String.format("Could not delete '%s'", from));
+    }
+  }
 
-        while (true) {
-          final int r = in.read(buffer);
-          if (r == -1) {
-            break;
-          }
-          out.write(buffer, 0, r);
-          out.flush();
-        }
+  /**
+   * Copy the file {@code from} to {@code to} using {@link
+   * FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+   * This allows the platform to copy the data without passing it through
+   * userspace buffers.
+   */
 
-      } finally {
-        if (out != null) {
-          out.flush();
-          out.close();
+  private static void fileTransfer(
+    final File from,
+    final File to)
+    throws IOException
+  {
+    try (FileInputStream in = new FileInputStream(from);
+         FileOutputStream out = new FileOutputStream(to)) {
+      final FileChannel inChannel = in.getChannel();
+      final FileChannel outChannel = out.getChannel();
+      final long size = inChannel.size();
+      long position = 0L;
+      while (position < size) {
+        final long transferred =
+          inChannel.transferTo(position, size - position, outChannel);
+
+        /*
+         * A transfer of zero bytes indicates that the file was truncated whilst copying.
+         */
+
+        if (transferred <= 0L) {
+          break;
         }
+        position += transferred;
       }
-    } finally {
-      if (in != null) {
-        in.close();
-      }
+
+      FileUtilities.checkTransferComplete(from, to, position, size);
+    }
+  }
+
+  private static void checkTransferComplete(
+    final Object from,
+    final File to,
+    final long transferred,
+    final long expected)
+    throws IOException
+  {
+    if (transferred < expected) {
+      throw new IOException(
+        String.format(
+          "Copying '%s' to '%s' was truncated: Copied %d of %d bytes",
+          from, to, transferred, expected));
     }
   }
 
@@ -118,7 +200,7 @@ public final class FileUtilities
     }
   }
 
-  private static String randomHex(final int i)
+  static String randomHex(final int i)
   {
     final SecureRandom sr = new SecureRandom();
     final byte[] bytes = new byte[i];
@@ -132,7 +214,7 @@ public final class FileUtilities
 
   /**
    * Read the entire contents of the given file, assuming that it is UTF-8
-   * text.
+   * text. Line terminators are removed from the returned text.
    *
    * @param file The file
    *
@@ -147,24 +229,18 @@ public final class FileUtilities
   {
     NullCheck.notNull(file);
 
-    final StringBuilder b = new StringBuilder((int) file.length());
-
-    final BufferedReader in = new BufferedReader(
-      new InputStreamReader(
-        new FileInputStream(file), "UTF-8"));
+    final String text = new String(FileUtilities.fileReadBytes(file), FileUtilities.UTF_8);
+    if (text.indexOf('\n') == -1 && text.indexOf('\r') == -1) {
+      return text;
+    }
 
-    try {
-      while (true) {
-        final String line = in.readLine();
-        if (line == null) {
-          break;
-        }
-        b.append(line);
+    final StringBuilder b = new StringBuilder(text.length());
+    for (int index = 0; index < text.length(); ++index) {
+      final char c = text.charAt(index);
+      if (c != '\n' && c != '\r') {
+        b.append(c);
       }
-    } finally {
-      in.close();
     }
-
     return NullCheck.notNull(b.toString());
   }
 
@@ -227,16 +303,7 @@ public final class FileUtilities
     NullCheck.notNull(file);
     NullCheck.notNull(text);
 
-    final Writer out = new BufferedWriter(
-      new OutputStreamWriter(
-        new FileOutputStream(file), "UTF-8"));
-
-    try {
-      out.write(text);
-      out.flush();
-    } finally {
-      out.close();
-    }
+    FileUtilities.fileWriteBytes(text.getBytes(FileUtilities.UTF_8), file, false);
   }
 
   /**
@@ -256,11 +323,39 @@ public final class FileUtilities
     final File f_tmp,
     final String text)
     throws IOException
+  {
+    FileUtilities.fileWriteUTF8Atomically(f, f_tmp, text, false);
+  }
+
+  /**
+   * Write the given string to the given file, completely replacing it if it
+   * already exists. The file {@code f_tmp} is used as a temporary file and is
+   * atomically renamed to {@code f} on writing. If {@code durable} is
+   * {@code true}, the contents of {@code f_tmp} are forced to the storage
+   * device before the rename, so that {@code f} cannot be observed to be
+   * empty or partially written after a crash. This is considerably slower
+   * than an ordinary write, and should be reserved for data that cannot be
+   * recovered if lost.
+   *
+   * @param f       The file
+   * @param f_tmp   The temporary intermediate file
+   * @param text    The text
+   * @param durable {@code true} if the data must be forced to storage
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileWriteUTF8Atomically(
+    final File f,
+    final File f_tmp,
+    final String text,
+    final boolean durable)
+    throws IOException
   {
     NullCheck.notNull(f);
     NullCheck.notNull(f_tmp);
     NullCheck.notNull(text);
-    FileUtilities.fileWriteUTF8(f_tmp, text);
+    FileUtilities.fileWriteBytes(text.getBytes(FileUtilities.UTF_8), f_tmp, durable);
     FileUtilities.fileRename(f_tmp, f);
   }
 
@@ -279,24 +374,37 @@ public final class FileUtilities
   {
     NullCheck.notNull(file);
 
-    final FileInputStream fs = new FileInputStream(file);
-    try {
-      final ByteArrayOutputStream bao = new ByteArrayOutputStream();
-      try {
-        final byte[] buffer = new byte[8192];
-        while (true) {
-          final int r = fs.read(buffer);
-          if (r == -1) {
-            break;
-          }
-          bao.write(buffer, 0, r);
+    try (FileInputStream fs = new FileInputStream(file)) {
+      final FileChannel channel = fs.getChannel();
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IOException(
+          String.format("File '%s' is too large to read (%d bytes)", file, size));
+      }
+
+      /*
+       * Read exactly as many bytes as the file is expected to contain. The file may have
+       * changed size since its size was checked, in which case the result is trimmed or
+       * the remainder of the file is read with an ordinary buffer.
+       */
+
+      final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          return Arrays.copyOf(buffer.array(), buffer.position());
         }
-        return bao.toByteArray();
-      } finally {
-        bao.close();
       }
-    } finally {
-      fs.close();
+
+      final int next = fs.read();
+      if (next == -1) {
+        return buffer.array();
+      }
+
+      final ByteArrayOutputStream bao = new ByteArrayOutputStream((int) size * 2);
+      bao.write(buffer.array());
+      bao.write(next);
+      FileUtilities.copyStream(fs, bao);
+      return bao.toByteArray();
     }
   }
 
@@ -317,13 +425,35 @@ public final class FileUtilities
     NullCheck.notNull(data);
     NullCheck.notNull(file);
 
-    final FileOutputStream fs = new FileOutputStream(file);
-    try {
+    FileUtilities.fileWriteBytes(data, file, false);
+  }
+
+  private static void fileWriteBytes(
+    final byte[] data,
+    final File file,
+    final boolean durable)
+    throws IOException
+  {
+    try (FileOutputStream fs = new FileOutputStream(file)) {
       fs.write(data);
-      fs.flush();
-      fs.close();
-    } finally {
-      fs.close();
+      if (durable) {
+        fs.getChannel().force(true);
+      }
+    }
+  }
+
+  private static void copyStream(
+    final InputStream in,
+    final OutputStream out)
+    throws IOException
+  {
+    final byte[] buffer = new byte[FileUtilities.BUFFER_SIZE];
+    while (true) {
+      final int r = in.read(buffer);
+      if (r == -1) {
+        break;
+      }
+      out.write(buffer, 0, r);
     }
   }
 
@@ -370,20 +500,25 @@ public final class FileUtilities
     NullCheck.notNull(file);
     NullCheck.notNull(stream);
 
-    final FileOutputStream fs = new FileOutputStream(file);
-    try {
-      final byte[] buffer = new byte[8192];
-      while (true) {
-        final int r = stream.read(buffer);
-        if (r == -1) {
-          break;
+    try (FileOutputStream fs = new FileOutputStream(file)) {
+      if (stream instanceof FileInputStream) {
+        final FileChannel in_channel = ((FileInputStream) stream).getChannel();
+        final FileChannel out_channel = fs.getChannel();
+        final long expected = in_channel.size() - in_channel.position();
+        long position = 0L;
+        while (true) {
+          final long transferred =
+            out_channel.transferFrom(in_channel, position, FileUtilities.BUFFER_SIZE * 16L);
+          if (transferred <= 0L) {
+            break;
+          }
+          position += transferred;
         }
-        fs.write(buffer, 0, r);
+        FileUtilities.checkTransferComplete(stream, file, position, expected);
+        return;
       }
-      fs.flush();
-      fs.close();
-    } finally {
-      fs.close();
+
+      FileUtilities.copyStream(stream, fs);
     }
   }
 
@@ -1,6 +1,7 @@
 package org.nypl.simplified.main
 
 import android.app.Application
+import android.content.ComponentCallbacks2
 import android.net.http.HttpResponseCache
 import android.os.Process
 import android.os.StrictMode
@@ -8,9 +9,13 @@ import android.os.StrictMode.ThreadPolicy
 import android.os.StrictMode.VmPolicy
 import io.reactivex.Observable
 import org.librarysimplified.services.api.ServiceDirectoryType
+import org.librarysimplified.services.api.Services
+import org.nypl.simplified.accounts.api.AccountAuthenticationCredentialsStoreType
 import org.nypl.simplified.boot.api.BootEvent
 import org.nypl.simplified.boot.api.BootLoader
 import org.nypl.simplified.boot.api.BootProcessType
+import org.nypl.simplified.profiles.api.ProfilesDatabaseType
+import org.nypl.simplified.threads.NamedThreadPools
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.IOException
@@ -36,6 +41,14 @@ class MainApplication : Application() {
       bootStringResources = ::MainServicesStrings
     )
 
+  /**
+   * The executor used to flush in-memory changes to disk. Flushing writes files, and so
+   * must not be performed on the main thread.
+   */
+
+  private val flushExecutor =
+    NamedThreadPools.namedThreadPool(1, "flush", 19)
+
   override fun onCreate() {
     super.onCreate()
 
@@ -47,6 +60,45 @@ class MainApplication : Application() {
     INSTANCE = this
   }
 
+  override fun onTrimMemory(level: Int) {
+    super.onTrimMemory(level)
+
+    /*
+     * The application may be killed at any point after it moves to the background, so write
+     * any changes that are only held in memory.
+     */
+
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && Services.isInitialized()) {
+      this.flushExecutor.execute { this.flush(Services.serviceDirectory()) }
+    }
+  }
+
+  private fun flush(services: ServiceDirectoryType) {
+    try {
+      services.requireService(AccountAuthenticationCredentialsStoreType::class.java)
+        .flush()
+    } catch (e: Exception) {
+      this.logger.error("could not flush credentials store: ", e)
+    }
+
+    try {
+      val profiles =
+        services.requireService(ProfilesDatabaseType::class.java)
+          .profiles()
+          .values
+
+      for (profile in profiles) {
+        try {
+          profile.accountsDatabase().flush()
+        } catch (e: Exception) {
+          this.logger.error("could not flush accounts of profile {}: ", profile.id, e)
+        }
+      }
+    } catch (e: Exception) {
+      this.logger.error("could not flush profiles: ", e)
+    }
+  }
+
   private fun logStartup() {
     this.logger.debug("starting app: pid {}", Process.myPid())
     this.logger.debug("app version: {}", BuildConfig.SIMPLIFIED_VERSION)
@@ -23,7 +23,16 @@ import java.io.File
 object MainLogging {
 
   /**
-   * Configure the default logcat appender.
+   * The number of events that may be queued for the logcat appender.
+   */
+
+  private const val LOGCAT_QUEUE_SIZE = 1024
+
+  /**
+   * Configure the default logcat appender. Events are written to logcat on a separate thread
+   * so that logging does not block the threads that log. When the queue is 80% full, TRACE,
+   * DEBUG, and INFO events are discarded, and when it is completely full, all events are
+   * discarded rather than blocking.
    */
 
   private fun configureLogcatAppender(
@@ -35,10 +44,20 @@ object MainLogging {
         this.pattern = "%msg%n"
         this.start()
       }
-    return LogcatAppender().apply {
+    val logcatAppender =
+      LogcatAppender().apply {
+        this.context = loggerContext
+        this.name = "LOGCAT"
+        this.encoder = encoder
+        this.start()
+      }
+
+    return AsyncAppender().apply {
       this.context = loggerContext
-      this.name = "LOGCAT"
-      this.encoder = encoder
+      this.name = "ASYNC_LOGCAT"
+      this.queueSize = LOGCAT_QUEUE_SIZE
+      this.isNeverBlock = true
+      this.addAppender(logcatAppender)
       this.start()
     }
   }
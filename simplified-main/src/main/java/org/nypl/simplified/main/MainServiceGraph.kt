@@ -0,0 +1,174 @@
+package org.nypl.simplified.main
+
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
+import org.librarysimplified.services.api.ServiceDirectoryBuilderType
+import org.librarysimplified.services.api.ServiceDirectoryType
+import org.nypl.simplified.boot.api.BootEvent
+import org.slf4j.LoggerFactory
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * A graph of services that are started concurrently.
+ *
+ * Each service is declared along with the futures of the services upon which it depends, and
+ * is started on the given executor as soon as all of those services have started. Services
+ * with no dependencies in common therefore start in parallel. A boot event is published when
+ * each service starts, and another (carrying the time taken as an attribute) when it finishes.
+ *
+ * Services must be declared from a single thread, and any service that looks up other
+ * services in the directory (rather than taking them as arguments) must declare a dependency
+ * on all of the services declared before it (see [declared]).
+ */
+
+internal class MainServiceGraph(
+  private val executor: ListeningExecutorService,
+  private val services: ServiceDirectoryBuilderType,
+  private val onProgress: (BootEvent) -> Unit
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(MainServiceGraph::class.java)
+
+  private val nodes =
+    mutableListOf<ListenableFuture<*>>()
+
+  /**
+   * The lock that serializes access to the directory builder and the progress callback, as
+   * neither are thread-safe.
+   */
+
+  private val lock = Any()
+
+  /**
+   * The futures of all of the services and tasks declared so far.
+   */
+
+  val declared: List<ListenableFuture<*>>
+    get() = this.nodes.toList()
+
+  /**
+   * Publish a boot event.
+   */
+
+  fun publishEvent(message: String, attributes: Map<String, String> = mapOf()) {
+    synchronized(this.lock) {
+      this.onProgress.invoke(BootEvent.BootInProgress(message, attributes))
+    }
+  }
+
+  /**
+   * Run a task once all of the given dependencies have completed.
+   */
+
+  fun <T> task(
+    message: String,
+    dependencies: List<ListenableFuture<*>> = listOf(),
+    task: () -> T
+  ): ListenableFuture<T> {
+    val future =
+      Futures.whenAllSucceed(dependencies)
+        .call(Callable { this.timed(message, task) }, this.executor)
+    this.nodes.add(future)
+    return future
+  }
+
+  /**
+   * Start a service once all of the given dependencies have started, and register it in the
+   * directory under the given interface type.
+   */
+
+  fun <T : Any> service(
+    message: String,
+    interfaceType: Class<T>,
+    dependencies: List<ListenableFuture<*>> = listOf(),
+    serviceConstructor: () -> T
+  ): ListenableFuture<T> {
+    return this.task(message, dependencies) {
+      val service = serviceConstructor.invoke()
+      synchronized(this.lock) {
+        this.services.addService(interfaceType, service)
+      }
+      service
+    }
+  }
+
+  /**
+   * Start a service once all of the given dependencies have started, and register it in the
+   * directory under the given interface type if the constructor returns a service.
+   */
+
+  fun <T : Any> serviceOptionally(
+    message: String,
+    interfaceType: Class<T>,
+    dependencies: List<ListenableFuture<*>> = listOf(),
+    serviceConstructor: () -> T?
+  ): ListenableFuture<T?> {
+    return this.task(message, dependencies) {
+      val service = serviceConstructor.invoke()
+      if (service != null) {
+        synchronized(this.lock) {
+          this.services.addService(interfaceType, service)
+        }
+      }
+      service
+    }
+  }
+
+  /**
+   * Build a directory containing the services that have been registered so far.
+   */
+
+  fun directory(): ServiceDirectoryType {
+    return synchronized(this.lock) {
+      this.services.build()
+    }
+  }
+
+  /**
+   * Wait for every declared service and task to complete.
+   *
+   * @throws Throwable The exception raised by the first service that failed to start
+   */
+
+  @Throws(Throwable::class)
+  fun awaitAll() {
+    try {
+      Futures.allAsList(this.nodes).get()
+    } catch (e: ExecutionException) {
+      throw e.cause ?: e
+    }
+  }
+
+  private fun <T> timed(
+    message: String,
+    task: () -> T
+  ): T {
+    this.publishEvent(message)
+    val timeThen = System.nanoTime()
+    val result = task.invoke()
+    val timeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeThen)
+    this.logger.debug("boot: {} took {}ms", message, timeMillis)
+    this.publishEvent(
+      message,
+      mapOf(
+        Pair("Thread", Thread.currentThread().name),
+        Pair("Time (ms)", timeMillis.toString())
+      )
+    )
+    return result
+  }
+
+  companion object {
+
+    /**
+     * Get the result of a dependency that is known to have completed.
+     */
+
+    fun <T> done(future: ListenableFuture<T>): T =
+      Futures.getDone(future)
+  }
+}
@@ -5,9 +5,13 @@ import android.content.pm.PackageManager
 import android.content.res.AssetManager
 import android.content.res.Resources
 import android.graphics.Color
+import android.os.Looper
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
 import com.squareup.picasso.Picasso
 import io.reactivex.subjects.PublishSubject
+import io.reactivex.subjects.Subject
 import org.joda.time.LocalDateTime
 import org.librarysimplified.documents.DocumentConfigurationServiceType
 import org.librarysimplified.documents.DocumentStoreType
@@ -57,6 +61,7 @@ import org.nypl.simplified.books.controller.api.BookRevokeStringResourcesType
 import org.nypl.simplified.books.controller.api.BooksControllerType
 import org.nypl.simplified.books.covers.BookCoverBadgeLookupType
 import org.nypl.simplified.books.covers.BookCoverGenerator
+import org.nypl.simplified.books.covers.BookCoverGeneratorCache
 import org.nypl.simplified.books.covers.BookCoverGeneratorType
 import org.nypl.simplified.books.covers.BookCoverProvider
 import org.nypl.simplified.books.covers.BookCoverProviderType
@@ -87,6 +92,7 @@ import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser
 import org.nypl.simplified.opds.core.OPDSFeedParser
 import org.nypl.simplified.opds.core.OPDSFeedParserType
 import org.nypl.simplified.opds.core.OPDSSearchParser
+import org.nypl.simplified.opds2.irradia.OPDS2ParsersIrradia
 import org.nypl.simplified.patron.PatronUserProfileParsers
 import org.nypl.simplified.patron.api.PatronUserProfileParsersType
 import org.nypl.simplified.profiles.ProfilesDatabases
@@ -117,11 +123,24 @@ import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.util.ServiceLoader
+import java.util.concurrent.ForkJoinPool
 
 internal object MainServices {
 
   private val logger = LoggerFactory.getLogger(MainServices::class.java)
 
+  /**
+   * The number of threads used to start services.
+   */
+
+  private const val BOOT_THREADS = 4
+
+  /**
+   * The number of entries a feed must contain for its entries to be parsed in parallel.
+   */
+
+  private const val FEED_PARALLEL_ENTRIES = 100
+
   /**
    * The current on-disk data version. The entire directory tree the application uses
    * to store data is versioned in order to make it easier to migrate data to new versions
@@ -315,7 +334,7 @@ internal object MainServices {
     context: Context,
     resources: Resources,
     analytics: AnalyticsType,
-    accountEvents: PublishSubject<AccountEvent>,
+    accountEvents: Subject<AccountEvent>,
     accountProviders: AccountProviderRegistryType,
     accountBundledCredentials: AccountBundledCredentialsType,
     accountCredentialsStore: AccountAuthenticationCredentialsStoreType,
@@ -368,6 +387,7 @@ internal object MainServices {
       NamedThreadPools.namedThreadPool(1, "catalog-feed", 19)
     val feedSearchParser =
       OPDSSearchParser.newParser()
+
     val feedTransport =
       FeedHTTPTransport(http)
 
@@ -376,6 +396,7 @@ internal object MainServices {
       bundledContent = bundledContent,
       contentResolver = contentResolver,
       exec = execCatalogFeeds,
+      opds2Parsers = OPDS2ParsersIrradia,
       parser = opdsFeedParser,
       searchParser = feedSearchParser,
       transport = feedTransport
@@ -383,7 +404,11 @@ internal object MainServices {
   }
 
   private fun createFeedParser(): OPDSFeedParserType {
-    return OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser())
+    return OPDSFeedParser.newParserWithParallelism(
+      OPDSAcquisitionFeedEntryParser.newParser(),
+      ForkJoinPool.commonPool(),
+      FEED_PARALLEL_ENTRIES
+    )
   }
 
   private fun <T : Any> optionalFromServiceLoader(interfaceType: Class<T>): T? {
@@ -402,7 +427,8 @@ internal object MainServices {
 
   private fun createReaderBookmarksService(
     http: LSHTTPClientType,
-    bookController: ProfilesControllerType
+    bookController: ProfilesControllerType,
+    networkConnectivity: NetworkConnectivityType
   ): ReaderBookmarkServiceType {
     val threadFactory: (Runnable) -> Thread = { runnable ->
       NamedThreadPools.namedThreadPoolFactory("reader-bookmarks", 19).newThread(runnable)
@@ -413,7 +439,8 @@ internal object MainServices {
         threads = threadFactory,
         events = PublishSubject.create(),
         httpCalls = ReaderBookmarkHTTPCalls(ObjectMapper(), http),
-        profilesController = bookController
+        profilesController = bookController,
+        networkStatus = networkConnectivity.statusChanges
       )
     )
   }
@@ -423,7 +450,8 @@ internal object MainServices {
     bookRegistry: BookRegistryReadableType,
     bundledContentResolver: BundledContentResolverType,
     coverGenerator: BookCoverGeneratorType,
-    badgeLookup: BookCoverBadgeLookupType
+    badgeLookup: BookCoverBadgeLookupType,
+    networkConnectivity: NetworkConnectivityType
   ): BookCoverProviderType {
     val execCovers =
       NamedThreadPools.namedThreadPool(2, "cover", 19)
@@ -434,6 +462,7 @@ internal object MainServices {
       badgeLookup = badgeLookup,
       bundledContentResolver = bundledContentResolver,
       executor = execCovers,
+      networkStatus = networkConnectivity.statusChanges,
       debugCacheIndicators = false,
       debugLogging = false
     )
@@ -519,72 +548,59 @@ internal object MainServices {
     }
   }
 
+  /**
+   * Services that are not needed to show the first screen of the application, and that are
+   * started once the main thread becomes idle after booting. Referenced here so that they
+   * are not collected.
+   */
+
+  @Volatile
+  private var notificationsService: NotificationsService? = null
+
   fun setup(
     context: Context,
     onProgress: (BootEvent) -> Unit
   ): ServiceDirectoryType {
-    fun publishEvent(message: String) {
-      this.logger.debug("boot: {}", message)
-      onProgress.invoke(BootEvent.BootInProgress(message))
-    }
-
     BootFailureTesting.failBootProcessForTestingPurposesIfRequested(context)
 
-    val services = ServiceDirectory.builder()
-    val assets = context.assets
-    val strings = MainServicesStrings(context.resources)
+    val executor =
+      NamedThreadPools.namedThreadPool(BOOT_THREADS, "boot", 0)
+    val graph =
+      MainServiceGraph(executor, ServiceDirectory.builder(), onProgress)
 
-    fun <T : Any> addService(
-      message: String,
-      interfaceType: Class<T>,
-      serviceConstructor: () -> T
-    ): T {
-      publishEvent(message)
-      val service = serviceConstructor.invoke()
-      services.addService(interfaceType, service)
-      return service
+    try {
+      return this.setupGraph(context, graph, executor, onProgress)
+    } catch (e: Throwable) {
+      executor.shutdownNow()
+      throw e
     }
+  }
 
-    fun <T : Any> addServiceOptionally(
-      message: String,
-      interfaceType: Class<T>,
-      serviceConstructor: () -> T?
-    ): T? {
-      publishEvent(message)
-      val service = serviceConstructor.invoke()
-      if (service != null) {
-        services.addService(interfaceType, service)
-      }
-      return service
-    }
+  private fun setupGraph(
+    context: Context,
+    graph: MainServiceGraph,
+    executor: ListeningExecutorService,
+    onProgress: (BootEvent) -> Unit
+  ): ServiceDirectoryType {
+    val assets = context.assets
+    val strings = MainServicesStrings(context.resources)
 
-    fun <T : Any> addServiceFromServiceLoaderOptionally(
-      message: String,
-      interfaceType: Class<T>
-    ): T? {
-      publishEvent(message)
-      val service = ServiceLoader.load(interfaceType).firstOrNull()
-      if (service != null) {
-        services.addService(interfaceType, service)
-      } else {
-        logger.debug("no services of type {} available in ServiceLoader", interfaceType)
-      }
-      return service
-    }
+    fun <T> done(future: ListenableFuture<T>): T =
+      MainServiceGraph.done(future)
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("login strings"),
       interfaceType = AccountLoginStringResourcesType::class.java,
       serviceConstructor = { MainLoginStringResources(context.resources) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("logout strings"),
       interfaceType = AccountLogoutStringResourcesType::class.java,
       serviceConstructor = { MainLogoutStringResources(context.resources) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("account resolution strings"),
       interfaceType = AccountProviderResolutionStringsType::class.java,
       serviceConstructor = {
@@ -592,126 +608,141 @@ internal object MainServices {
       }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("account creation strings"),
       interfaceType = ProfileAccountCreationStringResourcesType::class.java,
       serviceConstructor = { MainProfileAccountCreationStringResources(context.resources) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("account deletion strings"),
       interfaceType = ProfileAccountDeletionStringResourcesType::class.java,
       serviceConstructor = { MainProfileAccountDeletionStringResources(context.resources) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("book revocation strings"),
       interfaceType = BookRevokeStringResourcesType::class.java,
       serviceConstructor = { MainCatalogBookRevokeStrings(context.resources) }
     )
 
-    addServiceFromServiceLoaderOptionally(
+    graph.serviceOptionally(
       message = strings.bootingGeneral("Crashlytics"),
-      interfaceType = CrashlyticsServiceType::class.java
+      interfaceType = CrashlyticsServiceType::class.java,
+      serviceConstructor = { this.optionalFromServiceLoader(CrashlyticsServiceType::class.java) }
     )
 
     val lsHTTP =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("LSHTTP"),
         interfaceType = LSHTTPClientType::class.java,
         serviceConstructor = { MainHTTP.create(context) }
       )
 
-    publishEvent(strings.bootingGeneral("Directories"))
-    val directories = this.initializeDirectories(context)
+    val directories =
+      graph.task(
+        message = strings.bootingGeneral("Directories"),
+        task = { this.initializeDirectories(context) }
+      )
 
-    val adobeConfiguration = this.findAdobeConfiguration(context.resources)
     val adobeDRM =
-      addServiceOptionally(
+      graph.serviceOptionally(
         message = strings.bootingGeneral("Adobe DRM"),
         interfaceType = AdobeAdeptExecutorType::class.java,
-        serviceConstructor = { AdobeDRMServices.newAdobeDRMOrNull(context, adobeConfiguration) }
+        serviceConstructor = {
+          val adobeConfiguration = this.findAdobeConfiguration(context.resources)
+          AdobeDRMServices.newAdobeDRMOrNull(context, adobeConfiguration)
+        }
       )
 
     val axisNowDRM =
-      addServiceOptionally(
+      graph.serviceOptionally(
         message = strings.bootingGeneral("AxisNow DRM"),
         interfaceType = AxisNowServiceType::class.java,
-        serviceConstructor = { this.createAxisNowService(lsHTTP) }
+        dependencies = listOf(lsHTTP),
+        serviceConstructor = { this.createAxisNowService(done(lsHTTP)) }
       )
 
     val screenSize =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("screen size"),
         interfaceType = ScreenSizeInformationType::class.java,
         serviceConstructor = { ScreenSizeInformation(context.resources) }
       )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("UI thread"),
       interfaceType = UIThreadServiceType::class.java,
       serviceConstructor = { MainUIThreadService() }
     )
 
     val bookRegistry =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("book registry"),
         interfaceType = BookRegistryType::class.java,
         serviceConstructor = { BookRegistry.create() }
       )
-    addService(
+    graph.service(
       message = strings.bootingGeneral("book registry"),
       interfaceType = BookRegistryReadableType::class.java,
-      serviceConstructor = { bookRegistry }
+      dependencies = listOf(bookRegistry),
+      serviceConstructor = { done(bookRegistry) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("accessibility service"),
       interfaceType = AccessibilityServiceType::class.java,
-      serviceConstructor = { AccessibilityService.create(context, bookRegistry) }
+      dependencies = listOf(bookRegistry),
+      serviceConstructor = { AccessibilityService.create(context, done(bookRegistry)) }
     )
 
     val tenPrint =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("10Print"),
         interfaceType = TenPrintGeneratorType::class.java,
         serviceConstructor = { TenPrintGenerator.newGenerator() }
       )
 
     val coverGenerator =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("cover generator"),
         interfaceType = BookCoverGeneratorType::class.java,
-        serviceConstructor = { BookCoverGenerator(tenPrint) }
+        dependencies = listOf(tenPrint),
+        serviceConstructor = {
+          BookCoverGenerator(
+            done(tenPrint),
+            BookCoverGeneratorCache.open(File(context.cacheDir, "generated-covers"))
+          )
+        }
       )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("local image loader"),
       interfaceType = ImageLoaderType::class.java,
       serviceConstructor = { this.createLocalImageLoader(context) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("build configuration service"),
       interfaceType = BuildConfigurationServiceType::class.java,
       serviceConstructor = { this.findBuildConfiguration() }
     )
 
     val contentResolver =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("content resolver"),
         interfaceType = ContentResolverType::class.java,
         serviceConstructor = { ContentResolverSane(context.contentResolver) }
       )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("borrow subtask directory"),
       interfaceType = BorrowSubtaskDirectoryType::class.java,
       serviceConstructor = { BorrowSubtasks.directory() }
     )
 
     val documentConfiguration =
-      addServiceOptionally(
+      graph.serviceOptionally(
         message = strings.bootingGeneral("document configuration service"),
         interfaceType = DocumentConfigurationServiceType::class.java,
         serviceConstructor = {
@@ -719,20 +750,21 @@ internal object MainServices {
         }
       )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("document store"),
       interfaceType = DocumentStoreType::class.java,
+      dependencies = listOf(lsHTTP, directories, documentConfiguration),
       serviceConstructor = {
         this.createDocumentStore(
           assets = assets,
-          http = lsHTTP,
-          directory = directories.directoryStorageDocuments,
-          configuration = documentConfiguration
+          http = done(lsHTTP),
+          directory = done(directories).directoryStorageDocuments,
+          configuration = done(documentConfiguration)
         )
       }
     )
 
-    addServiceOptionally(
+    graph.serviceOptionally(
       message = strings.bootingGeneral("profile modification fragment service"),
       interfaceType = ProfileModificationFragmentServiceType::class.java,
       serviceConstructor = {
@@ -741,99 +773,117 @@ internal object MainServices {
     )
 
     val accountProviderRegistry =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("account providers"),
         interfaceType = AccountProviderRegistryType::class.java,
-        serviceConstructor = { this.createAccountProviderRegistry(context, lsHTTP) }
+        dependencies = listOf(lsHTTP),
+        serviceConstructor = { this.createAccountProviderRegistry(context, done(lsHTTP)) }
       )
 
     val accountBundledCredentials =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("bundled credentials"),
         interfaceType = AccountBundledCredentialsType::class.java,
         serviceConstructor = { this.createAccountBundledCredentials(context) }
       )
 
     val accountCredentials =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("credentials store"),
         interfaceType = AccountAuthenticationCredentialsStoreType::class.java,
-        serviceConstructor = { this.createAccountAuthenticationCredentialsStore(directories) }
+        dependencies = listOf(directories),
+        serviceConstructor = {
+          this.createAccountAuthenticationCredentialsStore(done(directories))
+        }
       )
 
     val analytics =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("analytics"),
         interfaceType = AnalyticsType::class.java,
+        dependencies = listOf(lsHTTP),
         serviceConstructor = {
           Analytics.create(
             AnalyticsConfiguration(
               context = context,
-              http = lsHTTP
+              http = done(lsHTTP)
             )
           )
         }
       )
 
+    /*
+     * Account events are published from several threads (for example, when automatic account
+     * providers are resolved in the background), and so the subject must be serialized.
+     */
+
     val accountEvents =
-      PublishSubject.create<AccountEvent>()
+      PublishSubject.create<AccountEvent>().toSerialized()
 
     val feedbooksSecretService =
-      addServiceOptionally(
+      graph.serviceOptionally(
         message = strings.bootingGeneral("Feedbook secret service"),
         interfaceType = AudioBookFeedbooksSecretServiceType::class.java,
         serviceConstructor = { MainFeedbooksSecretService.createConditionally(context) }
       )
 
     val overdriveSecretService =
-      addServiceOptionally(
+      graph.serviceOptionally(
         message = strings.bootingGeneral("Overdrive secret service"),
         interfaceType = AudioBookOverdriveSecretServiceType::class.java,
         serviceConstructor = { MainOverdriveSecretService.createConditionally(context) }
       )
 
     val bookFormatService =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("book format support"),
         interfaceType = BookFormatSupportType::class.java,
+        dependencies = listOf(adobeDRM, axisNowDRM, feedbooksSecretService, overdriveSecretService),
         serviceConstructor = {
           MainBookFormatSupport.createBookFormatSupport(
-            adobeDRM = adobeDRM,
-            axisNowService = axisNowDRM,
-            feedbooksSecretService = feedbooksSecretService,
-            overdriveSecretService = overdriveSecretService
+            adobeDRM = done(adobeDRM),
+            axisNowService = done(axisNowDRM),
+            feedbooksSecretService = done(feedbooksSecretService),
+            overdriveSecretService = done(overdriveSecretService)
           )
         }
       )
 
-    val profilesDatabase =
-      addService(
-        message = strings.bootingGeneral("profiles database"),
-        interfaceType = ProfilesDatabaseType::class.java,
-        serviceConstructor = {
-          this.createProfileDatabase(
-            context,
-            context.resources,
-            analytics,
-            accountEvents,
-            accountProviderRegistry,
-            accountBundledCredentials,
-            accountCredentials,
-            bookFormatService,
-            directories.directoryStorageProfiles
-          )
-        }
-      )
+    graph.service(
+      message = strings.bootingGeneral("profiles database"),
+      interfaceType = ProfilesDatabaseType::class.java,
+      dependencies = listOf(
+        analytics,
+        accountProviderRegistry,
+        accountBundledCredentials,
+        accountCredentials,
+        bookFormatService,
+        directories
+      ),
+      serviceConstructor = {
+        this.createProfileDatabase(
+          context,
+          context.resources,
+          done(analytics),
+          accountEvents,
+          done(accountProviderRegistry),
+          done(accountBundledCredentials),
+          done(accountCredentials),
+          done(bookFormatService),
+          done(directories).directoryStorageProfiles
+        )
+      }
+    )
 
     val bundledContent =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("bundled content"),
         interfaceType = BundledContentResolverType::class.java,
         serviceConstructor = { MainBundledContentResolver.create(context.assets) }
       )
 
     val opdsFeedParser =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("feed parser"),
         interfaceType = OPDSFeedParserType::class.java,
         serviceConstructor = {
@@ -841,159 +891,215 @@ internal object MainServices {
         }
       )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("feed loader"),
       interfaceType = FeedLoaderType::class.java,
+      dependencies = listOf(
+        bookFormatService,
+        bookRegistry,
+        bundledContent,
+        contentResolver,
+        lsHTTP,
+        opdsFeedParser
+      ),
       serviceConstructor = {
         this.createFeedLoader(
-          bookFormatSupport = bookFormatService,
-          bookRegistry = bookRegistry,
-          bundledContent = bundledContent,
-          contentResolver = contentResolver,
-          http = lsHTTP,
-          opdsFeedParser = opdsFeedParser
+          bookFormatSupport = done(bookFormatService),
+          bookRegistry = done(bookRegistry),
+          bundledContent = done(bundledContent),
+          contentResolver = done(contentResolver),
+          http = done(lsHTTP),
+          opdsFeedParser = done(opdsFeedParser)
         )
       }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("patron user profile parsers"),
       interfaceType = PatronUserProfileParsersType::class.java,
       serviceConstructor = { PatronUserProfileParsers() }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("authentication document parsers"),
       interfaceType = AuthenticationDocumentParsersType::class.java,
       serviceConstructor = { AuthenticationDocumentParsers() }
     )
 
     val profileEvents = PublishSubject.create<ProfileEvent>()
-    addService(
+    graph.service(
       message = strings.bootingGeneral("profile idle timer"),
       interfaceType = ProfileIdleTimerType::class.java,
       serviceConstructor = { this.createProfileIdleTimer(profileEvents) }
     )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("audio book manifest strategies"),
       interfaceType = AudioBookManifestStrategiesType::class.java,
-      serviceConstructor = { return@addService AudioBookManifests }
+      serviceConstructor = { AudioBookManifests }
     )
 
-    addServiceOptionally(
+    graph.serviceOptionally(
       message = "metrics service factory",
       interfaceType = MetricServiceType::class.java,
       serviceConstructor = { createMetricService(context) }
     )
 
-    val bookController = this.run {
-      publishEvent(strings.bootingGeneral("books controller"))
-      val execBooks =
-        NamedThreadPools.namedThreadPool(1, "books", 19)
-      val controller =
-        Controller.createFromServiceDirectory(
-          services = services.build(),
-          executorService = execBooks,
-          accountEvents = accountEvents,
-          profileEvents = profileEvents,
-          cacheDirectory = context.cacheDir
-        )
-      addService(
-        message = strings.bootingGeneral("books controller"),
-        interfaceType = ProfilesControllerType::class.java,
-        serviceConstructor = { controller }
+    val networkConnectivity =
+      graph.service(
+        message = strings.bootingGeneral("network connectivity service"),
+        interfaceType = NetworkConnectivityType::class.java,
+        serviceConstructor = { NetworkConnectivity.create(context) }
       )
-      addService(
+
+    /*
+     * The controller looks up the services it needs in the directory, and so must wait for
+     * every service declared before it.
+     */
+
+    val bookController =
+      graph.service(
         message = strings.bootingGeneral("books controller"),
-        interfaceType = BooksControllerType::class.java,
-        serviceConstructor = { controller }
+        interfaceType = ProfilesControllerType::class.java,
+        dependencies = graph.declared,
+        serviceConstructor = {
+          val execBooks =
+            NamedThreadPools.namedThreadPool(1, "books", 19)
+          Controller.createFromServiceDirectory(
+            services = graph.directory(),
+            executorService = execBooks,
+            accountEvents = accountEvents,
+            profileEvents = profileEvents,
+            cacheDirectory = context.cacheDir,
+            borrowQueueFile = File(done(directories).directoryStorageBaseVersioned, "borrows.json")
+          )
+        }
       )
-      controller
-    }
+    graph.service(
+      message = strings.bootingGeneral("books controller"),
+      interfaceType = BooksControllerType::class.java,
+      dependencies = listOf(bookController),
+      serviceConstructor = { done(bookController) }
+    )
 
-    publishEvent(strings.bootingGeneral("reader bookmark service"))
     val readerBookmarksService =
-      this.createReaderBookmarksService(lsHTTP, bookController)
-
-    addService(
-      message = strings.bootingGeneral("reader bookmark service"),
-      interfaceType = ReaderBookmarkServiceType::class.java,
-      serviceConstructor = { readerBookmarksService }
-    )
-    addService(
+      graph.service(
+        message = strings.bootingGeneral("reader bookmark service"),
+        interfaceType = ReaderBookmarkServiceType::class.java,
+        dependencies = listOf(lsHTTP, bookController, networkConnectivity),
+        serviceConstructor = {
+          this.createReaderBookmarksService(
+            done(lsHTTP),
+            done(bookController),
+            done(networkConnectivity)
+          )
+        }
+      )
+    graph.service(
       message = strings.bootingGeneral("reader bookmark service"),
       interfaceType = ReaderBookmarkServiceUsableType::class.java,
-      serviceConstructor = { readerBookmarksService }
+      dependencies = listOf(readerBookmarksService),
+      serviceConstructor = { done(readerBookmarksService) }
     )
 
     val badgeLookup =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("book cover badge lookup"),
         interfaceType = BookCoverBadgeLookupType::class.java,
+        dependencies = listOf(screenSize),
         serviceConstructor = {
           this.createBookCoverBadgeLookup(
             context = context,
-            screenSize = screenSize
+            screenSize = done(screenSize)
           )
         }
       )
 
-    addService(
+    graph.service(
       message = strings.bootingGeneral("book cover provider"),
       interfaceType = BookCoverProviderType::class.java,
+      dependencies = listOf(
+        bookRegistry,
+        bundledContent,
+        coverGenerator,
+        badgeLookup,
+        networkConnectivity
+      ),
       serviceConstructor = {
         this.createCoverProvider(
           context = context,
-          bookRegistry = bookRegistry,
-          bundledContentResolver = bundledContent,
-          coverGenerator = coverGenerator,
-          badgeLookup = badgeLookup
+          bookRegistry = done(bookRegistry),
+          bundledContentResolver = done(bundledContent),
+          coverGenerator = done(coverGenerator),
+          badgeLookup = done(badgeLookup),
+          networkConnectivity = done(networkConnectivity)
         )
       }
     )
 
-    addService(
-      message = strings.bootingGeneral("network connectivity service"),
-      interfaceType = NetworkConnectivityType::class.java,
-      serviceConstructor = { NetworkConnectivity.create(context) }
-    )
-
     val idleTimerConfiguration =
-      addService(
+      graph.service(
         message = strings.bootingGeneral("idle timer configuration service"),
         interfaceType = ProfileIdleTimerConfigurationServiceType::class.java,
         serviceConstructor = { this.findIdleTimerConfiguration() }
       )
 
-    val idleTimer = bookController.profileIdleTimer()
-    idleTimer.setWarningIdleSecondsRemaining(idleTimerConfiguration.warningWhenSecondsRemaining)
-    idleTimer.setMaximumIdleSeconds(idleTimerConfiguration.logOutAfterSeconds)
-
-    addService(
-      message = strings.bootingGeneral("notifications service"),
-      interfaceType = NotificationsService::class.java,
-      serviceConstructor = {
-        this.createNotificationsService(context, profileEvents, bookRegistry)
+    graph.task(
+      message = strings.bootingGeneral("profile idle timer configuration"),
+      dependencies = listOf(bookController, idleTimerConfiguration),
+      task = {
+        val configuration = done(idleTimerConfiguration)
+        val idleTimer = done(bookController).profileIdleTimer()
+        idleTimer.setWarningIdleSecondsRemaining(configuration.warningWhenSecondsRemaining)
+        idleTimer.setMaximumIdleSeconds(configuration.logOutAfterSeconds)
       }
     )
 
-    addServiceOptionally(
+    graph.serviceOptionally(
       message = strings.bootingGeneral("card creator service"),
       interfaceType = CardCreatorServiceType::class.java,
       serviceConstructor = { CardCreatorService.createConditionally(context) }
     )
 
-    this.showThreads()
+    graph.awaitAll()
 
-    this.publishApplicationStartupEvent(context, analytics)
-    val finalServices = services.build()
+    val finalServices = graph.directory()
     Services.initialize(finalServices)
     this.logger.debug("boot completed")
     onProgress.invoke(BootEvent.BootCompleted(strings.bootCompleted))
+
+    this.startDeferred(executor) {
+      this.notificationsService =
+        this.createNotificationsService(context, profileEvents, done(bookRegistry))
+      this.publishApplicationStartupEvent(context, done(analytics))
+      this.showThreads()
+    }
     return finalServices
   }
 
+  /**
+   * Run the given work on the executor once the main thread next becomes idle (which, once
+   * booting has completed, is after the first frame has been drawn), and then shut down
+   * the executor.
+   */
+
+  private fun startDeferred(
+    executor: ListeningExecutorService,
+    work: () -> Unit
+  ) {
+    Looper.getMainLooper().queue.addIdleHandler {
+      executor.execute {
+        try {
+          work.invoke()
+        } catch (e: Exception) {
+          this.logger.error("deferred service startup failed: ", e)
+        }
+      }
+      executor.shutdown()
+      false
+    }
+  }
+
   private fun createDocumentStore(
     assets: AssetManager,
     http: LSHTTPClientType,
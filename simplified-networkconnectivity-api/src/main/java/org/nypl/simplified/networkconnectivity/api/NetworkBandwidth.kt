@@ -0,0 +1,48 @@
+package org.nypl.simplified.networkconnectivity.api
+
+/**
+ * A coarse classification of the downstream bandwidth of a network.
+ */
+
+enum class NetworkBandwidth {
+
+  /**
+   * The bandwidth is not known, or there is no network.
+   */
+
+  UNKNOWN,
+
+  /**
+   * Less than 1Mbps: enough for small requests such as feeds and bookmarks.
+   */
+
+  LOW,
+
+  /**
+   * Less than 10Mbps.
+   */
+
+  MEDIUM,
+
+  /**
+   * At least 10Mbps: suitable for downloading books.
+   */
+
+  HIGH;
+
+  companion object {
+
+    /**
+     * Classify the given downstream bandwidth.
+     */
+
+    fun ofKilobitsPerSecond(kbps: Int): NetworkBandwidth {
+      return when {
+        kbps <= 0 -> UNKNOWN
+        kbps < 1_000 -> LOW
+        kbps < 10_000 -> MEDIUM
+        else -> HIGH
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package org.nypl.simplified.networkconnectivity.api
 
+import io.reactivex.Observable
+
 /**
  * Unambiguous indication of network connectivity.
  */
@@ -11,10 +13,25 @@ interface NetworkConnectivityType {
    */
 
   val isNetworkAvailable: Boolean
+    get() = this.status.isAvailable
 
   /**
    * @return `true` iff WIFI network connectivity is available.
    */
 
   val isWifiAvailable: Boolean
+    get() = this.status.isAvailable && this.status.isWifi
+
+  /**
+   * @return The current network status
+   */
+
+  val status: NetworkStatus
+
+  /**
+   * An observable that publishes the current network status on subscription, and then
+   * publishes each distinct change to it. Statuses are published on an arbitrary thread.
+   */
+
+  val statusChanges: Observable<NetworkStatus>
 }
@@ -0,0 +1,56 @@
+package org.nypl.simplified.networkconnectivity.api
+
+/**
+ * The state of the network at a point in time.
+ */
+
+data class NetworkStatus(
+
+  /**
+   * `true` iff a network is available.
+   */
+
+  val isAvailable: Boolean,
+
+  /**
+   * `true` iff the network may charge for data. Heavy background work should be deferred
+   * until an unmetered network is available.
+   */
+
+  val isMetered: Boolean,
+
+  /**
+   * `true` iff the network is a WIFI network.
+   */
+
+  val isWifi: Boolean,
+
+  /**
+   * The approximate downstream bandwidth of the network.
+   */
+
+  val bandwidth: NetworkBandwidth
+) {
+
+  /**
+   * `true` iff the network is available and does not charge for data.
+   */
+
+  val isUnmetered: Boolean
+    get() = this.isAvailable && !this.isMetered
+
+  companion object {
+
+    /**
+     * The status when no network is available.
+     */
+
+    val UNAVAILABLE =
+      NetworkStatus(
+        isAvailable = false,
+        isMetered = true,
+        isWifi = false,
+        bandwidth = NetworkBandwidth.UNKNOWN
+      )
+  }
+}
@@ -2,38 +2,94 @@ package org.nypl.simplified.networkconnectivity
 
 import android.content.Context
 import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import io.reactivex.Observable
+import io.reactivex.subjects.BehaviorSubject
+import org.nypl.simplified.networkconnectivity.api.NetworkBandwidth
 import org.nypl.simplified.networkconnectivity.api.NetworkConnectivityType
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
+import org.slf4j.LoggerFactory
 
 /**
  * The default network connectivity implementation.
+ *
+ * The implementation registers a callback for the system's default network, and so
+ * statuses are delivered as the network changes rather than being polled.
  */
 
 class NetworkConnectivity private constructor(
-  private val context: Context
+  private val connectivityManager: ConnectivityManager
 ) : NetworkConnectivityType {
 
-  override val isNetworkAvailable: Boolean
-    get() = run {
-      val service = this.context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
-      val info = service.activeNetworkInfo ?: return false
-      return info.isConnectedOrConnecting
+  private val logger =
+    LoggerFactory.getLogger(NetworkConnectivity::class.java)
+
+  private val statusSubject: BehaviorSubject<NetworkStatus> =
+    BehaviorSubject.createDefault(this.currentStatus())
+
+  private val callback = object : ConnectivityManager.NetworkCallback() {
+    override fun onCapabilitiesChanged(
+      network: Network,
+      capabilities: NetworkCapabilities
+    ) {
+      this@NetworkConnectivity.publish(statusOf(capabilities))
+    }
+
+    override fun onLost(network: Network) {
+      this@NetworkConnectivity.publish(NetworkStatus.UNAVAILABLE)
     }
+  }
+
+  init {
+    this.connectivityManager.registerDefaultNetworkCallback(this.callback)
+  }
 
-  override val isWifiAvailable: Boolean
-    get() = run {
-      val service = this.context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
-      val info = service.getNetworkInfo(ConnectivityManager.TYPE_WIFI) ?: return false
-      return info.isConnectedOrConnecting
+  private fun publish(status: NetworkStatus) {
+    synchronized(this.statusSubject) {
+      if (this.statusSubject.value != status) {
+        this.logger.debug("network status: {}", status)
+        this.statusSubject.onNext(status)
+      }
     }
+  }
+
+  private fun currentStatus(): NetworkStatus {
+    val network =
+      this.connectivityManager.activeNetwork ?: return NetworkStatus.UNAVAILABLE
+    val capabilities =
+      this.connectivityManager.getNetworkCapabilities(network) ?: return NetworkStatus.UNAVAILABLE
+    return statusOf(capabilities)
+  }
+
+  override val status: NetworkStatus
+    get() = this.statusSubject.value ?: NetworkStatus.UNAVAILABLE
+
+  override val statusChanges: Observable<NetworkStatus> =
+    this.statusSubject.distinctUntilChanged()
 
   companion object {
 
+    private fun statusOf(capabilities: NetworkCapabilities): NetworkStatus {
+      if (!capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+        return NetworkStatus.UNAVAILABLE
+      }
+      return NetworkStatus(
+        isAvailable = true,
+        isMetered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+        isWifi = capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI),
+        bandwidth = NetworkBandwidth.ofKilobitsPerSecond(capabilities.linkDownstreamBandwidthKbps)
+      )
+    }
+
     /**
      * Create a new network connectivity interface.
      */
 
     fun create(context: Context): NetworkConnectivityType {
-      return NetworkConnectivity(context)
+      return NetworkConnectivity(
+        context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+      )
     }
   }
 }
@@ -21,7 +21,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -37,7 +39,6 @@ import static org.nypl.simplified.opds.core.OPDSFeedConstants.ANNOTATION_URI_TEX
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.ATOM_URI;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.BIBFRAME_URI;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT;
-import static org.nypl.simplified.opds.core.OPDSFeedConstants.DUBLIN_CORE_TERMS_URI;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.GROUP_REL_TEXT;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.IMAGE_URI_TEXT;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.ISSUES_REL_TEXT;
@@ -55,32 +56,194 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
 
   private static final Logger LOG = LoggerFactory.getLogger(OPDSAcquisitionFeedEntryParser.class);
 
+  /**
+   * The kinds of non-acquisition links that entries can contain.
+   */
+
+  private enum LinkRelation {
+    ALTERNATE,
+    ANALYTICS,
+    ANNOTATION,
+    COVER,
+    GROUP,
+    ISSUES,
+    RELATED,
+    THUMBNAIL
+  }
+
+  private static final Map<String, LinkRelation> LINK_RELATIONS;
+  private static final Map<String, Relation> ACQUISITION_RELATIONS;
+
+  static {
+    LINK_RELATIONS = new HashMap<>(16);
+    LINK_RELATIONS.put(ALTERNATE_REL_TEXT, LinkRelation.ALTERNATE);
+    LINK_RELATIONS.put(CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT, LinkRelation.ANALYTICS);
+    LINK_RELATIONS.put(ANNOTATION_URI_TEXT, LinkRelation.ANNOTATION);
+    LINK_RELATIONS.put(IMAGE_URI_TEXT, LinkRelation.COVER);
+    LINK_RELATIONS.put(GROUP_REL_TEXT, LinkRelation.GROUP);
+    LINK_RELATIONS.put(ISSUES_REL_TEXT, LinkRelation.ISSUES);
+    LINK_RELATIONS.put(RELATED_REL_TEXT, LinkRelation.RELATED);
+    LINK_RELATIONS.put(THUMBNAIL_URI_TEXT, LinkRelation.THUMBNAIL);
+
+    ACQUISITION_RELATIONS = new HashMap<>(16);
+    for (final Relation relation : Relation.values()) {
+      ACQUISITION_RELATIONS.put(relation.getUri().toString(), relation);
+    }
+  }
+
+  /**
+   * The children of an entry that the parser examines, collected in a single pass over
+   * the entry. Where the parser only uses the first child with a given name, only the
+   * first is kept.
+   */
+
+  private static final class EntryChildren {
+    private Element id;
+    private Element title;
+    private Element updated;
+    private Element summary;
+    private Element published;
+    private Element publisher;
+    private Element distribution;
+    private final List<Element> authors = new ArrayList<>(4);
+    private final List<Element> categories = new ArrayList<>(8);
+    private final List<Element> links = new ArrayList<>(16);
+
+    EntryChildren(final Element element) {
+      final NodeList children = element.getChildNodes();
+      for (int index = 0; index < children.getLength(); ++index) {
+        final Node child = children.item(index);
+        final OPDSElementName name = OPDSElementName.of(child);
+        if (name == null) {
+          continue;
+        }
+
+        final Element child_element = (Element) child;
+        switch (name) {
+          case ATOM_ID:
+            this.id = this.id == null ? child_element : this.id;
+            break;
+          case ATOM_TITLE:
+            this.title = this.title == null ? child_element : this.title;
+            break;
+          case ATOM_UPDATED:
+            this.updated = this.updated == null ? child_element : this.updated;
+            break;
+          case ATOM_SUMMARY:
+            this.summary = this.summary == null ? child_element : this.summary;
+            break;
+          case DUBLIN_CORE_ISSUED:
+            this.published = this.published == null ? child_element : this.published;
+            break;
+          case DUBLIN_CORE_PUBLISHER:
+            this.publisher = this.publisher == null ? child_element : this.publisher;
+            break;
+          case BIBFRAME_DISTRIBUTION:
+            this.distribution = this.distribution == null ? child_element : this.distribution;
+            break;
+          case ATOM_AUTHOR:
+            this.authors.add(child_element);
+            break;
+          case ATOM_CATEGORY:
+            this.categories.add(child_element);
+            break;
+          case ATOM_LINK:
+            this.links.add(child_element);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+
+  /**
+   * The children of an acquisition link that the parser examines, collected in a single
+   * pass over the link.
+   */
+
+  private static final class AcquisitionChildren {
+    private Element availability;
+    private Element copies;
+    private Element holds;
+    private Element licensor;
+    private final List<Element> indirects = new ArrayList<>(4);
+
+    AcquisitionChildren(final Element link) {
+      final NodeList children = link.getChildNodes();
+      for (int index = 0; index < children.getLength(); ++index) {
+        final Node child = children.item(index);
+        final OPDSElementName name = OPDSElementName.of(child);
+        if (name == null) {
+          continue;
+        }
+
+        final Element child_element = (Element) child;
+        switch (name) {
+          case OPDS_AVAILABILITY:
+            this.availability = this.availability == null ? child_element : this.availability;
+            break;
+          case OPDS_COPIES:
+            this.copies = this.copies == null ? child_element : this.copies;
+            break;
+          case OPDS_HOLDS:
+            this.holds = this.holds == null ? child_element : this.holds;
+            break;
+          case DRM_LICENSOR:
+            this.licensor = this.licensor == null ? child_element : this.licensor;
+            break;
+          case OPDS_INDIRECT_ACQUISITION:
+            this.indirects.add(child_element);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+
   private OPDSAcquisitionFeedEntryParser() {
 
   }
 
   private void findAcquisitionAuthors(
-    final Element element,
+    final EntryChildren children,
     final OPDSAcquisitionFeedEntryBuilderType eb)
     throws OPDSParseException {
 
-    final List<Element> e_authors =
-      OPDSXML.getChildElementsWithName(element, ATOM_URI, "author");
-    for (final Element ea : e_authors) {
+    for (final Element ea : children.authors) {
       final String name =
         OPDSXML.getFirstChildElementTextWithName(Objects.requireNonNull(ea), ATOM_URI, "name");
       eb.addAuthor(name);
     }
   }
 
-  private OptionType<String> findPublisher(final Element element) {
-    return OPDSXML.getFirstChildElementTextWithNameOptional(
-      element, DUBLIN_CORE_TERMS_URI, "publisher");
+  private static OptionType<String> optionalText(final Element element) {
+    if (element == null) {
+      return Option.none();
+    }
+    return Option.some(Objects.requireNonNull(element.getTextContent().trim()));
+  }
+
+  private String findDistribution(final EntryChildren children) {
+    if (children.distribution == null) {
+      return "";
+    }
+
+    final String text =
+      children.distribution.getAttributes()
+        .getNamedItemNS(BIBFRAME_URI.toString(), "ProviderName")
+        .getNodeValue();
+    return Objects.requireNonNull(text.trim());
   }
 
-  private String findDistribution(final Element element) {
-    return OPDSXML.getFirstChildElementTextWithName(
-      element, BIBFRAME_URI, "distribution", "ProviderName");
+  private static OptionType<DateTime> findPublished(final EntryChildren children) {
+    if (children.published == null) {
+      return Option.none();
+    }
+
+    final String text = children.published.getTextContent().trim();
+    return Option.some(OPDSDateParsers.parseDateTime(text));
   }
 
   /**
@@ -96,18 +259,23 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
     final Element element)
     throws OPDSParseException, ParseException {
 
+    final EntryChildren children = new EntryChildren(element);
+
     final String id =
-      OPDSAtom.findID(element);
+      OPDSXML.requireElementText(children.id, ATOM_URI, "id");
     final String title =
-      OPDSAtom.findTitle(element);
+      OPDSXML.requireElementText(children.title, ATOM_URI, "title");
     final DateTime updated =
-      OPDSAtom.findUpdated(element);
+      OPDSDateParsers.parseDateTime(
+        OPDSXML.requireElementText(children.updated, ATOM_URI, "updated"));
 
     final OPDSAcquisitionFeedEntryBuilderType entry_builder =
       OPDSAcquisitionFeedEntry.newBuilder(id, title, updated, OPDSAvailabilityLoanable.get());
 
-    final List<Element> e_links =
-      OPDSXML.getChildElementsWithNameNonEmpty(element, ATOM_URI, "link");
+    final List<Element> e_links = children.links;
+    if (e_links.isEmpty()) {
+      throw OPDSXML.errorMissingElements(ATOM_URI, "link");
+    }
 
     /*
      * First, locate a revocation link, if any. This is required to be found
@@ -117,74 +285,67 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
     final OptionType<URI> revoke = findRevocationLink(source, entry_builder, e_links);
 
     /*
-     * Now, handle any other types of links.
+     * Now, handle any other types of links. None of the relations handled here are
+     * acquisition relations, so any link that is not consumed here is considered as
+     * a possible acquisition.
      */
 
     for (final Element e_link : e_links) {
       if (e_link.hasAttribute("rel")) {
         final String rel_text = Objects.requireNonNull(e_link.getAttribute("rel"));
+        final LinkRelation relation = LINK_RELATIONS.get(rel_text);
 
-        if (tryConsumeLinkGroup(source, entry_builder, e_link, rel_text)) {
+        if (relation == null) {
+          tryConsumeAcquisitions(source, entry_builder, revoke, e_link, rel_text);
           continue;
         }
 
-        if (tryConsumeLinkIssues(source, entry_builder, e_link, rel_text)) {
-          continue;
-        }
-
-        if (tryConsumeLinkAlternate(source, entry_builder, e_link, rel_text)) {
-          continue;
-        }
-
-        if (tryConsumeLinkAnalytics(source, entry_builder, e_link, rel_text)) {
-          continue;
-        }
-
-        if (tryConsumeLinkRelated(source, entry_builder, e_link, rel_text)) {
-          continue;
-        }
-
-        if (tryConsumeLinkAnnotation(source, entry_builder, e_link, rel_text)) {
-          continue;
-        }
-
-        if (tryConsumeLinkThumbnail(source, entry_builder, e_link, rel_text)) {
-          continue;
-        }
-
-        if (tryConsumeLinkCover(source, entry_builder, e_link, rel_text)) {
-          continue;
+        switch (relation) {
+          case ALTERNATE:
+            tryConsumeLinkAlternate(source, entry_builder, e_link);
+            break;
+          case ANALYTICS:
+            tryConsumeLinkAnalytics(source, entry_builder, e_link);
+            break;
+          case ANNOTATION:
+            tryConsumeLinkAnnotation(source, entry_builder, e_link);
+            break;
+          case COVER:
+            tryConsumeLinkCover(source, entry_builder, e_link);
+            break;
+          case GROUP:
+            tryConsumeLinkGroup(source, entry_builder, e_link);
+            break;
+          case ISSUES:
+            tryConsumeLinkIssues(source, entry_builder, e_link);
+            break;
+          case RELATED:
+            tryConsumeLinkRelated(source, entry_builder, e_link);
+            break;
+          case THUMBNAIL:
+            tryConsumeLinkThumbnail(source, entry_builder, e_link);
+            break;
         }
-
-        tryConsumeAcquisitions(source, entry_builder, revoke, e_link, rel_text);
       }
     }
 
-    parseCategories(element, entry_builder);
+    parseCategories(children, entry_builder);
 
-    findAcquisitionAuthors(element, entry_builder);
-    entry_builder.setPublisherOption(findPublisher(element));
-    entry_builder.setDistribution(findDistribution(element));
-    entry_builder.setPublishedOption(OPDSAtom.findPublished(element));
-    entry_builder.setSummaryOption(
-      OPDSXML.getFirstChildElementTextWithNameOptional(element, ATOM_URI, "summary"));
+    findAcquisitionAuthors(children, entry_builder);
+    entry_builder.setPublisherOption(optionalText(children.publisher));
+    entry_builder.setDistribution(findDistribution(children));
+    entry_builder.setPublishedOption(findPublished(children));
+    entry_builder.setSummaryOption(optionalText(children.summary));
 
     return entry_builder.build();
   }
 
   private void tryConsumeDRMLicensorInformation(
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link)
+    final Element licensor_element)
     throws OPDSParseException {
 
-    final OptionType<Element> licensor_opt =
-      OPDSXML.getFirstChildElementWithNameOptional(
-        e_link, OPDSFeedConstants.DRM_URI, "licensor");
-
-    if (licensor_opt.isSome()) {
-      final Some<Element> licensor_some = (Some<Element>) licensor_opt;
-
-      final Element licensor_element = OPDSXML.nodeAsElement(licensor_some.get());
+    if (licensor_element != null) {
       final String vendor = licensor_element.getAttribute("drm:vendor");
       String client_token = null;
       OptionType<String> device_manager = Option.none();
@@ -238,8 +399,13 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
   private List<OPDSIndirectAcquisition> parseIndirectAcquisitions(
     final Element element
   ) throws OPDSParseException {
-    final List<Element> indirect_elements =
-      OPDSXML.getChildElementsWithName(element, OPDS_URI, "indirectAcquisition");
+    return parseIndirectAcquisitions(
+      OPDSXML.getChildElementsWithName(element, OPDS_URI, "indirectAcquisition"));
+  }
+
+  private List<OPDSIndirectAcquisition> parseIndirectAcquisitions(
+    final List<Element> indirect_elements
+  ) throws OPDSParseException {
     final List<OPDSIndirectAcquisition> indirects =
       new ArrayList<>(indirect_elements.size());
 
@@ -258,50 +424,56 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
     throws OPDSParseException {
 
     if (rel_text.startsWith(ACQUISITION_URI_PREFIX_TEXT)) {
-      for (final Relation v : Relation.values()) {
-        final String uri_text = v.getUri().toString();
-        if (rel_text.equals(uri_text)) {
-          final URI href;
-          try {
-            href = scrubURI(source, link.getAttribute("href"));
-          } catch (URISyntaxException e) {
-            entry_builder.addParseError(
-              this.invalidURI(source, "'href' attribute of element with relation " + v, e));
-            continue;
-          }
+      final AcquisitionChildren children = new AcquisitionChildren(link);
+      final Relation v = ACQUISITION_RELATIONS.get(rel_text);
+      if (v != null) {
+        tryConsumeAcquisition(source, entry_builder, revoke, link, children, v);
+      }
+      tryConsumeDRMLicensorInformation(entry_builder, children.licensor);
+    }
+  }
 
-          final List<OPDSIndirectAcquisition> indirects =
-            parseIndirectAcquisitions(link);
-          final OptionType<MIMEType> typeOpt =
-            typeAttributeWithSupportedValue(link);
+  private void tryConsumeAcquisition(
+    final URI source,
+    final OPDSAcquisitionFeedEntryBuilderType entry_builder,
+    final OptionType<URI> revoke,
+    final Element link,
+    final AcquisitionChildren children,
+    final Relation v)
+    throws OPDSParseException {
 
-          if (typeOpt.isSome()) {
-            final MIMEType type = ((Some<MIMEType>) typeOpt).get();
-            final OPDSAcquisition acquisition = new OPDSAcquisition(v, href, type, indirects);
-            entry_builder.addAcquisition(acquisition);
+    final URI href;
+    try {
+      href = scrubURI(source, link.getAttribute("href"));
+    } catch (URISyntaxException e) {
+      entry_builder.addParseError(
+        this.invalidURI(source, "'href' attribute of element with relation " + v, e));
+      return;
+    }
 
-            if (v == Relation.ACQUISITION_OPEN_ACCESS) {
-              entry_builder.setAvailability(OPDSAvailabilityOpenAccess.get(revoke));
-            } else {
-              tryAvailability(entry_builder, link, revoke);
-            }
-            break;
-          }
-        }
-      }
+    final List<OPDSIndirectAcquisition> indirects =
+      parseIndirectAcquisitions(children.indirects);
+    final OptionType<MIMEType> typeOpt =
+      typeAttributeWithSupportedValue(link);
+
+    if (typeOpt.isSome()) {
+      final MIMEType type = ((Some<MIMEType>) typeOpt).get();
+      final OPDSAcquisition acquisition = new OPDSAcquisition(v, href, type, indirects);
+      entry_builder.addAcquisition(acquisition);
 
-      tryConsumeDRMLicensorInformation(entry_builder, link);
+      if (v == Relation.ACQUISITION_OPEN_ACCESS) {
+        entry_builder.setAvailability(OPDSAvailabilityOpenAccess.get(revoke));
+      } else {
+        tryAvailability(entry_builder, link, children, revoke);
+      }
     }
   }
 
   private void parseCategories(
-    final Element element,
+    final EntryChildren children,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder) {
 
-    final List<Element> e_categories =
-      OPDSXML.getChildElementsWithName(element, ATOM_URI, "category");
-
-    for (final Element ce : e_categories) {
+    for (final Element ce : children.categories) {
       final String term = Objects.requireNonNull(ce.getAttribute("term"));
       final String scheme = Objects.requireNonNull(ce.getAttribute("scheme"));
 
@@ -317,29 +489,23 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
   }
 
   /**
-   * Check if the given link refers to a cover image. If it is, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to a cover image to the builder.
    */
 
-  private boolean tryConsumeLinkCover(
+  private void tryConsumeLinkCover(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
-
-    if (rel_text.equals(IMAGE_URI_TEXT)) {
-      if (e_link.hasAttribute("href")) {
-        try {
-          final URI u = scrubURI(source, e_link.getAttribute("href"));
-          entry_builder.setCoverOption(Option.some(u));
-        } catch (URISyntaxException e) {
-          entry_builder.addParseError(
-            this.invalidURI(source, hrefAttributeOfLinkRel(IMAGE_URI_TEXT), e));
-        }
-        return true;
+    final Element e_link) {
+
+    if (e_link.hasAttribute("href")) {
+      try {
+        final URI u = scrubURI(source, e_link.getAttribute("href"));
+        entry_builder.setCoverOption(Option.some(u));
+      } catch (URISyntaxException e) {
+        entry_builder.addParseError(
+          this.invalidURI(source, hrefAttributeOfLinkRel(IMAGE_URI_TEXT), e));
       }
     }
-    return false;
   }
 
   private static URI scrubURI(
@@ -354,180 +520,138 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
   }
 
   /**
-   * Check if the given link refers to a thumbnail. If it is, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to a thumbnail to the builder.
    */
 
-  private boolean tryConsumeLinkThumbnail(
+  private void tryConsumeLinkThumbnail(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
-    if (rel_text.equals(THUMBNAIL_URI_TEXT)) {
-      if (e_link.hasAttribute("href")) {
-        try {
-          final URI u = scrubURI(source, e_link.getAttribute("href"));
-          entry_builder.setThumbnailOption(Option.some(u));
-        } catch (URISyntaxException e) {
-          entry_builder.addParseError(
-            this.invalidURI(source, hrefAttributeOfLinkRel(THUMBNAIL_URI_TEXT), e));
-        }
-        return true;
+    final Element e_link) {
+    if (e_link.hasAttribute("href")) {
+      try {
+        final URI u = scrubURI(source, e_link.getAttribute("href"));
+        entry_builder.setThumbnailOption(Option.some(u));
+      } catch (URISyntaxException e) {
+        entry_builder.addParseError(
+          this.invalidURI(source, hrefAttributeOfLinkRel(THUMBNAIL_URI_TEXT), e));
       }
     }
-    return false;
   }
 
   /**
-   * Check if the given link refers to an annotation. If it does, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to an annotation to the builder.
    */
 
-  private boolean tryConsumeLinkAnnotation(
+  private void tryConsumeLinkAnnotation(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
-
-    if (rel_text.equals(ANNOTATION_URI_TEXT)) {
-      if (e_link.hasAttribute("href")) {
-        try {
-          final URI u = scrubURI(source, e_link.getAttribute("href"));
-          entry_builder.setAnnotationsOption(Option.some(u));
-        } catch (URISyntaxException e) {
-          entry_builder.addParseError(
-            this.invalidURI(source, hrefAttributeOfLinkRel(ANNOTATION_URI_TEXT), e));
-        }
-        return true;
+    final Element e_link) {
+
+    if (e_link.hasAttribute("href")) {
+      try {
+        final URI u = scrubURI(source, e_link.getAttribute("href"));
+        entry_builder.setAnnotationsOption(Option.some(u));
+      } catch (URISyntaxException e) {
+        entry_builder.addParseError(
+          this.invalidURI(source, hrefAttributeOfLinkRel(ANNOTATION_URI_TEXT), e));
       }
     }
-    return false;
   }
 
   /**
-   * Check if the given link refers to related books. If it does, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to related books to the builder.
    */
 
-  private boolean tryConsumeLinkRelated(
+  private void tryConsumeLinkRelated(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
-
-    if (rel_text.equals(RELATED_REL_TEXT)) {
-      if (e_link.hasAttribute("href")) {
-        try {
-          final URI u = scrubURI(source, e_link.getAttribute("href"));
-          entry_builder.setRelatedOption(Option.some(u));
-        } catch (URISyntaxException e) {
-          entry_builder.addParseError(
-            this.invalidURI(source, hrefAttributeOfLinkRel(RELATED_REL_TEXT), e));
-        }
-        return true;
+    final Element e_link) {
+
+    if (e_link.hasAttribute("href")) {
+      try {
+        final URI u = scrubURI(source, e_link.getAttribute("href"));
+        entry_builder.setRelatedOption(Option.some(u));
+      } catch (URISyntaxException e) {
+        entry_builder.addParseError(
+          this.invalidURI(source, hrefAttributeOfLinkRel(RELATED_REL_TEXT), e));
       }
     }
-    return false;
   }
 
   /**
-   * Check if the given link refers to an "alternate". If it does, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to an "alternate" to the builder.
    */
 
-  private boolean tryConsumeLinkAlternate(
+  private void tryConsumeLinkAlternate(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
+    final Element e_link) {
 
-    if (rel_text.equals(ALTERNATE_REL_TEXT)) {
-      try {
-        final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
-        final URI uri = scrubURI(source, uri_text);
-        entry_builder.setAlternateOption(Option.some(uri));
-      } catch (URISyntaxException e) {
-        entry_builder.addParseError(
-          this.invalidURI(source, hrefAttributeOfLinkRel(ALTERNATE_REL_TEXT), e));
-      }
-      return true;
+    try {
+      final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
+      final URI uri = scrubURI(source, uri_text);
+      entry_builder.setAlternateOption(Option.some(uri));
+    } catch (URISyntaxException e) {
+      entry_builder.addParseError(
+        this.invalidURI(source, hrefAttributeOfLinkRel(ALTERNATE_REL_TEXT), e));
     }
-    return false;
   }
 
   /**
-   * Check if the given link refers to analytics. If it does, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to analytics to the builder.
    */
 
-  private boolean tryConsumeLinkAnalytics(
+  private void tryConsumeLinkAnalytics(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
+    final Element e_link) {
 
-    if (rel_text.equals(CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT)) {
-      try {
-        final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
-        final URI uri = scrubURI(source, uri_text);
-        entry_builder.setAnalyticsOption(Option.some(uri));
-      } catch (URISyntaxException e) {
-        entry_builder.addParseError(
-          this.invalidURI(source, hrefAttributeOfLinkRel(CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT), e));
-      }
-      return true;
+    try {
+      final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
+      final URI uri = scrubURI(source, uri_text);
+      entry_builder.setAnalyticsOption(Option.some(uri));
+    } catch (URISyntaxException e) {
+      entry_builder.addParseError(
+        this.invalidURI(source, hrefAttributeOfLinkRel(CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT), e));
     }
-    return false;
   }
 
   /**
-   * Check if the given link refers to an issue system. If it does, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to an issue system to the builder.
    */
 
-  private boolean tryConsumeLinkIssues(
+  private void tryConsumeLinkIssues(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
+    final Element e_link) {
 
-    if (rel_text.equals(ISSUES_REL_TEXT)) {
-      try {
-        final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
-        final URI uri = scrubURI(source, uri_text);
-        entry_builder.setIssuesOption(Option.some(uri));
-      } catch (URISyntaxException e) {
-        entry_builder.addParseError(
-          this.invalidURI(source, hrefAttributeOfLinkRel(ISSUES_REL_TEXT), e));
-      }
-      return true;
+    try {
+      final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
+      final URI uri = scrubURI(source, uri_text);
+      entry_builder.setIssuesOption(Option.some(uri));
+    } catch (URISyntaxException e) {
+      entry_builder.addParseError(
+        this.invalidURI(source, hrefAttributeOfLinkRel(ISSUES_REL_TEXT), e));
     }
-    return false;
   }
 
   /**
-   * Check if the given link refers to a group. If it does, add it to the builder and
-   * return {@code true}.
+   * Add a link that refers to a group to the builder.
    */
 
-  private boolean tryConsumeLinkGroup(
+  private void tryConsumeLinkGroup(
     final URI source,
     final OPDSAcquisitionFeedEntryBuilderType entry_builder,
-    final Element e_link,
-    final String rel_text) {
-    if (rel_text.equals(GROUP_REL_TEXT)) {
-      try {
-        final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
-        final String link_title = Objects.requireNonNull(e_link.getAttribute("title"));
-        final URI uri = scrubURI(source, uri_text);
-        entry_builder.addGroup(uri, link_title);
-      } catch (URISyntaxException e) {
-        entry_builder.addParseError(
-          this.invalidURI(source, hrefAttributeOfLinkRel(GROUP_REL_TEXT), e));
-      }
-      return true;
+    final Element e_link) {
+    try {
+      final String uri_text = Objects.requireNonNull(e_link.getAttribute("href"));
+      final String link_title = Objects.requireNonNull(e_link.getAttribute("title"));
+      final URI uri = scrubURI(source, uri_text);
+      entry_builder.addGroup(uri, link_title);
+    } catch (URISyntaxException e) {
+      entry_builder.addParseError(
+        this.invalidURI(source, hrefAttributeOfLinkRel(GROUP_REL_TEXT), e));
     }
-    return false;
   }
 
   private static String hrefAttributeOfLinkRel(String relValue) {
@@ -598,27 +722,25 @@ public final class OPDSAcquisitionFeedEntryParser implements OPDSAcquisitionFeed
   private void tryAvailability(
     final OPDSAcquisitionFeedEntryBuilderType eb,
     final Element element,
+    final AcquisitionChildren children,
     final OptionType<URI> revoke)
     throws OPDSParseException {
 
-    final OptionType<Element> copies_opt =
-      OPDSXML.getFirstChildElementWithNameOptional(element, OPDS_URI, "copies");
-    final OptionType<Element> holds_opt =
-      OPDSXML.getFirstChildElementWithNameOptional(element, OPDS_URI, "holds");
+    final OptionType<Element> copies_opt = Option.of(children.copies);
+    final OptionType<Element> holds_opt = Option.of(children.holds);
+    final OptionType<Element> available_opt = Option.of(children.availability);
 
-    eb.setAvailability(inferAvailability(element, copies_opt, holds_opt, revoke));
+    eb.setAvailability(inferAvailability(element, copies_opt, holds_opt, available_opt, revoke));
   }
 
   private OPDSAvailabilityType inferAvailability(
     final Element element,
     final OptionType<Element> copies_opt,
     final OptionType<Element> holds_opt,
+    final OptionType<Element> available_opt,
     final OptionType<URI> revoke)
     throws OPDSParseException {
 
-    final OptionType<Element> available_opt =
-      OPDSXML.getFirstChildElementWithNameOptional(element, OPDS_URI, "availability");
-
     if (available_opt.isSome()) {
       final Some<Element> available_some = (Some<Element>) available_opt;
       final Element available = available_some.get();
@@ -1,13 +1,53 @@
 package org.nypl.simplified.opds.core;
 
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
+import java.util.Objects;
+
 /**
  * A supplier of date/time parsers.
  */
 
 public final class OPDSDateParsers {
+
+  private static final DateTimeFormatter PARSER =
+    ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+  private static final Chronology CHRONOLOGY =
+    ISOChronology.getInstanceUTC();
+
+  /**
+   * The number of entries in the cache of recently parsed timestamps. Must be a power
+   * of two.
+   */
+
+  private static final int CACHE_SIZE = 64;
+
+  /**
+   * A direct-mapped cache of recently parsed timestamps. Feeds produced by servers tend to
+   * repeat the same few timestamps many times. Entries are immutable, and so unsynchronized
+   * reads and writes of the array are safe: a reader either sees a complete entry or an
+   * older one, and an older entry is simply a cache miss.
+   */
+
+  private static final CacheEntry[] CACHE = new CacheEntry[CACHE_SIZE];
+
+  private static final class CacheEntry {
+    private final String text;
+    private final DateTime time;
+
+    CacheEntry(
+      final String in_text,
+      final DateTime in_time) {
+      this.text = in_text;
+      this.time = in_time;
+    }
+  }
+
   private OPDSDateParsers() {
 
   }
@@ -17,6 +57,157 @@ public final class OPDSDateParsers {
    */
 
   public static DateTimeFormatter dateTimeParser() {
-    return ISODateTimeFormat.dateTimeParser().withZoneUTC();
+    return PARSER;
+  }
+
+  /**
+   * Parse the given RFC 3339 timestamp. The result is the same as that of parsing the text
+   * with {@link #dateTimeParser()}, but the common fixed-layout forms (such as
+   * {@code 2000-01-01T00:00:00Z} and {@code 2000-01-01T00:00:00.123+01:00}) are parsed
+   * without the overhead of the general ISO 8601 parser.
+   *
+   * @param text The text
+   *
+   * @return The parsed time, in UTC
+   *
+   * @throws IllegalArgumentException If the text is not a valid timestamp
+   */
+
+  public static DateTime parseDateTime(
+    final String text) {
+    Objects.requireNonNull(text, "text");
+
+    final int slot = (text.hashCode() ^ (text.hashCode() >>> 16)) & (CACHE_SIZE - 1);
+    final CacheEntry cached = CACHE[slot];
+    if (cached != null && cached.text.equals(text)) {
+      return cached.time;
+    }
+
+    DateTime time = parseFixedLayout(text);
+    if (time == null) {
+      time = PARSER.parseDateTime(text);
+    }
+
+    CACHE[slot] = new CacheEntry(text, time);
+    return time;
+  }
+
+  /**
+   * Parse timestamps of the form {@code yyyy-MM-ddTHH:mm:ss[.SSS](Z|+HH:mm|-HH:mm)}, with
+   * between one and three digits of fractional seconds.
+   *
+   * @return The parsed time, or {@code null} if the text is not of that form (or is of that
+   * form but has out-of-range fields), in which case it should be given to the general parser
+   */
+
+  private static DateTime parseFixedLayout(
+    final String text) {
+    final int length = text.length();
+    if (length < 20) {
+      return null;
+    }
+
+    if (text.charAt(4) != '-'
+      || text.charAt(7) != '-'
+      || text.charAt(10) != 'T'
+      || text.charAt(13) != ':'
+      || text.charAt(16) != ':') {
+      return null;
+    }
+
+    final int year = digits(text, 0, 4);
+    final int month = digits(text, 5, 2);
+    final int day = digits(text, 8, 2);
+    final int hour = digits(text, 11, 2);
+    final int minute = digits(text, 14, 2);
+    final int second = digits(text, 17, 2);
+    if ((year | month | day | hour | minute | second) < 0) {
+      return null;
+    }
+
+    int position = 19;
+    int millis = 0;
+    if (text.charAt(position) == '.') {
+      ++position;
+      final int start = position;
+      while (position < length && isDigit(text.charAt(position))) {
+        ++position;
+      }
+
+      final int count = position - start;
+      if (count < 1 || count > 3) {
+        return null;
+      }
+      millis = digits(text, start, count);
+      for (int index = count; index < 3; ++index) {
+        millis *= 10;
+      }
+    }
+
+    if (position >= length) {
+      return null;
+    }
+
+    final int offset_minutes;
+    final char zone = text.charAt(position);
+    if (zone == 'Z') {
+      if (position + 1 != length) {
+        return null;
+      }
+      offset_minutes = 0;
+    } else if (zone == '+' || zone == '-') {
+      if (position + 6 != length || text.charAt(position + 3) != ':') {
+        return null;
+      }
+
+      final int offset_hours = digits(text, position + 1, 2);
+      final int offset_mins = digits(text, position + 4, 2);
+      if ((offset_hours | offset_mins) < 0 || offset_hours > 23 || offset_mins > 59) {
+        return null;
+      }
+
+      final int magnitude = offset_hours * 60 + offset_mins;
+      offset_minutes = zone == '+' ? magnitude : -magnitude;
+    } else {
+      return null;
+    }
+
+    if (month < 1 || month > 12 || day < 1 || hour > 23 || minute > 59 || second > 59) {
+      return null;
+    }
+
+    final long local;
+    try {
+      local = CHRONOLOGY.getDateTimeMillis(year, month, day, hour, minute, second, millis);
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+
+    return new DateTime(local - offset_minutes * 60_000L, CHRONOLOGY);
+  }
+
+  private static boolean isDigit(
+    final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * @return The value of the given run of decimal digits, or {@code -1} if any character
+   * in the run is not a digit
+   */
+
+  private static int digits(
+    final String text,
+    final int start,
+    final int count) {
+    int value = 0;
+    for (int index = start; index < start + count; ++index) {
+      final char c = text.charAt(index);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
   }
 }
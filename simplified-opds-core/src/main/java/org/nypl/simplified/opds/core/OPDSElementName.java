@@ -0,0 +1,91 @@
+package org.nypl.simplified.opds.core;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The names of the elements that the OPDS parsers examine.
+ *
+ * Parsers walk the children of an element once, and use {@link #of(Node)} to dispatch on the
+ * name of each child, rather than walking the children once per name of interest.
+ */
+
+enum OPDSElementName
+{
+  ATOM_AUTHOR(OPDSFeedConstants.ATOM_URI_TEXT, "author"),
+  ATOM_CATEGORY(OPDSFeedConstants.ATOM_URI_TEXT, "category"),
+  ATOM_ENTRY(OPDSFeedConstants.ATOM_URI_TEXT, "entry"),
+  ATOM_ID(OPDSFeedConstants.ATOM_URI_TEXT, "id"),
+  ATOM_LINK(OPDSFeedConstants.ATOM_URI_TEXT, "link"),
+  ATOM_SUMMARY(OPDSFeedConstants.ATOM_URI_TEXT, "summary"),
+  ATOM_TITLE(OPDSFeedConstants.ATOM_URI_TEXT, "title"),
+  ATOM_UPDATED(OPDSFeedConstants.ATOM_URI_TEXT, "updated"),
+  BIBFRAME_DISTRIBUTION(OPDSFeedConstants.BIBFRAME_URI.toString(), "distribution"),
+  DUBLIN_CORE_ISSUED(OPDSFeedConstants.DUBLIN_CORE_TERMS_URI_TEXT, "issued"),
+  DUBLIN_CORE_PUBLISHER(OPDSFeedConstants.DUBLIN_CORE_TERMS_URI_TEXT, "publisher"),
+  DRM_LICENSOR(OPDSFeedConstants.DRM_URI_TEXT, "licensor"),
+  OPDS_AVAILABILITY(OPDSFeedConstants.OPDS_URI_TEXT, "availability"),
+  OPDS_COPIES(OPDSFeedConstants.OPDS_URI_TEXT, "copies"),
+  OPDS_HOLDS(OPDSFeedConstants.OPDS_URI_TEXT, "holds"),
+  OPDS_INDIRECT_ACQUISITION(OPDSFeedConstants.OPDS_URI_TEXT, "indirectAcquisition");
+
+  /**
+   * The known names, keyed by local name. No two known names in different namespaces
+   * currently share a local name, so a single lookup followed by a namespace comparison
+   * suffices.
+   */
+
+  private static final Map<String, OPDSElementName> BY_LOCAL_NAME;
+
+  static {
+    final OPDSElementName[] names = OPDSElementName.values();
+    BY_LOCAL_NAME = new HashMap<>(names.length * 2);
+    for (final OPDSElementName name : names) {
+      final OPDSElementName existing = BY_LOCAL_NAME.put(name.local_name, name);
+      if (existing != null) {
+        throw new IllegalStateException(
+          "Local name " + name.local_name + " is used by both " + existing + " and " + name);
+      }
+    }
+  }
+
+  private final String namespace;
+  private final String local_name;
+
+  OPDSElementName(
+    final String in_namespace,
+    final String in_local_name)
+  {
+    this.namespace = in_namespace;
+    this.local_name = in_local_name;
+  }
+
+  /**
+   * @param node The node
+   *
+   * @return The name of the given node, or {@code null} if the node is not an element or
+   * does not have one of the known names
+   */
+
+  static OPDSElementName of(
+    final Node node)
+  {
+    if (!(node instanceof Element)) {
+      return null;
+    }
+
+    final String local_name = node.getLocalName();
+    if (local_name == null) {
+      return null;
+    }
+
+    final OPDSElementName name = BY_LOCAL_NAME.get(local_name);
+    if (name != null && name.namespace.equals(node.getNamespaceURI())) {
+      return name;
+    }
+    return null;
+  }
+}
@@ -1,6 +1,5 @@
 package org.nypl.simplified.opds.core;
 
-import com.google.common.base.Preconditions;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.Some;
@@ -21,8 +20,13 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -31,7 +35,6 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.ATOM_URI;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT;
-import static org.nypl.simplified.opds.core.OPDSFeedConstants.DRM_URI;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.FACET_URI_TEXT;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.OPDS_URI_TEXT;
 import static org.nypl.simplified.opds.core.OPDSFeedConstants.SIMPLIFIED_URI_TEXT;
@@ -48,14 +51,51 @@ import static org.nypl.simplified.opds.core.OPDSFeedConstants.SIMPLIFIED_URI_TEX
 public final class OPDSFeedParser implements OPDSFeedParserType {
   private static final Logger LOG;
 
+  private static final String ANNOTATION_SERVICE_REL_TEXT =
+    "http://www.w3.org/ns/oa#annotationService";
+
+  /**
+   * The kinds of links that feeds can contain.
+   */
+
+  private enum LinkRelation {
+    ABOUT,
+    ANNOTATIONS,
+    AUTHENTICATION_DOCUMENT,
+    FACET,
+    NEXT,
+    PRIVACY_POLICY,
+    SEARCH,
+    TERMS_OF_SERVICE
+  }
+
+  private static final Map<String, LinkRelation> LINK_RELATIONS;
+
   static {
     LOG = Objects.requireNonNull(LoggerFactory.getLogger(OPDSFeedParser.class));
+
+    LINK_RELATIONS = new HashMap<>(16);
+    LINK_RELATIONS.put("about", LinkRelation.ABOUT);
+    LINK_RELATIONS.put(ANNOTATION_SERVICE_REL_TEXT, LinkRelation.ANNOTATIONS);
+    LINK_RELATIONS.put(AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT, LinkRelation.AUTHENTICATION_DOCUMENT);
+    LINK_RELATIONS.put(FACET_URI_TEXT, LinkRelation.FACET);
+    LINK_RELATIONS.put("next", LinkRelation.NEXT);
+    LINK_RELATIONS.put("privacy-policy", LinkRelation.PRIVACY_POLICY);
+    LINK_RELATIONS.put("search", LinkRelation.SEARCH);
+    LINK_RELATIONS.put("terms-of-service", LinkRelation.TERMS_OF_SERVICE);
   }
 
   private final OPDSAcquisitionFeedEntryParserType entry_parser;
+  private final ForkJoinPool pool;
+  private final int parallel_threshold;
 
-  private OPDSFeedParser(final OPDSAcquisitionFeedEntryParserType in_entry_parser) {
+  private OPDSFeedParser(
+    final OPDSAcquisitionFeedEntryParserType in_entry_parser,
+    final ForkJoinPool in_pool,
+    final int in_parallel_threshold) {
     this.entry_parser = Objects.requireNonNull(in_entry_parser);
+    this.pool = Objects.requireNonNull(in_pool);
+    this.parallel_threshold = in_parallel_threshold;
   }
 
   /**
@@ -65,17 +105,39 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
 
   public static OPDSFeedParserType newParser(
     final OPDSAcquisitionFeedEntryParserType in_entry_parser) {
-    return new OPDSFeedParser(in_entry_parser);
+    return new OPDSFeedParser(in_entry_parser, ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Create a parser that parses the entries of large feeds in parallel. Entries are
+   * parsed in batches on the given pool, and the calling thread. The entries of the
+   * resulting feed, and any parse errors, are exactly those that would be produced by
+   * parsing the entries one at a time. The given entry parser must be safe to use
+   * from multiple threads.
+   *
+   * @param in_entry_parser       A feed entry parser
+   * @param in_pool               The pool used to parse entries
+   * @param in_parallel_threshold The minimum number of entries a feed must contain for the
+   *                              entries to be parsed in parallel
+   * @return A new feed parser
+   */
+
+  public static OPDSFeedParserType newParserWithParallelism(
+    final OPDSAcquisitionFeedEntryParserType in_entry_parser,
+    final ForkJoinPool in_pool,
+    final int in_parallel_threshold) {
+    if (in_parallel_threshold < 1) {
+      throw new IllegalArgumentException(
+        "Parallel threshold must be positive (got " + in_parallel_threshold + ")");
+    }
+    return new OPDSFeedParser(in_entry_parser, in_pool, in_parallel_threshold);
   }
 
   private static OptionType<OPDSFacet> parseFacet(
     final URI source,
     final OPDSAcquisitionFeedBuilderType builder,
     final Element e) {
-    final boolean has_name =
-      OPDSXML.nodeHasName(Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
+    Objects.requireNonNull(e);
 
     boolean has_everything = e.hasAttribute("title");
     has_everything = has_everything && e.hasAttribute("href");
@@ -85,22 +147,18 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     if (has_everything) {
       final String title =
         Objects.requireNonNull(e.getAttribute("title"));
-      final String rel =
-        Objects.requireNonNull(e.getAttribute("rel"));
       final String href =
         Objects.requireNonNull(e.getAttribute("href"));
       final String group =
         Objects.requireNonNull(e.getAttributeNS(OPDS_URI_TEXT, "facetGroup"));
 
-      if (FACET_URI_TEXT.equals(rel)) {
-        final OptionType<String> group_type = parseFacetGroupType(e);
-        final boolean active = parseFacetIsActive(e);
-        try {
-          return Option.some(new OPDSFacet(active, scrubURI(source,href), group, title, group_type));
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel(FACET_URI_TEXT), ex));
-          return Option.none();
-        }
+      final OptionType<String> group_type = parseFacetGroupType(e);
+      final boolean active = parseFacetIsActive(e);
+      try {
+        return Option.some(new OPDSFacet(active, scrubURI(source,href), group, title, group_type));
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel(FACET_URI_TEXT), ex));
+        return Option.none();
       }
     }
 
@@ -127,22 +185,15 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final URI source,
     final OPDSAcquisitionFeedBuilderType builder,
     final Element e) {
-    Preconditions.checkArgument(
-      "link".equals(e.getLocalName()),
-      "localname %s == %s",
-      e.getLocalName(),
-      "link");
-
-    final String rel = e.getAttribute("rel");
-    if ("next".equals(rel)) {
-      if (e.hasAttribute("href")) {
-        try {
-          final URI uri = scrubURI(source,e.getAttribute("href"));
-          return Option.some(uri);
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("next"), ex));
-          return Option.none();
-        }
+    Objects.requireNonNull(e);
+
+    if (e.hasAttribute("href")) {
+      try {
+        final URI uri = scrubURI(source,e.getAttribute("href"));
+        return Option.some(uri);
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("next"), ex));
+        return Option.none();
       }
     }
 
@@ -164,28 +215,22 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final URI source,
     final OPDSAcquisitionFeedBuilderType builder,
     final Element e) {
-    final boolean has_name = OPDSXML.nodeHasName(
-      Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
+    Objects.requireNonNull(e);
 
     final boolean has_everything =
       e.hasAttribute("type") && e.hasAttribute("rel") && e.hasAttribute("href");
 
     if (has_everything) {
       final String t = Objects.requireNonNull(e.getAttribute("type"));
-      final String r = Objects.requireNonNull(e.getAttribute("rel"));
       final String h = Objects.requireNonNull(e.getAttribute("href"));
 
-      if ("search".equals(r)) {
-        try {
-          final URI u = Objects.requireNonNull(scrubURI(source,h));
-          final OPDSSearchLink sl = new OPDSSearchLink(t, u);
-          return Option.some(sl);
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("search"), ex));
-          return Option.none();
-        }
+      try {
+        final URI u = Objects.requireNonNull(scrubURI(source,h));
+        final OPDSSearchLink sl = new OPDSSearchLink(t, u);
+        return Option.some(sl);
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("search"), ex));
+        return Option.none();
       }
     }
 
@@ -195,10 +240,15 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
   private static Document parseStream(
     final InputStream s)
     throws ParserConfigurationException, SAXException, IOException {
+    final DocumentBuilder db = OPDSFeedParser.newDocumentBuilder();
+    return Objects.requireNonNull(db.parse(s));
+  }
+
+  private static DocumentBuilder newDocumentBuilder()
+    throws ParserConfigurationException {
     final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
     dbf.setNamespaceAware(true);
-    final DocumentBuilder db = dbf.newDocumentBuilder();
-    return Objects.requireNonNull(db.parse(s));
+    return dbf.newDocumentBuilder();
   }
 
   private static OptionType<URI> parseTermsOfService(
@@ -207,25 +257,17 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final Element e) {
     Objects.requireNonNull(e);
 
-    final boolean has_name = OPDSXML.nodeHasName(
-      Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
-
     final boolean has_everything =
       e.hasAttribute("rel") && e.hasAttribute("href");
 
     if (has_everything) {
-      final String r = Objects.requireNonNull(e.getAttribute("rel"));
       final String h = Objects.requireNonNull(e.getAttribute("href"));
 
-      if ("terms-of-service".equals(r)) {
-        try {
-          return Option.some(scrubURI(source,h));
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("terms-of-service"), ex));
-          return Option.none();
-        }
+      try {
+        return Option.some(scrubURI(source,h));
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("terms-of-service"), ex));
+        return Option.none();
       }
     }
 
@@ -238,25 +280,17 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final Element e) {
     Objects.requireNonNull(e);
 
-    final boolean has_name = OPDSXML.nodeHasName(
-      Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
-
     final boolean has_everything =
       e.hasAttribute("rel") && e.hasAttribute("href");
 
     if (has_everything) {
-      final String r = Objects.requireNonNull(e.getAttribute("rel"));
       final String h = Objects.requireNonNull(e.getAttribute("href"));
 
-      if ("about".equals(r)) {
-        try {
-          return Option.some(scrubURI(source,h));
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("about"), ex));
-          return Option.none();
-        }
+      try {
+        return Option.some(scrubURI(source,h));
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("about"), ex));
+        return Option.none();
       }
     }
 
@@ -269,25 +303,17 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final Element e) {
     Objects.requireNonNull(e);
 
-    final boolean has_name = OPDSXML.nodeHasName(
-      Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
-
     final boolean has_everything =
       e.hasAttribute("rel") && e.hasAttribute("href");
 
     if (has_everything) {
-      final String r = Objects.requireNonNull(e.getAttribute("rel"));
       final String h = Objects.requireNonNull(e.getAttribute("href"));
 
-      if ("privacy-policy".equals(r)) {
-        try {
-          return Option.some(scrubURI(source,h));
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("privacy-policy"), ex));
-          return Option.none();
-        }
+      try {
+        return Option.some(scrubURI(source,h));
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("privacy-policy"), ex));
+        return Option.none();
       }
     }
 
@@ -300,25 +326,17 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final Element e) {
     Objects.requireNonNull(e);
 
-    final boolean has_name = OPDSXML.nodeHasName(
-      Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
-
     final boolean has_everything =
       e.hasAttribute("rel") && e.hasAttribute("href");
 
     if (has_everything) {
-      final String r = Objects.requireNonNull(e.getAttribute("rel"));
       final String h = Objects.requireNonNull(e.getAttribute("href"));
 
-      if (AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT.equals(r)) {
-        try {
-          return Option.some(scrubURI(source,h));
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel(AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT), ex));
-          return Option.none();
-        }
+      try {
+        return Option.some(scrubURI(source,h));
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel(AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT), ex));
+        return Option.none();
       }
     }
 
@@ -331,25 +349,17 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final Element e) {
     Objects.requireNonNull(e);
 
-    final boolean has_name = OPDSXML.nodeHasName(
-      Objects.requireNonNull(e), ATOM_URI, "link");
-
-    Preconditions.checkArgument(has_name, "Node has name 'link'");
-
     final boolean has_everything =
       e.hasAttribute("rel") && e.hasAttribute("href");
 
     if (has_everything) {
-      final String r = Objects.requireNonNull(e.getAttribute("rel"));
       final String h = Objects.requireNonNull(e.getAttribute("href"));
 
-      if ("http://www.w3.org/ns/oa#annotationService".equals(r)) {
-        try {
-          return Option.some(scrubURI(source,h));
-        } catch (URISyntaxException ex) {
-          builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel("http://www.w3.org/ns/oa#annotationService"), ex));
-          return Option.none();
-        }
+      try {
+        return Option.some(scrubURI(source,h));
+      } catch (URISyntaxException ex) {
+        builder.addParseError(invalidURI(source, hrefAttributeOfLinkRel(ANNOTATION_SERVICE_REL_TEXT), ex));
+        return Option.none();
       }
     }
 
@@ -468,193 +478,280 @@ public final class OPDSFeedParser implements OPDSFeedParserType {
     final Element e_feed = OPDSXML.nodeAsElementWithName(
       root, ATOM_URI, "feed");
 
-    final String id = OPDSAtom.findID(e_feed);
-    final String title = OPDSAtom.findTitle(e_feed);
-    final DateTime updated = OPDSAtom.findUpdated(e_feed);
+    /*
+     * Walk the children of the feed once, collecting the elements of interest. The
+     * required elements must be checked before any links or entries are examined.
+     */
+
+    Element e_id = null;
+    Element e_title = null;
+    Element e_updated = null;
+    final List<Element> e_links = new ArrayList<>(32);
+    final List<Element> e_licensors = new ArrayList<>(1);
+    final List<Element> e_entries = new ArrayList<>(64);
+    final NodeList children = e_feed.getChildNodes();
+
+    for (int index = 0; index < children.getLength(); ++index) {
+      final Node child = Objects.requireNonNull(children.item(index));
+      final OPDSElementName name = OPDSElementName.of(child);
+      if (name == null) {
+        continue;
+      }
+
+      final Element e = (Element) child;
+      switch (name) {
+        case ATOM_ID:
+          e_id = e_id == null ? e : e_id;
+          break;
+        case ATOM_TITLE:
+          e_title = e_title == null ? e : e_title;
+          break;
+        case ATOM_UPDATED:
+          e_updated = e_updated == null ? e : e_updated;
+          break;
+        case ATOM_LINK:
+          e_links.add(e);
+          break;
+        case DRM_LICENSOR:
+          e_licensors.add(e);
+          break;
+        case ATOM_ENTRY:
+          e_entries.add(e);
+          break;
+        default:
+          break;
+      }
+    }
+
+    final String id =
+      OPDSXML.requireElementText(e_id, ATOM_URI, "id");
+    final String title =
+      OPDSXML.requireElementText(e_title, ATOM_URI, "title");
+    final DateTime updated =
+      OPDSDateParsers.parseDateTime(
+        OPDSXML.requireElementText(e_updated, ATOM_URI, "updated"));
 
     final OPDSAcquisitionFeedBuilderType builder =
       OPDSAcquisitionFeed.newBuilder(uri, id, updated, title);
 
-    final List<Element> links = new ArrayList<>(32);
-    final NodeList children = e_feed.getChildNodes();
+    for (final Element e : e_links) {
+      OPDSFeedParser.parseLink(uri, builder, e);
+    }
 
-    for (int index = 0; index < children.getLength(); ++index) {
-      final Node child = Objects.requireNonNull(children.item(index));
+    for (final Element e : e_licensors) {
+      OPDSFeedParser.parseLicensor(builder, e);
+    }
+
+    final List<OPDSAcquisitionFeedEntry> entries;
+    if (e_entries.size() >= this.parallel_threshold && this.pool.getParallelism() > 1) {
+      entries = this.parseEntriesInParallel(uri, e_entries);
+    } else {
+      entries = this.parseEntries(uri, e_entries);
+    }
 
-      if (child instanceof Element) {
+    for (final OPDSAcquisitionFeedEntry entry : entries) {
+      if (!entry.getAcquisitions().isEmpty()) {
+        builder.addEntry(entry);
+      }
+    }
 
-        /*
-         * Links.
-         */
+    return builder.build();
+  }
 
-        if (OPDSXML.nodeHasName(
-          (Element) child, ATOM_URI, "link")) {
+  private List<OPDSAcquisitionFeedEntry> parseEntries(
+    final URI uri,
+    final List<Element> e_entries)
+    throws OPDSParseException {
+    final List<OPDSAcquisitionFeedEntry> entries = new ArrayList<>(e_entries.size());
+    for (final Element e : e_entries) {
+      entries.add(this.entry_parser.parseEntry(uri, e));
+    }
+    return entries;
+  }
 
-          final Element e = OPDSXML.nodeAsElement(child);
-          links.add(e);
+  /**
+   * Parse the given entries in batches, one batch per thread. DOM implementations are
+   * not safe for concurrent reads (the default JVM implementation, for example, expands
+   * nodes lazily and shares caches across a document), and so the entries of each batch
+   * are first copied into a separate document on the calling thread. The batches are
+   * parsed concurrently, and the results are concatenated in order. If any entry cannot
+   * be parsed, the error raised for the first such entry in document order is raised.
+   */
 
-          /*
-           * Search links.
-           */
+  private List<OPDSAcquisitionFeedEntry> parseEntriesInParallel(
+    final URI uri,
+    final List<Element> e_entries)
+    throws OPDSParseException {
 
-          {
-            final OptionType<OPDSSearchLink> search_opt =
-              OPDSFeedParser.parseSearchLink(uri, builder, e);
-            if (search_opt.isSome()) {
-              builder.setSearchOption(search_opt);
-              continue;
-            }
-          }
+    final int batch_count = Math.min(this.pool.getParallelism() + 1, e_entries.size());
+    final int batch_size = (e_entries.size() + batch_count - 1) / batch_count;
+    final DocumentBuilder document_builder;
+    try {
+      document_builder = OPDSFeedParser.newDocumentBuilder();
+    } catch (final ParserConfigurationException e) {
+      throw new OPDSParseException(e);
+    }
 
-          /*
-           * Next links.
-           */
-
-          {
-            final OptionType<URI> next_opt =
-              OPDSFeedParser.parseNextLink(uri, builder, e);
-            if (next_opt.isSome()) {
-              builder.setNextOption(next_opt);
-              continue;
-            }
-          }
+    final List<List<Element>> batches = new ArrayList<>(batch_count);
+    for (int start = 0; start < e_entries.size(); start += batch_size) {
+      final Document document = document_builder.newDocument();
+      final List<Element> batch = new ArrayList<>(batch_size);
+      for (final Element e : e_entries.subList(start, Math.min(start + batch_size, e_entries.size()))) {
+        batch.add((Element) document.importNode(e, true));
+      }
+      batches.add(batch);
+    }
 
-          /*
-           * Facet links.
-           */
-
-          {
-            final OptionType<OPDSFacet> facet_opt =
-              OPDSFeedParser.parseFacet(uri, builder, e);
-            if (facet_opt.isSome()) {
-              builder.addFacet(((Some<OPDSFacet>) facet_opt).get());
-              continue;
-            }
-          }
+    LOG.debug("parsing {} entries in {} batches: {}", e_entries.size(), batches.size(), uri);
 
-          /*
-           * App About links.
-           */
-
-          {
-            final OptionType<URI> about_opt =
-              OPDSFeedParser.parseAbout(uri, builder, e);
-            if (about_opt.isSome()) {
-              builder.setAboutOption(about_opt);
-              continue;
-            }
-          }
+    final List<Future<List<OPDSAcquisitionFeedEntry>>> futures = new ArrayList<>(batches.size());
+    for (final List<Element> batch : batches.subList(1, batches.size())) {
+      futures.add(this.pool.submit(() -> this.parseEntries(uri, batch)));
+    }
 
-          /*
-           * Terms of service links.
-           */
-
-          {
-            final OptionType<URI> tos_opt =
-              OPDSFeedParser.parseTermsOfService(uri, builder, e);
-            if (tos_opt.isSome()) {
-              builder.setTermsOfServiceOption(tos_opt);
-              continue;
-            }
-          }
+    final List<OPDSAcquisitionFeedEntry> entries = new ArrayList<>(e_entries.size());
+    try {
+      entries.addAll(this.parseEntries(uri, batches.get(0)));
+      for (final Future<List<OPDSAcquisitionFeedEntry>> future : futures) {
+        entries.addAll(OPDSFeedParser.awaitBatch(future));
+      }
+      return entries;
+    } finally {
+      for (final Future<List<OPDSAcquisitionFeedEntry>> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
 
-          /*
-           * Privacy policy links.
-           */
-
-          {
-            final OptionType<URI> pp_opt =
-              OPDSFeedParser.parsePrivacyPolicy(uri, builder, e);
-            if (pp_opt.isSome()) {
-              builder.setPrivacyPolicyOption(pp_opt);
-              continue;
-            }
-          }
+  private static List<OPDSAcquisitionFeedEntry> awaitBatch(
+    final Future<List<OPDSAcquisitionFeedEntry>> future)
+    throws OPDSParseException {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OPDSParseException(e);
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof OPDSParseException) {
+        throw (OPDSParseException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new OPDSParseException(cause);
+    }
+  }
 
-          /*
-           * Authentication document links.
-           */
-
-          {
-            final OptionType<URI> pp_opt =
-              OPDSFeedParser.parseAuthenticationDocumentLink(uri, builder, e);
-            if (pp_opt.isSome()) {
-              builder.setAuthenticationDocumentLink(pp_opt);
-              continue;
-            }
-          }
+  private static void parseLink(
+    final URI uri,
+    final OPDSAcquisitionFeedBuilderType builder,
+    final Element e) {
 
-          /*
-           * Annotations links.
-           */
-
-          {
-            final OptionType<URI> annotOpt =
-              OPDSFeedParser.parseAnnotationsLink(uri, builder, e);
-            if (annotOpt.isSome()) {
-              builder.setAnnotationsOption(annotOpt);
-              continue;
-            }
-          }
+    final LinkRelation relation = LINK_RELATIONS.get(e.getAttribute("rel"));
+    if (relation == null) {
+      return;
+    }
 
-          continue;
+    switch (relation) {
+      case ABOUT: {
+        final OptionType<URI> about_opt = OPDSFeedParser.parseAbout(uri, builder, e);
+        if (about_opt.isSome()) {
+          builder.setAboutOption(about_opt);
+        }
+        break;
+      }
+      case ANNOTATIONS: {
+        final OptionType<URI> annotOpt = OPDSFeedParser.parseAnnotationsLink(uri, builder, e);
+        if (annotOpt.isSome()) {
+          builder.setAnnotationsOption(annotOpt);
+        }
+        break;
+      }
+      case AUTHENTICATION_DOCUMENT: {
+        final OptionType<URI> auth_opt =
+          OPDSFeedParser.parseAuthenticationDocumentLink(uri, builder, e);
+        if (auth_opt.isSome()) {
+          builder.setAuthenticationDocumentLink(auth_opt);
+        }
+        break;
+      }
+      case FACET: {
+        final OptionType<OPDSFacet> facet_opt = OPDSFeedParser.parseFacet(uri, builder, e);
+        if (facet_opt.isSome()) {
+          builder.addFacet(((Some<OPDSFacet>) facet_opt).get());
+        }
+        break;
+      }
+      case NEXT: {
+        final OptionType<URI> next_opt = OPDSFeedParser.parseNextLink(uri, builder, e);
+        if (next_opt.isSome()) {
+          builder.setNextOption(next_opt);
+        }
+        break;
+      }
+      case PRIVACY_POLICY: {
+        final OptionType<URI> pp_opt = OPDSFeedParser.parsePrivacyPolicy(uri, builder, e);
+        if (pp_opt.isSome()) {
+          builder.setPrivacyPolicyOption(pp_opt);
+        }
+        break;
+      }
+      case SEARCH: {
+        final OptionType<OPDSSearchLink> search_opt =
+          OPDSFeedParser.parseSearchLink(uri, builder, e);
+        if (search_opt.isSome()) {
+          builder.setSearchOption(search_opt);
         }
+        break;
+      }
+      case TERMS_OF_SERVICE: {
+        final OptionType<URI> tos_opt = OPDSFeedParser.parseTermsOfService(uri, builder, e);
+        if (tos_opt.isSome()) {
+          builder.setTermsOfServiceOption(tos_opt);
+        }
+        break;
+      }
+    }
+  }
 
-        // parse licensor
-        {
-          if (OPDSXML.nodeHasName(
-            (Element) child, DRM_URI, "licensor")) {
-            final Element e = OPDSXML.nodeAsElement(child);
-            final String in_vendor = e.getAttribute("drm:vendor");
-            String in_client_token = null;
-            OptionType<String> in_device_manager = Option.none();
-            for (int i = 0; i < e.getChildNodes().getLength(); ++i) {
-              final Node node = e.getChildNodes().item(i);
-
-              if (node.getNodeName().contains("clientToken")) {
-                in_client_token = node.getFirstChild().getNodeValue();
-              }
-
-              if (node.getNodeName().contains("link")) {
-                final Element element = OPDSXML.nodeAsElement(node);
-
-                final boolean has_everything =
-                  element.hasAttribute("rel") && element.hasAttribute("href");
-
-                if (has_everything) {
-                  final String r = Objects.requireNonNull(element.getAttribute("rel"));
-                  final String h = Objects.requireNonNull(element.getAttribute("href"));
-
-                  if ("http://librarysimplified.org/terms/drm/rel/devices".equals(r)) {
-
-                    in_device_manager = Option.some(h);
-
-                  }
-                }
-              }
-              if (in_vendor != null && in_client_token != null) {
-                final DRMLicensor licensor = new DRMLicensor(in_vendor, in_client_token, in_device_manager);
-                builder.setLisensor(Option.some(licensor));
-              }
-            }
-          }
+  private static void parseLicensor(
+    final OPDSAcquisitionFeedBuilderType builder,
+    final Element e) {
+    final String in_vendor = e.getAttribute("drm:vendor");
+    String in_client_token = null;
+    OptionType<String> in_device_manager = Option.none();
+    for (int i = 0; i < e.getChildNodes().getLength(); ++i) {
+      final Node node = e.getChildNodes().item(i);
+
+      if (node.getNodeName().contains("clientToken")) {
+        in_client_token = node.getFirstChild().getNodeValue();
+      }
 
-        }
+      if (node.getNodeName().contains("link")) {
+        final Element element = OPDSXML.nodeAsElement(node);
+
+        final boolean has_everything =
+          element.hasAttribute("rel") && element.hasAttribute("href");
+
+        if (has_everything) {
+          final String r = Objects.requireNonNull(element.getAttribute("rel"));
+          final String h = Objects.requireNonNull(element.getAttribute("href"));
 
-        /*
-         * Entries.
-         */
+          if ("http://librarysimplified.org/terms/drm/rel/devices".equals(r)) {
+
+            in_device_manager = Option.some(h);
 
-        if (OPDSXML.nodeHasName((Element) child, ATOM_URI, "entry")) {
-          final Element e = OPDSXML.nodeAsElement(child);
-          final OPDSAcquisitionFeedEntry entry = this.entry_parser.parseEntry(uri, e);
-          if (!entry.getAcquisitions().isEmpty()) {
-            builder.addEntry(entry);
           }
         }
       }
+      if (in_vendor != null && in_client_token != null) {
+        final DRMLicensor licensor = new DRMLicensor(in_vendor, in_client_token, in_device_manager);
+        builder.setLisensor(Option.some(licensor));
+      }
     }
-
-    return builder.build();
   }
 }
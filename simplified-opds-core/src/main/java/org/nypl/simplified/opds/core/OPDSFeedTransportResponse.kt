@@ -0,0 +1,23 @@
+package org.nypl.simplified.opds.core
+
+import one.irradia.mime.api.MIMEType
+import java.io.InputStream
+
+/**
+ * The response to a feed request.
+ */
+
+data class OPDSFeedTransportResponse(
+
+  /**
+   * The response body.
+   */
+
+  val stream: InputStream,
+
+  /**
+   * The type of the response body, if the transport knows it.
+   */
+
+  val contentType: MIMEType?
+)
@@ -31,4 +31,31 @@ public interface OPDSFeedTransportType<A>
     final String method,
     final Boolean authenticate)
     throws OPDSFeedTransportException;
+
+  /**
+   * Fetch the given URI, along with the type of the content, if known. The default
+   * implementation calls {@link #getStream(Object, URI, String, Boolean)} and reports no
+   * type.
+   *
+   * @param context Implementation-specific per-URI context data
+   * @param uri     The URI
+   * @param method  HTTP method to use (GET/PUT)
+   * @param authenticate Whether the request should be authenticated
+   *
+   * @return The response for the given URI.
+   *
+   * @throws OPDSFeedTransportException On errors
+   */
+
+  default OPDSFeedTransportResponse getResponse(
+    final A context,
+    final URI uri,
+    final String method,
+    final Boolean authenticate)
+    throws OPDSFeedTransportException
+  {
+    return new OPDSFeedTransportResponse(
+      this.getStream(context, uri, method, authenticate),
+      null);
+  }
 }
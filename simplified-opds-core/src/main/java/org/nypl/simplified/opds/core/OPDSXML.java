@@ -103,7 +103,13 @@ public final class OPDSXML
     if (!elements.isEmpty()) {
       return elements;
     }
+    throw OPDSXML.errorMissingElements(namespace, name);
+  }
 
+  static OPDSParseException errorMissingElements(
+    final URI namespace,
+    final String name)
+  {
     final StringBuilder m = new StringBuilder(128);
     m.append("Missing at least one required element.\n");
     m.append("Expected namespace: ");
@@ -112,7 +118,7 @@ public final class OPDSXML
     m.append("Expected name:      ");
     m.append(name);
     m.append("\n");
-    throw new OPDSParseException(NullCheck.notNull(m.toString()));
+    return new OPDSParseException(NullCheck.notNull(m.toString()));
   }
 
   /**
@@ -241,7 +247,13 @@ public final class OPDSXML
         }
       }
     }
+    throw OPDSXML.errorMissingElement(namespace, name);
+  }
 
+  static OPDSParseException errorMissingElement(
+    final URI namespace,
+    final String name)
+  {
     final StringBuilder m = new StringBuilder(128);
     m.append("Expected required element.\n");
     m.append("Expected namespace: ");
@@ -250,7 +262,31 @@ public final class OPDSXML
     m.append("Expected name:      ");
     m.append(name);
     m.append("\n");
-    throw new OPDSParseException(NullCheck.notNull(m.toString()));
+    return new OPDSParseException(NullCheck.notNull(m.toString()));
+  }
+
+  /**
+   * Return the trimmed text of the given element, which is required to exist.
+   *
+   * @param element   The element, or {@code null} if it was not found
+   * @param namespace The expected namespace, used for error messages
+   * @param name      The expected name, used for error messages
+   *
+   * @return The text of the element
+   *
+   * @throws OPDSParseException If the element is {@code null}
+   */
+
+  static String requireElementText(
+    final Element element,
+    final URI namespace,
+    final String name)
+    throws OPDSParseException
+  {
+    if (element == null) {
+      throw OPDSXML.errorMissingElement(namespace, name);
+    }
+    return NullCheck.notNull(element.getTextContent().trim());
   }
 
   /**
@@ -420,8 +456,7 @@ public final class OPDSXML
     try {
       if (e.hasAttribute(name)) {
         return Option.some(
-          OPDSDateParsers.dateTimeParser()
-            .parseDateTime(e.getAttribute(name))
+          OPDSDateParsers.parseDateTime(e.getAttribute(name))
         );
       }
 
@@ -453,8 +488,7 @@ public final class OPDSXML
 
     if (e.hasAttribute(name)) {
       try {
-        return OPDSDateParsers.dateTimeParser()
-          .parseDateTime(e.getAttribute(name));
+        return OPDSDateParsers.parseDateTime(e.getAttribute(name));
       } catch (final Exception x) {
         throw new OPDSParseException(x);
       }
@@ -0,0 +1,222 @@
+package org.nypl.simplified.profiles
+
+import com.google.common.util.concurrent.FutureCallback
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import io.reactivex.subjects.Subject
+import org.nypl.simplified.accounts.api.AccountEvent
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationFailed
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationInProgress
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.api.AccountProviderType
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryType
+import org.nypl.simplified.profiles.api.ProfileID
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * A resolver for the automatic account providers of a registry.
+ *
+ * Each resolution may involve fetching an authentication document, and so all of the
+ * resolutions are started at once on the given executor, and the total time spent waiting
+ * for them is bounded by the given timeout. If the registry already holds a resolved
+ * provider that is at least as recent as the description, that provider is returned
+ * immediately. In both cases, providers that are resolved after [resolve] returns are
+ * passed to the given `onLateResolution` function.
+ *
+ * Events for resolutions that complete in time are published on the thread that called
+ * [resolve]. Resolutions that complete late are handled one at a time, on the given
+ * executor.
+ */
+
+class AutomaticAccountProviderResolver(
+  private val executor: ListeningExecutorService,
+  private val timeout: Long,
+  private val timeoutUnit: TimeUnit
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(AutomaticAccountProviderResolver::class.java)
+
+  private val lateExecutor: Executor =
+    MoreExecutors.newSequentialExecutor(this.executor)
+
+  private class Resolution(
+    val description: AccountProviderDescription,
+    val progress: ConcurrentLinkedQueue<String>,
+    val future: ListenableFuture<TaskResult<AccountProviderType>>
+  )
+
+  /**
+   * Resolve all of the automatic account providers in the given registry.
+   *
+   * @return The providers that were resolved within the timeout
+   */
+
+  fun resolve(
+    profile: ProfileID,
+    accountEvents: Subject<AccountEvent>,
+    accountProviders: AccountProviderRegistryType,
+    onLateResolution: (AccountProviderType) -> Unit
+  ): List<AccountProviderType> {
+    this.logger.debug("[{}]: resolving automatic account providers", profile.uuid)
+
+    val resolutions = mutableListOf<Resolution>()
+    for (entry in accountProviders.accountProviderDescriptions()) {
+      val description = entry.value
+      if (description.isAutomatic) {
+        this.logger.debug(
+          "[{}]: resolving automatic account provider {}",
+          profile.uuid, description.id
+        )
+
+        val progress = ConcurrentLinkedQueue<String>()
+        val future =
+          this.executor.submit<TaskResult<AccountProviderType>> {
+            accountProviders.resolve({ _, message -> progress.add(message) }, description)
+          }
+        resolutions.add(Resolution(description, progress, future))
+      } else {
+        this.logger.debug(
+          "[{}]: account provider {} is not automatic",
+          profile.uuid, description.id
+        )
+      }
+    }
+
+    val deadline =
+      System.nanoTime() + this.timeoutUnit.toNanos(this.timeout)
+    val resolvedProviders = mutableListOf<AccountProviderType>()
+
+    for (resolution in resolutions) {
+      val description = resolution.description
+      val cached = accountProviders.resolvedProviders[description.id]
+      if (cached != null && !cached.updated.isBefore(description.updated)) {
+        this.logger.debug(
+          "[{}]: using cached automatic account provider {}",
+          profile.uuid, description.id
+        )
+        resolvedProviders.add(cached)
+        this.whenResolvedLate(profile, accountEvents, resolution, onLateResolution)
+        continue
+      }
+
+      val resolutionResult =
+        try {
+          resolution.future.get(maxOf(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+        } catch (e: TimeoutException) {
+          this.logger.warn(
+            "[{}]: timed out resolving automatic account provider {}; continuing in the background",
+            profile.uuid, description.id
+          )
+          this.publishProgress(accountEvents, resolution)
+          this.whenResolvedLate(profile, accountEvents, resolution, onLateResolution)
+          continue
+        } catch (e: ExecutionException) {
+          this.logger.error(
+            "[{}]: failed to resolve automatic account provider {}: ",
+            profile.uuid, description.id, e.cause
+          )
+          this.publishProgress(accountEvents, resolution)
+          continue
+        }
+
+      this.publishProgress(accountEvents, resolution)
+      when (resolutionResult) {
+        is TaskResult.Success -> {
+          this.logger.debug(
+            "[{}]: resolved automatic account provider {}",
+            profile.uuid, description.id
+          )
+          resolvedProviders.add(resolutionResult.result)
+        }
+        is TaskResult.Failure -> {
+          this.logger.error(
+            "[{}]: failed to resolve automatic account provider {}",
+            profile.uuid, description.id
+          )
+          this.publishResolutionError(accountEvents, resolutionResult)
+        }
+      }
+    }
+
+    this.logger.debug("[{}]: resolved {} account providers", profile.uuid, resolvedProviders.size)
+    return resolvedProviders
+  }
+
+  private fun publishProgress(
+    accountEvents: Subject<AccountEvent>,
+    resolution: Resolution
+  ) {
+    while (true) {
+      val message = resolution.progress.poll() ?: return
+      accountEvents.onNext(AccountEventCreationInProgress(message))
+    }
+  }
+
+  private fun whenResolvedLate(
+    profile: ProfileID,
+    accountEvents: Subject<AccountEvent>,
+    resolution: Resolution,
+    onLateResolution: (AccountProviderType) -> Unit
+  ) {
+    val description = resolution.description
+    Futures.addCallback(
+      resolution.future,
+      object : FutureCallback<TaskResult<AccountProviderType>> {
+        override fun onSuccess(resolutionResult: TaskResult<AccountProviderType>?) {
+          when (resolutionResult) {
+            is TaskResult.Success -> {
+              logger.debug(
+                "[{}]: resolved automatic account provider {} in the background",
+                profile.uuid, description.id
+              )
+              onLateResolution.invoke(resolutionResult.result)
+            }
+            is TaskResult.Failure -> {
+              logger.error(
+                "[{}]: failed to resolve automatic account provider {} in the background",
+                profile.uuid, description.id
+              )
+              publishResolutionError(accountEvents, resolutionResult)
+            }
+            null -> {
+              logger.error(
+                "[{}]: resolving automatic account provider {} in the background returned nothing",
+                profile.uuid, description.id
+              )
+            }
+          }
+        }
+
+        override fun onFailure(exception: Throwable) {
+          logger.error(
+            "[{}]: failed to resolve automatic account provider {} in the background: ",
+            profile.uuid, description.id, exception
+          )
+        }
+      },
+      this.lateExecutor
+    )
+  }
+
+  private fun publishResolutionError(
+    accountEvents: Subject<AccountEvent>,
+    resolutionResult: TaskResult.Failure<AccountProviderType>
+  ) {
+    val failure: TaskResult.Failure<Any> =
+      TaskResult.Failure(
+        steps = resolutionResult.steps,
+        attributes = resolutionResult.attributes
+      )
+
+    accountEvents.onNext(AccountEventCreationFailed(failure))
+  }
+}
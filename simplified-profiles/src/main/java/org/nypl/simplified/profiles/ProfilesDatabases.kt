@@ -3,14 +3,14 @@ package org.nypl.simplified.profiles
 import android.content.Context
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.common.base.Preconditions
+import com.google.common.util.concurrent.MoreExecutors
 import io.reactivex.subjects.Subject
 import org.nypl.simplified.accounts.api.AccountAuthenticationCredentialsStoreType
 import org.nypl.simplified.accounts.api.AccountBundledCredentialsType
 import org.nypl.simplified.accounts.api.AccountEvent
-import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationFailed
-import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationInProgress
 import org.nypl.simplified.accounts.api.AccountLoginState
 import org.nypl.simplified.accounts.api.AccountProviderType
+import org.nypl.simplified.accounts.database.api.AccountsDatabaseDuplicateProviderException
 import org.nypl.simplified.accounts.database.api.AccountsDatabaseException
 import org.nypl.simplified.accounts.database.api.AccountsDatabaseFactoryType
 import org.nypl.simplified.accounts.database.api.AccountsDatabaseOpenException
@@ -31,7 +31,6 @@ import org.nypl.simplified.profiles.api.ProfilePreferences
 import org.nypl.simplified.profiles.api.ProfilesDatabaseType
 import org.nypl.simplified.profiles.api.ProfilesDatabaseType.AnonymousProfileEnabled.ANONYMOUS_PROFILE_ENABLED
 import org.nypl.simplified.reader.api.ReaderPreferences
-import org.nypl.simplified.taskrecorder.api.TaskResult
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.IOException
@@ -39,6 +38,8 @@ import java.util.ArrayList
 import java.util.SortedMap
 import java.util.UUID
 import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 /**
  * Functions providing profile databases.
@@ -52,6 +53,25 @@ object ProfilesDatabases {
   val ANONYMOUS_PROFILE_ID =
     ProfileID(UUID(0L, 0L))
 
+  /**
+   * The resolver used for automatic account providers when creating or opening a profile.
+   * Resolutions run concurrently on a small pool of daemon threads, and at most ten seconds
+   * are spent waiting for them.
+   */
+
+  private val automaticProviders =
+    AutomaticAccountProviderResolver(
+      executor = MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(4) { runnable ->
+          val thread = Thread(runnable, "simplified-profiles-provider-resolution")
+          thread.isDaemon = true
+          thread
+        }
+      ),
+      timeout = 10L,
+      timeoutUnit = TimeUnit.SECONDS
+    )
+
   /**
    * Open a profile database from the given directory, creating a new database if one does not
    * exist. The anonymous profile will not be enabled, and will be ignored even if one is present
@@ -536,37 +556,35 @@ object ProfilesDatabases {
 
     try {
       val autoProviders =
-        this.findAndResolveAutomaticProviders(
+        this.automaticProviders.resolve(
           profile = profile,
           accountEvents = accountEvents,
-          accountProviders = accountProviders
+          accountProviders = accountProviders,
+          onLateResolution = { autoProvider ->
+            try {
+              this.createAutomaticAccount(
+                accounts = accounts,
+                accountBundledCredentials = accountBundledCredentials,
+                autoProvider = autoProvider,
+                profile = profile,
+                updateExisting = true
+              )
+            } catch (e: Exception) {
+              this.logger.error("[{}]: error creating automatic account: ", pId, e)
+            }
+          }
         )
 
       this.logger.debug("[{}]: {} automatic account providers available", pId, autoProviders.size)
 
       for (autoProvider in autoProviders) {
-        val id = autoProvider.id
-        this.logger.debug("[{}]: account provider {} should be added automatically", pId, id)
-
-        val accountsByProvider = accounts.accountsByProvider()
-        val autoAccount =
-          if (accountsByProvider.containsKey(id)) {
-            this.logger.debug("[{}]: automatic account {} already exists", pId, id)
-            accountsByProvider[id]!!
-          } else {
-            this.logger.debug("[{}]: adding automatic account {}", pId, id)
-            accounts.createAccount(autoProvider)
-          }
-
-        val credentials =
-          accountBundledCredentials.bundledCredentialsFor(id)
-
-        if (credentials != null) {
-          this.logger.debug("[{}]: credentials for automatic account {} were provided", pId, id)
-          autoAccount.setLoginState(AccountLoginState.AccountLoggedIn(credentials))
-        } else {
-          this.logger.debug("[{}]: credentials for automatic account {} were not provided", pId, id)
-        }
+        this.createAutomaticAccount(
+          accounts = accounts,
+          accountBundledCredentials = accountBundledCredentials,
+          autoProvider = autoProvider,
+          profile = profile,
+          updateExisting = false
+        )
       }
     } catch (e: Exception) {
       this.logger.error("[{}]: error creating automatic accounts: ", pId, e)
@@ -574,69 +592,61 @@ object ProfilesDatabases {
     }
   }
 
-  private fun findAndResolveAutomaticProviders(
+  /**
+   * Create an account for the given automatic account provider, unless one already exists.
+   * If one already exists and `updateExisting` is `true`, the account's provider is updated.
+   * Providers resolved in the background are passed to this method from other threads, and
+   * so an account created concurrently for the same provider is treated as an existing one.
+   */
+
+  @Throws(AccountsDatabaseException::class)
+  private fun createAutomaticAccount(
+    accounts: AccountsDatabaseType,
+    accountBundledCredentials: AccountBundledCredentialsType,
+    autoProvider: AccountProviderType,
     profile: ProfileID,
-    accountEvents: Subject<AccountEvent>,
-    accountProviders: AccountProviderRegistryType
-  ): List<AccountProviderType> {
-    this.logger.debug("[{}]: resolving automatic account providers", profile.uuid)
-
-    val resolvedProviders = mutableListOf<AccountProviderType>()
-    for (entry in accountProviders.accountProviderDescriptions()) {
-      val description = entry.value
-      if (description.isAutomatic) {
-        this.logger.debug(
-          "[{}]: resolving automatic account provider {}",
-          profile.uuid, description.id
-        )
+    updateExisting: Boolean
+  ) {
+    val pId = profile.uuid
+    val id = autoProvider.id
+    this.logger.debug("[{}]: account provider {} should be added automatically", pId, id)
+
+    val existing = accounts.accountsByProvider()[id]
+    if (existing != null) {
+      this.logger.debug("[{}]: automatic account {} already exists", pId, id)
+      if (updateExisting) {
+        existing.setAccountProvider(autoProvider)
+        return
+      }
+    }
 
-        val resolutionResult =
-          accountProviders.resolve(
-            { _, message ->
-              accountEvents.onNext(AccountEventCreationInProgress(message))
-            },
-            description
-          )
+    val autoAccount =
+      existing ?: try {
+        this.logger.debug("[{}]: adding automatic account {}", pId, id)
+        accounts.createAccount(autoProvider)
+      } catch (e: AccountsDatabaseDuplicateProviderException) {
+        /*
+         * The account was created concurrently by another call to this method, and that
+         * call is responsible for setting its credentials.
+         */
 
-        when (resolutionResult) {
-          is TaskResult.Success -> {
-            this.logger.debug(
-              "[{}]: resolved automatic account provider {}",
-              profile.uuid, description.id
-            )
-            resolvedProviders.add(resolutionResult.result)
-          }
-          is TaskResult.Failure -> {
-            this.logger.error(
-              "[{}]: failed to resolve automatic account provider {}",
-              profile.uuid, description.id
-            )
-            publishResolutionError(accountEvents, resolutionResult)
-          }
+        this.logger.debug("[{}]: automatic account {} was created concurrently", pId, id)
+        val created = accounts.accountsByProvider()[id] ?: throw e
+        if (updateExisting) {
+          created.setAccountProvider(autoProvider)
         }
-      } else {
-        this.logger.debug(
-          "[{}]: account provider {} is not automatic",
-          profile.uuid, description.id
-        )
+        return
       }
-    }
-
-    this.logger.debug("[{}]: resolved {} account providers", profile.uuid, resolvedProviders.size)
-    return resolvedProviders
-  }
 
-  private fun publishResolutionError(
-    accountEvents: Subject<AccountEvent>,
-    resolutionResult: TaskResult.Failure<AccountProviderType>
-  ) {
-    val failure: TaskResult.Failure<Any> =
-      TaskResult.Failure(
-        steps = resolutionResult.steps,
-        attributes = resolutionResult.attributes
-      )
+    val credentials =
+      accountBundledCredentials.bundledCredentialsFor(id)
 
-    accountEvents.onNext(AccountEventCreationFailed(failure))
+    if (credentials != null) {
+      this.logger.debug("[{}]: credentials for automatic account {} were provided", pId, id)
+      autoAccount.setLoginState(AccountLoginState.AccountLoggedIn(credentials))
+    } else {
+      this.logger.debug("[{}]: credentials for automatic account {} were not provided", pId, id)
+    }
   }
 
   @Throws(IOException::class)
@@ -651,17 +661,17 @@ object ProfilesDatabases {
     val profileFileTemp =
       File(directory, "profile.json.tmp")
 
-    FileLocking.withFileThreadLocked<Unit, IOException>(
+    /*
+     * Ignore the return value here; locking or writing will immediately fail if this
+     * call fails anyway. The directory must exist before the lock file can be created.
+     */
+
+    directory.mkdirs()
+
+    FileLocking.withFileProcessLocked<Unit, IOException>(
       profileLock,
       1000L
     ) {
-      /*
-       * Ignore the return value here; the write call will immediately fail if this
-       * call fails anyway.
-       */
-
-      directory.mkdirs()
-
       FileUtilities.fileWriteUTF8Atomically(
         profileFile,
         profileFileTemp,
@@ -1,6 +1,8 @@
 package org.nypl.simplified.reader.bookmarks.api
 
+import io.reactivex.Observable
 import io.reactivex.subjects.Subject
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
 import org.nypl.simplified.profiles.controller.api.ProfilesControllerType
 
 /**
@@ -37,7 +39,13 @@ interface ReaderBookmarkServiceProviderType {
      * A profile controller.
      */
 
-    val profilesController: ProfilesControllerType
+    val profilesController: ProfilesControllerType,
+
+    /**
+     * The network status. Bookmarks are synced again whenever the network becomes available.
+     */
+
+    val networkStatus: Observable<NetworkStatus> = Observable.never()
   )
 
   /**
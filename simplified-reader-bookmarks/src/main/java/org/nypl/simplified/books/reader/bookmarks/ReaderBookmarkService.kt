@@ -30,6 +30,7 @@ import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyInput.Even
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyInput.Event.Remote.BookmarkSaved
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyInput.Event.Remote.SyncingEnabled
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyOutput.Command
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
 import org.nypl.simplified.profiles.api.ProfileEvent
 import org.nypl.simplified.profiles.api.ProfileNoneCurrentException
 import org.nypl.simplified.profiles.api.ProfileReadableType
@@ -71,6 +72,7 @@ class ReaderBookmarkService private constructor(
   private val threads: (Runnable) -> Thread,
   private val httpCalls: ReaderBookmarkHTTPCallsType,
   private val bookmarkEventsOut: Subject<ReaderBookmarkEvent>,
+  private val networkStatus: Observable<NetworkStatus>,
   private val profilesController: ProfilesControllerType
 ) : ReaderBookmarkServiceType {
 
@@ -106,6 +108,19 @@ class ReaderBookmarkService private constructor(
     this.profilesController.profileEvents().subscribe { event -> this.onProfileEvent(event) }
     this.profilesController.accountEvents().subscribe { event -> this.onAccountEvent(event) }
 
+    /*
+     * Syncing attempts made while the network is unavailable simply fail, so sync again
+     * whenever the network becomes available. The first status is skipped, because the
+     * initial sync below covers it.
+     */
+
+    this.networkStatus
+      .map { status -> status.isAvailable }
+      .distinctUntilChanged()
+      .skip(1)
+      .filter { available -> available }
+      .subscribe { this.onNetworkAvailable() }
+
     try {
       val profile = this.profilesController.profileCurrent()
       this.policyState = setupPolicyForProfile(this.logger, profile)
@@ -599,6 +614,23 @@ class ReaderBookmarkService private constructor(
     )
   }
 
+  private fun onNetworkAvailable() {
+    try {
+      val currentProfile = this.profilesController.profileCurrent()
+      this.logger.debug("[{}]: the network became available", currentProfile.id.uuid)
+      this.executor.submit(
+        OpCheckSyncStatusForProfile(
+          logger = this.logger,
+          httpCalls = this.httpCalls,
+          profile = currentProfile,
+          evaluatePolicyInput = { input -> this.evaluatePolicyInput(currentProfile, input) }
+        )
+      )
+    } catch (e: ProfileNoneCurrentException) {
+      this.logger.debug("onNetworkAvailable: no profile is current")
+    }
+  }
+
   private fun onProfileEvent(event: ProfileEvent) {
     if (event is ProfileSelection.ProfileSelectionInProgress) {
       try {
@@ -1069,6 +1101,7 @@ class ReaderBookmarkService private constructor(
         threads = requirements.threads,
         httpCalls = requirements.httpCalls,
         bookmarkEventsOut = requirements.events,
+        networkStatus = requirements.networkStatus,
         profilesController = requirements.profilesController
       )
     }
@@ -8,8 +8,12 @@ import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountReadableType
+import org.nypl.simplified.feeds.api.Feed
+import org.nypl.simplified.feeds.api.FeedEntry
 import org.nypl.simplified.feeds.api.FeedLoaderResult
 import org.nypl.simplified.feeds.api.FeedLoaderType
+import org.nypl.simplified.feeds.api.FeedSearch
+import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess
 import org.nypl.simplified.tests.mocking.MockAccount
 import java.net.URI
 import java.util.concurrent.Executors
@@ -77,4 +81,60 @@ abstract class FeedLoaderContract {
     val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed
     Assertions.assertEquals(0, feed.size)
   }
+
+  /**
+   * OPDS 2.0 feeds are converted, and publications that cannot be acquired are removed.
+   */
+
+  @Test
+  fun testFeedOPDS2() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val future =
+      loader.fetchURI(
+        account = this.account,
+        uri = resource("feed-opds2.json"),
+        method = "GET"
+      )
+    val result =
+      future.get()
+
+    Assertions.assertTrue(result is FeedLoaderResult.FeedLoaderSuccess, result.toString())
+    val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed as Feed.FeedWithoutGroups
+    Assertions.assertEquals(1, feed.size)
+    Assertions.assertEquals("https://example.com/next", feed.feedNext.toString())
+    Assertions.assertEquals(
+      "https://example.com/search?query=cats",
+      (feed.feedSearch as FeedSearch.FeedSearchOpen1_1).search.getQueryURIForTerms("cats").toString()
+    )
+
+    val entry = feed.entriesInOrder[0] as FeedEntry.FeedEntryOPDS
+    Assertions.assertEquals("urn:isbn:9781111111111", entry.feedEntry.id)
+    Assertions.assertEquals("Open Access Book", entry.feedEntry.title)
+    Assertions.assertEquals(listOf("Jane Author"), entry.feedEntry.authors)
+    Assertions.assertTrue(entry.feedEntry.availability is OPDSAvailabilityOpenAccess)
+  }
+
+  /**
+   * OPDS 2.0 feeds containing borrowable publications are rejected, because the availability
+   * of the publications cannot be represented.
+   */
+
+  @Test
+  fun testFeedOPDS2Borrowable() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val future =
+      loader.fetchURI(
+        account = this.account,
+        uri = resource("feed-opds2-borrow.json"),
+        method = "GET"
+      )
+    val result =
+      future.get()
+
+    Assertions.assertTrue(
+      result is FeedLoaderResult.FeedLoaderFailure.FeedLoaderFailedGeneral, result.toString()
+    )
+  }
 }
@@ -1,6 +1,7 @@
 package org.nypl.simplified.tests.books
 
 import com.google.common.util.concurrent.ListeningExecutorService
+import one.irradia.mime.api.MIMEType
 import org.mockito.Mockito
 import org.nypl.simplified.accounts.api.AccountReadableType
 import org.nypl.simplified.books.book_registry.BookRegistry
@@ -12,9 +13,12 @@ import org.nypl.simplified.feeds.api.FeedLoader
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser
 import org.nypl.simplified.opds.core.OPDSFeedParser
+import org.nypl.simplified.opds.core.OPDSFeedTransportResponse
 import org.nypl.simplified.opds.core.OPDSFeedTransportType
 import org.nypl.simplified.opds.core.OPDSSearchParser
+import org.nypl.simplified.opds2.irradia.OPDS2ParsersIrradia
 import java.io.FileNotFoundException
+import java.io.InputStream
 import java.net.URI
 
 class FeedLoaderTest : FeedLoaderContract() {
@@ -25,8 +29,33 @@ class FeedLoaderTest : FeedLoaderContract() {
     val parser =
       OPDSFeedParser.newParser(entryParser)
     val transport =
-      OPDSFeedTransportType<AccountReadableType> { context, uri, method, authenticate ->
-        uri.toURL().openStream()
+      object : OPDSFeedTransportType<AccountReadableType> {
+        override fun getStream(
+          context: AccountReadableType,
+          uri: URI,
+          method: String,
+          authenticate: Boolean
+        ): InputStream {
+          return uri.toURL().openStream()
+        }
+
+        override fun getResponse(
+          context: AccountReadableType,
+          uri: URI,
+          method: String,
+          authenticate: Boolean
+        ): OPDSFeedTransportResponse {
+          val contentType =
+            if (uri.path.endsWith(".json")) {
+              MIMEType("application", "opds+json", mapOf())
+            } else {
+              MIMEType("application", "atom+xml", mapOf())
+            }
+          return OPDSFeedTransportResponse(
+            this.getStream(context, uri, method, authenticate),
+            contentType
+          )
+        }
       }
 
     val searchParser = OPDSSearchParser.newParser()
@@ -54,6 +83,7 @@ class FeedLoaderTest : FeedLoaderContract() {
       bundledContent = bundledContent,
       contentResolver = contentResolver,
       exec = exec,
+      opds2Parsers = OPDS2ParsersIrradia,
       parser = parser,
       searchParser = searchParser,
       transport = transport
@@ -204,4 +204,41 @@ class AccountAuthenticationCredentialsStoreTest {
     Assertions.assertEquals(null, store.get(accountID))
     Assertions.assertEquals(0, store.size())
   }
+
+  @Test
+  fun testWritesCoalesced() {
+    val store =
+      AccountAuthenticationCredentialsStore.open(this.file, this.fileTemp, 60_000L)
+    val writesInitial = store.statistics().writes
+
+    val accountID = AccountID.generate()
+    val credentials =
+      AccountAuthenticationCredentials.Basic(
+        userName = AccountUsername("abcd"),
+        password = AccountPassword("1234"),
+        adobeCredentials = null,
+        authenticationDescription = null,
+        annotationsURI = URI("https://www.example.com")
+      )
+
+    store.put(accountID, credentials)
+    store.delete(accountID)
+    store.put(accountID, credentials.copy(annotationsURI = URI("https://www.example.com/a")))
+    Assertions.assertEquals(writesInitial, store.statistics().writes)
+
+    store.flush()
+    Assertions.assertEquals(writesInitial + 1, store.statistics().writes)
+    Assertions.assertEquals(3L, store.statistics().changes)
+
+    store.flush()
+    Assertions.assertEquals(writesInitial + 1, store.statistics().writes)
+
+    val store1 =
+      AccountAuthenticationCredentialsStore.open(this.file, this.fileTemp)
+
+    Assertions.assertEquals(
+      URI("https://www.example.com/a"),
+      store1.get(accountID)?.annotationsURI
+    )
+  }
 }
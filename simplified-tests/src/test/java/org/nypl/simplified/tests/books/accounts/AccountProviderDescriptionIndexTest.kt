@@ -0,0 +1,221 @@
+package org.nypl.simplified.tests.books.accounts
+
+import org.joda.time.DateTime
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.accounts.api.AccountGeoLocation
+import org.nypl.simplified.accounts.api.AccountLibraryLocation
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.api.AccountProviderDescriptionIndex
+import org.nypl.simplified.accounts.api.AccountSearchQuery
+import org.nypl.simplified.accounts.json.AccountProviderDescriptionCollectionParsers
+import org.nypl.simplified.opds2.irradia.OPDS2ParsersIrradia
+import org.nypl.simplified.parser.api.ParseResult
+import java.io.InputStream
+import java.net.URI
+import java.util.Random
+
+class AccountProviderDescriptionIndexTest {
+
+  @Throws(Exception::class)
+  private fun resource(name: String): InputStream {
+    return AccountProviderDescriptionIndexTest::class.java
+      .getResource("/org/nypl/simplified/tests/books/accounts/descriptions/$name")!!
+      .openStream()
+  }
+
+  private fun registry(): List<AccountProviderDescription> {
+    val parsers = AccountProviderDescriptionCollectionParsers(OPDS2ParsersIrradia)
+    return this.resource("libraryregistry-qa.json").use { stream ->
+      val result = parsers.createParser(URI("urn:fake"), stream).parse()
+      (result as ParseResult.Success).result.providers
+    }
+  }
+
+  private fun description(
+    id: Int,
+    title: String,
+    latitude: Double?,
+    longitude: Double?,
+    isProduction: Boolean = true
+  ): AccountProviderDescription {
+    return AccountProviderDescription(
+      id = URI.create("urn:$id"),
+      title = title,
+      updated = DateTime.now(),
+      links = listOf(),
+      images = listOf(),
+      isAutomatic = false,
+      isProduction = isProduction,
+      location = if (latitude != null && longitude != null) {
+        AccountLibraryLocation(AccountGeoLocation.Coordinates(longitude, latitude), null)
+      } else {
+        null
+      }
+    )
+  }
+
+  /**
+   * Name searches match word prefixes, regardless of case and accents.
+   */
+
+  @Test
+  fun testNamePrefixes() {
+    val index =
+      AccountProviderDescriptionIndex.create(
+        listOf(
+          this.description(0, "Springfield Public Library", null, null),
+          this.description(1, "Shelbyville Public Library", null, null),
+          this.description(2, "Biblioteca Pública de Montréal", null, null),
+          this.description(3, "Capital Area District Libraries", null, null)
+        )
+      )
+
+    Assertions.assertEquals(
+      listOf("urn:0"),
+      index.matchingName("sprin pub").map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf("urn:0", "urn:1"),
+      index.matchingName("PUBLIC lib").map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf("urn:2"),
+      index.matchingName("publica montreal").map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf("urn:0", "urn:1", "urn:3"),
+      index.matchingName("libr").map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf<String>(),
+      index.matchingName("field").map { it.id.toString() }
+    )
+    Assertions.assertEquals(4, index.matchingName("  ").size)
+  }
+
+  /**
+   * Name searches over the registry fixture agree with a linear scan.
+   */
+
+  @Test
+  fun testNamesRegistry() {
+    val registry = this.registry()
+    val index = AccountProviderDescriptionIndex.create(registry)
+
+    for (text in listOf("county", "public lib", "acton", "co", "library system", "zzz")) {
+      val words = text.split(' ')
+      val expected =
+        registry.filter { description ->
+          val titleWords = description.title.lowercase().split(Regex("[^\\p{L}\\p{N}]+"))
+          words.all { word -> titleWords.any { it.startsWith(word) } }
+        }
+      Assertions.assertEquals(expected, index.matchingName(text), text)
+    }
+
+    Assertions.assertEquals(
+      "Acton Public Library",
+      index.matchingName("acton").single().title
+    )
+  }
+
+  /**
+   * Nearest-neighbour searches agree with a linear scan.
+   */
+
+  @Test
+  fun testNearestRandom() {
+    val random = Random(0x5eed)
+    val descriptions =
+      (0 until 2000).map { id ->
+        this.description(
+          id = id,
+          title = "Library $id",
+          latitude = random.nextDouble() * 160.0 - 80.0,
+          longitude = random.nextDouble() * 360.0 - 180.0
+        )
+      }
+    val index = AccountProviderDescriptionIndex.create(descriptions)
+
+    repeat(50) {
+      val origin =
+        AccountGeoLocation.Coordinates(
+          longitude = random.nextDouble() * 360.0 - 180.0,
+          latitude = random.nextDouble() * 160.0 - 80.0
+        )
+
+      val expected =
+        descriptions.sortedBy { description ->
+          AccountProviderDescriptionIndex.distanceKilometers(
+            origin,
+            description.location!!.location as AccountGeoLocation.Coordinates
+          )
+        }.take(10).map { it.id }
+
+      val nearest = index.nearest(origin, 10)
+      Assertions.assertEquals(expected, nearest.map { it.id })
+
+      val distances = nearest.map { it.location!!.distance!!.length }
+      Assertions.assertEquals(distances.sorted(), distances)
+    }
+  }
+
+  /**
+   * Nearest-neighbour searches find libraries across the antimeridian.
+   */
+
+  @Test
+  fun testNearestAntimeridian() {
+    val index =
+      AccountProviderDescriptionIndex.create(
+        listOf(
+          this.description(0, "East", 0.0, 179.9),
+          this.description(1, "West", 0.0, -170.0),
+          this.description(2, "Far", 40.0, 0.0)
+        )
+      )
+
+    val nearest =
+      index.nearest(AccountGeoLocation.Coordinates(longitude = -179.9, latitude = 0.0), 2)
+
+    Assertions.assertEquals(listOf("urn:0", "urn:1"), nearest.map { it.id.toString() })
+    Assertions.assertTrue(nearest[0].location!!.distance!!.length < 30.0)
+  }
+
+  /**
+   * Queries combine names, locations, and testing libraries.
+   */
+
+  @Test
+  fun testSearch() {
+    val index =
+      AccountProviderDescriptionIndex.create(
+        listOf(
+          this.description(0, "Springfield Public Library", 39.80, -89.64),
+          this.description(1, "Shelbyville Public Library", 39.41, -88.79),
+          this.description(2, "Capital Area District Libraries", 42.73, -84.55),
+          this.description(3, "Testing Public Library", 39.80, -89.65, isProduction = false),
+          this.description(4, "Nowhere Public Library", null, null)
+        )
+      )
+
+    val near = AccountGeoLocation.Coordinates(longitude = -88.80, latitude = 39.40)
+
+    Assertions.assertEquals(
+      listOf("urn:1", "urn:0", "urn:4"),
+      index.search(AccountSearchQuery(near, "public", false)).map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf("urn:1", "urn:0", "urn:3", "urn:4"),
+      index.search(AccountSearchQuery(near, "public", true)).map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf("urn:1", "urn:0"),
+      index.search(AccountSearchQuery(near, "", false), limit = 2).map { it.id.toString() }
+    )
+    Assertions.assertEquals(
+      listOf("urn:0", "urn:1", "urn:4"),
+      index.search(AccountSearchQuery(null, "public", false)).map { it.id.toString() }
+    )
+  }
+}
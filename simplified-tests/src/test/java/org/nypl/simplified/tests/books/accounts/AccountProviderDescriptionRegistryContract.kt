@@ -10,9 +10,9 @@ import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
 import org.nypl.simplified.accounts.api.AccountProviderType
 import org.nypl.simplified.accounts.api.AccountSearchQuery
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.Refreshed
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.SourceFailed
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.StatusChanged
-import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent.Updated
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryStatus
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryStatus.Idle
 import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryStatus.Refreshing
@@ -125,19 +125,16 @@ abstract class AccountProviderDescriptionRegistryContract {
     Assertions.assertEquals(URI.create("urn:1"), description1!!.id)
     Assertions.assertEquals(URI.create("urn:2"), description2!!.id)
 
-    Assertions.assertEquals(5, this.events.size)
+    Assertions.assertEquals(3, this.events.size)
 
     run {
       this.events.removeAt(0) as StatusChanged
     }
     run {
-      Assertions.assertEquals(URI.create("urn:0"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:1"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:2"), (this.events.removeAt(0) as Updated).id)
+      Assertions.assertEquals(
+        setOf(URI.create("urn:0"), URI.create("urn:1"), URI.create("urn:2")),
+        (this.events.removeAt(0) as Refreshed).ids
+      )
     }
     run {
       this.events.removeAt(0) as StatusChanged
@@ -183,19 +180,16 @@ abstract class AccountProviderDescriptionRegistryContract {
       DateTime.parse("1900-01-01T00:00:00Z"), description2.updated
     )
 
-    Assertions.assertEquals(5, this.events.size)
+    Assertions.assertEquals(3, this.events.size)
 
     run {
       this.events.removeAt(0) as StatusChanged
     }
     run {
-      Assertions.assertEquals(URI.create("urn:0"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:1"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:2"), (this.events.removeAt(0) as Updated).id)
+      Assertions.assertEquals(
+        setOf(URI.create("urn:0"), URI.create("urn:1"), URI.create("urn:2")),
+        (this.events.removeAt(0) as Refreshed).ids
+      )
     }
     run {
       this.events.removeAt(0) as StatusChanged
@@ -230,21 +224,18 @@ abstract class AccountProviderDescriptionRegistryContract {
     Assertions.assertEquals(URI.create("urn:1"), description1!!.id)
     Assertions.assertEquals(URI.create("urn:2"), description2!!.id)
 
-    Assertions.assertEquals(6, this.events.size)
+    Assertions.assertEquals(4, this.events.size)
     run {
       this.events.removeAt(0) as StatusChanged
     }
     run {
-      Assertions.assertEquals(URI.create("urn:0"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:1"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:2"), (this.events.removeAt(0) as Updated).id)
+      Assertions.assertEquals(CrashingSource::class.java, (this.events.removeAt(0) as SourceFailed).clazz)
     }
     run {
-      Assertions.assertEquals(CrashingSource::class.java, (this.events.removeAt(0) as SourceFailed).clazz)
+      Assertions.assertEquals(
+        setOf(URI.create("urn:0"), URI.create("urn:1"), URI.create("urn:2")),
+        (this.events.removeAt(0) as Refreshed).ids
+      )
     }
     run {
       this.events.removeAt(0) as StatusChanged
@@ -279,28 +270,63 @@ abstract class AccountProviderDescriptionRegistryContract {
     Assertions.assertEquals(URI.create("urn:1"), description1!!.id)
     Assertions.assertEquals(URI.create("urn:2"), description2!!.id)
 
-    Assertions.assertEquals(6, this.events.size)
+    Assertions.assertEquals(4, this.events.size)
 
     run {
       this.events.removeAt(0) as StatusChanged
     }
     run {
-      Assertions.assertEquals(URI.create("urn:0"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:1"), (this.events.removeAt(0) as Updated).id)
-    }
-    run {
-      Assertions.assertEquals(URI.create("urn:2"), (this.events.removeAt(0) as Updated).id)
+      Assertions.assertEquals(FailingSource::class.java, (this.events.removeAt(0) as SourceFailed).clazz)
     }
     run {
-      Assertions.assertEquals(FailingSource::class.java, (this.events.removeAt(0) as SourceFailed).clazz)
+      Assertions.assertEquals(
+        setOf(URI.create("urn:0"), URI.create("urn:1"), URI.create("urn:2")),
+        (this.events.removeAt(0) as Refreshed).ids
+      )
     }
     run {
       this.events.removeAt(0) as StatusChanged
     }
   }
 
+  /**
+   * Refreshing again without any changes publishes no refresh event, and refreshing with
+   * a newer description publishes a refresh event for that description alone.
+   */
+
+  @Test
+  fun testRefreshChangedOnly() {
+    val source = MutableSource()
+    val registry =
+      this.createRegistry(
+        MockAccountProviders.fakeProvider("urn:fake:0"),
+        listOf(source, OKAncientSource())
+      )
+
+    registry.refresh(true)
+    registry.events.subscribe { this.events.add(it) }
+    registry.refresh(true)
+
+    Assertions.assertEquals(2, this.events.size)
+    this.events.removeAt(0) as StatusChanged
+    this.events.removeAt(0) as StatusChanged
+
+    source.descriptions[description1.id] =
+      description1.copy(title = "Title 1 (Changed)", updated = DateTime.now().plusDays(1))
+    registry.refresh(true)
+
+    Assertions.assertEquals(3, this.events.size)
+    this.events.removeAt(0) as StatusChanged
+    Assertions.assertEquals(setOf(description1.id), (this.events.removeAt(0) as Refreshed).ids)
+    this.events.removeAt(0) as StatusChanged
+
+    Assertions.assertEquals(
+      "Title 1 (Changed)",
+      registry.findAccountProviderDescription(description1.id)!!.title
+    )
+    Assertions.assertEquals(3, registry.accountProviderDescriptions().size)
+  }
+
   /**
    * Trying to update with an outdated description returns the newer description.
    */
@@ -327,6 +353,44 @@ abstract class AccountProviderDescriptionRegistryContract {
     Assertions.assertEquals(existing0, registry.accountProviderDescriptions()[existing0.id])
   }
 
+  /**
+   * Updating with a newer description replaces it in place, and a later refresh with an older
+   * description does not undo the update.
+   */
+
+  @Test
+  fun testUpdateNewerReplaces() {
+    val registry =
+      this.createRegistry(
+        MockAccountProviders.fakeProvider("urn:fake:0"),
+        listOf(OKSource())
+      )
+
+    registry.refresh(true)
+
+    val existing0 =
+      registry.findAccountProviderDescription(URI.create("urn:0"))!!
+    val newer0 =
+      existing0.copy(title = "Newer", updated = existing0.updated.plusDays(1))
+
+    Assertions.assertEquals(newer0, registry.updateDescription(newer0))
+
+    val descriptions = registry.accountProviderDescriptions()
+    Assertions.assertEquals(3, descriptions.size)
+    Assertions.assertEquals(
+      setOf(URI.create("urn:0"), URI.create("urn:1"), URI.create("urn:2")),
+      descriptions.keys
+    )
+    Assertions.assertEquals(newer0, descriptions[newer0.id])
+    Assertions.assertEquals(
+      newer0,
+      descriptions.entries.single { entry -> entry.key == newer0.id }.value
+    )
+
+    registry.refresh(true)
+    Assertions.assertEquals("Newer", registry.findAccountProviderDescription(newer0.id)!!.title)
+  }
+
   /**
    * Trying to update with an outdated provider returns the newer provider.
    */
@@ -381,16 +445,41 @@ abstract class AccountProviderDescriptionRegistryContract {
 
     registry.refresh(true)
 
-    Assertions.assertEquals(5, eventsWithRefreshing.size)
+    Assertions.assertEquals(3, eventsWithRefreshing.size)
     Assertions.assertEquals(Refreshing::class.java, eventsWithRefreshing[0].javaClass)
     Assertions.assertEquals(Refreshing::class.java, eventsWithRefreshing[1].javaClass)
-    Assertions.assertEquals(Refreshing::class.java, eventsWithRefreshing[2].javaClass)
-    Assertions.assertEquals(Refreshing::class.java, eventsWithRefreshing[3].javaClass)
-    Assertions.assertEquals(Idle::class.java, eventsWithRefreshing[4].javaClass)
+    Assertions.assertEquals(Idle::class.java, eventsWithRefreshing[2].javaClass)
 
     Assertions.assertEquals(Idle, registry.status)
   }
 
+  /**
+   * Querying returns the matching descriptions without adding them to the registry, and the
+   * full set of descriptions is still loaded afterwards.
+   */
+
+  @Test
+  fun testQueryBeforeRefresh() {
+    val registry =
+      this.createRegistry(
+        MockAccountProviders.fakeProvider("urn:fake:0"),
+        listOf(QuerySubsetSource())
+      )
+
+    registry.events.subscribe { this.events.add(it) }
+
+    val results =
+      registry.query(AccountSearchQuery(null, "Title 0", true))
+
+    Assertions.assertEquals(listOf(description0), results)
+    Assertions.assertEquals(listOf<AccountProviderRegistryEvent>(), this.events)
+
+    Assertions.assertEquals(
+      setOf(URI.create("urn:0"), URI.create("urn:1"), URI.create("urn:2")),
+      registry.accountProviderDescriptions().keys
+    )
+  }
+
   companion object {
 
     val description0 =
@@ -535,6 +624,65 @@ abstract class AccountProviderDescriptionRegistryContract {
     }
   }
 
+  class QuerySubsetSource : AccountProviderSourceType {
+    override fun load(context: Context, includeTestingLibraries: Boolean): SourceResult {
+      return SourceResult.SourceSucceeded(
+        mapOf(
+          Pair(description0.id, description0),
+          Pair(description1.id, description1),
+          Pair(description2.id, description2)
+        )
+      )
+    }
+
+    override fun query(context: Context, query: AccountSearchQuery): SourceResult {
+      return SourceResult.SourceSucceeded(mapOf(Pair(description0.id, description0)))
+    }
+
+    override fun clear(context: Context) {}
+
+    override fun canResolve(description: AccountProviderDescription): Boolean {
+      return false
+    }
+
+    override fun resolve(
+      onProgress: AccountProviderResolutionListenerType,
+      description: AccountProviderDescription
+    ): TaskResult<AccountProviderType> {
+      throw IllegalStateException()
+    }
+  }
+
+  class MutableSource : AccountProviderSourceType {
+    val descriptions =
+      mutableMapOf(
+        Pair(description0.id, description0),
+        Pair(description1.id, description1),
+        Pair(description2.id, description2)
+      )
+
+    override fun load(context: Context, includeTestingLibraries: Boolean): SourceResult {
+      return SourceResult.SourceSucceeded(this.descriptions.toMap())
+    }
+
+    override fun query(context: Context, query: AccountSearchQuery): SourceResult {
+      return this.load(context, query.includeTestingLibraries)
+    }
+
+    override fun clear(context: Context) {}
+
+    override fun canResolve(description: AccountProviderDescription): Boolean {
+      return false
+    }
+
+    override fun resolve(
+      onProgress: AccountProviderResolutionListenerType,
+      description: AccountProviderDescription
+    ): TaskResult<AccountProviderType> {
+      throw IllegalStateException()
+    }
+  }
+
   class CrashingSource : AccountProviderSourceType {
     override fun load(context: Context, includeTestingLibraries: Boolean): SourceResult {
       throw Exception()
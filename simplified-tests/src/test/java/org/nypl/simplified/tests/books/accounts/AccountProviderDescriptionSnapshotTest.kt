@@ -0,0 +1,223 @@
+package org.nypl.simplified.tests.books.accounts
+
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.nypl.simplified.accounts.api.AccountDistance
+import org.nypl.simplified.accounts.api.AccountDistanceUnit
+import org.nypl.simplified.accounts.api.AccountGeoLocation
+import org.nypl.simplified.accounts.api.AccountLibraryLocation
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.json.AccountProviderDescriptionCollectionParsers
+import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderDescriptionSnapshot
+import org.nypl.simplified.opds2.irradia.OPDS2ParsersIrradia
+import org.nypl.simplified.parser.api.ParseResult
+import org.nypl.simplified.tests.TestDirectories
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.net.URI
+import java.nio.ByteBuffer
+
+class AccountProviderDescriptionSnapshotTest {
+
+  private lateinit var directory: File
+
+  @Throws(Exception::class)
+  private fun resource(name: String): InputStream {
+    return AccountProviderDescriptionSnapshotTest::class.java
+      .getResource("/org/nypl/simplified/tests/books/accounts/descriptions/$name")!!
+      .openStream()
+  }
+
+  private fun descriptions(): List<AccountProviderDescription> {
+    val parsers = AccountProviderDescriptionCollectionParsers(OPDS2ParsersIrradia)
+    return this.resource("libraryregistry-qa.json").use { stream ->
+      val result = parsers.createParser(URI("urn:fake"), stream).parse()
+      (result as ParseResult.Success).result.providers
+    }
+  }
+
+  private fun normalized(description: AccountProviderDescription): AccountProviderDescription =
+    description.copy(updated = description.updated.toDateTime(DateTimeZone.UTC))
+
+  @BeforeEach
+  fun testSetup() {
+    this.directory = TestDirectories.temporaryDirectory()
+  }
+
+  @AfterEach
+  fun testTearDown() {
+    this.directory.deleteRecursively()
+  }
+
+  /**
+   * Every description survives a round trip through a snapshot.
+   */
+
+  @Test
+  fun testRoundTrip() {
+    val descriptions = this.descriptions()
+    val snapshot =
+      AccountProviderDescriptionSnapshot.open(
+        ByteBuffer.wrap(AccountProviderDescriptionSnapshot.serialize(descriptions))
+      )
+
+    Assertions.assertEquals(182, snapshot.size)
+    Assertions.assertEquals(descriptions.map { it.id }.toSet(), snapshot.keys)
+
+    for (description in descriptions) {
+      Assertions.assertTrue(snapshot.containsKey(description.id))
+      Assertions.assertEquals(this.normalized(description), snapshot[description.id])
+    }
+
+    Assertions.assertEquals(
+      descriptions.associateBy { it.id }.mapValues { this.normalized(it.value) },
+      snapshot.toMap()
+    )
+  }
+
+  /**
+   * Descriptions with locations survive a round trip through a snapshot.
+   */
+
+  @Test
+  fun testRoundTripLocations() {
+    val base = this.descriptions().first()
+    val withDistance =
+      base.copy(
+        id = URI.create("urn:a"),
+        updated = DateTime(1000L, DateTimeZone.UTC),
+        location = AccountLibraryLocation(
+          location = AccountGeoLocation.Coordinates(longitude = 48.0, latitude = -106.4),
+          distance = AccountDistance(23.5, AccountDistanceUnit.KILOMETERS)
+        )
+      )
+    val withoutDistance =
+      withDistance.copy(
+        id = URI.create("urn:b"),
+        location = withDistance.location!!.copy(distance = null)
+      )
+
+    val snapshot =
+      AccountProviderDescriptionSnapshot.open(
+        ByteBuffer.wrap(AccountProviderDescriptionSnapshot.serialize(listOf(withDistance, withoutDistance)))
+      )
+
+    Assertions.assertEquals(withDistance, snapshot[withDistance.id])
+    Assertions.assertEquals(withoutDistance, snapshot[withoutDistance.id])
+  }
+
+  /**
+   * Looking up a nonexistent description returns nothing.
+   */
+
+  @Test
+  fun testMissing() {
+    val snapshot =
+      AccountProviderDescriptionSnapshot.open(
+        ByteBuffer.wrap(AccountProviderDescriptionSnapshot.serialize(this.descriptions()))
+      )
+
+    Assertions.assertFalse(snapshot.containsKey(URI.create("urn:nonexistent")))
+    Assertions.assertNull(snapshot[URI.create("urn:nonexistent")])
+  }
+
+  /**
+   * An empty snapshot is empty.
+   */
+
+  @Test
+  fun testEmpty() {
+    val snapshot =
+      AccountProviderDescriptionSnapshot.open(
+        ByteBuffer.wrap(AccountProviderDescriptionSnapshot.serialize(listOf()))
+      )
+
+    Assertions.assertTrue(snapshot.isEmpty())
+    Assertions.assertNull(snapshot[URI.create("urn:nonexistent")])
+  }
+
+  /**
+   * Snapshots written to files can be opened.
+   */
+
+  @Test
+  fun testFile() {
+    val descriptions = this.descriptions()
+    val file = File(this.directory, "snapshot")
+    val fileTemp = File(this.directory, "snapshot.tmp")
+    AccountProviderDescriptionSnapshot.write(file, fileTemp, descriptions)
+
+    Assertions.assertFalse(fileTemp.exists())
+
+    val snapshot = AccountProviderDescriptionSnapshot.open(file)
+    Assertions.assertEquals(182, snapshot.size)
+    for (description in descriptions) {
+      Assertions.assertEquals(this.normalized(description), snapshot[description.id])
+    }
+  }
+
+  /**
+   * Snapshots of other versions are rejected.
+   */
+
+  @Test
+  fun testWrongVersion() {
+    val bytes = AccountProviderDescriptionSnapshot.serialize(this.descriptions())
+    ByteBuffer.wrap(bytes).putInt(4, AccountProviderDescriptionSnapshot.VERSION + 1)
+
+    assertThrows<IOException> {
+      AccountProviderDescriptionSnapshot.open(ByteBuffer.wrap(bytes))
+    }
+  }
+
+  /**
+   * Truncated snapshots are rejected.
+   */
+
+  @Test
+  fun testTruncated() {
+    val bytes = AccountProviderDescriptionSnapshot.serialize(this.descriptions())
+
+    assertThrows<IOException> {
+      AccountProviderDescriptionSnapshot.open(ByteBuffer.wrap(bytes, 0, bytes.size / 2).slice())
+    }
+    assertThrows<IOException> {
+      AccountProviderDescriptionSnapshot.open(ByteBuffer.wrap(bytes, 0, 8).slice())
+    }
+  }
+
+  /**
+   * Snapshots with records that refer to nonexistent strings are rejected when opened.
+   */
+
+  @Test
+  fun testCorruptRecord() {
+    val bytes = AccountProviderDescriptionSnapshot.serialize(this.descriptions())
+    val buffer = ByteBuffer.wrap(bytes)
+    val stringCount = buffer.getInt(8)
+    val recordDataOffset = buffer.getInt(20)
+    val recordOffset = buffer.getInt(24 + (stringCount * 4) + 4)
+    buffer.putInt(recordDataOffset + recordOffset + 4, stringCount)
+
+    assertThrows<IOException> {
+      AccountProviderDescriptionSnapshot.open(ByteBuffer.wrap(bytes))
+    }
+  }
+
+  /**
+   * Garbage is rejected.
+   */
+
+  @Test
+  fun testGarbage() {
+    assertThrows<IOException> {
+      AccountProviderDescriptionSnapshot.open(ByteBuffer.wrap("Nonsense! Tripe! Ungood data!".toByteArray()))
+    }
+  }
+}
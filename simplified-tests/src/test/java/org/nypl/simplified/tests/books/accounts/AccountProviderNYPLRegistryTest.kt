@@ -16,6 +16,7 @@ import org.librarysimplified.http.vanilla.LSHTTPClients
 import org.mockito.Mockito
 import org.nypl.simplified.accounts.json.AccountProviderDescriptionCollectionParsers
 import org.nypl.simplified.accounts.json.AccountProviderDescriptionCollectionSerializers
+import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderDescriptionSnapshot
 import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderSourceNYPLRegistry
 import org.nypl.simplified.accounts.source.spi.AccountProviderSourceType
 import org.nypl.simplified.accounts.source.spi.AccountProviderSourceType.SourceResult.SourceSucceeded
@@ -25,6 +26,8 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.InputStream
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 class AccountProviderNYPLRegistryTest {
@@ -177,6 +180,71 @@ class AccountProviderNYPLRegistryTest {
     Assertions.assertEquals(43, success.results.size)
   }
 
+  /**
+   * A binary snapshot is written the first time the disk cache is loaded, and is used in
+   * preference to the disk cache thereafter.
+   */
+
+  @Test
+  fun testProvidersFromSnapshotOK() {
+    val cacheFile = File(this.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.json")
+    cacheFile.outputStream().use { output ->
+      this.readAllFromResource("libraryregistry.json").use { input -> input.copyTo(output) }
+    }
+    val snapshotFile = File(this.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.snapshot")
+
+    val provider =
+      AccountProviderSourceNYPLRegistry(
+        http = this.http,
+        authDocumentParsers = AuthenticationDocumentParsers(),
+        parsers = AccountProviderDescriptionCollectionParsers(this.opdsParsers),
+        serializers = AccountProviderDescriptionCollectionSerializers(),
+        uriProduction = this.server.url("production").toUri(),
+        uriQA = this.server.url("qa").toUri()
+      )
+
+    val result0 = provider.load(this.context, true) as SourceSucceeded
+    Assertions.assertTrue(snapshotFile.isFile)
+
+    val lastModified = cacheFile.lastModified()
+    cacheFile.writeText("Nonsense!")
+    cacheFile.setLastModified(lastModified)
+
+    val result1 = provider.load(this.context, true) as SourceSucceeded
+    Assertions.assertEquals(43, result1.results.size)
+    Assertions.assertEquals(result0.results.keys, result1.results.keys)
+    Assertions.assertEquals(0, this.server.requestCount)
+  }
+
+  /**
+   * A snapshot that cannot be opened is discarded, and the providers are loaded from the
+   * disk cache instead.
+   */
+
+  @Test
+  fun testProvidersFromCorruptSnapshot() {
+    val cacheFile = File(this.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.json")
+    cacheFile.outputStream().use { output ->
+      this.readAllFromResource("libraryregistry.json").use { input -> input.copyTo(output) }
+    }
+    val snapshotFile = File(this.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.snapshot")
+    snapshotFile.writeText("Nonsense! Tripe! Ungood data!")
+
+    val provider =
+      AccountProviderSourceNYPLRegistry(
+        http = this.http,
+        authDocumentParsers = AuthenticationDocumentParsers(),
+        parsers = AccountProviderDescriptionCollectionParsers(this.opdsParsers),
+        serializers = AccountProviderDescriptionCollectionSerializers(),
+        uriProduction = this.server.url("production").toUri(),
+        uriQA = this.server.url("qa").toUri()
+      )
+
+    val result = provider.load(this.context, true) as SourceSucceeded
+    Assertions.assertEquals(43, result.results.size)
+    Assertions.assertEquals(43, AccountProviderDescriptionSnapshot.open(snapshotFile).size)
+  }
+
   /**
    * If the disk cache contains garbage, the correct providers are fetched from the server,
    * and the disk cache is replaced with good data.
@@ -241,7 +309,8 @@ class AccountProviderNYPLRegistryTest {
   }
 
   /**
-   * The providers are queried from the server if the cache is expired.
+   * The expired disk cache is returned, and the providers are refreshed from the server
+   * in the background.
    */
 
   @Test
@@ -258,15 +327,20 @@ class AccountProviderNYPLRegistryTest {
         parsers = AccountProviderDescriptionCollectionParsers(this.opdsParsers),
         serializers = AccountProviderDescriptionCollectionSerializers(),
         uriProduction = this.server.url("production").toUri(),
-        uriQA = this.server.url("qa").toUri()
+        uriQA = this.server.url("qa").toUri(),
+        refreshExecutor = Executor { runnable -> runnable.run() }
       )
 
+    val updates = LinkedBlockingQueue<AccountProviderSourceType.SourceResult>()
+    provider.updates.subscribe { result -> updates.add(result) }
+
     this.run {
       val result = provider.load(this.context, true)
       this.logger.debug("status: {}", result)
       val success = result as SourceSucceeded
 
       Assertions.assertEquals(43, success.results.size)
+      Assertions.assertEquals(0, updates.size)
     }
 
     this.server.enqueue(
@@ -284,16 +358,100 @@ class AccountProviderNYPLRegistryTest {
     // Expire the cache
     DateTimeUtils.setCurrentMillisOffset(1000 * 43200)
 
+    try {
+      this.run {
+        val result = provider.load(this.context, true)
+        this.logger.debug("status: {}", result)
+        val success = result as SourceSucceeded
+
+        Assertions.assertEquals(43, success.results.size)
+      }
+
+      this.run {
+        val update = updates.poll() as SourceSucceeded
+        Assertions.assertEquals(182, update.results.size)
+        Assertions.assertEquals(0, updates.size)
+      }
+
+      this.run {
+        val result = provider.load(this.context, true)
+        this.logger.debug("status: {}", result)
+        val success = result as SourceSucceeded
+
+        Assertions.assertEquals(182, success.results.size)
+        Assertions.assertEquals(0, updates.size)
+        Assertions.assertEquals(1, this.server.requestCount)
+      }
+    } finally {
+      // Reset
+      DateTimeUtils.setCurrentMillisSystem()
+    }
+  }
+
+  /**
+   * Refreshing an expired disk cache uses a conditional request, and nothing is published
+   * if the server reports that the providers have not been modified.
+   */
+
+  @Test
+  fun testProvidersRefreshNotModified() {
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("ETag", "\"abcd\"")
+        .setBody(Buffer().readFrom(this.readAllFromResource("libraryregistry.json")))
+    )
+
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(304)
+    )
+
+    val provider =
+      AccountProviderSourceNYPLRegistry(
+        http = this.http,
+        authDocumentParsers = AuthenticationDocumentParsers(),
+        parsers = AccountProviderDescriptionCollectionParsers(this.opdsParsers),
+        serializers = AccountProviderDescriptionCollectionSerializers(),
+        uriProduction = this.server.url("production").toUri(),
+        uriQA = this.server.url("qa").toUri(),
+        refreshExecutor = Executor { runnable -> runnable.run() }
+      )
+
+    val updates = LinkedBlockingQueue<AccountProviderSourceType.SourceResult>()
+    provider.updates.subscribe { result -> updates.add(result) }
+
     this.run {
-      val result = provider.load(this.context, true)
-      this.logger.debug("status: {}", result)
+      val result = provider.load(this.context, false)
       val success = result as SourceSucceeded
-
-      Assertions.assertEquals(182, success.results.size)
+      Assertions.assertEquals(43, success.results.size)
     }
 
-    // Reset
-    DateTimeUtils.setCurrentMillisSystem()
+    // Expire the cache
+    DateTimeUtils.setCurrentMillisOffset(1000 * 43200)
+
+    try {
+      this.run {
+        val result = provider.load(this.context, false)
+        val success = result as SourceSucceeded
+        Assertions.assertEquals(43, success.results.size)
+      }
+
+      this.run {
+        val result = provider.load(this.context, false)
+        val success = result as SourceSucceeded
+        Assertions.assertEquals(43, success.results.size)
+      }
+
+      this.server.takeRequest()
+      val conditional = this.server.takeRequest()
+      Assertions.assertEquals("\"abcd\"", conditional.getHeader("If-None-Match"))
+      Assertions.assertEquals(2, this.server.requestCount)
+      Assertions.assertEquals(0, updates.size)
+    } finally {
+      // Reset
+      DateTimeUtils.setCurrentMillisSystem()
+    }
   }
 
   /**
@@ -12,6 +12,7 @@ import org.nypl.simplified.accounts.api.AccountAuthenticationCredentials
 import org.nypl.simplified.accounts.api.AccountEvent
 import org.nypl.simplified.accounts.api.AccountLoginState
 import org.nypl.simplified.accounts.api.AccountPassword
+import org.nypl.simplified.accounts.api.AccountPreferences
 import org.nypl.simplified.accounts.api.AccountUsername
 import org.nypl.simplified.accounts.database.AccountsDatabase
 import org.nypl.simplified.accounts.database.api.AccountsDatabaseDuplicateProviderException
@@ -28,6 +29,10 @@ import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.IOException
 import java.net.URI
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 abstract class AccountsDatabaseContract {
 
@@ -489,4 +494,183 @@ abstract class AccountsDatabaseContract {
     val acc0 = db0.createAccount(provider0)
     acc0.setAccountProvider(provider1)
   }
+
+  /**
+   * Setting preferences does not rewrite the account description, and the preferences
+   * survive reopening the database.
+   */
+
+  @Test
+  @Throws(Exception::class)
+  fun testSetPreferencesReopen() {
+    val fileTemp = DirectoryUtilities.directoryCreateTemporary()
+    val fileProfiles = File(fileTemp, "profiles")
+    fileProfiles.mkdirs()
+    val f_p = File(fileProfiles, "0")
+    f_p.mkdirs()
+    val f_acc = File(f_p, "accounts")
+
+    val db0 = AccountsDatabase.open(
+      this.context(),
+      this.accountEvents,
+      this.bookDatabases(),
+      BookFormatsTesting.supportsEverything,
+      this.credentialStore,
+      this.accountProviders,
+      f_acc
+    )
+
+    val provider0 =
+      MockAccountProviders.fakeProvider("http://www.example.com/accounts0/")
+    val acc0 = db0.createAccount(provider0)
+
+    val accountFile = File(acc0.directory, "account.json")
+    val accountText = FileUtilities.fileReadUTF8(accountFile)
+
+    val preferences =
+      AccountPreferences(
+        bookmarkSyncingPermitted = true,
+        catalogURIOverride = URI.create("https://www.example.com/catalog"),
+        announcementsAcknowledged = listOf(UUID.randomUUID())
+      )
+
+    acc0.setPreferences(preferences.copy(bookmarkSyncingPermitted = false))
+    acc0.setPreferences(preferences)
+    Assertions.assertEquals(preferences, acc0.preferences)
+    Assertions.assertEquals(accountText, FileUtilities.fileReadUTF8(accountFile))
+
+    val db1 = AccountsDatabase.open(
+      this.context(),
+      this.accountEvents,
+      this.bookDatabases(),
+      BookFormatsTesting.supportsEverything,
+      this.credentialStore,
+      this.accountProviders,
+      f_acc
+    )
+
+    val acr0 = db1.accounts()[acc0.id]!!
+    Assertions.assertEquals(preferences, acr0.preferences)
+  }
+
+  /**
+   * Preferences that are older than the account description are ignored on reopening, so
+   * a stale preferences file left behind by a failed write does not win.
+   */
+
+  @Test
+  @Throws(Exception::class)
+  fun testSetPreferencesStaleIgnored() {
+    val fileTemp = DirectoryUtilities.directoryCreateTemporary()
+    val fileProfiles = File(fileTemp, "profiles")
+    fileProfiles.mkdirs()
+    val f_p = File(fileProfiles, "0")
+    f_p.mkdirs()
+    val f_acc = File(f_p, "accounts")
+
+    val db0 = AccountsDatabase.open(
+      this.context(),
+      this.accountEvents,
+      this.bookDatabases(),
+      BookFormatsTesting.supportsEverything,
+      this.credentialStore,
+      this.accountProviders,
+      f_acc
+    )
+
+    val provider0 =
+      MockAccountProviders.fakeProvider("http://www.example.com/accounts0/")
+    val acc0 = db0.createAccount(provider0)
+
+    val accountFile = File(acc0.directory, "account.json")
+    val preferencesFile = File(acc0.directory, "preferences.json")
+
+    val preferencesOld =
+      AccountPreferences(
+        bookmarkSyncingPermitted = false,
+        catalogURIOverride = null,
+        announcementsAcknowledged = listOf()
+      )
+    val preferencesNew =
+      preferencesOld.copy(bookmarkSyncingPermitted = true)
+
+    acc0.setPreferences(preferencesOld.copy(bookmarkSyncingPermitted = true))
+    acc0.setPreferences(preferencesOld)
+    db0.flush()
+    val preferencesOldText = FileUtilities.fileReadUTF8(preferencesFile)
+
+    /*
+     * Simulate a failed preferences write followed by a write of the account description.
+     */
+
+    acc0.setPreferences(preferencesNew)
+    acc0.setAccountProvider(provider0)
+    db0.flush()
+    FileUtilities.fileWriteUTF8(preferencesFile, preferencesOldText)
+    preferencesFile.setLastModified(accountFile.lastModified() - 60_000L)
+
+    val db1 = AccountsDatabase.open(
+      this.context(),
+      this.accountEvents,
+      this.bookDatabases(),
+      BookFormatsTesting.supportsEverything,
+      this.credentialStore,
+      this.accountProviders,
+      f_acc
+    )
+
+    val acr0 = db1.accounts()[acc0.id]!!
+    Assertions.assertEquals(preferencesNew, acr0.preferences)
+  }
+
+  /**
+   * Concurrent attempts to create an account for the same provider create exactly one account.
+   */
+
+  @Test
+  @Throws(Exception::class)
+  fun testCreateAccountConcurrentDuplicate() {
+    val fileTemp = DirectoryUtilities.directoryCreateTemporary()
+    val fileProfiles = File(fileTemp, "profiles")
+    fileProfiles.mkdirs()
+    val f_p = File(fileProfiles, "0")
+    f_p.mkdirs()
+    val f_acc = File(f_p, "accounts")
+
+    val db0 = AccountsDatabase.open(
+      this.context(),
+      this.accountEvents,
+      this.bookDatabases(),
+      BookFormatsTesting.supportsEverything,
+      this.credentialStore,
+      this.accountProviders,
+      f_acc
+    )
+
+    val provider0 =
+      MockAccountProviders.fakeProvider("http://www.example.com/accounts0/")
+
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val start = CountDownLatch(1)
+      val results =
+        (0 until 4).map {
+          executor.submit<Boolean> {
+            start.await()
+            try {
+              db0.createAccount(provider0)
+              true
+            } catch (e: AccountsDatabaseDuplicateProviderException) {
+              false
+            }
+          }
+        }
+
+      start.countDown()
+      Assertions.assertEquals(1, results.count { result -> result.get(10L, TimeUnit.SECONDS) })
+      Assertions.assertEquals(1, db0.accounts().size)
+    } finally {
+      executor.shutdown()
+    }
+  }
 }
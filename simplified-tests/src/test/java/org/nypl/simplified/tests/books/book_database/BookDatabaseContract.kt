@@ -251,6 +251,30 @@ abstract class BookDatabaseContract {
     Assertions.assertTrue(cover.isFile)
   }
 
+  /**
+   * Updating an existing entry preserves its cover and thumbnail.
+   */
+
+  @Test
+  fun testEntryUpdatePreservesCover() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val feedEntry: OPDSAcquisitionFeedEntry = this.acquisitionFeedEntryWithEPUB()
+    val bookID = BookID.newFromText("abcd")
+    val databaseEntry0 = database0.createOrUpdate(bookID, feedEntry)
+    databaseEntry0.setCover(copyToTempFile("/org/nypl/simplified/tests/books/empty.jpg"))
+    databaseEntry0.setThumbnail(copyToTempFile("/org/nypl/simplified/tests/books/empty.jpg"))
+
+    val databaseEntry1 = database0.createOrUpdate(bookID, feedEntry)
+    val book1 = databaseEntry1.book
+    Assertions.assertTrue(book1.cover!!.isFile)
+    Assertions.assertTrue(book1.thumbnail!!.isFile)
+  }
+
   /**
    * Creating a book database entry for a feed that contains an EPUB acquisition results in an
    * EPUB format. Reopening the database shows that the data is preserved.
@@ -623,6 +647,36 @@ abstract class BookDatabaseContract {
     databaseEntry.delete()
   }
 
+  /**
+   * Creating a book database entry with an epub format, and moving in a book, works.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  fun testEntryEPUBMoveIn() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val feedEntry: OPDSAcquisitionFeedEntry = this.acquisitionFeedEntryWithEPUB()
+    val bookID = BookID.newFromText("abcd")
+    val databaseEntry = database0.createOrUpdate(bookID, feedEntry)
+
+    val format = databaseEntry.findFormatHandle(BookDatabaseEntryFormatHandleEPUB::class.java)
+    format!!
+
+    val file = databaseEntry.temporaryFile()
+    copyToTempFile("/org/nypl/simplified/tests/books/empty.epub").copyTo(file, overwrite = true)
+    val size = file.length()
+    format.moveInBook(file)
+
+    Assertions.assertFalse(file.exists(), "Source file was moved")
+    Assertions.assertEquals(size, format.format.file!!.length())
+  }
+
   /**
    * Creating a book database entry with an pdf format, and copying in a book and then
    * deleting the local book data repeatedly, works.
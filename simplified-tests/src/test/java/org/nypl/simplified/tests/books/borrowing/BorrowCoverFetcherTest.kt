@@ -0,0 +1,202 @@
+package org.nypl.simplified.tests.books.borrowing
+
+import android.content.Context
+import com.io7m.jfunctional.Option
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.librarysimplified.http.api.LSHTTPClientConfiguration
+import org.librarysimplified.http.api.LSHTTPClientType
+import org.librarysimplified.http.vanilla.LSHTTPClients
+import org.mockito.Mockito
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.api.Book
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.book_registry.BookRegistry
+import org.nypl.simplified.books.book_registry.BookRegistryType
+import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.books.borrowing.BorrowCoverFetcher
+import org.nypl.simplified.books.formats.api.StandardFormatNames.genericEPUBFiles
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
+import org.nypl.simplified.tests.TestDirectories
+import org.nypl.simplified.tests.mocking.MockBookDatabaseEntry
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.net.URI
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class BorrowCoverFetcherTest {
+
+  private lateinit var accountID: AccountID
+  private lateinit var bookRegistry: BookRegistryType
+  private lateinit var fetcher: BorrowCoverFetcher
+  private lateinit var httpClient: LSHTTPClientType
+  private lateinit var webServer: MockWebServer
+
+  @Before
+  fun testSetup() {
+    this.webServer = MockWebServer()
+    this.webServer.start()
+
+    this.httpClient =
+      LSHTTPClients()
+        .create(
+          context = Mockito.mock(Context::class.java),
+          configuration = LSHTTPClientConfiguration(
+            applicationName = "simplified-tests",
+            applicationVersion = "999.999.0",
+            tlsOverrides = null,
+            timeout = Pair(5L, TimeUnit.SECONDS)
+          )
+        )
+
+    this.accountID = AccountID.generate()
+    this.bookRegistry = BookRegistry.create()
+    this.fetcher =
+      BorrowCoverFetcher(
+        httpClient = this.httpClient,
+        bookRegistry = this.bookRegistry,
+        executor = Executor { runnable -> runnable.run() },
+        temporaryDirectory = TestDirectories.temporaryDirectory()
+      )
+  }
+
+  @After
+  fun tearDown() {
+    this.webServer.close()
+  }
+
+  private fun entryOf(
+    cover: URI?,
+    thumbnail: URI?
+  ): MockBookDatabaseEntry {
+    val feedEntry =
+      BorrowTestFeeds.opdsLoanedFeedEntryOfType(this.webServer, genericEPUBFiles.fullType)
+    val feedEntryWithCovers =
+      OPDSAcquisitionFeedEntry.newBuilderFrom(feedEntry)
+        .setCoverOption(Option.of(cover))
+        .setThumbnailOption(Option.of(thumbnail))
+        .build()
+
+    val book =
+      Book(
+        id = BookID.newFromOPDSAndAccount(feedEntryWithCovers.id, this.accountID),
+        account = this.accountID,
+        cover = null,
+        thumbnail = null,
+        entry = feedEntryWithCovers,
+        formats = listOf()
+      )
+
+    this.bookRegistry.update(BookWithStatus(book, BookStatus.fromBook(book)))
+    return MockBookDatabaseEntry(book)
+  }
+
+  private fun imageResponse(): MockResponse {
+    return MockResponse()
+      .setResponseCode(200)
+      .setHeader("Content-Type", "image/png")
+      .setBody("not really an image")
+  }
+
+  /**
+   * Fetched covers and thumbnails are stored in the database and published.
+   */
+
+  @Test
+  fun testFetchSuccess() {
+    val entry =
+      this.entryOf(
+        cover = this.webServer.url("/cover.png").toUri(),
+        thumbnail = this.webServer.url("/thumbnail.png").toUri()
+      )
+
+    this.webServer.enqueue(this.imageResponse())
+    this.webServer.enqueue(this.imageResponse())
+
+    this.fetcher.fetch(entry)
+
+    assertEquals("/cover.png", this.webServer.takeRequest().path)
+    assertEquals("/thumbnail.png", this.webServer.takeRequest().path)
+    assertNotNull(entry.coverField)
+    assertNotNull(entry.thumbnailField)
+
+    val published = this.bookRegistry.bookOrNull(entry.book.id)!!.book
+    assertNotNull(published.cover)
+    assertNotNull(published.thumbnail)
+  }
+
+  /**
+   * A book without a thumbnail link has its thumbnail taken from the cover.
+   */
+
+  @Test
+  fun testThumbnailFromCover() {
+    val entry =
+      this.entryOf(
+        cover = this.webServer.url("/cover.png").toUri(),
+        thumbnail = null
+      )
+
+    this.webServer.enqueue(this.imageResponse())
+    this.webServer.enqueue(this.imageResponse())
+
+    this.fetcher.fetch(entry)
+
+    assertEquals("/cover.png", this.webServer.takeRequest().path)
+    assertEquals("/cover.png", this.webServer.takeRequest().path)
+    assertNotNull(entry.coverField)
+    assertNotNull(entry.thumbnailField)
+  }
+
+  /**
+   * A failed fetch stores nothing, so that the generated cover continues to be used.
+   */
+
+  @Test
+  fun testFetchFailedFallsBackToGenerated() {
+    val entry =
+      this.entryOf(
+        cover = this.webServer.url("/cover.png").toUri(),
+        thumbnail = this.webServer.url("/thumbnail.png").toUri()
+      )
+
+    this.webServer.enqueue(MockResponse().setResponseCode(404))
+    this.webServer.enqueue(MockResponse().setResponseCode(404))
+
+    this.fetcher.fetch(entry)
+
+    assertEquals(2, this.webServer.requestCount)
+    assertNull(entry.coverField)
+    assertNull(entry.thumbnailField)
+
+    val published = this.bookRegistry.bookOrNull(entry.book.id)!!.book
+    assertNull(published.cover)
+    assertNull(published.thumbnail)
+  }
+
+  /**
+   * A book without cover links is left with the generated cover, and nothing is fetched.
+   */
+
+  @Test
+  fun testNoCoverLinks() {
+    val entry = this.entryOf(cover = null, thumbnail = null)
+
+    this.fetcher.fetch(entry)
+
+    assertEquals(0, this.webServer.requestCount)
+    assertNull(entry.coverField)
+    assertNull(entry.thumbnailField)
+  }
+}
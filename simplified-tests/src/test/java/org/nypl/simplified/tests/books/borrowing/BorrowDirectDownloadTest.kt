@@ -33,7 +33,9 @@ import org.nypl.simplified.books.book_registry.BookStatus.FailedDownload
 import org.nypl.simplified.books.book_registry.BookStatus.Loaned
 import org.nypl.simplified.books.book_registry.BookStatus.Loaned.LoanedDownloaded
 import org.nypl.simplified.books.book_registry.BookStatusEvent
+import org.nypl.simplified.books.borrowing.BorrowDownloadConfiguration
 import org.nypl.simplified.books.borrowing.internal.BorrowDirectDownload
+import org.nypl.simplified.books.borrowing.internal.BorrowPartialDownload
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.httpConnectionFailed
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.httpContentTypeIncompatible
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.httpRequestFailed
@@ -55,6 +57,7 @@ import org.nypl.simplified.tests.mocking.MockBorrowContext
 import org.nypl.simplified.tests.mocking.MockBundledContentResolver
 import org.nypl.simplified.tests.mocking.MockContentResolver
 import org.slf4j.LoggerFactory
+import java.io.File
 import java.net.URI
 import java.util.concurrent.TimeUnit
 
@@ -459,4 +462,324 @@ class BorrowDirectDownloadTest {
     assertEquals(LoanedDownloaded::class.java, this.bookStates.removeAt(0).javaClass)
     assertEquals(0, this.bookStates.size)
   }
+
+  /**
+   * An interrupted download is resumed from where it left off.
+   */
+
+  @Test
+  fun testDownloadResumesEPUB() {
+    val task = BorrowDirectDownload.createSubtask()
+    val uri = this.webServer.url("/book.epub").toUri()
+
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val partial =
+      BorrowPartialDownload.open(File(this.context.cacheDirectory(), "downloads"), this.bookID, uri)
+    partial.file.writeText("EP")
+    partial.saveValidators(entityTag = "\"abcd\"", lastModified = null)
+
+    val response =
+      MockResponse()
+        .setResponseCode(206)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("Content-Range", "bytes 2-4/5")
+        .setBody("UB!")
+
+    this.webServer.enqueue(response)
+
+    task.execute(this.context)
+
+    val sent = this.webServer.takeRequest()
+    assertEquals("bytes=2-", sent.getHeader("Range"))
+    assertEquals("\"abcd\"", sent.getHeader("If-Range"))
+
+    this.verifyBookRegistryHasStatus(LoanedDownloaded::class.java)
+    assertEquals("EPUB!", this.epubHandle.bookData)
+    Assertions.assertFalse(partial.file.exists())
+  }
+
+  /**
+   * An interrupted download is restarted if the server indicates that the content has changed.
+   */
+
+  @Test
+  fun testDownloadResumeRestartsEPUB() {
+    val task = BorrowDirectDownload.createSubtask()
+    val uri = this.webServer.url("/book.epub").toUri()
+
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val partial =
+      BorrowPartialDownload.open(File(this.context.cacheDirectory(), "downloads"), this.bookID, uri)
+    partial.file.writeText("XX")
+    partial.saveValidators(entityTag = "\"abcd\"", lastModified = null)
+
+    val response =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("ETag", "\"efgh\"")
+        .setBody("EPUB!")
+
+    this.webServer.enqueue(response)
+
+    task.execute(this.context)
+
+    this.verifyBookRegistryHasStatus(LoanedDownloaded::class.java)
+    assertEquals("EPUB!", this.epubHandle.bookData)
+    Assertions.assertFalse(partial.file.exists())
+  }
+
+  /**
+   * A partial download without validators is not resumed.
+   */
+
+  @Test
+  fun testDownloadNoValidatorsNotResumed() {
+    val task = BorrowDirectDownload.createSubtask()
+    val uri = this.webServer.url("/book.epub").toUri()
+
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val partial =
+      BorrowPartialDownload.open(File(this.context.cacheDirectory(), "downloads"), this.bookID, uri)
+    partial.file.writeText("XX")
+
+    val response =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setBody("EPUB!")
+
+    this.webServer.enqueue(response)
+
+    task.execute(this.context)
+
+    val sent = this.webServer.takeRequest()
+    assertEquals(null, sent.getHeader("Range"))
+    assertEquals("EPUB!", this.epubHandle.bookData)
+  }
+
+  /**
+   * A partial download with empty validators is not resumed, and no empty `If-Range` header
+   * is sent.
+   */
+
+  @Test
+  fun testDownloadEmptyValidatorsNotResumed() {
+    val task = BorrowDirectDownload.createSubtask()
+    val uri = this.webServer.url("/book.epub").toUri()
+
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val partial =
+      BorrowPartialDownload.open(File(this.context.cacheDirectory(), "downloads"), this.bookID, uri)
+    partial.file.writeText("XX")
+    partial.saveValidators(entityTag = "", lastModified = "")
+
+    val response =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setBody("EPUB!")
+
+    this.webServer.enqueue(response)
+
+    task.execute(this.context)
+
+    val sent = this.webServer.takeRequest()
+    assertEquals(null, sent.getHeader("Range"))
+    assertEquals(null, sent.getHeader("If-Range"))
+    assertEquals("EPUB!", this.epubHandle.bookData)
+  }
+
+  /**
+   * A file is downloaded in concurrent segments if the server supports range requests.
+   */
+
+  @Test
+  fun testDownloadSegmentedEPUB() {
+    val task = BorrowDirectDownload.createSubtask()
+
+    this.context.currentURIField =
+      this.webServer.url("/book.epub").toUri()
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+    this.context.downloadConfiguration =
+      BorrowDownloadConfiguration(segmentCount = 2, segmentedSizeThreshold = 0L)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val response0 =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("Accept-Ranges", "bytes")
+        .setHeader("ETag", "\"abcd\"")
+        .setBody("EPUB!")
+
+    val response1 =
+      MockResponse()
+        .setResponseCode(206)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("Content-Range", "bytes 2-4/5")
+        .setBody("UB!")
+
+    this.webServer.enqueue(response0)
+    this.webServer.enqueue(response1)
+
+    task.execute(this.context)
+
+    val sent0 = this.webServer.takeRequest()
+    assertEquals(null, sent0.getHeader("Range"))
+    val sent1 = this.webServer.takeRequest()
+    assertEquals("bytes=2-4", sent1.getHeader("Range"))
+    assertEquals("\"abcd\"", sent1.getHeader("If-Range"))
+
+    this.verifyBookRegistryHasStatus(LoanedDownloaded::class.java)
+    assertEquals("EPUB!", this.epubHandle.bookData)
+  }
+
+  /**
+   * A segmented download fails if the server does not honour a range request. The partial
+   * download is truncated to the contiguous data that was written, so it can be resumed.
+   */
+
+  @Test
+  fun testDownloadSegmentedRangeIgnored() {
+    val task = BorrowDirectDownload.createSubtask()
+    val uri = this.webServer.url("/book.epub").toUri()
+
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+    this.context.downloadConfiguration =
+      BorrowDownloadConfiguration(segmentCount = 2, segmentedSizeThreshold = 0L)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val response0 =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("Accept-Ranges", "bytes")
+        .setHeader("ETag", "\"abcd\"")
+        .setBody("EPUB!")
+
+    val response1 =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setBody("EPUB!")
+
+    this.webServer.enqueue(response0)
+    this.webServer.enqueue(response1)
+
+    try {
+      task.execute(this.context)
+      Assertions.fail()
+    } catch (e: Exception) {
+      this.logger.error("exception: ", e)
+    }
+
+    assertEquals(httpConnectionFailed, this.taskRecorder.finishFailure<Unit>().lastErrorCode)
+    assertEquals(null, this.epubHandle.bookData)
+
+    val partial =
+      BorrowPartialDownload.open(File(this.context.cacheDirectory(), "downloads"), this.bookID, uri)
+    assertEquals("EP", partial.file.readText())
+    assertEquals("\"abcd\"", partial.validator)
+  }
+
+  /**
+   * A partial download is deleted if the server rejects the resumed request.
+   */
+
+  @Test
+  fun testDownloadResumeRejectedDeletesPartial() {
+    val task = BorrowDirectDownload.createSubtask()
+    val uri = this.webServer.url("/book.epub").toUri()
+
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    val partial =
+      BorrowPartialDownload.open(
+        BorrowPartialDownload.directoryOf(this.context.cacheDirectory()), this.bookID, uri
+      )
+    partial.file.writeText("EP")
+    partial.saveValidators(entityTag = "\"abcd\"", lastModified = null)
+
+    this.webServer.enqueue(MockResponse().setResponseCode(403))
+
+    try {
+      task.execute(this.context)
+      Assertions.fail()
+    } catch (e: Exception) {
+      this.logger.error("exception: ", e)
+    }
+
+    assertEquals(httpRequestFailed, this.taskRecorder.finishFailure<Unit>().lastErrorCode)
+    Assertions.assertFalse(partial.file.exists())
+  }
+
+  /**
+   * Partial downloads are deleted per-book, and when they expire.
+   */
+
+  @Test
+  fun testPartialDownloadsDeleted() {
+    val directory = BorrowPartialDownload.directoryOf(this.context.cacheDirectory())
+    val otherBookID = BookID.create("b")
+    val uri0 = URI.create("http://example.com/0.epub")
+    val uri1 = URI.create("http://example.com/1.epub")
+
+    val partial0 = BorrowPartialDownload.open(directory, this.bookID, uri0)
+    val partial1 = BorrowPartialDownload.open(directory, this.bookID, uri1)
+    val partial2 = BorrowPartialDownload.open(directory, otherBookID, uri0)
+    listOf(partial0, partial1, partial2).forEach { partial ->
+      partial.file.writeText("EP")
+      partial.saveValidators(entityTag = "\"abcd\"", lastModified = null)
+    }
+
+    BorrowPartialDownload.deleteAll(directory, this.bookID)
+    Assertions.assertFalse(partial0.file.exists())
+    Assertions.assertFalse(partial1.file.exists())
+    Assertions.assertTrue(partial2.file.exists())
+
+    assertEquals(0, BorrowPartialDownload.deleteExpired(directory, 60_000L))
+    assertEquals(
+      2,
+      BorrowPartialDownload.deleteExpired(
+        directory = directory,
+        maximumAgeMilliseconds = 60_000L,
+        nowMilliseconds = System.currentTimeMillis() + 120_000L
+      )
+    )
+    Assertions.assertFalse(partial2.file.exists())
+  }
 }
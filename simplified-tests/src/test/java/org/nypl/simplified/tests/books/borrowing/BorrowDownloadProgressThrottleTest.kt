@@ -0,0 +1,106 @@
+package org.nypl.simplified.tests.books.borrowing
+
+import org.joda.time.Instant
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.books.borrowing.internal.BorrowDownloadProgressThrottle
+import org.nypl.simplified.books.borrowing.internal.BorrowUnitsPerSecond
+
+class BorrowDownloadProgressThrottleTest {
+
+  private var timeNow = 0L
+  private val clock = { Instant(this.timeNow) }
+
+  @BeforeEach
+  fun testSetup() {
+    this.timeNow = 1_000_000L
+  }
+
+  /**
+   * Progress values are dropped until both the time and percent thresholds are reached.
+   */
+
+  @Test
+  fun testThrottleTimeAndPercent() {
+    val throttle = BorrowDownloadProgressThrottle(this.clock, 500L, 1.0)
+
+    assertTrue(throttle.shouldPublish(0L, 1000L))
+    assertFalse(throttle.shouldPublish(100L, 1000L))
+
+    this.timeNow += 500L
+    assertTrue(throttle.shouldPublish(100L, 1000L))
+
+    this.timeNow += 500L
+    assertFalse(throttle.shouldPublish(105L, 1000L))
+    assertTrue(throttle.shouldPublish(110L, 1000L))
+  }
+
+  /**
+   * The final progress value, and changes of phase, are always published.
+   */
+
+  @Test
+  fun testThrottleFinalAndPhases() {
+    val throttle = BorrowDownloadProgressThrottle(this.clock, 500L, 1.0)
+
+    assertTrue(throttle.shouldPublish(0L, null))
+    assertTrue(throttle.shouldPublish(0L, 1000L))
+    assertFalse(throttle.shouldPublish(500L, 1000L))
+    assertTrue(throttle.shouldPublish(1000L, 1000L))
+    assertFalse(throttle.shouldPublish(1000L, 1000L))
+    assertTrue(throttle.shouldPublish(0L, 100L))
+    assertFalse(throttle.shouldPublish(1L, 100L))
+
+    throttle.reset()
+    assertTrue(throttle.shouldPublish(1L, 100L))
+  }
+
+  /**
+   * A changed message is always published, even if the sizes have not changed.
+   */
+
+  @Test
+  fun testThrottleMessages() {
+    val throttle = BorrowDownloadProgressThrottle(this.clock, 500L, 1.0)
+
+    assertTrue(throttle.shouldPublish(0L, 100L, "Requesting download..."))
+    assertTrue(throttle.shouldPublish(50L, 100L, "Fetching manifest..."))
+    assertTrue(throttle.shouldPublish(50L, 100L, "Fulfilling..."))
+    assertFalse(throttle.shouldPublish(50L, 100L, "Fulfilling..."))
+    assertFalse(throttle.shouldPublish(51L, 100L, "Fulfilling..."))
+    assertTrue(throttle.shouldPublish(null, null, "Saving..."))
+    assertFalse(throttle.shouldPublish(null, null, "Saving..."))
+  }
+
+  /**
+   * The units per second counter averages over the completed seconds in its window.
+   */
+
+  @Test
+  fun testUnitsPerSecond() {
+    val counter = BorrowUnitsPerSecond(this.clock, 3)
+    assertEquals(0L, counter.now)
+
+    assertTrue(counter.update(100L))
+    assertFalse(counter.update(100L))
+    assertEquals(0L, counter.now)
+
+    /*
+     * Only one second has completed, so the rate is not diluted by the rest of the window.
+     */
+
+    this.timeNow += 1000L
+    assertTrue(counter.update(400L))
+    assertEquals(200L, counter.now)
+
+    this.timeNow += 1000L
+    assertTrue(counter.update(0L))
+    assertEquals(300L, counter.now)
+
+    this.timeNow += 10_000L
+    assertEquals(0L, counter.now)
+  }
+}
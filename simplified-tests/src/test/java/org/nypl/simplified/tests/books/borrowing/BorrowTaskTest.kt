@@ -48,6 +48,7 @@ import org.nypl.simplified.books.book_registry.BookStatus.Loaned.LoanedDownloade
 import org.nypl.simplified.books.book_registry.BookStatus.Loaned.LoanedNotDownloaded
 import org.nypl.simplified.books.book_registry.BookStatus.RequestingLoan
 import org.nypl.simplified.books.book_registry.BookStatusEvent
+import org.nypl.simplified.books.borrowing.BorrowDownloadConfiguration
 import org.nypl.simplified.books.borrowing.BorrowRequest
 import org.nypl.simplified.books.borrowing.BorrowRequirements
 import org.nypl.simplified.books.borrowing.BorrowSubtasks
@@ -163,6 +164,8 @@ class BorrowTaskTest {
         cacheDirectory = this.cacheDirectory,
         clock = { Instant.now() },
         contentResolver = this.contentResolver,
+        coverFetcher = null,
+        downloadConfiguration = BorrowDownloadConfiguration(),
         httpClient = this.httpClient,
         profiles = this.profiles,
         services = this.services,
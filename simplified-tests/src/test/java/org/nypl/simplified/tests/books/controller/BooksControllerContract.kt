@@ -204,7 +204,8 @@ abstract class BooksControllerContract {
       executorService = exec,
       accountEvents = accountEvents,
       profileEvents = profileEvents,
-      cacheDirectory = this.cacheDirectory
+      cacheDirectory = this.cacheDirectory,
+      borrowQueueFile = File(this.cacheDirectory, "borrows.json")
     )
   }
 
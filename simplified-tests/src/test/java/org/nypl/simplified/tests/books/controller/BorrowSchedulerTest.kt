@@ -0,0 +1,521 @@
+package org.nypl.simplified.tests.books.controller
+
+import com.google.common.util.concurrent.MoreExecutors
+import com.io7m.jfunctional.Option
+import io.reactivex.Observable
+import io.reactivex.subjects.BehaviorSubject
+import one.irradia.mime.vanilla.MIMEParser
+import org.joda.time.DateTime
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.borrowing.BorrowRequest
+import org.nypl.simplified.books.borrowing.BorrowTaskType
+import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes
+import org.nypl.simplified.books.controller.BorrowScheduler
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.networkconnectivity.api.NetworkBandwidth
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
+import org.nypl.simplified.opds.core.OPDSAcquisition
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
+import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess
+import org.nypl.simplified.profiles.api.ProfileID
+import org.nypl.simplified.taskrecorder.api.TaskRecorder
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.nypl.simplified.tests.TestDirectories
+import java.io.File
+import java.net.URI
+import java.util.Collections
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class BorrowSchedulerTest {
+
+  private lateinit var accountID: AccountID
+  private lateinit var profileID: ProfileID
+  private lateinit var executor: ExecutorService
+  private lateinit var queueFile: File
+  private lateinit var started: MutableList<String>
+  private lateinit var latches: ConcurrentHashMap<String, CountDownLatch>
+  private lateinit var cancelledBooks: MutableList<BookID>
+  private lateinit var failing: MutableSet<String>
+  private lateinit var failed: MutableList<String>
+
+  private inner class BlockingTask(
+    private val request: BorrowRequest.Start
+  ) : BorrowTaskType {
+
+    @Volatile
+    var cancelled = false
+
+    override fun execute(): TaskResult<*> {
+      val id = this.request.opdsAcquisitionFeedEntry.id
+      this@BorrowSchedulerTest.started.add(id)
+      this@BorrowSchedulerTest.latchOf(id).await(10L, TimeUnit.SECONDS)
+      if (this@BorrowSchedulerTest.failing.remove(id)) {
+        this@BorrowSchedulerTest.failed.add(id)
+        val recorder = TaskRecorder.create()
+        recorder.beginNewStep("Downloading...")
+        recorder.currentStepFailed("Connection lost", BorrowErrorCodes.httpConnectionFailed)
+        return recorder.finishFailure<Unit>()
+      }
+      return TaskRecorder.create().finishSuccess(Unit)
+    }
+
+    override fun cancel() {
+      this.cancelled = true
+      this@BorrowSchedulerTest.latchOf(this.request.opdsAcquisitionFeedEntry.id).countDown()
+    }
+  }
+
+  @BeforeEach
+  fun setUp() {
+    this.accountID = AccountID(UUID.randomUUID())
+    this.profileID = ProfileID(UUID.randomUUID())
+    this.executor = Executors.newCachedThreadPool()
+    this.queueFile = File(TestDirectories.temporaryDirectory(), "borrows.json")
+    this.started = Collections.synchronizedList(mutableListOf())
+    this.latches = ConcurrentHashMap()
+    this.cancelledBooks = Collections.synchronizedList(mutableListOf())
+    this.failing = Collections.synchronizedSet(mutableSetOf())
+    this.failed = Collections.synchronizedList(mutableListOf())
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.latches.values.forEach { latch -> latch.countDown() }
+    this.executor.shutdown()
+  }
+
+  private fun latchOf(id: String): CountDownLatch =
+    this.latches.computeIfAbsent(id) { CountDownLatch(1) }
+
+  private fun requestOf(
+    id: String,
+    host: String
+  ): BorrowRequest.Start {
+    val entry =
+      OPDSAcquisitionFeedEntry.newBuilder(
+        id,
+        "Title $id",
+        DateTime.now(),
+        OPDSAvailabilityOpenAccess.get(Option.none())
+      )
+    entry.addAcquisition(
+      OPDSAcquisition(
+        OPDSAcquisition.Relation.ACQUISITION_OPEN_ACCESS,
+        URI.create("http://$host/$id.epub"),
+        MIMEParser.parseRaisingException("application/epub+zip"),
+        listOf()
+      )
+    )
+    return BorrowRequest.Start(this.accountID, this.profileID, entry.build())
+  }
+
+  private fun bookIDOf(id: String): BookID =
+    BookID.newFromOPDSAndAccount(id, this.accountID)
+
+  private fun schedulerOf(
+    maximumConcurrent: Int,
+    maximumConcurrentPerHost: Int,
+    persistExecutor: Executor = MoreExecutors.directExecutor(),
+    writeQueue: (File, File, String) -> Unit = FileUtilities::fileWriteUTF8Atomically,
+    networkStatus: Observable<NetworkStatus> = Observable.never(),
+    isResumable: (BookID) -> Boolean = { false }
+  ): BorrowScheduler {
+    return BorrowScheduler(
+      executor = this.executor,
+      queueFile = this.queueFile,
+      maximumConcurrent = maximumConcurrent,
+      maximumConcurrentPerHost = maximumConcurrentPerHost,
+      onCancelled = { bookID -> this.cancelledBooks.add(bookID) },
+      persistExecutor = persistExecutor,
+      writeQueue = writeQueue,
+      networkStatus = networkStatus,
+      isResumable = isResumable,
+      taskFactory = { request -> BlockingTask(request) }
+    )
+  }
+
+  private fun awaitStarted(count: Int) {
+    val deadline = System.currentTimeMillis() + 5_000L
+    while (this.started.size < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L)
+    }
+    assertEquals(count, this.started.size, "Started ${this.started}")
+  }
+
+  private fun awaitFailed(count: Int) {
+    val deadline = System.currentTimeMillis() + 5_000L
+    while (this.failed.size < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L)
+    }
+    assertEquals(count, this.failed.size, "Failed ${this.failed}")
+  }
+
+  /**
+   * No more than the global limit of tasks run at once.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testGlobalLimit() {
+    val scheduler = this.schedulerOf(2, 2)
+    val futures =
+      listOf("a", "b", "c", "d").mapIndexed { index, id ->
+        scheduler.submit(this.requestOf(id, "host$index.example.com"))
+      }
+
+    this.awaitStarted(2)
+    Thread.sleep(100L)
+    assertEquals(listOf("a", "b"), this.started.toList())
+
+    this.latchOf("a").countDown()
+    this.awaitStarted(3)
+    assertEquals("c", this.started[2])
+
+    listOf("b", "c", "d").forEach { id -> this.latchOf(id).countDown() }
+    futures.forEach { future -> assertTrue(future.get() is TaskResult.Success) }
+    assertEquals(listOf("a", "b", "c", "d"), this.started.toList())
+  }
+
+  /**
+   * Requests against a busy host wait while requests against other hosts proceed.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testPerHostLimit() {
+    val scheduler = this.schedulerOf(3, 1)
+    scheduler.submit(this.requestOf("a", "one.example.com"))
+    scheduler.submit(this.requestOf("b", "one.example.com"))
+    scheduler.submit(this.requestOf("c", "two.example.com"))
+
+    this.awaitStarted(2)
+    Thread.sleep(100L)
+    assertEquals(listOf("a", "c"), this.started.toList())
+    assertTrue(scheduler.isScheduled(this.bookIDOf("b")))
+
+    this.latchOf("a").countDown()
+    this.awaitStarted(3)
+    assertEquals("b", this.started[2])
+  }
+
+  /**
+   * Prioritized requests start before requests that were submitted earlier.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testPrioritize() {
+    val scheduler = this.schedulerOf(1, 1)
+    scheduler.submit(this.requestOf("a", "example.com"))
+    scheduler.submit(this.requestOf("b", "example.com"))
+    scheduler.submit(this.requestOf("c", "example.com"))
+    this.awaitStarted(1)
+
+    scheduler.prioritize(this.bookIDOf("c"))
+    this.latchOf("a").countDown()
+    this.awaitStarted(2)
+    assertEquals("c", this.started[1])
+
+    this.latchOf("c").countDown()
+    this.awaitStarted(3)
+    assertEquals("b", this.started[2])
+  }
+
+  /**
+   * Submitting a book twice does not start a second task.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testDuplicateSubmission() {
+    val scheduler = this.schedulerOf(2, 2)
+    val future0 = scheduler.submit(this.requestOf("a", "example.com"))
+    val future1 = scheduler.submit(this.requestOf("a", "example.com"))
+    this.awaitStarted(1)
+
+    this.latchOf("a").countDown()
+    future0.get()
+    future1.get()
+    assertEquals(listOf("a"), this.started.toList())
+  }
+
+  /**
+   * Resubmitting a queued book moves it to the front of the queue.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testResubmitPrioritizes() {
+    val scheduler = this.schedulerOf(1, 1)
+    scheduler.submit(this.requestOf("a", "example.com"))
+    scheduler.submit(this.requestOf("b", "example.com"))
+    scheduler.submit(this.requestOf("c", "example.com"))
+    this.awaitStarted(1)
+
+    scheduler.submit(this.requestOf("c", "example.com"))
+    this.latchOf("a").countDown()
+    this.awaitStarted(2)
+    assertEquals("c", this.started[1])
+  }
+
+  /**
+   * Cancelling a queued request removes it without starting it, and fails its future.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testCancelQueued() {
+    val scheduler = this.schedulerOf(1, 1)
+    scheduler.submit(this.requestOf("a", "example.com"))
+    val futureB = scheduler.submit(this.requestOf("b", "example.com"))
+    this.awaitStarted(1)
+
+    scheduler.cancel(this.bookIDOf("b"))
+    val resultB = futureB.get()
+    assertTrue(resultB is TaskResult.Failure)
+    assertEquals(BorrowErrorCodes.borrowCancelled, (resultB as TaskResult.Failure).lastErrorCode)
+    assertFalse(scheduler.isScheduled(this.bookIDOf("b")))
+
+    scheduler.cancel(this.bookIDOf("a"))
+    Thread.sleep(100L)
+    assertEquals(listOf("a"), this.started.toList())
+  }
+
+  /**
+   * Cancelled requests are reported once they have stopped, and completed requests are not.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testCancelNotifies() {
+    val scheduler = this.schedulerOf(1, 1)
+    val futureA = scheduler.submit(this.requestOf("a", "example.com"))
+    scheduler.submit(this.requestOf("b", "example.com"))
+    val futureC = scheduler.submit(this.requestOf("c", "example.com"))
+    this.awaitStarted(1)
+
+    scheduler.cancel(this.bookIDOf("b"))
+    assertEquals(listOf(this.bookIDOf("b")), this.cancelledBooks.toList())
+
+    scheduler.cancel(this.bookIDOf("a"))
+    futureA.get()
+    this.awaitStarted(2)
+    assertEquals(listOf(this.bookIDOf("b"), this.bookIDOf("a")), this.cancelledBooks.toList())
+
+    this.latchOf("c").countDown()
+    futureC.get()
+    assertEquals(2, this.cancelledBooks.size)
+  }
+
+  /**
+   * Submitting, prioritizing and cancelling do not wait for a queue write that is in progress.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testSubmitDoesNotWaitForWrite() {
+    val writing = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val writes = Collections.synchronizedList(mutableListOf<String>())
+    val persistExecutor = Executors.newSingleThreadExecutor()
+
+    try {
+      val scheduler =
+        this.schedulerOf(
+          maximumConcurrent = 1,
+          maximumConcurrentPerHost = 1,
+          persistExecutor = persistExecutor,
+          writeQueue = { file, fileTmp, text ->
+            writing.countDown()
+            release.await(10L, TimeUnit.SECONDS)
+            writes.add(text)
+            FileUtilities.fileWriteUTF8Atomically(file, fileTmp, text)
+          }
+        )
+
+      scheduler.submit(this.requestOf("a", "example.com"))
+      assertTrue(writing.await(5L, TimeUnit.SECONDS))
+
+      scheduler.submit(this.requestOf("b", "example.com"))
+      scheduler.submit(this.requestOf("c", "example.com"))
+      scheduler.prioritize(this.bookIDOf("c"))
+      scheduler.cancel(this.bookIDOf("b"))
+      assertFalse(scheduler.isScheduled(this.bookIDOf("b")))
+      assertEquals(0, writes.size)
+
+      release.countDown()
+      persistExecutor.shutdown()
+      assertTrue(persistExecutor.awaitTermination(5L, TimeUnit.SECONDS))
+
+      val last = writes.last()
+      assertTrue(last.contains("\"c\""), last)
+      assertFalse(last.contains("\"b\""), last)
+    } finally {
+      release.countDown()
+      persistExecutor.shutdownNow()
+    }
+  }
+
+  /**
+   * Concurrent submissions of the same book result in one task.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testConcurrentDuplicateSubmission() {
+    val scheduler = this.schedulerOf(4, 4)
+    val submitters = Executors.newFixedThreadPool(8)
+    val start = CountDownLatch(1)
+
+    try {
+      val futures =
+        (0 until 8).map {
+          submitters.submit<Any> {
+            start.await()
+            scheduler.submit(this.requestOf("a", "example.com"))
+          }
+        }
+      start.countDown()
+      futures.forEach { future -> future.get() }
+
+      this.awaitStarted(1)
+      this.latchOf("a").countDown()
+      Thread.sleep(100L)
+      assertEquals(listOf("a"), this.started.toList())
+    } finally {
+      submitters.shutdownNow()
+    }
+  }
+
+  private val online =
+    NetworkStatus(
+      isAvailable = true,
+      isMetered = false,
+      isWifi = true,
+      bandwidth = NetworkBandwidth.HIGH
+    )
+
+  /**
+   * Queued requests are held while the network is unavailable, and a resumable request that
+   * fails while the network is unavailable is retried, with the same future, once it returns.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testNetworkLossHoldsAndResumes() {
+    val network = BehaviorSubject.createDefault(this.online)
+    val scheduler =
+      this.schedulerOf(
+        maximumConcurrent = 2,
+        maximumConcurrentPerHost = 2,
+        networkStatus = network,
+        isResumable = { bookID -> bookID == this.bookIDOf("a") }
+      )
+
+    this.failing.add("a")
+    val futureA = scheduler.submit(this.requestOf("a", "example.com"))
+    this.awaitStarted(1)
+
+    network.onNext(NetworkStatus.UNAVAILABLE)
+    val futureB = scheduler.submit(this.requestOf("b", "example.com"))
+    this.latchOf("a").countDown()
+
+    this.awaitFailed(1)
+    Thread.sleep(100L)
+    assertEquals(listOf("a"), this.started.toList())
+    assertFalse(futureA.isDone)
+    assertFalse(futureB.isDone)
+    assertTrue(scheduler.isScheduled(this.bookIDOf("a")))
+
+    network.onNext(this.online)
+    this.awaitStarted(3)
+    assertEquals(setOf("a", "b"), this.started.drop(1).toSet())
+
+    this.latchOf("b").countDown()
+    assertTrue(futureA.get() is TaskResult.Success)
+    assertTrue(futureB.get() is TaskResult.Success)
+  }
+
+  /**
+   * A request that fails while the network is unavailable is completed if it cannot be resumed.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testNetworkLossNotResumable() {
+    val network = BehaviorSubject.createDefault(this.online)
+    val scheduler =
+      this.schedulerOf(
+        maximumConcurrent = 1,
+        maximumConcurrentPerHost = 1,
+        networkStatus = network
+      )
+
+    this.failing.add("a")
+    val futureA = scheduler.submit(this.requestOf("a", "example.com"))
+    this.awaitStarted(1)
+
+    network.onNext(NetworkStatus.UNAVAILABLE)
+    this.latchOf("a").countDown()
+    assertTrue(futureA.get() is TaskResult.Failure)
+    assertFalse(scheduler.isScheduled(this.bookIDOf("a")))
+  }
+
+  /**
+   * A closed scheduler stops observing the network status.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testCloseStopsObservingNetwork() {
+    val network = BehaviorSubject.createDefault(this.online)
+    val scheduler =
+      this.schedulerOf(
+        maximumConcurrent = 1,
+        maximumConcurrentPerHost = 1,
+        networkStatus = network
+      )
+
+    assertTrue(network.hasObservers())
+    scheduler.close()
+    assertFalse(network.hasObservers())
+  }
+
+  /**
+   * Queued and running requests are resumed by a new scheduler for the same profile.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testResumeAfterRestart() {
+    val scheduler0 = this.schedulerOf(1, 1)
+    scheduler0.submit(this.requestOf("a", "example.com"))
+    scheduler0.submit(this.requestOf("b", "example.com"))
+    this.awaitStarted(1)
+    assertTrue(this.queueFile.isFile)
+
+    this.started.clear()
+    val scheduler1 = this.schedulerOf(2, 2)
+    scheduler1.resume(ProfileID(UUID.randomUUID()))
+    Thread.sleep(100L)
+    assertEquals(listOf<String>(), this.started.toList())
+
+    scheduler1.resume(this.profileID)
+    this.awaitStarted(2)
+    assertEquals(setOf("a", "b"), this.started.toSet())
+  }
+}
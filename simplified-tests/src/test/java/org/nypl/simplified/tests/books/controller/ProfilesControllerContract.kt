@@ -179,7 +179,8 @@ abstract class ProfilesControllerContract {
       executorService = this.executorBooks,
       accountEvents = this.accountEvents,
       profileEvents = this.profileEvents,
-      cacheDirectory = this.cacheDirectory
+      cacheDirectory = this.cacheDirectory,
+      borrowQueueFile = File(this.cacheDirectory, "borrows.json")
     )
   }
 
@@ -0,0 +1,71 @@
+package org.nypl.simplified.tests.books.covers
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.books.covers.BookCoverGeneratorCache
+import org.nypl.simplified.tests.TestDirectories
+import java.io.File
+
+class BookCoverGeneratorCacheTest {
+
+  private lateinit var directory: File
+
+  @BeforeEach
+  fun setUp() {
+    this.directory = TestDirectories.temporaryDirectory()
+  }
+
+  @Test
+  fun testKeysDistinct() {
+    val key0 = BookCoverGeneratorCache.keyOf("Title", "Author", 64)
+    assertEquals(key0, BookCoverGeneratorCache.keyOf("Title", "Author", 64))
+    assertNotEquals(key0, BookCoverGeneratorCache.keyOf("Title", "Author", 128))
+    assertNotEquals(key0, BookCoverGeneratorCache.keyOf("TitleA", "uthor", 64))
+  }
+
+  @Test
+  fun testPutFind() {
+    val cache = BookCoverGeneratorCache.open(this.directory, 1024L)
+    assertNull(cache.find("a"))
+
+    cache.put("a", ByteArray(10) { 0x41 })
+    val file = cache.find("a")
+    assertNotNull(file)
+    assertArrayEquals(ByteArray(10) { 0x41 }, file!!.readBytes())
+    assertEquals(10L, cache.size)
+  }
+
+  @Test
+  fun testEvictsLeastRecentlyUsed() {
+    val cache = BookCoverGeneratorCache.open(this.directory, 30L)
+    cache.put("a", ByteArray(10))
+    cache.put("b", ByteArray(10))
+    cache.put("c", ByteArray(10))
+    assertNotNull(cache.find("a"))
+
+    cache.put("d", ByteArray(10))
+    assertNotNull(cache.find("a"))
+    assertNull(cache.find("b"))
+    assertNotNull(cache.find("c"))
+    assertNotNull(cache.find("d"))
+    assertEquals(30L, cache.size)
+  }
+
+  @Test
+  fun testSurvivesReopen() {
+    val cache0 = BookCoverGeneratorCache.open(this.directory, 1024L)
+    cache0.put("a", ByteArray(10))
+    File(this.directory, "junk.png.tmp").writeText("junk")
+
+    val cache1 = BookCoverGeneratorCache.open(this.directory, 1024L)
+    assertNotNull(cache1.find("a"))
+    assertEquals(10L, cache1.size)
+    assertFalse(File(this.directory, "junk.png.tmp").exists())
+  }
+}
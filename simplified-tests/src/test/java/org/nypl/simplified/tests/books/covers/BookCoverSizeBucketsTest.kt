@@ -0,0 +1,40 @@
+package org.nypl.simplified.tests.books.covers
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.books.covers.BookCoverSizeBuckets
+
+class BookCoverSizeBucketsTest {
+
+  @Test
+  fun testBucketsRoundUp() {
+    assertEquals(64, BookCoverSizeBuckets.bucketOf(1))
+    assertEquals(64, BookCoverSizeBuckets.bucketOf(64))
+    assertEquals(90, BookCoverSizeBuckets.bucketOf(65))
+    assertEquals(362, BookCoverSizeBuckets.bucketOf(300))
+    assertEquals(2048, BookCoverSizeBuckets.bucketOf(2048))
+    assertEquals(3000, BookCoverSizeBuckets.bucketOf(3000))
+  }
+
+  @Test
+  fun testSimilarSizesShareBuckets() {
+    assertEquals(
+      BookCoverSizeBuckets.bucketOf(0, 270),
+      BookCoverSizeBuckets.bucketOf(0, 300)
+    )
+  }
+
+  @Test
+  fun testDerivedDimensionsPreserved() {
+    assertEquals(Pair(0, 362), BookCoverSizeBuckets.bucketOf(0, 300))
+    assertEquals(Pair(256, 0), BookCoverSizeBuckets.bucketOf(200, 0))
+    assertEquals(Pair(0, 0), BookCoverSizeBuckets.bucketOf(0, 0))
+  }
+
+  @Test
+  fun testAspectRatioPreserved() {
+    val (width, height) = BookCoverSizeBuckets.bucketOf(300, 400)
+    assertEquals(512, height)
+    assertEquals(384, width)
+  }
+}
@@ -0,0 +1,275 @@
+package org.nypl.simplified.tests.books.profiles
+
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import io.reactivex.subjects.PublishSubject
+import org.joda.time.DateTime
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.nypl.simplified.accounts.api.AccountEvent
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationFailed
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationInProgress
+import org.nypl.simplified.accounts.api.AccountProvider
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.api.AccountProviderType
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryType
+import org.nypl.simplified.profiles.AutomaticAccountProviderResolver
+import org.nypl.simplified.profiles.api.ProfileID
+import org.nypl.simplified.taskrecorder.api.TaskRecorder
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.nypl.simplified.tests.mocking.MockAccountProviders
+import java.net.URI
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AutomaticAccountProviderResolverTest {
+
+  private lateinit var accountEvents: PublishSubject<AccountEvent>
+  private lateinit var accountProviders: AccountProviderRegistryType
+  private lateinit var eventThreads: MutableList<Thread>
+  private lateinit var events: MutableList<AccountEvent>
+  private lateinit var executor: ListeningExecutorService
+  private lateinit var lateResolutions: MutableList<AccountProviderType>
+  private lateinit var provider0: AccountProvider
+  private lateinit var provider1: AccountProvider
+
+  @BeforeEach
+  fun testSetup() {
+    this.executor =
+      MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4))
+    this.accountEvents =
+      PublishSubject.create()
+    this.events =
+      Collections.synchronizedList(mutableListOf())
+    this.eventThreads =
+      Collections.synchronizedList(mutableListOf())
+    this.lateResolutions =
+      Collections.synchronizedList(mutableListOf())
+
+    this.accountEvents.subscribe { event ->
+      this.events.add(event)
+      this.eventThreads.add(Thread.currentThread())
+    }
+
+    this.provider0 =
+      MockAccountProviders.fakeProviderAuto("urn:fake:auto:0")
+    this.provider1 =
+      MockAccountProviders.fakeProviderAuto("urn:fake:auto:1")
+
+    this.accountProviders =
+      Mockito.mock(AccountProviderRegistryType::class.java)
+
+    Mockito.`when`(this.accountProviders.accountProviderDescriptions())
+      .thenReturn(
+        mapOf(
+          Pair(this.provider0.id, this.provider0.toDescription()),
+          Pair(this.provider1.id, this.provider1.toDescription())
+        )
+      )
+    Mockito.`when`(this.accountProviders.resolvedProviders)
+      .thenReturn(mapOf())
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.executor.shutdown()
+    this.executor.awaitTermination(10L, TimeUnit.SECONDS)
+  }
+
+  private fun resolverWithTimeout(milliseconds: Long): AutomaticAccountProviderResolver {
+    return AutomaticAccountProviderResolver(
+      executor = this.executor,
+      timeout = milliseconds,
+      timeoutUnit = TimeUnit.MILLISECONDS
+    )
+  }
+
+  private fun onResolve(
+    resolution: (AccountProviderDescription, (URI, String) -> Unit) -> TaskResult<AccountProviderType>
+  ) {
+    Mockito.`when`(this.accountProviders.resolve(Mockito.any(), Mockito.any()))
+      .thenAnswer { invocation ->
+        resolution.invoke(
+          invocation.getArgument(1),
+          invocation.getArgument(0)
+        )
+      }
+  }
+
+  private fun succeed(provider: AccountProviderType): TaskResult<AccountProviderType> {
+    val taskRecorder = TaskRecorder.create()
+    taskRecorder.beginNewStep("Resolving account provider...")
+    return taskRecorder.finishSuccess(provider)
+  }
+
+  private fun fail(): TaskResult<AccountProviderType> {
+    val taskRecorder = TaskRecorder.create()
+    taskRecorder.beginNewStep("Resolving account provider...")
+    taskRecorder.currentStepFailed("Failed", "unexpectedException")
+    return taskRecorder.finishFailure()
+  }
+
+  private fun providerFor(description: AccountProviderDescription): AccountProvider {
+    return if (description.id == this.provider0.id) this.provider0 else this.provider1
+  }
+
+  /**
+   * Automatic providers are resolved concurrently.
+   */
+
+  @Test
+  fun testResolvedConcurrently() {
+    val running = CountDownLatch(2)
+
+    this.onResolve { description, _ ->
+      running.countDown()
+      if (running.await(5L, TimeUnit.SECONDS)) {
+        this.succeed(this.providerFor(description))
+      } else {
+        this.fail()
+      }
+    }
+
+    val resolved =
+      this.resolverWithTimeout(10_000L)
+        .resolve(
+          profile = ProfileID.generate(),
+          accountEvents = this.accountEvents,
+          accountProviders = this.accountProviders,
+          onLateResolution = { provider -> this.lateResolutions.add(provider) }
+        )
+
+    Assertions.assertEquals(
+      setOf(this.provider0.id, this.provider1.id),
+      resolved.map(AccountProviderType::id).toSet()
+    )
+    Assertions.assertEquals(listOf<AccountProviderType>(), this.lateResolutions)
+  }
+
+  /**
+   * Progress and failure events for resolutions that complete in time are published on
+   * the calling thread.
+   */
+
+  @Test
+  fun testEventsPublishedOnCallingThread() {
+    this.onResolve { description, onProgress ->
+      onProgress.invoke(description.id, "Resolving ${description.id}")
+      if (description.id == this.provider0.id) {
+        this.succeed(this.provider0)
+      } else {
+        this.fail()
+      }
+    }
+
+    val resolved =
+      this.resolverWithTimeout(10_000L)
+        .resolve(
+          profile = ProfileID.generate(),
+          accountEvents = this.accountEvents,
+          accountProviders = this.accountProviders,
+          onLateResolution = { provider -> this.lateResolutions.add(provider) }
+        )
+
+    Assertions.assertEquals(listOf(this.provider0.id), resolved.map(AccountProviderType::id))
+    Assertions.assertEquals(
+      2, this.events.filterIsInstance<AccountEventCreationInProgress>().size
+    )
+    Assertions.assertEquals(
+      1, this.events.filterIsInstance<AccountEventCreationFailed>().size
+    )
+    Assertions.assertEquals(
+      setOf(Thread.currentThread()), this.eventThreads.toSet()
+    )
+  }
+
+  /**
+   * A resolution that misses the deadline is not waited for, and its provider is passed to
+   * the late resolution function when it arrives.
+   */
+
+  @Test
+  fun testTimeoutResolvedLate() {
+    val release = CountDownLatch(1)
+    val late = CountDownLatch(1)
+
+    this.onResolve { description, _ ->
+      if (description.id == this.provider1.id) {
+        release.await(10L, TimeUnit.SECONDS)
+      }
+      this.succeed(this.providerFor(description))
+    }
+
+    val timeStart = System.nanoTime()
+    val resolved =
+      this.resolverWithTimeout(100L)
+        .resolve(
+          profile = ProfileID.generate(),
+          accountEvents = this.accountEvents,
+          accountProviders = this.accountProviders,
+          onLateResolution = { provider ->
+            this.lateResolutions.add(provider)
+            late.countDown()
+          }
+        )
+    val timeElapsed = System.nanoTime() - timeStart
+
+    Assertions.assertTrue(timeElapsed < TimeUnit.SECONDS.toNanos(5L))
+    Assertions.assertEquals(listOf(this.provider0.id), resolved.map(AccountProviderType::id))
+    Assertions.assertEquals(listOf<AccountProviderType>(), this.lateResolutions)
+
+    release.countDown()
+    Assertions.assertTrue(late.await(10L, TimeUnit.SECONDS))
+    Assertions.assertEquals(
+      listOf(this.provider1.id), this.lateResolutions.map(AccountProviderType::id)
+    )
+  }
+
+  /**
+   * A cached provider is returned immediately, and the provider from the network resolution
+   * is passed to the late resolution function.
+   */
+
+  @Test
+  fun testCachedProviderResolvedLate() {
+    val release = CountDownLatch(1)
+    val late = CountDownLatch(1)
+    val provider0Newer =
+      this.provider0.copy(updated = DateTime.parse("2010-01-01T00:00:00Z"))
+
+    Mockito.`when`(this.accountProviders.resolvedProviders)
+      .thenReturn(mapOf(Pair(this.provider0.id, this.provider0)))
+
+    this.onResolve { description, _ ->
+      if (description.id == this.provider0.id) {
+        release.await(10L, TimeUnit.SECONDS)
+        this.succeed(provider0Newer)
+      } else {
+        this.succeed(this.provider1)
+      }
+    }
+
+    val resolved =
+      this.resolverWithTimeout(10_000L)
+        .resolve(
+          profile = ProfileID.generate(),
+          accountEvents = this.accountEvents,
+          accountProviders = this.accountProviders,
+          onLateResolution = { provider ->
+            this.lateResolutions.add(provider)
+            late.countDown()
+          }
+        )
+
+    Assertions.assertEquals(listOf(this.provider0, this.provider1), resolved)
+
+    release.countDown()
+    Assertions.assertTrue(late.await(10L, TimeUnit.SECONDS))
+    Assertions.assertEquals(listOf<AccountProviderType>(provider0Newer), this.lateResolutions)
+  }
+}
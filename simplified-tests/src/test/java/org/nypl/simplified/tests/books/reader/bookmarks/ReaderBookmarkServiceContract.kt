@@ -2,6 +2,8 @@ package org.nypl.simplified.tests.books.reader.bookmarks
 
 import android.content.Context
 import com.fasterxml.jackson.databind.ObjectMapper
+import io.reactivex.Observable
+import io.reactivex.subjects.BehaviorSubject
 import io.reactivex.subjects.Subject
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
@@ -37,6 +39,8 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseEntryType
 import org.nypl.simplified.books.book_database.api.BookDatabaseType
 import org.nypl.simplified.books.book_database.api.BookFormats
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkHTTPCalls
+import org.nypl.simplified.networkconnectivity.api.NetworkBandwidth
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
 import org.nypl.simplified.profiles.api.ProfileEvent
 import org.nypl.simplified.profiles.api.ProfileID
 import org.nypl.simplified.profiles.api.ProfileType
@@ -66,7 +70,8 @@ abstract class ReaderBookmarkServiceContract {
     threads: (Runnable) -> Thread,
     events: Subject<ReaderBookmarkEvent>,
     httpCalls: ReaderBookmarkHTTPCallsType,
-    profilesController: ProfilesControllerType
+    profilesController: ProfilesControllerType,
+    networkStatus: Observable<NetworkStatus> = Observable.never()
   ): ReaderBookmarkServiceType
 
   private val objectMapper = ObjectMapper()
@@ -890,4 +895,122 @@ abstract class ReaderBookmarkServiceContract {
     Assertions.assertEquals(SYNC_DISABLED, result)
     Assertions.assertEquals(false, account.preferences.bookmarkSyncingPermitted)
   }
+
+  /**
+   * Bookmarks are synced again when the network becomes available after having been lost.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testSyncWhenNetworkReturns() {
+    this.addResponse("http://www.example.com/patron", this.patronSettingsWithAnnotationsEnabled)
+    this.addResponse("http://www.example.com/annotations", this.annotationsEmpty)
+    this.addResponse("http://www.example.com/patron", this.patronSettingsWithAnnotationsEnabled)
+    this.addResponse("http://www.example.com/annotations", this.annotationsEmpty)
+
+    val httpCalls = ReaderBookmarkHTTPCalls(this.objectMapper, this.http)
+
+    val profileEvents =
+      EventLogging.create<ProfileEvent>(this.logger, 1)
+    val bookmarkEvents =
+      EventLogging.create<ReaderBookmarkEvent>(this.logger, 2)
+    val accountEvents =
+      EventLogging.create<AccountEvent>(this.logger, 1)
+
+    val books =
+      Mockito.mock(BookDatabaseType::class.java)
+
+    Mockito.`when`(books.books())
+      .thenReturn(sortedSetOf())
+
+    val accountProvider =
+      Mockito.mock(AccountProviderType::class.java)
+
+    Mockito.`when`(accountProvider.patronSettingsURI)
+      .thenReturn(this.patronURI)
+
+    val account =
+      Mockito.mock(AccountType::class.java)
+
+    Mockito.`when`(account.loginState)
+      .thenReturn(
+        AccountLoggedIn(
+          this.accountCredentials.copy(annotationsURI = this.annotationsURI)
+        )
+      )
+    Mockito.`when`(account.id)
+      .thenReturn(this.fakeAccountID)
+    Mockito.`when`(account.provider)
+      .thenReturn(accountProvider)
+    Mockito.`when`(account.bookDatabase)
+      .thenReturn(books)
+    Mockito.`when`(account.preferences)
+      .thenReturn(
+        AccountPreferences(
+          bookmarkSyncingPermitted = true,
+          catalogURIOverride = null,
+          announcementsAcknowledged = listOf()
+        )
+      )
+
+    val profile =
+      Mockito.mock(ProfileType::class.java)
+
+    Mockito.`when`(profile.account(this.fakeAccountID))
+      .thenReturn(account)
+    Mockito.`when`(profile.accounts())
+      .thenReturn(sortedMapOf(Pair(this.fakeAccountID, account)))
+    Mockito.`when`(profile.id)
+      .thenReturn(ProfileID.generate())
+
+    val profiles =
+      Mockito.mock(ProfilesControllerType::class.java)
+
+    Mockito.`when`(profiles.profileEvents())
+      .thenReturn(profileEvents.events)
+    Mockito.`when`(profiles.accountEvents())
+      .thenReturn(accountEvents.events)
+    Mockito.`when`(profiles.profileCurrent())
+      .thenReturn(profile)
+
+    val available =
+      NetworkStatus(
+        isAvailable = true,
+        isMetered = false,
+        isWifi = true,
+        bandwidth = NetworkBandwidth.HIGH
+      )
+    val networkStatus =
+      BehaviorSubject.createDefault(available)
+
+    this.readerBookmarkService =
+      this.bookmarkService(::Thread, bookmarkEvents.events, httpCalls, profiles, networkStatus)
+
+    bookmarkEvents.latch.await()
+    Assertions.assertEquals(2, this.server.requestCount)
+
+    val bookmarkEventsAgain =
+      EventLogging.create<ReaderBookmarkEvent>(this.logger, 2)
+    bookmarkEvents.events.subscribe(bookmarkEventsAgain.events)
+
+    networkStatus.onNext(available)
+    networkStatus.onNext(NetworkStatus.UNAVAILABLE)
+    networkStatus.onNext(available)
+
+    bookmarkEventsAgain.latch.await()
+
+    EventAssertions.isTypeAndMatches(
+      ReaderBookmarkEvent.ReaderBookmarkSyncStarted::class.java,
+      bookmarkEventsAgain.eventLog,
+      0,
+      { event -> Assertions.assertEquals(this.fakeAccountID, event.accountID) }
+    )
+    EventAssertions.isTypeAndMatches(
+      ReaderBookmarkEvent.ReaderBookmarkSyncFinished::class.java,
+      bookmarkEventsAgain.eventLog,
+      1,
+      { event -> Assertions.assertEquals(this.fakeAccountID, event.accountID) }
+    )
+    Assertions.assertEquals(4, this.server.requestCount)
+  }
 }
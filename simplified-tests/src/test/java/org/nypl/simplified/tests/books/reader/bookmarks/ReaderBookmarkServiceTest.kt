@@ -1,7 +1,9 @@
 package org.nypl.simplified.tests.books.reader.bookmarks
 
+import io.reactivex.Observable
 import io.reactivex.subjects.Subject
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkService
+import org.nypl.simplified.networkconnectivity.api.NetworkStatus
 import org.nypl.simplified.profiles.controller.api.ProfilesControllerType
 import org.nypl.simplified.reader.bookmarks.api.ReaderBookmarkEvent
 import org.nypl.simplified.reader.bookmarks.api.ReaderBookmarkHTTPCallsType
@@ -18,14 +20,16 @@ class ReaderBookmarkServiceTest : ReaderBookmarkServiceContract() {
     threads: (Runnable) -> Thread,
     events: Subject<ReaderBookmarkEvent>,
     httpCalls: ReaderBookmarkHTTPCallsType,
-    profilesController: ProfilesControllerType
+    profilesController: ProfilesControllerType,
+    networkStatus: Observable<NetworkStatus>
   ): ReaderBookmarkServiceType {
     return ReaderBookmarkService.createService(
       ReaderBookmarkServiceProviderType.Requirements(
         threads = threads,
         events = events,
         httpCalls = httpCalls,
-        profilesController = profilesController
+        profilesController = profilesController,
+        networkStatus = networkStatus
       )
     )
   }
@@ -11,6 +11,8 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -152,4 +154,55 @@ public abstract class FileLockingContract {
 
     Assertions.assertEquals(Integer.valueOf(1), Integer.valueOf(count.get()));
   }
+
+  /**
+   * Test that files are locked by canonical path.
+   */
+
+  @Test
+  public void testLockingCanonical()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File lock = new File(tmp, "lock.txt");
+    final File lock_other = new File(new File(tmp, "."), "lock.txt");
+
+    Assertions.assertThrows(IOException.class, () -> {
+      FileLocking.withFileThreadLocked(
+        lock, 1000L, (PartialFunctionType<Unit, Unit, IOException>) u0 ->
+          FileLocking.withFileThreadLocked(
+            lock_other, 1000L, (PartialFunctionType<Unit, Unit, IOException>) u1 -> Unit.unit()));
+    });
+  }
+
+  /**
+   * Test that a process lock can be obtained, and that it is not obtained whilst the file is
+   * locked by another file channel.
+   */
+
+  @Test
+  public void testLockingProcess()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File lock = new File(tmp, "lock.txt");
+
+    final AtomicBoolean locked = new AtomicBoolean(false);
+    FileLocking.withFileProcessLocked(
+      lock, 1000L, (PartialFunctionType<Unit, Unit, IOException>) x -> {
+        locked.set(true);
+        return Unit.unit();
+      });
+    Assertions.assertTrue(locked.get());
+
+    try (final RandomAccessFile stream = new RandomAccessFile(lock, "rw")) {
+      try (final FileLock ignored = stream.getChannel().lock()) {
+        Assertions.assertThrows(IOException.class, () -> {
+          FileLocking.withFileProcessLocked(
+            lock, 100L, (PartialFunctionType<Unit, Unit, IOException>) x -> Unit.unit());
+        });
+      }
+    }
+
+    FileLocking.withFileProcessLocked(
+      lock, 1000L, (PartialFunctionType<Unit, Unit, IOException>) x -> Unit.unit());
+  }
 }
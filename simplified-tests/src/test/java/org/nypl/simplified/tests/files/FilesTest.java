@@ -6,6 +6,9 @@ import org.nypl.simplified.files.DirectoryUtilities;
 import org.nypl.simplified.files.FileUtilities;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public final class FilesTest {
 
@@ -25,4 +28,99 @@ public final class FilesTest {
     Assertions.assertFalse(file0.exists(), file0 + " does not exist");
   }
 
+  @Test
+  public final void testMoveReplaces()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File file0 = new File(tmp, "file0.txt");
+    final File file1 = new File(tmp, "file1.txt");
+
+    FileUtilities.fileWriteUTF8(file0, "Hello.");
+    FileUtilities.fileWriteUTF8(file1, "Goodbye.");
+    FileUtilities.fileMove(file0, file1);
+    Assertions.assertFalse(file0.exists(), file0 + " does not exist");
+    Assertions.assertEquals("Hello.", FileUtilities.fileReadUTF8(file1));
+  }
+
+  @Test
+  public final void testMoveMissing()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File file0 = new File(tmp, "file0.txt");
+    final File file1 = new File(tmp, "file1.txt");
+
+    Assertions.assertThrows(
+      IOException.class,
+      () -> FileUtilities.fileMove(file0, file1));
+  }
+
+  @Test
+  public final void testCopyBytes()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File file0 = new File(tmp, "file0.bin");
+    final File file1 = new File(tmp, "file1.bin");
+
+    final byte[] data = new byte[1_000_000];
+    new Random(0x5eedL).nextBytes(data);
+
+    FileUtilities.fileWriteBytes(data, file0);
+    FileUtilities.fileCopy(file0, file1);
+    Assertions.assertArrayEquals(data, FileUtilities.fileReadBytes(file1));
+  }
+
+  @Test
+  public final void testDirectoryCopyParallel()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File source = new File(tmp, "source");
+    final File target = new File(tmp, "target");
+
+    DirectoryUtilities.directoryCreate(new File(source, "a/b"));
+    DirectoryUtilities.directoryCreate(new File(source, "empty"));
+    for (int index = 0; index < 32; ++index) {
+      final String name = (index % 2 == 0 ? "a/b/" : "a/") + index + ".txt";
+      FileUtilities.fileWriteUTF8(new File(source, name), "Hello " + index);
+    }
+
+    DirectoryUtilities.directoryCopy(source, target, ForkJoinPool.commonPool());
+
+    Assertions.assertTrue(new File(target, "empty").isDirectory());
+    for (int index = 0; index < 32; ++index) {
+      final String name = (index % 2 == 0 ? "a/b/" : "a/") + index + ".txt";
+      Assertions.assertEquals(
+        "Hello " + index, FileUtilities.fileReadUTF8(new File(target, name)));
+    }
+  }
+
+  @Test
+  public final void testDirectoryMoveReplaces()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File source = new File(tmp, "source");
+    final File target = new File(tmp, "target");
+
+    DirectoryUtilities.directoryCreate(new File(source, "a"));
+    FileUtilities.fileWriteUTF8(new File(source, "a/x.txt"), "Hello");
+    DirectoryUtilities.directoryCreate(target);
+    FileUtilities.fileWriteUTF8(new File(target, "stale.txt"), "Stale");
+
+    DirectoryUtilities.directoryMove(source, target, ForkJoinPool.commonPool());
+
+    Assertions.assertFalse(source.exists());
+    Assertions.assertFalse(new File(target, "stale.txt").exists());
+    Assertions.assertEquals("Hello", FileUtilities.fileReadUTF8(new File(target, "a/x.txt")));
+    Assertions.assertArrayEquals(new String[]{"target"}, tmp.list());
+  }
+
+  @Test
+  public final void testDirectoryMoveMissing()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+
+    Assertions.assertThrows(IOException.class, () -> {
+      DirectoryUtilities.directoryMove(
+        new File(tmp, "nonexistent"), new File(tmp, "target"), ForkJoinPool.commonPool());
+    });
+  }
 }
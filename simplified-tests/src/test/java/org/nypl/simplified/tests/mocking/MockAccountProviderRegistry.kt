@@ -66,7 +66,8 @@ class MockAccountProviderRegistry(
   override fun refresh(includeTestingLibraries: Boolean) {
   }
 
-  override fun query(query: AccountSearchQuery) {
+  override fun query(query: AccountSearchQuery): List<AccountProviderDescription> {
+    return listOf()
   }
 
   override fun clear() {
@@ -76,18 +77,21 @@ class MockAccountProviderRegistry(
     return this.resolvedProviders.mapValues { p -> p.value.toDescription() }
   }
 
+  @Synchronized
   override fun updateProvider(accountProvider: AccountProviderType): AccountProviderType {
     this.logger.debug("updateProvider: {}", accountProvider)
     this.resolvedProviders[accountProvider.id] = accountProvider
     return accountProvider
   }
 
+  @Synchronized
   override fun updateDescription(description: AccountProviderDescription): AccountProviderDescription {
     this.logger.debug("updateDescription: {}", description)
     this.descriptions.put(description.id, description)
     return description
   }
 
+  @Synchronized
   override fun resolve(
     onProgress: AccountProviderResolutionListenerType,
     description: AccountProviderDescription
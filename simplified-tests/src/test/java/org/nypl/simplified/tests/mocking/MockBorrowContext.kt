@@ -13,6 +13,7 @@ import org.nypl.simplified.books.book_registry.BookRegistryType
 import org.nypl.simplified.books.book_registry.BookStatus
 import org.nypl.simplified.books.book_registry.BookWithStatus
 import org.nypl.simplified.books.borrowing.BorrowContextType
+import org.nypl.simplified.books.borrowing.BorrowDownloadConfiguration
 import org.nypl.simplified.books.borrowing.BorrowTimeoutConfiguration
 import org.nypl.simplified.books.bundled.api.BundledContentResolverType
 import org.nypl.simplified.content.api.ContentResolverType
@@ -54,6 +55,9 @@ class MockBorrowContext(
   override var adobeExecutorTimeout: BorrowTimeoutConfiguration =
     BorrowTimeoutConfiguration(2L, TimeUnit.SECONDS)
 
+  override var downloadConfiguration: BorrowDownloadConfiguration =
+    BorrowDownloadConfiguration()
+
   override var adobeExecutor: AdobeAdeptExecutorType? = null
   override var axisNowService: AxisNowServiceType? = null
   override lateinit var currentAcquisitionPathElement: OPDSAcquisitionPathElement
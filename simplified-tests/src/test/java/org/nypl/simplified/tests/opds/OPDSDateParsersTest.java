@@ -0,0 +1,93 @@
+package org.nypl.simplified.tests.opds;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.nypl.simplified.opds.core.OPDSDateParsers;
+
+import java.util.Random;
+
+public final class OPDSDateParsersTest {
+
+  private static void checkSame(
+    final String text) {
+    final DateTime expected =
+      ISODateTimeFormat.dateTimeParser().withZoneUTC().parseDateTime(text);
+
+    Assertions.assertEquals(expected, OPDSDateParsers.parseDateTime(text), text);
+    Assertions.assertEquals(expected, OPDSDateParsers.parseDateTime(text), text);
+  }
+
+  private static void checkRejected(
+    final String text) {
+    Assertions.assertThrows(
+      IllegalArgumentException.class,
+      () -> ISODateTimeFormat.dateTimeParser().withZoneUTC().parseDateTime(text),
+      text);
+    Assertions.assertThrows(
+      IllegalArgumentException.class,
+      () -> OPDSDateParsers.parseDateTime(text),
+      text);
+  }
+
+  /**
+   * Common timestamps are parsed as the general parser parses them.
+   */
+
+  @Test
+  public void testCommonForms() {
+    checkSame("2000-01-01T00:00:00Z");
+    checkSame("2015-08-24T00:30:24Z");
+    checkSame("2015-08-24T00:30:24.5Z");
+    checkSame("2015-08-24T00:30:24.12Z");
+    checkSame("2015-08-24T00:30:24.123Z");
+    checkSame("2015-08-24T00:30:24.123+05:30");
+    checkSame("2015-08-24T00:30:24-08:00");
+    checkSame("2016-02-29T23:59:59Z");
+  }
+
+  /**
+   * Less common timestamps are still accepted.
+   */
+
+  @Test
+  public void testUncommonForms() {
+    checkSame("2000-01-01");
+    checkSame("2000-01-01T00:00Z");
+    checkSame("2000-01-01T00:00:00+0100");
+    checkSame("2015-08-24T00:30:24.123456789Z");
+  }
+
+  /**
+   * Invalid timestamps are rejected.
+   */
+
+  @Test
+  public void testInvalid() {
+    checkRejected("2015-02-30T00:00:00Z");
+    checkRejected("2015-13-01T00:00:00Z");
+    checkRejected("2015-01-01T25:00:00Z");
+    checkRejected("2015-01-01T00:00:00Q");
+    checkRejected("Not a date.");
+  }
+
+  /**
+   * Random timestamps in all offsets are parsed as the general parser parses them.
+   */
+
+  @Test
+  public void testRandom() {
+    final Random random = new Random(0x5eedL);
+    final DateTimeFormatter printer = ISODateTimeFormat.dateTime();
+
+    for (int index = 0; index < 10_000; ++index) {
+      final long millis = random.nextLong() % 4_000_000_000_000L;
+      final DateTimeZone zone =
+        DateTimeZone.forOffsetMillis((random.nextInt(48) - 24) * 30 * 60_000);
+      checkSame(printer.print(new DateTime(millis, zone)));
+    }
+  }
+}
@@ -35,6 +35,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import one.irradia.mime.api.MIMEType;
 
@@ -483,4 +484,70 @@ public final class OPDSFeedParserTest {
     Assertions.assertEquals(1, acquisitions.size());
     d.close();
   }
+
+  /**
+   * Parsing entries in parallel produces the same feeds as parsing them one at a time.
+   */
+
+  @Test
+  public void testParallelEntriesSameAsSequential()
+    throws Exception {
+    final URI uri = URI.create("http://www.example.com/");
+    final OPDSFeedParserType sequential =
+      OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser());
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      final OPDSFeedParserType parallel =
+        OPDSFeedParser.newParserWithParallelism(
+          OPDSAcquisitionFeedEntryParser.newParser(), pool, 1);
+
+      for (final String name : new String[]{
+        "acquisition-paginated-0.xml",
+        "acquisition-groups-0.xml",
+        "analytics-20190509.xml",
+        "feedbooks-20190808.xml",
+        "dpla-test-feed.xml",
+        "loans.xml",
+      }) {
+        final OPDSAcquisitionFeed expected;
+        try (InputStream d = OPDSFeedParserTest.getResource(name)) {
+          expected = sequential.parse(uri, d);
+        }
+        final OPDSAcquisitionFeed received;
+        try (InputStream d = OPDSFeedParserTest.getResource(name)) {
+          received = parallel.parse(uri, d);
+        }
+
+        Assertions.assertEquals(expected.getFeedEntries(), received.getFeedEntries(), name);
+        Assertions.assertEquals(expected.getFeedGroups(), received.getFeedGroups(), name);
+        Assertions.assertEquals(expected.getErrors().size(), received.getErrors().size(), name);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Entries that cannot be parsed in parallel raise the same errors as when parsed one at a
+   * time.
+   */
+
+  @Test
+  public void testParallelEntriesError()
+    throws Exception {
+    final URI uri = URI.create("http://www.example.com/");
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      final OPDSFeedParserType parallel =
+        OPDSFeedParser.newParserWithParallelism(
+          OPDSAcquisitionFeedEntryParser.newParser(), pool, 1);
+
+      try (InputStream d = OPDSFeedParserTest.getResource("navigation-bad-entry-no-links.xml")) {
+        Assertions.assertThrows(OPDSParseException.class, () -> parallel.parse(uri, d));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
 }
@@ -177,14 +177,10 @@ class AccountListRegistryFragment : Fragment(R.layout.account_list_registry) {
             this@AccountListRegistryFragment.accountListAdapter.resetFilter()
           }
           newText.equals("NYPL", ignoreCase = true) -> {
-            this@AccountListRegistryFragment.accountListAdapter.filterList { account ->
-              account.title.contains("New York Public Library", ignoreCase = true)
-            }
+            this@AccountListRegistryFragment.accountListAdapter.filterByName("New York Public Library")
           }
           else -> {
-            this@AccountListRegistryFragment.accountListAdapter.filterList { account ->
-              account.title.contains(newText, ignoreCase = true)
-            }
+            this@AccountListRegistryFragment.accountListAdapter.filterByName(newText)
           }
         }
         return true
@@ -233,6 +229,9 @@ class AccountListRegistryFragment : Fragment(R.layout.account_list_registry) {
       }
       is AccountProviderRegistryEvent.Updated -> {
       }
+      is AccountProviderRegistryEvent.Refreshed -> {
+        this.reconfigureViewForRegistryStatus(this.viewModel.accountRegistryStatus)
+      }
       is AccountProviderRegistryEvent.SourceFailed -> {
       }
     }
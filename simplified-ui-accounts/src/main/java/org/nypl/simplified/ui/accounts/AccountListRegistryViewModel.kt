@@ -94,6 +94,11 @@ class AccountListRegistryViewModel(private val locationManager: LocationManager)
   val accountRegistryStatus: AccountProviderRegistryStatus
     get() = this.accountRegistry.status
 
+  private val queryResults: Subject<List<AccountProviderDescription>> =
+    BehaviorSubject.createDefault(listOf())
+  val queryResultEvents: Observable<List<AccountProviderDescription>>
+    get() = queryResults.hide()
+
   private val displayNoLocationMessage: Subject<Boolean> =
     BehaviorSubject.createDefault(false)
   val displayNoLocationMessageEvents: Observable<Boolean>
@@ -183,7 +188,7 @@ class AccountListRegistryViewModel(private val locationManager: LocationManager)
   )
 
   private fun executeQuery(query: AccountSearchQuery) = Completable.fromAction {
-    accountRegistry.query(query)
+    queryResults.onNext(accountRegistry.query(query))
   }
 
   private fun Location.toAccountGeoLocation() = AccountGeoLocation.Coordinates(
@@ -9,6 +9,7 @@ import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.api.AccountProviderDescriptionIndex
 import org.nypl.simplified.ui.images.ImageAccountIcons
 import org.nypl.simplified.ui.images.ImageLoaderType
 import org.slf4j.LoggerFactory
@@ -29,6 +30,13 @@ class FilterableAccountListAdapter(
   private var listCopy =
     mutableListOf<AccountProviderDescription>()
 
+  /**
+   * A name index of the unfiltered list, built on the first search after the list is
+   * submitted.
+   */
+
+  private var index: AccountProviderDescriptionIndex? = null
+
   override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): AccountItemViewHolder {
     val inflater = LayoutInflater.from(parent.context)
     val item = inflater.inflate(R.layout.account_list_registry_item, parent, false)
@@ -46,6 +54,7 @@ class FilterableAccountListAdapter(
 
   override fun submitList(list: List<AccountProviderDescription>?) {
     this.listCopy.clear()
+    this.index = null
     super.submitList(list)
   }
 
@@ -54,6 +63,7 @@ class FilterableAccountListAdapter(
     commitCallback: Runnable?
   ) {
     this.listCopy.clear()
+    this.index = null
     super.submitList(list, commitCallback)
   }
 
@@ -78,6 +88,26 @@ class FilterableAccountListAdapter(
     }
   }
 
+  /**
+   * Filter the original list of items to those whose names match the given text. Each word
+   * in the text must be a prefix of a word in the name.
+   *
+   * @see AccountProviderDescriptionIndex.matchingName
+   */
+
+  fun filterByName(text: String) {
+    if (this.listCopy.isEmpty()) {
+      this.listCopy.addAll(this.currentList)
+    }
+
+    val index =
+      this.index ?: AccountProviderDescriptionIndex.create(this.listCopy).also { this.index = it }
+
+    super.submitList(index.matchingName(text)) {
+      this.logger.debug("{} matching items", this.currentList.size)
+    }
+  }
+
   /** Reset the filter and show the original list of items. */
 
   fun resetFilter() {
@@ -25,6 +25,12 @@ class CatalogFeedWithGroupsAdapter(
 
   private var viewHolders = 0
 
+  /*
+   * The positions of the lanes whose leading thumbnails have been prefetched.
+   */
+
+  private val prefetched = mutableSetOf<Int>()
+
   override fun onCreateViewHolder(
     parent: ViewGroup,
     viewType: Int
@@ -58,5 +64,66 @@ class CatalogFeedWithGroupsAdapter(
     position: Int
   ) {
     holder.bindTo(this.groups[position])
+    this.prefetchLanesAfter(holder, position)
+  }
+
+  override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
+    super.onDetachedFromRecyclerView(recyclerView)
+    this.prefetched.forEach { position ->
+      this.coverLoader.prefetchCancel(
+        CatalogFeedWithGroupsLaneViewHolder.prefetchGroupOf(this.groups[position])
+      )
+    }
+    this.prefetched.clear()
+  }
+
+  /**
+   * Prefetch the thumbnails at the start of the lanes following the given lane, and cancel
+   * the prefetches for lanes that the user has scrolled away from.
+   */
+
+  private fun prefetchLanesAfter(
+    holder: CatalogFeedWithGroupsLaneViewHolder,
+    position: Int
+  ) {
+    val window = (position - LANES_AHEAD)..(position + LANES_AHEAD)
+    val abandoned = this.prefetched.filter { it !in window }
+    for (lane in abandoned) {
+      this.coverLoader.prefetchCancel(
+        CatalogFeedWithGroupsLaneViewHolder.prefetchGroupOf(this.groups[lane])
+      )
+      this.prefetched.remove(lane)
+    }
+
+    val targetHeight =
+      holder.itemView.resources.getDimensionPixelSize(
+        org.nypl.simplified.books.covers.R.dimen.cover_thumbnail_height
+      )
+
+    for (lane in (position + 1)..minOf(position + LANES_AHEAD, this.groups.size - 1)) {
+      if (!this.prefetched.add(lane)) {
+        continue
+      }
+      val group = this.groups[lane]
+      val entries =
+        group.groupEntries
+          .asSequence()
+          .filterIsInstance<FeedEntry.FeedEntryOPDS>()
+          .take(CatalogFeedWithGroupsLaneViewHolder.ITEMS_AHEAD)
+          .toList()
+
+      this.coverLoader.prefetchThumbnails(
+        CatalogFeedWithGroupsLaneViewHolder.prefetchGroupOf(group), entries, 0, targetHeight
+      )
+    }
+  }
+
+  companion object {
+
+    /**
+     * The number of lanes below a bound lane whose leading thumbnails are prefetched.
+     */
+
+    const val LANES_AHEAD = 2
   }
 }
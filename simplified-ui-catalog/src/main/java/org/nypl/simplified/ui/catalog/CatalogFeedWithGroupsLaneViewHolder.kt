@@ -23,6 +23,27 @@ class CatalogFeedWithGroupsLaneViewHolder(
     this.parent.findViewById<TextView>(R.id.feedLaneTitle)
   private val scrollView =
     this.parent.findViewById<RecyclerView>(R.id.feedLaneCoversScroll)
+  private val targetHeight =
+    this.parent.resources.getDimensionPixelSize(
+      org.nypl.simplified.books.covers.R.dimen.cover_thumbnail_height
+    )
+
+  private var entries: List<FeedEntry.FeedEntryOPDS> = listOf()
+  private var prefetchGroup: String? = null
+  private var prefetchedTo = -1
+
+  /*
+   * Prefetch the thumbnails of the entries just beyond the right edge of the lane as the
+   * user scrolls through it.
+   */
+
+  private val prefetchOnScroll = object : RecyclerView.OnScrollListener() {
+    override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+      if (dx > 0) {
+        this@CatalogFeedWithGroupsLaneViewHolder.prefetchAhead()
+      }
+    }
+  }
 
   init {
     scrollView.apply {
@@ -35,6 +56,7 @@ class CatalogFeedWithGroupsLaneViewHolder(
           this.resources.getDimensionPixelSize(R.dimen.catalogFeedCoversSpace)
         )
       )
+      addOnScrollListener(this@CatalogFeedWithGroupsLaneViewHolder.prefetchOnScroll)
     }
   }
 
@@ -58,12 +80,52 @@ class CatalogFeedWithGroupsLaneViewHolder(
      */
 
     val filtered = group.groupEntries.filterIsInstance<FeedEntry.FeedEntryOPDS>()
+    this.entries = filtered
+    this.prefetchGroup = prefetchGroupOf(group)
+    this.prefetchedTo = -1
     this.scrollView.adapter = CatalogLaneAdapter(
       filtered, coverLoader, onBookSelected
     )
   }
 
   fun unbind() {
+    this.prefetchGroup?.let(this.coverLoader::prefetchCancel)
+    this.prefetchGroup = null
+    this.entries = listOf()
     this.scrollView.adapter = null
   }
+
+  private fun prefetchAhead() {
+    val group = this.prefetchGroup ?: return
+    val layoutManager = this.scrollView.layoutManager as LinearLayoutManager
+    val lastVisible = layoutManager.findLastVisibleItemPosition()
+    if (lastVisible == RecyclerView.NO_POSITION) {
+      return
+    }
+
+    val from = maxOf(lastVisible + 1, this.prefetchedTo + 1)
+    val to = minOf(lastVisible + ITEMS_AHEAD, this.entries.size - 1)
+    if (from > to) {
+      return
+    }
+
+    this.coverLoader.prefetchThumbnails(group, this.entries.subList(from, to + 1), 0, this.targetHeight)
+    this.prefetchedTo = to
+  }
+
+  companion object {
+
+    /**
+     * The number of entries beyond the visible ones whose thumbnails are prefetched.
+     */
+
+    const val ITEMS_AHEAD = 6
+
+    /**
+     * @return The name of the cover prefetch group used for the given lane
+     */
+
+    fun prefetchGroupOf(group: FeedGroup): String =
+      "lane:${group.groupURI}"
+  }
 }
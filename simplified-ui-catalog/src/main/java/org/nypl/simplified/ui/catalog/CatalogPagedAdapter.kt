@@ -3,6 +3,7 @@ package org.nypl.simplified.ui.catalog
 import android.content.Context
 import android.view.LayoutInflater
 import android.view.ViewGroup
+import androidx.paging.PagedList
 import androidx.paging.PagedListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import org.nypl.simplified.books.covers.BookCoverProviderType
@@ -25,6 +26,8 @@ class CatalogPagedAdapter(
     LoggerFactory.getLogger(CatalogPagedAdapter::class.java)
 
   private var viewHolders = 0
+  private var prefetchedList: PagedList<FeedEntry>? = null
+  private var prefetchedTo = -1
 
   override fun onCreateViewHolder(
     parent: ViewGroup,
@@ -44,6 +47,39 @@ class CatalogPagedAdapter(
 
   override fun onBindViewHolder(holder: CatalogPagedViewHolder, position: Int) {
     holder.bindTo(this.getItem(position))
+    this.prefetchAfter(holder, position)
+  }
+
+  /**
+   * Prefetch the thumbnails of the loaded entries that follow the given position. Entries
+   * are read directly from the current list so that prefetching never causes further pages
+   * to be loaded.
+   */
+
+  private fun prefetchAfter(
+    holder: CatalogPagedViewHolder,
+    position: Int
+  ) {
+    val list = this.currentList ?: return
+    if (list !== this.prefetchedList) {
+      this.bookCovers.prefetchCancel(PREFETCH_GROUP)
+      this.prefetchedList = list
+      this.prefetchedTo = -1
+    }
+
+    val from = maxOf(position + 1, this.prefetchedTo + 1)
+    val to = minOf(position + ITEMS_AHEAD, list.size - 1)
+    if (from > to) {
+      return
+    }
+
+    val entries =
+      (from..to).mapNotNull { index -> list[index] as? FeedEntry.FeedEntryOPDS }
+    val targetHeight =
+      holder.itemView.resources.getDimensionPixelSize(R.dimen.cover_thumbnail_height)
+
+    this.bookCovers.prefetchThumbnails(PREFETCH_GROUP, entries, 0, targetHeight)
+    this.prefetchedTo = to
   }
 
   override fun onViewRecycled(holder: CatalogPagedViewHolder) {
@@ -66,5 +102,24 @@ class CatalogPagedAdapter(
           as CatalogPagedViewHolder
       holder.unbind()
     }
+
+    this.bookCovers.prefetchCancel(PREFETCH_GROUP)
+    this.prefetchedList = null
+    this.prefetchedTo = -1
+  }
+
+  companion object {
+
+    /**
+     * The name of the cover prefetch group used for paged feeds.
+     */
+
+    private const val PREFETCH_GROUP = "paged"
+
+    /**
+     * The number of entries below a bound entry whose thumbnails are prefetched.
+     */
+
+    const val ITEMS_AHEAD = 8
   }
 }
@@ -115,6 +115,7 @@ class AudioBookPlayerActivity :
   private lateinit var formatHandle: BookDatabaseEntryFormatHandleAudioBook
   private lateinit var http: LSHTTPClientType
   private lateinit var networkConnectivity: NetworkConnectivityType
+  private lateinit var networkSubscription: Disposable
   private lateinit var parameters: AudioBookPlayerParameters
   private lateinit var player: PlayerType
   private lateinit var playerScheduledExecutor: ScheduledExecutorService
@@ -274,6 +275,7 @@ class AudioBookPlayerActivity :
       }
 
       this.bookSubscription.dispose()
+      this.networkSubscription.dispose()
       this.playerSubscription.dispose()
 
       try {
@@ -394,7 +396,11 @@ class AudioBookPlayerActivity :
     this.playerInitialized = true
 
     this.restoreSavedPlayerPosition()
-    this.startAllPartsDownloading()
+    this.networkSubscription =
+      this.networkConnectivity.statusChanges
+        .map { status -> status.isAvailable }
+        .distinctUntilChanged()
+        .subscribe(this::onNetworkAvailabilityChanged)
 
     /*
      * Create and load the main player fragment into the holder view declared in the activity.
@@ -523,9 +529,24 @@ class AudioBookPlayerActivity :
     }
   }
 
-  private fun startAllPartsDownloading() {
-    if (this.networkConnectivity.isNetworkAvailable) {
-      this.book.wholeBookDownloadTask.fetch()
+  /**
+   * Pause downloads when the network is lost, and resume them when it returns. The status
+   * observable publishes the current status on subscription, and so this also starts the
+   * initial downloads.
+   */
+
+  private fun onNetworkAvailabilityChanged(available: Boolean) {
+    this.uiThread.runOnUIThread {
+      if (this.destroying) {
+        return@runOnUIThread
+      }
+      if (available) {
+        this.log.debug("network available: downloading all parts")
+        this.book.wholeBookDownloadTask.fetch()
+      } else {
+        this.log.debug("network lost: pausing downloads")
+        this.cancelAllDownloads()
+      }
     }
   }
 